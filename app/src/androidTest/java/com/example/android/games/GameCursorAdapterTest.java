@@ -0,0 +1,169 @@
+package com.example.android.games;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.DisplayMetrics;
+import android.view.View;
+import android.widget.ListView;
+
+import com.example.android.games.data.GameContract.GameEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Binding rows in {@link GameCursorAdapter} must not allocate once the views have been bound
+ * a few times, for rows without box art and for rows bound again to the view that shows their
+ * box art. The rows are bound in a list that is measured and laid out, as in the catalog, but
+ * only the binding is counted, not the layout that follows it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameCursorAdapterTest {
+
+    /** Number of rows of the cursor, and of times each row is bound while counting */
+    private static final int ROW_COUNT = 20;
+
+    @Test
+    public void bindingRowsWithoutBoxArtAllocatesNothing() {
+        final MatrixCursor cursor = newCursor(false);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                Context context = InstrumentationRegistry.getTargetContext();
+                final GameCursorAdapter adapter = new GameCursorAdapter(context, cursor);
+                final ListView list = newListView(context, adapter);
+                layOut(list, 1);
+
+                // As when scrolling: the first row's view is bound to every other row. Let the
+                // buffers grow to fit every row first.
+                final View view = list.getChildAt(0);
+                bindAll(adapter, list, view);
+                layOut(list, 1);
+
+                int allocations = 0;
+                for (int pass = 0; pass < ROW_COUNT; pass++) {
+                    allocations += countAllocations(new Runnable() {
+                        @Override
+                        public void run() {
+                            bindAll(adapter, list, view);
+                        }
+                    });
+                    layOut(list, 1);
+                }
+                assertEquals(0, allocations);
+            }
+        });
+    }
+
+    @Test
+    public void bindingRowsAgainWithTheirBoxArtAllocatesNothing() {
+        final MatrixCursor cursor = newCursor(true);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                Context context = InstrumentationRegistry.getTargetContext();
+                final GameCursorAdapter adapter = new GameCursorAdapter(context, cursor);
+                final ListView list = newListView(context, adapter);
+                layOut(list, ROW_COUNT);
+                assertEquals(ROW_COUNT, list.getChildCount());
+
+                // As after a change of the cursor: every visible row is bound again
+                int allocations = 0;
+                for (int pass = 0; pass < ROW_COUNT; pass++) {
+                    allocations += countAllocations(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (int i = 0; i < ROW_COUNT; i++) {
+                                adapter.getView(i, list.getChildAt(i), list);
+                            }
+                        }
+                    });
+                    layOut(list, ROW_COUNT);
+                }
+                assertEquals(0, allocations);
+            }
+        });
+    }
+
+    /**
+     * Returns a cursor of games with names and brands of different lengths, every other one
+     * without a brand, and with or without box art.
+     */
+    private static MatrixCursor newCursor(boolean withBoxArt) {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                GameEntry._ID,
+                GameEntry.COLUMN_GAME_NAME,
+                GameEntry.COLUMN_GAME_BRAND,
+                GameEntry.COLUMN_GAME_IMAGE });
+        StringBuilder name = new StringBuilder("Game");
+        for (int i = 0; i < ROW_COUNT; i++) {
+            name.append(' ').append(i);
+            cursor.addRow(new Object[] {
+                    i + 1,
+                    name.toString(),
+                    i % 2 == 0 ? null : "Brand " + i,
+                    withBoxArt ? "content://media/external/images/media/" + (1000 + i) : null });
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns a list of the rows of the given adapter, as the catalog shows them.
+     */
+    private static ListView newListView(Context context, GameCursorAdapter adapter) {
+        ListView list = new ListView(context);
+        list.setAdapter(adapter);
+        return list;
+    }
+
+    /**
+     * Measure and lay out the given list as wide as the screen and as high as the given number
+     * of screens, so the rows are bound, measured and laid out as they are in the catalog.
+     * Every row is lower than the screen, so a list as high as {@link #ROW_COUNT} screens shows
+     * every row.
+     */
+    private static void layOut(ListView list, int screens) {
+        DisplayMetrics metrics = list.getResources().getDisplayMetrics();
+        int width = metrics.widthPixels;
+        int height = metrics.heightPixels * screens;
+        list.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        list.layout(0, 0, width, height);
+    }
+
+    /**
+     * Bind the given view of the list to every row, as the list does when it is scrolled.
+     */
+    private static void bindAll(GameCursorAdapter adapter, ListView list, View view) {
+        for (int i = 0; i < ROW_COUNT; i++) {
+            adapter.getView(i, view, list);
+        }
+    }
+
+    /**
+     * Returns the number of objects the current thread allocates while doing the given work.
+     * The allocation counts of Debug are deprecated, but they are the only ones that count
+     * the allocations of a single thread: the runtime stats of Debug count those of every thread
+     * of the app, the thumbnail loader's included.
+     */
+    @SuppressWarnings("deprecation")
+    private static int countAllocations(Runnable work) {
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            work.run();
+            return Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private static void runOnMainThread(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+}
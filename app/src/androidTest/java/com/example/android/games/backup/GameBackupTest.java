@@ -0,0 +1,301 @@
+package com.example.android.games.backup;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract;
+import com.example.android.games.data.GameContract.ArchivedGameEntry;
+import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.data.GameContract.InventoryEntry;
+import com.example.android.games.data.GameContract.SaleEntry;
+import com.example.android.games.data.GameDbHelper;
+import com.example.android.games.data.GameTestFixture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Backups of the games database and the archive database, taken while the app uses them, and
+ * their restore.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameBackupTest {
+
+    /** Store the sales of the tests are made in */
+    private static final String STORE = "Main street";
+
+    /** Number of games added to make a backup take a while */
+    private static final int FILLER_COUNT = 5000;
+
+    @Rule
+    public final GameTestFixture mFixture = new GameTestFixture();
+
+    private Context mContext;
+    private ContentResolver mContentResolver;
+    private GameDbHelper mDbHelper;
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mContext = mFixture.getContext();
+        mContentResolver = mFixture.getContentResolver();
+        mDbHelper = mFixture.getDbHelper();
+        mDirectory = new File(mContext.getCacheDir(), "backup_test");
+        deleteDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory();
+    }
+
+    @Test
+    public void databaseUsesWriteAheadLoggingWhereBackupsCanCopyIt() {
+        String mode = DatabaseUtils.stringForQuery(mDbHelper.getWritableDatabase(),
+                "PRAGMA journal_mode", null).toLowerCase();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            assertEquals("wal", mode);
+        } else {
+            assertNotEquals("wal", mode);
+        }
+    }
+
+    @Test
+    public void restoreReturnsTheBackedUpGames() throws IOException {
+        insertGame("Catan");
+        GameBackup backup = new GameBackup(mContext, mDirectory);
+        backup.backup(true);
+        insertGame("Carcassonne");
+        backup.backup();
+        insertGame("Azul");
+
+        backup.restore();
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        assertEquals(2, DatabaseUtils.queryNumEntries(db, GameEntry.TABLE_NAME));
+        assertEquals(0, countGames(db, GameEntry.TABLE_NAME, "Azul"));
+        assertEquals("ok", DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null));
+    }
+
+    @Test
+    public void restoreReturnsTheArchiveOfTheBackup() throws IOException {
+        long id = insertGame("Catan");
+        insertGame("Carcassonne");
+        SystemClock.sleep(10);
+        Bundle extras = new Bundle();
+        extras.putLong(GameContract.EXTRA_WINDOW_MILLIS, 0);
+        assertEquals(2, mContentResolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_ARCHIVE,
+                null, extras).getInt(GameContract.EXTRA_COUNT));
+        GameBackup backup = new GameBackup(mContext, mDirectory);
+        backup.backup();
+        assertTrue(unarchive(id));
+
+        // The game is in the archive again, and only there, so it can come back once more
+        backup.restore();
+        assertEquals(0, countGames(mDbHelper.getWritableDatabase(), GameEntry.TABLE_NAME, "Catan"));
+        assertEquals(1, countGames(mDbHelper.getArchiveDatabase(), ArchivedGameEntry.TABLE_NAME,
+                "Catan"));
+        assertTrue(unarchive(id));
+        assertEquals(1, countGames(mDbHelper.getWritableDatabase(), GameEntry.TABLE_NAME, "Catan"));
+    }
+
+    @Test
+    public void corruptBackupIsRejected() throws IOException {
+        insertGame("Catan");
+        GameBackup backup = new GameBackup(mContext, mDirectory);
+        backup.backup(true);
+        insertGame("Carcassonne");
+
+        // A page changed without its checksum, in a file that is still a valid archive
+        File file = new File(mDirectory, "shop-1.gz");
+        byte[] content = readCompressed(file);
+        content[content.length / 2] ^= 0xff;
+        writeCompressed(file, content);
+
+        assertRestoreFails(backup);
+    }
+
+    @Test
+    public void truncatedBackupIsRejected() throws IOException {
+        insertGame("Catan");
+        GameBackup backup = new GameBackup(mContext, mDirectory);
+        backup.backup(true);
+        insertGame("Carcassonne");
+
+        File file = new File(mDirectory, "shop-1.gz");
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(out.length() / 2);
+        } finally {
+            out.close();
+        }
+
+        assertRestoreFails(backup);
+    }
+
+    @Test
+    public void salesGoOnWhileBackingUp() throws Exception {
+        long id = insertGame("Catan");
+        int initialStock = 100000;
+        changeStock(GameContract.METHOD_RESTOCK, id, initialStock);
+        insertFillerGames();
+
+        final GameBackup backup = new GameBackup(mContext, mDirectory);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        int salesDuringBackup = 0;
+        try {
+            Future<GameBackup.Result> result = executor.submit(new Callable<GameBackup.Result>() {
+                @Override
+                public GameBackup.Result call() throws IOException {
+                    return backup.backup(true);
+                }
+            });
+            while (!result.isDone()) {
+                assertTrue(changeStock(GameContract.METHOD_SELL, id, 1)
+                        .getBoolean(GameContract.EXTRA_SUCCESS));
+                if (!result.isDone()) {
+                    salesDuringBackup++;
+                }
+            }
+            assertTrue(result.get().pages > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(salesDuringBackup > 0);
+
+        // The backup holds the stock and the ledger as of one moment, whatever sold meanwhile
+        backup.restore();
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long stock = DatabaseUtils.longForQuery(db, "SELECT "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " FROM " + InventoryEntry.TABLE_NAME
+                + " WHERE " + InventoryEntry.COLUMN_INVENTORY_GAME_ID + " = ?",
+                new String[] { String.valueOf(id) });
+        long sold = DatabaseUtils.longForQuery(db, "SELECT IFNULL(SUM("
+                + SaleEntry.COLUMN_SALE_QUANTITY + "), 0) FROM " + SaleEntry.TABLE_NAME
+                + " WHERE " + SaleEntry.COLUMN_SALE_GAME_ID + " = ?",
+                new String[] { String.valueOf(id) });
+        assertEquals(initialStock, stock + sold);
+        assertEquals("ok", DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null));
+    }
+
+    /**
+     * Check that restoring the backup fails and leaves the two games of the database as they
+     * are.
+     */
+    private void assertRestoreFails(GameBackup backup) {
+        try {
+            backup.restore();
+            fail("The backup should be rejected");
+        } catch (IOException expected) {
+        }
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDbHelper.getWritableDatabase(),
+                GameEntry.TABLE_NAME));
+    }
+
+    private long insertGame(String name) {
+        return mFixture.insertGame(name, "Brand", GameEntry.DEMOGRAPHIC_FAMILY, 20);
+    }
+
+    /**
+     * Add {@link #FILLER_COUNT} games straight to the database, in one transaction.
+     */
+    private void insertFillerGames() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < FILLER_COUNT; i++) {
+                ContentValues values = GameTestFixture.newGame("Game " + i, "Brand " + i,
+                        GameEntry.DEMOGRAPHIC_FAMILY, i);
+                values.put(GameEntry.COLUMN_GAME_IMAGE,
+                        "content://media/external/images/media/" + i);
+                db.insertOrThrow(GameEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private Bundle changeStock(String method, long id, int quantity) {
+        Bundle extras = new Bundle();
+        extras.putLong(GameContract.EXTRA_GAME_ID, id);
+        extras.putString(GameContract.EXTRA_STORE, STORE);
+        extras.putInt(GameContract.EXTRA_QUANTITY, quantity);
+        return mContentResolver.call(GameEntry.CONTENT_URI, method, null, extras);
+    }
+
+    private boolean unarchive(long id) {
+        Bundle extras = new Bundle();
+        extras.putLong(GameContract.EXTRA_GAME_ID, id);
+        return mContentResolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_UNARCHIVE, null,
+                extras).getBoolean(GameContract.EXTRA_SUCCESS);
+    }
+
+    private static long countGames(SQLiteDatabase db, String table, String name) {
+        return DatabaseUtils.queryNumEntries(db, table, GameEntry.COLUMN_GAME_NAME + " = ?",
+                new String[] { name });
+    }
+
+    private static byte[] readCompressed(File file) throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(file));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeCompressed(File file, byte[] content) throws IOException {
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.games.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.TextUtils;
+
+import com.example.android.games.data.GameContract.GameEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * The in-memory replica of the games table, which must hold the same games as the table
+ * after every insert, update and delete, and after a transaction that is rolled back.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameDbHelperReplicaTest {
+
+    /** Database file of the tests */
+    private static final String DATABASE_NAME = "replica_test.db";
+
+    private Context mContext;
+    private GameDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+    private String mReplicaTable;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new GameDbHelper(mContext, DATABASE_NAME, GameDbHelper.DATABASE_VERSION, true);
+        mDatabase = mDbHelper.getWritableDatabase();
+        mReplicaTable = mDbHelper.getGamesTableForReading();
+        assertNotEquals(GameEntry.TABLE_NAME, mReplicaTable);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void insertsReachTheReplica() {
+        insertGame("Catan", 30);
+        insertGame("Azul", 25);
+        assertInSync(2);
+    }
+
+    @Test
+    public void updatesReachTheReplica() {
+        long id = insertGame("Catan", 30);
+        insertGame("Azul", 25);
+
+        ContentValues values = new ContentValues();
+        values.put(GameEntry.COLUMN_GAME_NAME, "Catan: Cities & Knights");
+        values.put(GameEntry.COLUMN_GAME_DIRTY, 0);
+        mDatabase.update(GameEntry.TABLE_NAME, values, GameEntry._ID + " = " + id, null);
+        assertInSync(2);
+        assertEquals("Catan: Cities & Knights", DatabaseUtils.stringForQuery(mDatabase, "SELECT "
+                + GameEntry.COLUMN_GAME_NAME + " FROM " + mReplicaTable
+                + " WHERE " + GameEntry._ID + " = " + id, null));
+
+        // An update of several games at once
+        mDatabase.execSQL("UPDATE " + GameEntry.TABLE_NAME + " SET "
+                + GameEntry.COLUMN_GAME_PRICE + " = " + GameEntry.COLUMN_GAME_PRICE + " + 5");
+        assertInSync(2);
+    }
+
+    @Test
+    public void deletesReachTheReplica() {
+        long id = insertGame("Catan", 30);
+        insertGame("Azul", 25);
+        insertGame("Carcassonne", 20);
+
+        mDatabase.delete(GameEntry.TABLE_NAME, GameEntry._ID + " = " + id, null);
+        assertInSync(2);
+        mDatabase.delete(GameEntry.TABLE_NAME, null, null);
+        assertInSync(0);
+    }
+
+    @Test
+    public void rolledBackChangesLeaveTheReplica() {
+        long id = insertGame("Catan", 30);
+        mDatabase.beginTransaction();
+        try {
+            insertGame("Azul", 25);
+            mDatabase.delete(GameEntry.TABLE_NAME, GameEntry._ID + " = " + id, null);
+        } finally {
+            mDatabase.endTransaction();
+        }
+        assertInSync(1);
+    }
+
+    @Test
+    public void reopenedDatabaseLoadsTheReplica() {
+        insertGame("Catan", 30);
+        insertGame("Azul", 25);
+        mDbHelper.close();
+
+        mDatabase = mDbHelper.getWritableDatabase();
+        assertInSync(2);
+        insertGame("Carcassonne", 20);
+        assertInSync(3);
+    }
+
+    private long insertGame(String name, int price) {
+        ContentValues values = new ContentValues();
+        values.put(GameEntry.COLUMN_GAME_NAME, name);
+        values.put(GameEntry.COLUMN_GAME_BRAND, "Brand");
+        values.put(GameEntry.COLUMN_GAME_DEMOGRAPHIC, GameEntry.DEMOGRAPHIC_FAMILY);
+        values.put(GameEntry.COLUMN_GAME_PRICE, price);
+        return mDatabase.insertOrThrow(GameEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Check that the games table and the replica hold the given number of games, with the
+     * same values in every column of the replica.
+     */
+    private void assertInSync(int gameCount) {
+        String columns = TextUtils.join(", ", replicaColumns());
+        assertEquals(gameCount, DatabaseUtils.queryNumEntries(mDatabase, GameEntry.TABLE_NAME));
+        assertEquals(gameCount, DatabaseUtils.queryNumEntries(mDatabase, mReplicaTable));
+        assertEquals(0, DatabaseUtils.longForQuery(mDatabase, "SELECT COUNT(*) FROM (SELECT "
+                + columns + " FROM main." + GameEntry.TABLE_NAME + " EXCEPT SELECT "
+                + columns + " FROM " + mReplicaTable + ")", null));
+    }
+
+    private List<String> replicaColumns() {
+        List<String> columns = new ArrayList<String>();
+        Cursor cursor = mDatabase.rawQuery("PRAGMA table_info(" + mReplicaTable + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.android.games.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract.GameEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The sort keys and the sections of the games, which are computed again in the background
+ * when the language of the device changes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameDbHelperSortKeyTest {
+
+    /** Database file of the tests */
+    private static final String DATABASE_NAME = "sort_key_test.db";
+
+    /** German sorts "Ö" as "O", Swedish sorts it as a letter of its own after "Z" */
+    private static final Locale GERMAN = Locale.GERMANY;
+    private static final Locale SWEDISH = new Locale("sv", "SE");
+
+    /** Start of the names of the games that only make the rebuild take several batches */
+    private static final String FILLER_PREFIX = "Game ";
+
+    private Context mContext;
+    private Locale mDefaultLocale;
+    private GameDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDefaultLocale = Locale.getDefault();
+        Locale.setDefault(GERMAN);
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new GameDbHelper(mContext, DATABASE_NAME, GameDbHelper.DATABASE_VERSION, false);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        Locale.setDefault(mDefaultLocale);
+    }
+
+    @Test
+    public void localeChangeRebuildsSortKeys() throws Exception {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int fillerCount = Migration.BATCH_SIZE + 50;
+        insertGames(db, fillerCount);
+        assertEquals(Arrays.asList("Ökolopoly", "Orléans", "Zooloretto"),
+                listGames(db, GameEntry.COLUMN_GAME_NAME));
+        assertEquals(Arrays.asList("O", "O", "Z"), listGames(db, GameEntry.COLUMN_GAME_SECTION));
+        assertEquals(Arrays.asList("G", "O", "Z"), listSections(db));
+
+        Locale.setDefault(SWEDISH);
+        mDbHelper.checkSortKeyLocale().get();
+        mDbHelper.awaitMigration(GameDbHelper.VERSION_SORT_KEYS);
+        mDbHelper.awaitMigration(GameDbHelper.VERSION_SECTION_KEYS);
+
+        assertEquals(Arrays.asList("Orléans", "Zooloretto", "Ökolopoly"),
+                listGames(db, GameEntry.COLUMN_GAME_NAME));
+        assertEquals(Arrays.asList("O", "Z", "Ö"), listGames(db, GameEntry.COLUMN_GAME_SECTION));
+        assertEquals(Arrays.asList("G", "O", "Z", "Ö"), listSections(db));
+        assertEquals(SWEDISH.toString(), DatabaseUtils.stringForQuery(db, "SELECT "
+                + GameSchema.COLUMN_SORT_KEY_LOCALE + " FROM " + GameSchema.TABLE_SORT_KEY_LOCALE,
+                null));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, GameSchema.TABLE_MIGRATIONS));
+
+        // Every batch was rebuilt, not only the first one
+        Collator collator = Collator.getInstance(SWEDISH);
+        Cursor cursor = db.query(GameEntry.TABLE_NAME, new String[] {
+                GameEntry.COLUMN_GAME_NAME, GameEntry.COLUMN_GAME_SORT_KEY,
+                GameEntry.COLUMN_GAME_SECTION, GameEntry.COLUMN_GAME_SECTION_KEY },
+                null, null, null, null, null);
+        try {
+            assertEquals(fillerCount + 3, cursor.getCount());
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(0);
+                String section = GameEntry.section(collator, name);
+                assertArrayEquals(name, GameEntry.sortKey(collator, name), cursor.getBlob(1));
+                assertEquals(name, section, cursor.getString(2));
+                assertArrayEquals(name, GameEntry.sectionKey(collator, section),
+                        cursor.getBlob(3));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // The section index was kept up to date by the updates, not built again
+        assertEquals(GameSchema.CREATE_SECTION_INDEX, DatabaseUtils.stringForQuery(db,
+                "SELECT sql FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[] { GameSchema.INDEX_SECTION }));
+        assertEquals("ok", DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null));
+    }
+
+    @Test
+    public void sameLocaleKeepsSortKeys() throws Exception {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        insertGames(db, 0);
+        mDbHelper.checkSortKeyLocale().get();
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, GameSchema.TABLE_MIGRATIONS));
+        assertEquals(Arrays.asList("Ökolopoly", "Orléans", "Zooloretto"),
+                listGames(db, GameEntry.COLUMN_GAME_NAME));
+        assertEquals(Arrays.asList("O", "O", "Z"), listGames(db, GameEntry.COLUMN_GAME_SECTION));
+    }
+
+    /**
+     * Insert the given number of games in section "G" and then three games whose sections
+     * depend on the language, with the sections and keys the provider gives them.
+     */
+    private static void insertGames(SQLiteDatabase db, int fillerCount) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < fillerCount; i++) {
+                insertGame(db, FILLER_PREFIX + i);
+            }
+            insertGame(db, "Zooloretto");
+            insertGame(db, "Ökolopoly");
+            insertGame(db, "Orléans");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void insertGame(SQLiteDatabase db, String name) {
+        Collator collator = Collator.getInstance();
+        String section = GameEntry.section(collator, name);
+        ContentValues values = new ContentValues();
+        values.put(GameEntry.COLUMN_GAME_NAME, name);
+        values.put(GameEntry.COLUMN_GAME_DEMOGRAPHIC, GameEntry.DEMOGRAPHIC_FAMILY);
+        values.put(GameEntry.COLUMN_GAME_SECTION, section);
+        values.put(GameEntry.COLUMN_GAME_SECTION_KEY, GameEntry.sectionKey(collator, section));
+        values.put(GameEntry.COLUMN_GAME_SORT_KEY, GameEntry.sortKey(collator, name));
+        db.insertOrThrow(GameEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Returns the given column of the games other than the filler games, in
+     * {@link GameEntry#SORT_ORDER_SECTIONS}.
+     */
+    private static List<String> listGames(SQLiteDatabase db, String column) {
+        return readColumn(db.query(GameEntry.TABLE_NAME, new String[] { column },
+                GameEntry.COLUMN_GAME_NAME + " NOT LIKE ?", new String[] { FILLER_PREFIX + "%" },
+                null, null, GameEntry.SORT_ORDER_SECTIONS));
+    }
+
+    /**
+     * Returns the sections of the games in the order the provider lists them.
+     */
+    private static List<String> listSections(SQLiteDatabase db) {
+        String order = GameEntry.COLUMN_GAME_SECTION_KEY + ", " + GameEntry.COLUMN_GAME_SECTION;
+        return readColumn(db.query(GameEntry.TABLE_NAME,
+                new String[] { GameEntry.COLUMN_GAME_SECTION }, null, null, order, null, order));
+    }
+
+    private static List<String> readColumn(Cursor cursor) {
+        List<String> values = new ArrayList<String>();
+        try {
+            while (cursor.moveToNext()) {
+                values.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return values;
+    }
+}
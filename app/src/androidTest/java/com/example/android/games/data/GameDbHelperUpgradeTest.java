@@ -0,0 +1,298 @@
+package com.example.android.games.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract.GameEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Upgrades of the games database from every older version to the current one, and a
+ * background backfill that is interrupted and carries on the next time the database is opened.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameDbHelperUpgradeTest {
+
+    /** Database file upgraded by the tests */
+    private static final String DATABASE_NAME = "upgrade_test.db";
+
+    /** Database file created at the current version, to compare the upgraded schema with */
+    private static final String FRESH_DATABASE_NAME = "upgrade_test_fresh.db";
+
+    /** Schema of the games table in version 1 */
+    private static final String CREATE_VERSION_1 = "CREATE TABLE " + GameEntry.TABLE_NAME + " ("
+            + GameEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + GameEntry.COLUMN_GAME_NAME + " TEXT NOT NULL, "
+            + GameEntry.COLUMN_GAME_BRAND + " TEXT, "
+            + GameEntry.COLUMN_GAME_DEMOGRAPHIC + " INTEGER NOT NULL, "
+            + GameEntry.COLUMN_GAME_PRICE + " INTEGER NOT NULL DEFAULT 0);";
+
+    private Context mContext;
+    private final List<GameDbHelper> mHelpers = new ArrayList<GameDbHelper>();
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        for (GameDbHelper helper : mHelpers) {
+            helper.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromEveryOlderVersion() {
+        Map<String, String> expectedSchema = readSchema(
+                openHelper(FRESH_DATABASE_NAME, GameDbHelper.DATABASE_VERSION).getWritableDatabase());
+
+        for (int version = 1; version < GameDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(DATABASE_NAME);
+            createVersion1(3);
+            if (version > 1) {
+                openUpgraded(version).close();
+            }
+
+            GameDbHelper helper = openUpgraded(GameDbHelper.DATABASE_VERSION);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            String from = "Upgrade from version " + version;
+            assertEquals(from, expectedSchema, readSchema(db));
+            assertEquals(from, 0, DatabaseUtils.queryNumEntries(db, GameSchema.TABLE_MIGRATIONS));
+            assertBackfilled(db, 3);
+            helper.close();
+        }
+    }
+
+    @Test
+    public void interruptedBackfillCarriesOn() {
+        int gameCount = Migration.BATCH_SIZE * 2 + 200;
+        GameDbHelper helper = openInterruptedBackfill(gameCount);
+        SQLiteDatabase db = helper.getWritableDatabase();
+
+        // The first batch is kept, and the rest is left for the next time
+        assertEquals(Migration.BATCH_SIZE, DatabaseUtils.longForQuery(db, "SELECT "
+                + GameSchema.COLUMN_MIGRATION_AFTER_ID + " FROM " + GameSchema.TABLE_MIGRATIONS
+                + " WHERE " + GameSchema.COLUMN_MIGRATION_VERSION + " = "
+                + GameDbHelper.VERSION_NATURAL_KEY, null));
+        assertNotNull(naturalKey(db, Migration.BATCH_SIZE));
+        assertNull(naturalKey(db, Migration.BATCH_SIZE + 1));
+        db.execSQL("DROP TRIGGER interrupt_backfill");
+        helper.close();
+
+        helper = openHelper(DATABASE_NAME, GameDbHelper.VERSION_NATURAL_KEY);
+        db = helper.getWritableDatabase();
+        helper.awaitMigration(GameDbHelper.VERSION_NATURAL_KEY);
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, GameSchema.TABLE_MIGRATIONS));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, GameEntry.TABLE_NAME,
+                GameEntry.COLUMN_GAME_NATURAL_KEY + " IS NULL"));
+
+        // The copy of the first game in the last batch is kept apart from it
+        String naturalKey = GameEntry.naturalKey("Catan", "Kosmos");
+        assertEquals(naturalKey, naturalKey(db, 1));
+        assertEquals(naturalKey + "#" + gameCount, naturalKey(db, gameCount));
+    }
+
+    @Test
+    public void gameAddedDuringBackfillLeavesTheKeyToTheOlderGame() {
+        int gameCount = Migration.BATCH_SIZE * 2 + 200;
+        GameDbHelper helper = openInterruptedBackfill(gameCount);
+        SQLiteDatabase db = helper.getWritableDatabase();
+
+        // The app adds a copy of a game the backfill hasn't reached yet, with the key that game
+        // is going to get
+        long olderId = Migration.BATCH_SIZE + 100;
+        String naturalKey = GameEntry.naturalKey("Game " + olderId, "Brand " + olderId % 10);
+        ContentValues values = new ContentValues();
+        values.put(GameEntry.COLUMN_GAME_NAME, "Game " + olderId);
+        values.put(GameEntry.COLUMN_GAME_BRAND, "Brand " + olderId % 10);
+        values.put(GameEntry.COLUMN_GAME_DEMOGRAPHIC, GameEntry.DEMOGRAPHIC_FAMILY);
+        values.put(GameEntry.COLUMN_GAME_NATURAL_KEY, naturalKey);
+        long newerId = db.insertOrThrow(GameEntry.TABLE_NAME, null, values);
+        db.execSQL("DROP TRIGGER interrupt_backfill");
+        helper.close();
+
+        helper = openHelper(DATABASE_NAME, GameDbHelper.VERSION_NATURAL_KEY);
+        db = helper.getWritableDatabase();
+        helper.awaitMigration(GameDbHelper.VERSION_NATURAL_KEY);
+        assertEquals(naturalKey, naturalKey(db, olderId));
+        assertEquals(naturalKey + "#" + newerId, naturalKey(db, newerId));
+    }
+
+    /**
+     * Create the database file as version 1 with the given number of games, and open it at
+     * {@link GameDbHelper#VERSION_NATURAL_KEY} with the backfill of the natural keys failing on
+     * its second batch, as if the app was stopped. The trigger that makes it fail is left in
+     * place.
+     */
+    private GameDbHelper openInterruptedBackfill(int gameCount) {
+        long failingId = Migration.BATCH_SIZE + 200;
+        createVersion1(gameCount);
+        openUpgraded(GameDbHelper.VERSION_NATURAL_KEY - 1).close();
+
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+        db.execSQL("CREATE TRIGGER interrupt_backfill BEFORE UPDATE ON " + GameEntry.TABLE_NAME
+                + " WHEN NEW." + GameEntry._ID + " = " + failingId
+                + " BEGIN SELECT RAISE(ABORT, 'interrupted'); END");
+        db.close();
+
+        GameDbHelper helper = openHelper(DATABASE_NAME, GameDbHelper.VERSION_NATURAL_KEY);
+        helper.getWritableDatabase();
+        try {
+            helper.awaitMigration(GameDbHelper.VERSION_NATURAL_KEY);
+            fail("The backfill should have been interrupted");
+        } catch (IllegalStateException expected) {
+        }
+        return helper;
+    }
+
+    /**
+     * Create the database file as version 1 of the app did, with the given number of games.
+     * The first and the last game are the same game, spelled differently.
+     */
+    private void createVersion1(int gameCount) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL(CREATE_VERSION_1);
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + GameEntry.TABLE_NAME
+                    + " (" + GameEntry.COLUMN_GAME_NAME + ", " + GameEntry.COLUMN_GAME_BRAND + ", "
+                    + GameEntry.COLUMN_GAME_DEMOGRAPHIC + ", " + GameEntry.COLUMN_GAME_PRICE
+                    + ") VALUES (?, ?, ?, ?)");
+            db.beginTransaction();
+            try {
+                for (int i = 1; i <= gameCount; i++) {
+                    if (i == 1) {
+                        insert.bindString(1, "Catan");
+                        insert.bindString(2, "Kosmos");
+                    } else if (i == gameCount) {
+                        insert.bindString(1, "  catan ");
+                        insert.bindString(2, "KOSMOS");
+                    } else {
+                        insert.bindString(1, "Game " + i);
+                        insert.bindString(2, "Brand " + i % 10);
+                    }
+                    insert.bindLong(3, GameEntry.DEMOGRAPHIC_FAMILY);
+                    insert.bindLong(4, i);
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                insert.close();
+            }
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Open the test database at the given version, and wait for the background work of the
+     * upgrade to be done.
+     */
+    private GameDbHelper openUpgraded(int version) {
+        GameDbHelper helper = openHelper(DATABASE_NAME, version);
+        helper.getWritableDatabase();
+        for (int step = 1; step <= version; step++) {
+            helper.awaitMigration(step);
+        }
+        return helper;
+    }
+
+    private GameDbHelper openHelper(String name, int version) {
+        GameDbHelper helper = new GameDbHelper(mContext, name, version);
+        mHelpers.add(helper);
+        return helper;
+    }
+
+    /**
+     * Check that every game has the values the background work computes, and that the first
+     * and the last game are kept apart.
+     */
+    private static void assertBackfilled(SQLiteDatabase db, int gameCount) {
+        String[] columns = {
+                GameEntry.COLUMN_GAME_GUID,
+                GameEntry.COLUMN_GAME_NATURAL_KEY,
+                GameEntry.COLUMN_GAME_SECTION,
+                GameEntry.COLUMN_GAME_SECTION_KEY,
+                GameEntry.COLUMN_GAME_SORT_KEY,
+                GameEntry.COLUMN_GAME_BRAND_KEY };
+        for (String column : columns) {
+            assertEquals(column, 0, DatabaseUtils.queryNumEntries(db, GameEntry.TABLE_NAME,
+                    column + " IS NULL"));
+        }
+        String naturalKey = GameEntry.naturalKey("Catan", "Kosmos");
+        assertEquals(naturalKey, naturalKey(db, 1));
+        assertEquals(naturalKey + "#" + gameCount, naturalKey(db, gameCount));
+    }
+
+    private static String naturalKey(SQLiteDatabase db, long id) {
+        return DatabaseUtils.stringForQuery(db, "SELECT " + GameEntry.COLUMN_GAME_NATURAL_KEY
+                + " FROM " + GameEntry.TABLE_NAME + " WHERE " + GameEntry._ID + " = " + id, null);
+    }
+
+    /**
+     * Returns the schema of the database: the columns of every table, and the SQL of every
+     * index and trigger. Columns added by an upgrade come last in their table, so they are
+     * compared without their order.
+     */
+    private static Map<String, String> readSchema(SQLiteDatabase db) {
+        Map<String, String> schema = new TreeMap<String, String>();
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name <> 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                String type = cursor.getString(0);
+                String name = cursor.getString(1);
+                if ("table".equals(type)) {
+                    schema.put(type + " " + name, readColumns(db, name));
+                } else {
+                    schema.put(type + " " + name, cursor.getString(2));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+
+    private static String readColumns(SQLiteDatabase db, String table) {
+        TreeSet<String> columns = new TreeSet<String>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                // Name, type, not null, default value and primary key
+                columns.add(cursor.getString(1) + " " + cursor.getString(2) + " "
+                        + cursor.getInt(3) + " " + cursor.getString(4) + " " + cursor.getInt(5));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns.toString();
+    }
+}
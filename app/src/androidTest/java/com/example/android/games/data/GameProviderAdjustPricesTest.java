@@ -0,0 +1,162 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract.GameEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Price changes made with {@link GameContract#METHOD_ADJUST_PRICES}: how the new prices are
+ * rounded and clamped, and how the arguments of the selection are numbered after the
+ * parameters of the statement itself.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameProviderAdjustPricesTest {
+
+    @Rule
+    public final GameTestFixture mFixture = new GameTestFixture();
+
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void setUp() {
+        mContentResolver = mFixture.getContentResolver();
+    }
+
+    @Test
+    public void percentIsRoundedToNearestByDefault() {
+        insertGame("Catan", 25);
+        insertGame("Azul", 15);
+
+        // 25 * 1.1 = 27.5 rounds away from zero, 15 * 1.1 = 16.5 too
+        assertEquals(2, adjustPrices(percent(10), null, null).getInt(GameContract.EXTRA_COUNT));
+        assertEquals(28, getPrice("Catan"));
+        assertEquals(17, getPrice("Azul"));
+    }
+
+    @Test
+    public void percentIsRoundedUpOrDown() {
+        insertGame("Catan", 21);
+
+        Bundle up = percent(10);
+        up.putString(GameContract.EXTRA_ROUNDING, GameContract.ROUNDING_UP);
+        adjustPrices(up, null, null);
+        assertEquals(24, getPrice("Catan"));
+
+        Bundle down = percent(-10);
+        down.putString(GameContract.EXTRA_ROUNDING, GameContract.ROUNDING_DOWN);
+        adjustPrices(down, null, null);
+        assertEquals(21, getPrice("Catan"));
+
+        // A whole result isn't rounded up any further
+        Bundle exact = percent(50);
+        exact.putString(GameContract.EXTRA_ROUNDING, GameContract.ROUNDING_UP);
+        insertGame("Azul", 10);
+        adjustPrices(exact, GameEntry.COLUMN_GAME_NAME + " = ?", new String[] { "Azul" });
+        assertEquals(15, getPrice("Azul"));
+    }
+
+    @Test
+    public void pricesAreClampedToZero() {
+        insertGame("Catan", 10);
+        insertGame("Azul", 30);
+
+        assertEquals(2, adjustPrices(amount(-20), null, null).getInt(GameContract.EXTRA_COUNT));
+        assertEquals(0, getPrice("Catan"));
+        assertEquals(10, getPrice("Azul"));
+
+        adjustPrices(percent(-150), null, null);
+        assertEquals(0, getPrice("Azul"));
+    }
+
+    @Test
+    public void selectionArgumentsFollowTheStatementParameters() {
+        insertGame("Catan", 10);
+        insertGame("Azul", 20);
+        insertGame("Carcassonne", 30);
+
+        // The plain "?" are numbered 3 and 4, after the adjustment and the change time
+        Bundle result = adjustPrices(amount(5), GameEntry.COLUMN_GAME_NAME + " = ? OR "
+                + GameEntry.COLUMN_GAME_PRICE + " > ?", new String[] { "Catan", "25" });
+
+        assertEquals(2, result.getInt(GameContract.EXTRA_COUNT));
+        assertEquals(15, getPrice("Catan"));
+        assertEquals(20, getPrice("Azul"));
+        assertEquals(35, getPrice("Carcassonne"));
+    }
+
+    @Test
+    public void invalidAdjustmentsAreRejected() {
+        insertGame("Catan", 10);
+
+        Bundle both = amount(5);
+        both.putDouble(GameContract.EXTRA_PERCENT, 5);
+        assertRejected(both);
+        assertRejected(new Bundle());
+
+        Bundle fraction = new Bundle();
+        fraction.putDouble(GameContract.EXTRA_AMOUNT, 1.5);
+        assertRejected(fraction);
+
+        Bundle rounding = percent(10);
+        rounding.putString(GameContract.EXTRA_ROUNDING, "sideways");
+        assertRejected(rounding);
+
+        assertEquals(10, getPrice("Catan"));
+    }
+
+    private void insertGame(String name, int price) {
+        mFixture.insertGame(name, "Brand", GameEntry.DEMOGRAPHIC_FAMILY, price);
+    }
+
+    private static Bundle percent(double percent) {
+        Bundle extras = new Bundle();
+        extras.putDouble(GameContract.EXTRA_PERCENT, percent);
+        return extras;
+    }
+
+    private static Bundle amount(int amount) {
+        Bundle extras = new Bundle();
+        extras.putInt(GameContract.EXTRA_AMOUNT, amount);
+        return extras;
+    }
+
+    private Bundle adjustPrices(Bundle extras, String selection, String[] selectionArgs) {
+        extras.putString(GameContract.EXTRA_SELECTION, selection);
+        extras.putStringArray(GameContract.EXTRA_SELECTION_ARGS, selectionArgs);
+        return mContentResolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_ADJUST_PRICES,
+                null, extras);
+    }
+
+    private void assertRejected(Bundle extras) {
+        try {
+            adjustPrices(extras, null, null);
+            fail("The adjustment " + extras + " should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private int getPrice(String name) {
+        Cursor cursor = mContentResolver.query(GameEntry.CONTENT_URI,
+                new String[] { GameEntry.COLUMN_GAME_PRICE }, GameEntry.COLUMN_GAME_NAME + " = ?",
+                new String[] { name }, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                fail("No game " + name);
+            }
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
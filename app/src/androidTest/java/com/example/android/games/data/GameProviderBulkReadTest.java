@@ -0,0 +1,159 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract.GameEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads of the games in chunks with {@link GameContract#METHOD_BULK_READ}, resumed from the
+ * last ID of the previous chunk.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameProviderBulkReadTest {
+
+    /** Number of games the tests read */
+    private static final int GAME_COUNT = 10;
+
+    @Rule
+    public final GameTestFixture mFixture = new GameTestFixture();
+
+    private ContentResolver mContentResolver;
+    private List<Long> mIds;
+
+    @Before
+    public void setUp() {
+        mContentResolver = mFixture.getContentResolver();
+        mIds = new ArrayList<Long>();
+        for (int i = 0; i < GAME_COUNT; i++) {
+            mIds.add(mFixture.insertGame("Game " + i, "Brand", GameEntry.DEMOGRAPHIC_FAMILY, i));
+        }
+    }
+
+    @Test
+    public void chunksResumeWhereThePreviousOneStopped() {
+        List<Long> ids = new ArrayList<Long>();
+        List<String> names = new ArrayList<String>();
+        long afterId = 0;
+        int chunks = 0;
+        boolean hasMore = true;
+        while (hasMore) {
+            Bundle result = bulkRead(afterId, 3, null);
+            long[] chunkIds = result.getLongArray(GameContract.EXTRA_IDS);
+            assertTrue(chunkIds.length <= 3);
+            for (int i = 0; i < chunkIds.length; i++) {
+                ids.add(chunkIds[i]);
+            }
+            names.addAll(Arrays.asList(result.getStringArray(GameContract.EXTRA_NAMES)));
+            afterId = result.getLong(GameContract.EXTRA_NEXT_AFTER_ID);
+            hasMore = result.getBoolean(GameContract.EXTRA_HAS_MORE);
+            chunks++;
+        }
+
+        assertEquals(4, chunks);
+        assertEquals(mIds, ids);
+        assertEquals("Game 0", names.get(0));
+        assertEquals("Game 9", names.get(GAME_COUNT - 1));
+    }
+
+    @Test
+    public void lastFullChunkHasNoMore() {
+        Bundle result = bulkRead(mIds.get(GAME_COUNT - 4), 3, null);
+
+        assertEquals(3, result.getLongArray(GameContract.EXTRA_IDS).length);
+        assertFalse(result.getBoolean(GameContract.EXTRA_HAS_MORE));
+        assertEquals((long) mIds.get(GAME_COUNT - 1),
+                result.getLong(GameContract.EXTRA_NEXT_AFTER_ID));
+    }
+
+    @Test
+    public void resumedReadSeesChangesMadeInBetween() {
+        Bundle first = bulkRead(0, 5, null);
+        long afterId = first.getLong(GameContract.EXTRA_NEXT_AFTER_ID);
+        assertEquals((long) mIds.get(4), afterId);
+
+        // A game behind the read is deleted, one ahead of it too, and a new one is added
+        mContentResolver.delete(ContentUris.withAppendedId(GameEntry.CONTENT_URI, mIds.get(0)),
+                null, null);
+        mContentResolver.delete(ContentUris.withAppendedId(GameEntry.CONTENT_URI, mIds.get(6)),
+                null, null);
+        long added = mFixture.insertGame("Game 10", "Brand", GameEntry.DEMOGRAPHIC_FAMILY, 10);
+
+        Bundle second = bulkRead(afterId, 10, null);
+        long[] ids = second.getLongArray(GameContract.EXTRA_IDS);
+        assertEquals(6, ids.length);
+        assertEquals((long) mIds.get(5), ids[0]);
+        assertEquals((long) mIds.get(7), ids[1]);
+        assertEquals(added, ids[5]);
+        assertFalse(second.getBoolean(GameContract.EXTRA_HAS_MORE));
+    }
+
+    @Test
+    public void chunksOfAFilteredReadOnlyHoldMatchingGames() {
+        Bundle extras = new Bundle();
+        extras.putString(GameContract.EXTRA_SELECTION, GameEntry.COLUMN_GAME_PRICE + " % 2 = ?");
+        extras.putStringArray(GameContract.EXTRA_SELECTION_ARGS, new String[] { "1" });
+
+        Bundle first = bulkRead(0, 2, extras);
+        assertEquals(Arrays.asList("Game 1", "Game 3"),
+                Arrays.asList(first.getStringArray(GameContract.EXTRA_NAMES)));
+        assertTrue(first.getBoolean(GameContract.EXTRA_HAS_MORE));
+
+        Bundle second = bulkRead(first.getLong(GameContract.EXTRA_NEXT_AFTER_ID), 2, extras);
+        assertEquals(Arrays.asList("Game 5", "Game 7"),
+                Arrays.asList(second.getStringArray(GameContract.EXTRA_NAMES)));
+        int[] prices = second.getIntArray(GameContract.EXTRA_PRICES);
+        assertEquals(5, prices[0]);
+        assertEquals(7, prices[1]);
+    }
+
+    @Test
+    public void chunkIsCutShortByItsSize() {
+        // Each of these names takes about 16KB in a parcel, so 256KB holds less than 20
+        char[] longName = new char[8000];
+        Arrays.fill(longName, 'x');
+        for (int i = 0; i < 30; i++) {
+            mFixture.insertGame(new String(longName) + i, "Brand", GameEntry.DEMOGRAPHIC_FAMILY, i);
+        }
+
+        long afterId = mIds.get(GAME_COUNT - 1);
+        int read = 0;
+        int chunks = 0;
+        boolean hasMore = true;
+        while (hasMore) {
+            Bundle result = bulkRead(afterId, 100, null);
+            int count = result.getLongArray(GameContract.EXTRA_IDS).length;
+            assertTrue(count > 0);
+            assertEquals(count, result.getStringArray(GameContract.EXTRA_NAMES).length);
+            read += count;
+            afterId = result.getLong(GameContract.EXTRA_NEXT_AFTER_ID);
+            hasMore = result.getBoolean(GameContract.EXTRA_HAS_MORE);
+            chunks++;
+        }
+        assertEquals(30, read);
+        assertTrue(chunks > 1);
+    }
+
+    private Bundle bulkRead(long afterId, int limit, Bundle filter) {
+        Bundle extras = filter != null ? new Bundle(filter) : new Bundle();
+        extras.putLong(GameContract.EXTRA_AFTER_ID, afterId);
+        extras.putInt(GameContract.EXTRA_LIMIT, limit);
+        return mContentResolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_BULK_READ, null,
+                extras);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract.GameEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Notification batches opened by clients with {@link GameContract#METHOD_BEGIN_BATCH}: the
+ * changes are notified once when the batch closes, or when it times out, even if nothing else
+ * changes by then.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameProviderNotificationBatchTest {
+
+    /** Timeout of the batches of the tests */
+    private static final long TIMEOUT_MILLIS = 300;
+
+    /** Time to wait for notifications that must not come */
+    private static final long QUIET_MILLIS = 500;
+
+    @Rule
+    public final GameTestFixture mFixture = new GameTestFixture();
+
+    private ContentResolver mContentResolver;
+    private final AtomicInteger mNotifications = new AtomicInteger();
+    private final CountDownLatch mNotified = new CountDownLatch(1);
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mNotifications.incrementAndGet();
+            mNotified.countDown();
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mContentResolver = mFixture.getContentResolver();
+        mFixture.getProvider().setNotificationBatchTimeout(TIMEOUT_MILLIS);
+        mContentResolver.registerContentObserver(GameEntry.CONTENT_URI, true, mObserver);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.unregisterContentObserver(mObserver);
+    }
+
+    @Test
+    public void closedBatchNotifiesOnce() throws InterruptedException {
+        long token = beginBatch();
+        insertGame("Catan");
+        insertGame("Azul");
+        SystemClock.sleep(QUIET_MILLIS / 5);
+        assertEquals(0, mNotifications.get());
+
+        endBatch(token);
+        assertTrue(mNotified.await(5, TimeUnit.SECONDS));
+
+        // The timeout of the batch comes and goes without notifying again
+        SystemClock.sleep(TIMEOUT_MILLIS + QUIET_MILLIS);
+        assertEquals(1, mNotifications.get());
+    }
+
+    @Test
+    public void timedOutBatchNotifiesWithoutAnotherChange() throws InterruptedException {
+        long started = SystemClock.uptimeMillis();
+        long token = beginBatch();
+        insertGame("Catan");
+
+        // The client never closes its batch, and nothing else changes
+        assertTrue(mNotified.await(5, TimeUnit.SECONDS));
+        assertTrue(SystemClock.uptimeMillis() - started >= TIMEOUT_MILLIS);
+        SystemClock.sleep(QUIET_MILLIS);
+        assertEquals(1, mNotifications.get());
+
+        // Closing it late changes nothing
+        endBatch(token);
+        SystemClock.sleep(QUIET_MILLIS);
+        assertEquals(1, mNotifications.get());
+    }
+
+    @Test
+    public void openBatchHoldsBackAnExpiredOne() throws InterruptedException {
+        long first = beginBatch();
+        insertGame("Catan");
+        SystemClock.sleep(TIMEOUT_MILLIS / 2);
+        long second = beginBatch();
+
+        // The first batch times out, but the second one still holds the change back
+        SystemClock.sleep(TIMEOUT_MILLIS / 2 + TIMEOUT_MILLIS / 5);
+        assertEquals(0, mNotifications.get());
+
+        endBatch(second);
+        assertTrue(mNotified.await(5, TimeUnit.SECONDS));
+        endBatch(first);
+        SystemClock.sleep(QUIET_MILLIS);
+        assertEquals(1, mNotifications.get());
+    }
+
+    private void insertGame(String name) {
+        mFixture.insertGame(name, "Brand", GameEntry.DEMOGRAPHIC_FAMILY, 20);
+    }
+
+    private long beginBatch() {
+        return mContentResolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_BEGIN_BATCH,
+                null, null).getLong(GameContract.EXTRA_BATCH_TOKEN);
+    }
+
+    private void endBatch(long token) {
+        Bundle extras = new Bundle();
+        extras.putLong(GameContract.EXTRA_BATCH_TOKEN, token);
+        mContentResolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_END_BATCH, null, extras);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.data.GameContract.QueryPlanEntry;
+import com.example.android.games.data.GameContract.SimilarGameEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.fail;
+
+/**
+ * The queries behind the screens of the app, made through {@link GameProvider}, must be
+ * answered from an index: no full scan of a table and no sort in a temporary B-tree.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameProviderQueryPlanTest {
+
+    /** Columns the catalog lists */
+    private static final String[] CATALOG_PROJECTION = {
+            GameEntry._ID,
+            GameEntry.COLUMN_GAME_NAME,
+            GameEntry.COLUMN_GAME_SECTION };
+
+    /** Grouping and order of the sections, in the order of the language */
+    private static final String SECTIONS_ORDER = GameEntry.COLUMN_GAME_SECTION_KEY + ", "
+            + GameEntry.COLUMN_GAME_SECTION;
+
+    @Rule
+    public final GameTestFixture mFixture = new GameTestFixture();
+
+    private ContentResolver mContentResolver;
+    private GameDbHelper mDbHelper;
+    private long mGameId;
+
+    @Before
+    public void setUp() {
+        mContentResolver = mFixture.getContentResolver();
+        mDbHelper = mFixture.getDbHelper();
+        mGameId = mFixture.insertGame("Catan", "Kosmos", GameEntry.DEMOGRAPHIC_FAMILY, 30);
+        setDiagnostics(true);
+    }
+
+    @After
+    public void tearDown() {
+        setDiagnostics(false);
+    }
+
+    @Test
+    public void catalogQueriesUseIndexes() {
+        String games = mDbHelper.getGamesTableForReading();
+        query(GameEntry.CONTENT_URI, CATALOG_PROJECTION, GameEntry.SORT_ORDER_SECTIONS);
+        query(GameEntry.SECTIONS_URI, null, null);
+        query(ContentUris.withAppendedId(GameEntry.CONTENT_URI, mGameId), CATALOG_PROJECTION,
+                null);
+
+        assertIndexed(
+                SQLiteQueryBuilder.buildQueryString(false, games, CATALOG_PROJECTION, null,
+                        null, null, GameEntry.SORT_ORDER_SECTIONS, null),
+                SQLiteQueryBuilder.buildQueryString(false, games, new String[] {
+                                GameEntry.COLUMN_GAME_SECTION, "COUNT(*) AS " + GameEntry._COUNT },
+                        null, SECTIONS_ORDER, null, SECTIONS_ORDER, null),
+                SQLiteQueryBuilder.buildQueryString(false, games, CATALOG_PROJECTION,
+                        GameEntry._ID + "=" + mGameId, null, null, null, null));
+
+        // Nothing else the catalog asked for reads a whole table either
+        QueryPlanAssert.assertNoFullScans(mContentResolver);
+    }
+
+    @Test
+    public void similarGamesQueryUsesIndexes() {
+        String games = mDbHelper.getGamesTableForReading();
+        String[] projection = { games + "." + GameEntry.COLUMN_GAME_NAME };
+        query(SimilarGameEntry.buildSimilarUri(mGameId), projection, null);
+
+        assertIndexed(SQLiteQueryBuilder.buildQueryString(false, SimilarGameEntry.TABLE_NAME
+                        + " JOIN " + games + " ON " + games + "." + GameEntry._ID + " = "
+                        + SimilarGameEntry.TABLE_NAME + "." + SimilarGameEntry.COLUMN_SIMILAR_ID,
+                projection, SimilarGameEntry.TABLE_NAME + "."
+                        + SimilarGameEntry.COLUMN_SIMILAR_GAME_ID + "=" + mGameId, null, null,
+                SimilarGameEntry.TABLE_NAME + "." + SimilarGameEntry.COLUMN_SIMILAR_RANK, null));
+    }
+
+    @Test
+    public void unindexedQueryFails() {
+        String[] projection = { GameEntry._ID };
+        String selection = GameEntry.COLUMN_GAME_PRICE + " > 10";
+        mContentResolver.query(GameEntry.CONTENT_URI, projection, selection, null, null).close();
+
+        try {
+            assertIndexed(SQLiteQueryBuilder.buildQueryString(false,
+                    mDbHelper.getGamesTableForReading(), projection, selection, null, null,
+                    null, null));
+        } catch (AssertionError expected) {
+            return;
+        }
+        fail("A query on a column without an index should fail the check");
+    }
+
+    private void query(Uri uri, String[] projection, String sortOrder) {
+        mContentResolver.query(uri, projection, null, null, sortOrder).close();
+    }
+
+    private void assertIndexed(String... queries) {
+        Cursor report = mContentResolver.query(QueryPlanEntry.CONTENT_URI, null, null, null, null);
+        try {
+            QueryPlanAssert.assertIndexed(report, queries);
+        } finally {
+            report.close();
+        }
+    }
+
+    private void setDiagnostics(boolean enabled) {
+        Bundle extras = new Bundle();
+        extras.putBoolean(GameContract.EXTRA_ENABLED, enabled);
+        mContentResolver.call(GameEntry.CONTENT_URI,
+                GameContract.METHOD_SET_QUERY_PLAN_DIAGNOSTICS, null, extras);
+    }
+}
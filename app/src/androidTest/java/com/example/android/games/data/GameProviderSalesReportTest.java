@@ -0,0 +1,223 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.data.GameContract.SaleEntry;
+import com.example.android.games.data.GameContract.SalesReportEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The daily sales reports per brand and per demographic, which the sales ledger keeps up to
+ * date as sales are made, and the ledger itself, which must refuse to be changed or deleted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameProviderSalesReportTest {
+
+    /** Store all the sales are made in */
+    private static final String STORE = "Main street";
+
+    @Rule
+    public final GameTestFixture mFixture = new GameTestFixture();
+
+    private ContentResolver mContentResolver;
+    private SQLiteDatabase mDatabase;
+    private long mCatan;
+    private long mCarcassonne;
+    private long mCodenames;
+    private long mUnbranded;
+
+    @Before
+    public void setUp() {
+        mContentResolver = mFixture.getContentResolver();
+        mDatabase = mFixture.getDatabase();
+        mCatan = mFixture.insertGame("Catan", "Kosmos", GameEntry.DEMOGRAPHIC_FAMILY, 30);
+        mCarcassonne = mFixture.insertGame("Carcassonne", "Kosmos",
+                GameEntry.DEMOGRAPHIC_CHILDREN, 20);
+        mCodenames = mFixture.insertGame("Codenames", "CGE", GameEntry.DEMOGRAPHIC_ADULT, 15);
+        mUnbranded = mFixture.insertGame("Go", null, GameEntry.DEMOGRAPHIC_ADULT, 10);
+        for (long id : new long[] { mCatan, mCarcassonne, mCodenames, mUnbranded }) {
+            changeStock(GameContract.METHOD_RESTOCK, id, 10);
+        }
+    }
+
+    @Test
+    public void reportByBrandAddsUpTheSalesOfEachBrand() {
+        sell(mCatan, 2);
+        sell(mCarcassonne, 3);
+        sell(mCodenames, 1);
+        sell(mUnbranded, 4);
+
+        Map<String, long[]> report = readReport(SalesReportEntry.BY_BRAND_URI,
+                SalesReportEntry.COLUMN_REPORT_BRAND);
+
+        // A game without a brand is reported under an empty brand
+        assertEquals(3, report.size());
+        assertTotals(5, 2 * 30 + 3 * 20, report.get("Kosmos"));
+        assertTotals(1, 15, report.get("CGE"));
+        assertTotals(4, 4 * 10, report.get(""));
+    }
+
+    @Test
+    public void reportByDemographicAddsUpTheSalesOfEachDemographic() {
+        sell(mCatan, 2);
+        sell(mCarcassonne, 3);
+        sell(mCodenames, 1);
+        sell(mUnbranded, 4);
+
+        Map<String, long[]> report = readReport(SalesReportEntry.BY_DEMOGRAPHIC_URI,
+                SalesReportEntry.COLUMN_REPORT_DEMOGRAPHIC);
+
+        assertEquals(3, report.size());
+        assertTotals(2, 2 * 30, report.get(String.valueOf(GameEntry.DEMOGRAPHIC_FAMILY)));
+        assertTotals(3, 3 * 20, report.get(String.valueOf(GameEntry.DEMOGRAPHIC_CHILDREN)));
+        assertTotals(5, 15 + 4 * 10, report.get(String.valueOf(GameEntry.DEMOGRAPHIC_ADULT)));
+    }
+
+    @Test
+    public void reportsKeepTheBrandDemographicAndPriceOfEachSale() {
+        sell(mCatan, 2);
+
+        // Later sales of the game count under its new brand, demographic and price
+        ContentValues values = new ContentValues();
+        values.put(GameEntry.COLUMN_GAME_BRAND, "Catan Studio");
+        values.put(GameEntry.COLUMN_GAME_DEMOGRAPHIC, GameEntry.DEMOGRAPHIC_ADULT);
+        values.put(GameEntry.COLUMN_GAME_PRICE, 40);
+        assertEquals(1, mContentResolver.update(GameEntry.CONTENT_URI, values,
+                GameEntry._ID + "=?", new String[] { String.valueOf(mCatan) }));
+        sell(mCatan, 1);
+
+        Map<String, long[]> byBrand = readReport(SalesReportEntry.BY_BRAND_URI,
+                SalesReportEntry.COLUMN_REPORT_BRAND);
+        assertTotals(2, 2 * 30, byBrand.get("Kosmos"));
+        assertTotals(1, 40, byBrand.get("Catan Studio"));
+
+        Map<String, long[]> byDemographic = readReport(SalesReportEntry.BY_DEMOGRAPHIC_URI,
+                SalesReportEntry.COLUMN_REPORT_DEMOGRAPHIC);
+        assertTotals(2, 2 * 30, byDemographic.get(String.valueOf(GameEntry.DEMOGRAPHIC_FAMILY)));
+        assertTotals(1, 40, byDemographic.get(String.valueOf(GameEntry.DEMOGRAPHIC_ADULT)));
+    }
+
+    @Test
+    public void ledgerRejectsUpdates() {
+        sell(mCatan, 2);
+
+        ContentValues values = new ContentValues();
+        values.put(SaleEntry.COLUMN_SALE_QUANTITY, 1);
+        try {
+            mDatabase.update(SaleEntry.TABLE_NAME, values, null, null);
+            fail("A sale in the ledger should not be changed");
+        } catch (SQLiteConstraintException expected) {
+        }
+
+        assertEquals(2, sumQuantity(SaleEntry.TABLE_NAME, SaleEntry.COLUMN_SALE_QUANTITY));
+        assertEquals(2, sumQuantity(SalesReportEntry.TABLE_BY_BRAND,
+                SalesReportEntry.COLUMN_REPORT_QUANTITY));
+        assertEquals(2, sumQuantity(SalesReportEntry.TABLE_BY_DEMOGRAPHIC,
+                SalesReportEntry.COLUMN_REPORT_QUANTITY));
+    }
+
+    @Test
+    public void ledgerRejectsDeletes() {
+        sell(mCatan, 2);
+
+        try {
+            mDatabase.delete(SaleEntry.TABLE_NAME, null, null);
+            fail("A sale in the ledger should not be deleted");
+        } catch (SQLiteConstraintException expected) {
+        }
+
+        // Deleting the game keeps its sales too
+        assertEquals(1, mContentResolver.delete(GameEntry.CONTENT_URI, GameEntry._ID + "=?",
+                new String[] { String.valueOf(mCatan) }));
+
+        assertEquals(2, sumQuantity(SaleEntry.TABLE_NAME, SaleEntry.COLUMN_SALE_QUANTITY));
+        assertEquals(2, sumQuantity(SalesReportEntry.TABLE_BY_BRAND,
+                SalesReportEntry.COLUMN_REPORT_QUANTITY));
+        assertEquals(2, sumQuantity(SalesReportEntry.TABLE_BY_DEMOGRAPHIC,
+                SalesReportEntry.COLUMN_REPORT_QUANTITY));
+    }
+
+    @Test
+    public void ledgerCanOnlyBeReadThroughTheProvider() {
+        Uri[] uris = { SaleEntry.CONTENT_URI, SalesReportEntry.BY_BRAND_URI,
+                SalesReportEntry.BY_DEMOGRAPHIC_URI };
+        for (Uri uri : uris) {
+            try {
+                mContentResolver.delete(uri, null, null);
+                fail("Deleting " + uri + " should not be supported");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private void sell(long gameId, int quantity) {
+        assertTrue(changeStock(GameContract.METHOD_SELL, gameId, quantity)
+                .getBoolean(GameContract.EXTRA_SUCCESS));
+    }
+
+    private Bundle changeStock(String method, long gameId, int quantity) {
+        Bundle extras = new Bundle();
+        extras.putLong(GameContract.EXTRA_GAME_ID, gameId);
+        extras.putString(GameContract.EXTRA_STORE, STORE);
+        extras.putInt(GameContract.EXTRA_QUANTITY, quantity);
+        return mContentResolver.call(GameEntry.CONTENT_URI, method, null, extras);
+    }
+
+    /**
+     * Returns the quantity and revenue of every key of the given report, added up over all its
+     * days, so a test running over midnight still sees every sale.
+     */
+    private Map<String, long[]> readReport(Uri uri, String keyColumn) {
+        Cursor cursor = mContentResolver.query(uri, new String[] { keyColumn,
+                SalesReportEntry.COLUMN_REPORT_QUANTITY, SalesReportEntry.COLUMN_REPORT_REVENUE },
+                null, null, null);
+        Map<String, long[]> totals = new HashMap<String, long[]>();
+        try {
+            while (cursor.moveToNext()) {
+                long[] total = totals.get(cursor.getString(0));
+                if (total == null) {
+                    total = new long[2];
+                    totals.put(cursor.getString(0), total);
+                }
+                total[0] += cursor.getLong(1);
+                total[1] += cursor.getLong(2);
+            }
+        } finally {
+            cursor.close();
+        }
+        return totals;
+    }
+
+    private static void assertTotals(long quantity, long revenue, long[] totals) {
+        assertEquals(quantity, totals[0]);
+        assertEquals(revenue, totals[1]);
+    }
+
+    /**
+     * Returns the number of copies sold according to the given ledger or report.
+     */
+    private long sumQuantity(String table, String quantityColumn) {
+        return DatabaseUtils.longForQuery(mDatabase, "SELECT IFNULL(SUM(" + quantityColumn
+                + "), 0) FROM " + table, null);
+    }
+}
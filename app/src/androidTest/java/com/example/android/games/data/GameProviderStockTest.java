@@ -0,0 +1,284 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.data.GameContract.InventoryEntry;
+import com.example.android.games.data.GameContract.SaleEntry;
+import com.example.android.games.data.GameContract.SalesReportEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Sales and restocks of the same game made through {@link GameProvider} from many threads at
+ * once: the stock must never go negative, and the stock, the ledger and the daily report must
+ * agree with the sales that went through, and the sales must not slow down as more tills sell
+ * at once. Also the quantities a sale accepts.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameProviderStockTest {
+
+    private static final String LOG_TAG = GameProviderStockTest.class.getSimpleName();
+
+    /** Store all the threads sell in */
+    private static final String STORE = "Main street";
+
+    /** Number of threads that sell or restock at the same time */
+    private static final int THREAD_COUNT = 8;
+
+    /** Number of calls each thread makes */
+    private static final int CALLS_PER_THREAD = 25;
+
+    /** Number of sales timed in each throughput run, shared among its threads */
+    private static final int TIMED_SALES = 400;
+
+    /**
+     * Share of the throughput of a single till that {@link #THREAD_COUNT} tills selling at once
+     * must keep at least. The sales still take turns to write, but they must not lose time
+     * waiting on each other or retrying.
+     */
+    private static final double MIN_CONCURRENT_SHARE = 0.5;
+
+    @Rule
+    public final GameTestFixture mFixture = new GameTestFixture();
+
+    private ContentResolver mContentResolver;
+    private SQLiteDatabase mDatabase;
+    private long mGameId;
+
+    @Before
+    public void setUp() {
+        mContentResolver = mFixture.getContentResolver();
+        mDatabase = mFixture.getDatabase();
+        mGameId = mFixture.insertGame("Catan", "Kosmos", GameEntry.DEMOGRAPHIC_FAMILY, 30);
+    }
+
+    @Test
+    public void concurrentSalesNeverOversell() throws Exception {
+        int initialStock = THREAD_COUNT * CALLS_PER_THREAD / 2;
+        assertTrue(changeStock(GameContract.METHOD_RESTOCK, initialStock)
+                .getBoolean(GameContract.EXTRA_SUCCESS));
+
+        List<Callable<Integer>> tills = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            tills.add(newTill(GameContract.METHOD_SELL, 1));
+        }
+        int sold = runAtOnce(tills);
+
+        // Twice as many sales were tried as there were copies: every copy is sold, no more
+        assertEquals(initialStock, sold);
+        assertEquals(0, readStock());
+        assertEquals(sold, sumSales(SaleEntry.TABLE_NAME, SaleEntry.COLUMN_SALE_GAME_ID,
+                SaleEntry.COLUMN_SALE_QUANTITY));
+        assertEquals(sold, sumSales(SalesReportEntry.TABLE_BY_GAME,
+                SalesReportEntry.COLUMN_REPORT_GAME_ID, SalesReportEntry.COLUMN_REPORT_QUANTITY));
+    }
+
+    @Test
+    public void concurrentSalesAndRestocksKeepStockExact() throws Exception {
+        int initialStock = 10;
+        changeStock(GameContract.METHOD_RESTOCK, initialStock);
+
+        List<Callable<Integer>> tills = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < THREAD_COUNT / 2; i++) {
+            tills.add(newTill(GameContract.METHOD_SELL, 2));
+            tills.add(newTill(GameContract.METHOD_RESTOCK, 1));
+        }
+        int changes = runAtOnce(tills);
+
+        // Every restock goes through, so the sales are the rest of the changes that went through
+        int restocked = THREAD_COUNT / 2 * CALLS_PER_THREAD;
+        int sold = 2 * (changes - restocked);
+        assertEquals(initialStock + restocked - sold, readStock());
+        assertEquals(sold, sumSales(SaleEntry.TABLE_NAME, SaleEntry.COLUMN_SALE_GAME_ID,
+                SaleEntry.COLUMN_SALE_QUANTITY));
+        assertEquals(sold, sumSales(SalesReportEntry.TABLE_BY_GAME,
+                SalesReportEntry.COLUMN_REPORT_GAME_ID, SalesReportEntry.COLUMN_REPORT_QUANTITY));
+    }
+
+    @Test
+    public void concurrentSalesKeepTheThroughputOfOneTill() throws Exception {
+        changeStock(GameContract.METHOD_RESTOCK, 3 * TIMED_SALES);
+
+        // Warm up the statements and the connections of the database
+        runAtOnce(tills(THREAD_COUNT, TIMED_SALES / 10));
+
+        double single = salesPerSecond(1);
+        double concurrent = salesPerSecond(THREAD_COUNT);
+        Log.i(LOG_TAG, String.format(Locale.US, "1 till: %.0f sales/s, %d tills: %.0f sales/s",
+                single, THREAD_COUNT, concurrent));
+        assertTrue("Concurrent sales slowed down to " + concurrent + " sales/s from " + single,
+                concurrent >= single * MIN_CONCURRENT_SHARE);
+    }
+
+    @Test
+    public void quantitiesOfOtherTypesAreRejected() {
+        changeStock(GameContract.METHOD_RESTOCK, 10);
+
+        // A long is a quantity like an int
+        Bundle extras = newExtras();
+        extras.putLong(GameContract.EXTRA_QUANTITY, 3L);
+        assertTrue(mContentResolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_SELL, null,
+                extras).getBoolean(GameContract.EXTRA_SUCCESS));
+        assertEquals(7, readStock());
+
+        Object[] quantities = { "3", 3.0, 0, -1L, (long) Integer.MAX_VALUE + 1 };
+        for (Object quantity : quantities) {
+            extras = newExtras();
+            if (quantity instanceof String) {
+                extras.putString(GameContract.EXTRA_QUANTITY, (String) quantity);
+            } else if (quantity instanceof Double) {
+                extras.putDouble(GameContract.EXTRA_QUANTITY, (Double) quantity);
+            } else if (quantity instanceof Integer) {
+                extras.putInt(GameContract.EXTRA_QUANTITY, (Integer) quantity);
+            } else {
+                extras.putLong(GameContract.EXTRA_QUANTITY, (Long) quantity);
+            }
+            try {
+                mContentResolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_SELL, null, extras);
+                fail("Quantity " + quantity + " should be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        assertEquals(7, readStock());
+        assertEquals(3, sumSales(SaleEntry.TABLE_NAME, SaleEntry.COLUMN_SALE_GAME_ID,
+                SaleEntry.COLUMN_SALE_QUANTITY));
+    }
+
+    /**
+     * Returns the number of sales per second of {@link #TIMED_SALES} single copies sold by the
+     * given number of tills at once. Every sale must go through.
+     */
+    private double salesPerSecond(int tillCount) throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        int sold = runAtOnce(tills(tillCount, TIMED_SALES / tillCount));
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+        assertEquals(TIMED_SALES / tillCount * tillCount, sold);
+        return sold * 1000.0 / elapsed;
+    }
+
+    /**
+     * Returns the given number of tasks that each sell a single copy the given number of times.
+     */
+    private List<Callable<Integer>> tills(int count, int calls) {
+        List<Callable<Integer>> tills = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < count; i++) {
+            tills.add(newTill(GameContract.METHOD_SELL, 1, calls));
+        }
+        return tills;
+    }
+
+    /**
+     * Returns a task that calls the given method {@link #CALLS_PER_THREAD} times and returns
+     * how many calls went through. Every call must return a stock of zero or more.
+     */
+    private Callable<Integer> newTill(String method, int quantity) {
+        return newTill(method, quantity, CALLS_PER_THREAD);
+    }
+
+    /**
+     * Returns a task that calls the given method the given number of times and returns how
+     * many calls went through. Every call must return a stock of zero or more.
+     */
+    private Callable<Integer> newTill(final String method, final int quantity, final int calls) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                int succeeded = 0;
+                for (int i = 0; i < calls; i++) {
+                    Bundle result = changeStock(method, quantity);
+                    assertTrue(result.getInt(GameContract.EXTRA_STOCK) >= 0);
+                    if (result.getBoolean(GameContract.EXTRA_SUCCESS)) {
+                        succeeded++;
+                    }
+                }
+                return succeeded;
+            }
+        };
+    }
+
+    /**
+     * Start the tasks at the same time, each on its own thread, and return the sum of their
+     * results. A failure on any thread fails the test.
+     */
+    private static int runAtOnce(List<Callable<Integer>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (final Callable<Integer> task : tasks) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        return task.call();
+                    }
+                }));
+            }
+            start.countDown();
+
+            int total = 0;
+            for (Future<Integer> future : futures) {
+                total += future.get();
+            }
+            return total;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Bundle changeStock(String method, int quantity) {
+        Bundle extras = newExtras();
+        extras.putInt(GameContract.EXTRA_QUANTITY, quantity);
+        return mContentResolver.call(GameEntry.CONTENT_URI, method, null, extras);
+    }
+
+    /**
+     * Returns the extras of a stock change of the game in the store, without a quantity.
+     */
+    private Bundle newExtras() {
+        Bundle extras = new Bundle();
+        extras.putLong(GameContract.EXTRA_GAME_ID, mGameId);
+        extras.putString(GameContract.EXTRA_STORE, STORE);
+        return extras;
+    }
+
+    private long readStock() {
+        return DatabaseUtils.longForQuery(mDatabase, "SELECT "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " FROM " + InventoryEntry.TABLE_NAME
+                + " WHERE " + InventoryEntry.COLUMN_INVENTORY_GAME_ID + " = ? AND "
+                + InventoryEntry.COLUMN_INVENTORY_STORE + " = ?",
+                new String[] { String.valueOf(mGameId), STORE });
+    }
+
+    /**
+     * Returns the number of copies of the game sold according to the given ledger or report.
+     */
+    private long sumSales(String table, String gameIdColumn, String quantityColumn) {
+        return DatabaseUtils.longForQuery(mDatabase, "SELECT IFNULL(SUM(" + quantityColumn
+                + "), 0) FROM " + table + " WHERE " + gameIdColumn + " = ?",
+                new String[] { String.valueOf(mGameId) });
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract.GameEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Filters on the tags of the games, given as query parameters of the games and sections URIs:
+ * the games must have all the tags of one mask, any of another, and none of a third.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameProviderTagFilterTest {
+
+    @Rule
+    public final GameTestFixture mFixture = new GameTestFixture();
+
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void setUp() {
+        mContentResolver = mFixture.getContentResolver();
+
+        insertGame("Azul", 0);
+        insertGame("Codenames", GameEntry.TAG_PARTY | GameEntry.TAG_WORD);
+        insertGame("Pandemic", GameEntry.TAG_COOP | GameEntry.TAG_STRATEGY);
+        insertGame("Hanabi", GameEntry.TAG_COOP | GameEntry.TAG_CARD);
+        insertGame("Dixit", GameEntry.TAG_PARTY | GameEntry.TAG_CARD);
+    }
+
+    @Test
+    public void allTagsMustMatch() {
+        assertGames(GameEntry.TAG_COOP, 0, 0, "Hanabi", "Pandemic");
+        assertGames(GameEntry.TAG_COOP | GameEntry.TAG_CARD, 0, 0, "Hanabi");
+        assertGames(GameEntry.TAG_COOP | GameEntry.TAG_PARTY, 0, 0);
+    }
+
+    @Test
+    public void anyTagMustMatch() {
+        assertGames(0, GameEntry.TAG_CARD | GameEntry.TAG_WORD, 0, "Codenames", "Dixit", "Hanabi");
+        assertGames(0, GameEntry.TAG_TRIVIA, 0);
+    }
+
+    @Test
+    public void noTagMayMatch() {
+        assertGames(0, 0, GameEntry.TAG_PARTY, "Azul", "Hanabi", "Pandemic");
+        assertGames(0, 0, GameEntry.TAG_PARTY | GameEntry.TAG_COOP, "Azul");
+    }
+
+    @Test
+    public void partsCombine() {
+        assertGames(GameEntry.TAG_CARD, GameEntry.TAG_COOP | GameEntry.TAG_PARTY,
+                GameEntry.TAG_COOP, "Dixit");
+        assertGames(0, GameEntry.TAG_COOP | GameEntry.TAG_PARTY, GameEntry.TAG_CARD,
+                "Codenames", "Pandemic");
+    }
+
+    @Test
+    public void filterCombinesWithSelection() {
+        Uri uri = GameEntry.withTagFilter(GameEntry.CONTENT_URI, 0, GameEntry.TAG_CARD, 0);
+        assertEquals(Arrays.asList("Dixit"), queryNames(uri,
+                GameEntry.COLUMN_GAME_NAME + " = ? OR " + GameEntry.COLUMN_GAME_NAME + " = ?",
+                new String[] { "Dixit", "Azul" }));
+    }
+
+    @Test
+    public void sectionsCountTheFilteredGames() {
+        Uri uri = GameEntry.withTagFilter(GameEntry.SECTIONS_URI, GameEntry.TAG_COOP, 0, 0);
+        Cursor cursor = mContentResolver.query(uri, null, null, null, null);
+        try {
+            int total = 0;
+            while (cursor.moveToNext()) {
+                total += cursor.getInt(cursor.getColumnIndexOrThrow(GameEntry._COUNT));
+            }
+            assertEquals(2, total);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void invalidFiltersAreRejected() {
+        String[] parameters = {
+                GameContract.QUERY_PARAMETER_TAGS_ALL,
+                GameContract.QUERY_PARAMETER_TAGS_ANY,
+                GameContract.QUERY_PARAMETER_TAGS_NONE };
+        String[] values = { "coop", "", "1.5", "-1", String.valueOf(1L << 40) };
+        for (String parameter : parameters) {
+            for (String value : values) {
+                assertRejected(GameEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(parameter, value).build());
+                assertRejected(GameEntry.SECTIONS_URI.buildUpon()
+                        .appendQueryParameter(parameter, value).build());
+            }
+        }
+    }
+
+    @Test
+    public void invalidTagsAreRejected() {
+        ContentValues values = GameTestFixture.newGame("Trivial Pursuit", "Brand",
+                GameEntry.DEMOGRAPHIC_FAMILY, 20);
+        values.put(GameEntry.COLUMN_GAME_TAGS, 1L << 40);
+        try {
+            mContentResolver.insert(GameEntry.CONTENT_URI, values);
+            fail("Unknown tags should be rejected on insert");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        long id = insertGame("Trivial Pursuit", GameEntry.TAG_TRIVIA);
+        ContentValues update = new ContentValues();
+        update.put(GameEntry.COLUMN_GAME_TAGS, -1L);
+        try {
+            mContentResolver.update(ContentUris.withAppendedId(GameEntry.CONTENT_URI, id), update,
+                    null, null);
+            fail("Unknown tags should be rejected on update");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertGames(GameEntry.TAG_TRIVIA, 0, 0, "Trivial Pursuit");
+    }
+
+    private long insertGame(String name, long tags) {
+        ContentValues values = GameTestFixture.newGame(name, "Brand", GameEntry.DEMOGRAPHIC_FAMILY, 20);
+        values.put(GameEntry.COLUMN_GAME_TAGS, tags);
+        return mFixture.insertGame(values);
+    }
+
+    /**
+     * Check that the filter matches the given games, listed by name.
+     */
+    private void assertGames(long all, long any, long none, String... names) {
+        Uri uri = GameEntry.withTagFilter(GameEntry.CONTENT_URI, all, any, none);
+        assertEquals(uri.toString(), Arrays.asList(names), queryNames(uri, null, null));
+    }
+
+    private List<String> queryNames(Uri uri, String selection, String[] selectionArgs) {
+        List<String> names = new ArrayList<String>();
+        Cursor cursor = mContentResolver.query(uri, new String[] { GameEntry.COLUMN_GAME_NAME },
+                selection, selectionArgs, GameEntry.COLUMN_GAME_NAME);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    private void assertRejected(Uri uri) {
+        try {
+            mContentResolver.query(uri, null, null, null, null).close();
+            fail("The filter of " + uri + " should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract.GameEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Upserts of games matched by natural key, one at a time with
+ * {@link GameContract#QUERY_PARAMETER_UPSERT} and in batches with
+ * {@link GameContract#METHOD_UPSERT}: what they report, and that a new game that breaks a
+ * constraint fails instead of passing for an unchanged one.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameProviderUpsertTest {
+
+    @Rule
+    public final GameTestFixture mFixture = new GameTestFixture();
+
+    private ContentResolver mContentResolver;
+    private Uri mUpsertUri;
+
+    @Before
+    public void setUp() {
+        mContentResolver = mFixture.getContentResolver();
+        mUpsertUri = GameEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(GameContract.QUERY_PARAMETER_UPSERT, "true").build();
+    }
+
+    @Test
+    public void upsertInsertsUpdatesOrLeavesAlone() {
+        long id = mFixture.insertGame("Catan", "Kosmos", GameEntry.DEMOGRAPHIC_FAMILY, 30);
+
+        Bundle result = upsert(newGame("Catan", 30), newGame("Catan", 35), newGame("Azul", 25));
+
+        // The first Catan is the game as it is, the second one changes its price
+        assertEquals(1, result.getInt(GameContract.EXTRA_INSERTED));
+        assertEquals(1, result.getInt(GameContract.EXTRA_UPDATED));
+        assertEquals(1, result.getInt(GameContract.EXTRA_UNCHANGED));
+        assertEquals(2, countGames(null, null));
+        assertEquals(1, countGames(GameEntry._ID + "=? AND " + GameEntry.COLUMN_GAME_PRICE
+                + "=35", new String[] { String.valueOf(id) }));
+    }
+
+    @Test
+    public void upsertOfAnUnchangedGameReturnsItsUri() {
+        long id = mFixture.insertGame("Catan", "Kosmos", GameEntry.DEMOGRAPHIC_FAMILY, 30);
+
+        Uri uri = mContentResolver.insert(mUpsertUri, newGame("Catan", 30));
+
+        assertEquals(ContentUris.withAppendedId(GameEntry.CONTENT_URI, id), uri);
+    }
+
+    @Test
+    public void newGameWithTheGuidOfAnotherFailsTheBatch() {
+        ContentValues catan = newGame("Catan", 30);
+        catan.put(GameEntry.COLUMN_GAME_GUID, "guid");
+        mFixture.insertGame(catan);
+
+        ContentValues azul = newGame("Azul", 25);
+        ContentValues carcassonne = newGame("Carcassonne", 20);
+        carcassonne.put(GameEntry.COLUMN_GAME_GUID, "guid");
+        try {
+            upsert(azul, carcassonne);
+            fail("A new game with the GUID of another should fail");
+        } catch (SQLiteConstraintException expected) {
+        }
+
+        // None of the batch is written
+        assertEquals(1, countGames(null, null));
+    }
+
+    @Test
+    public void newGameWithTheGuidOfAnotherFailsTheInsert() {
+        ContentValues catan = newGame("Catan", 30);
+        catan.put(GameEntry.COLUMN_GAME_GUID, "guid");
+        mFixture.insertGame(catan);
+
+        ContentValues azul = newGame("Azul", 25);
+        azul.put(GameEntry.COLUMN_GAME_GUID, "guid");
+        try {
+            mContentResolver.insert(mUpsertUri, azul);
+            fail("A new game with the GUID of another should fail");
+        } catch (SQLiteConstraintException expected) {
+        }
+        assertEquals(0, countGames(GameEntry.COLUMN_GAME_NAME + "=?", new String[] { "Azul" }));
+    }
+
+    private static ContentValues newGame(String name, int price) {
+        return GameTestFixture.newGame(name, "Kosmos", GameEntry.DEMOGRAPHIC_FAMILY, price);
+    }
+
+    private Bundle upsert(ContentValues... games) {
+        Bundle extras = new Bundle();
+        ArrayList<ContentValues> values = new ArrayList<ContentValues>();
+        for (ContentValues game : games) {
+            values.add(game);
+        }
+        extras.putParcelableArrayList(GameContract.EXTRA_VALUES, values);
+        return mContentResolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_UPSERT, null,
+                extras);
+    }
+
+    private long countGames(String selection, String[] selectionArgs) {
+        return DatabaseUtils.queryNumEntries(mFixture.getDatabase(), GameEntry.TABLE_NAME,
+                selection, selectionArgs);
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.games.data.GameContract.GameEntry;
+
+import org.junit.rules.ExternalResource;
+
+import java.io.File;
+
+/**
+ * Gives a test a games database of its own, with a {@link GameProvider} of its own in front of
+ * it, so the tests never touch the data of the app and don't depend on each other.
+ *
+ * The database files and preferences of the test are those of the app with a prefix. The
+ * context of the test is its own app context, so {@link GameDbHelper#getInstance} and the
+ * classes that use it open the test database. Its content resolver sends the calls to the
+ * provider of the test, and the change notifications to the system, where the observers
+ * registered through it are.
+ */
+public class GameTestFixture extends ExternalResource {
+
+    /** Prefix of the names of the database files and preferences of the tests */
+    private static final String PREFIX = "test.";
+
+    private TestContext mContext;
+    private GameProvider mProvider;
+
+    @Override
+    protected void before() {
+        Context targetContext = InstrumentationRegistry.getTargetContext();
+        mContext = new TestContext(targetContext);
+        deleteDatabases();
+
+        mProvider = new GameProvider();
+        ProviderInfo info = new ProviderInfo();
+        info.authority = GameContract.CONTENT_AUTHORITY;
+        mProvider.attachInfo(mContext, info);
+        mContext.mContentResolver.addProvider(GameContract.CONTENT_AUTHORITY, mProvider);
+    }
+
+    @Override
+    protected void after() {
+        mProvider.shutdown();
+        GameDbHelper.releaseInstance(mContext);
+        deleteDatabases();
+    }
+
+    /**
+     * Returns the context of the test, to give to the classes under test.
+     */
+    public Context getContext() {
+        return mContext;
+    }
+
+    /**
+     * Returns the content resolver of the test, which reaches the provider of the test.
+     */
+    public ContentResolver getContentResolver() {
+        return mContext.mContentResolver;
+    }
+
+    /**
+     * Returns the provider of the test.
+     */
+    public GameProvider getProvider() {
+        return mProvider;
+    }
+
+    /**
+     * Returns the database helper of the test database.
+     */
+    public GameDbHelper getDbHelper() {
+        return GameDbHelper.getInstance(mContext);
+    }
+
+    /**
+     * Returns the test database, to check what the provider wrote.
+     */
+    public SQLiteDatabase getDatabase() {
+        return getDbHelper().getWritableDatabase();
+    }
+
+    /**
+     * Returns the values of a new game with the given name, brand, demographic and price.
+     */
+    public static ContentValues newGame(String name, String brand, int demographic, int price) {
+        ContentValues values = new ContentValues();
+        values.put(GameEntry.COLUMN_GAME_NAME, name);
+        values.put(GameEntry.COLUMN_GAME_BRAND, brand);
+        values.put(GameEntry.COLUMN_GAME_DEMOGRAPHIC, demographic);
+        values.put(GameEntry.COLUMN_GAME_PRICE, price);
+        return values;
+    }
+
+    /**
+     * Insert a game with the given name, brand, demographic and price through the provider,
+     * and return its ID.
+     */
+    public long insertGame(String name, String brand, int demographic, int price) {
+        return insertGame(newGame(name, brand, demographic, price));
+    }
+
+    /**
+     * Insert a game with the given values through the provider, and return its ID.
+     */
+    public long insertGame(ContentValues values) {
+        return ContentUris.parseId(getContentResolver().insert(GameEntry.CONTENT_URI, values));
+    }
+
+    /**
+     * Delete the database files of the tests, with their journals and write-ahead logs.
+     */
+    private void deleteDatabases() {
+        File[] files = mContext.getDatabasePath(PREFIX).getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(PREFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * The app context of a test.
+     */
+    private static final class TestContext extends ContextWrapper {
+
+        final TestContentResolver mContentResolver;
+
+        TestContext(Context base) {
+            super(base);
+            mContentResolver = new TestContentResolver(base);
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public ContentResolver getContentResolver() {
+            return mContentResolver;
+        }
+
+        @Override
+        public File getDatabasePath(String name) {
+            return super.getDatabasePath(PREFIX + name);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                SQLiteDatabase.CursorFactory factory) {
+            return super.openOrCreateDatabase(PREFIX + name, mode, factory);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                SQLiteDatabase.CursorFactory factory, DatabaseErrorHandler errorHandler) {
+            return super.openOrCreateDatabase(PREFIX + name, mode, factory, errorHandler);
+        }
+
+        @Override
+        public boolean deleteDatabase(String name) {
+            return super.deleteDatabase(PREFIX + name);
+        }
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            return super.getSharedPreferences(PREFIX + name, mode);
+        }
+    }
+
+    /**
+     * Sends the calls to the provider of the test. A {@link MockContentResolver} drops the
+     * change notifications, but the observers register with the system whichever resolver
+     * they go through, so the notifications go to the system as well. The observers of the
+     * provider of the app get them too, and find nothing changed in the database of the app.
+     */
+    private static final class TestContentResolver extends MockContentResolver {
+
+        private final ContentResolver mSystemResolver;
+
+        TestContentResolver(Context context) {
+            super(context);
+            mSystemResolver = context.getContentResolver();
+        }
+
+        @Override
+        public void notifyChange(Uri uri, ContentObserver observer, boolean syncToNetwork) {
+            mSystemResolver.notifyChange(uri, observer, false);
+        }
+    }
+}
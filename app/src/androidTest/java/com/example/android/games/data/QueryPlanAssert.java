@@ -0,0 +1,87 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.games.data.GameContract.QueryPlanEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks of the query plans the provider records while its diagnostics are on, see
+ * {@link QueryPlanEntry}. Tests turn the diagnostics on, run the code under test and then call
+ * one of these.
+ */
+final class QueryPlanAssert {
+
+    private QueryPlanAssert() {}
+
+    /**
+     * Check the plans of the given queries in a report of {@link QueryPlanEntry#CONTENT_URI},
+     * and throw an {@link AssertionError} if one of them reads a whole table or sorts without
+     * an index, or wasn't recorded at all. The queries are compared by their shape, so they can
+     * be given as the SQL the provider runs.
+     */
+    static void assertIndexed(Cursor report, String... queries) {
+        // The plan of every flagged shape, and null for the shapes that are indexed
+        Map<String, String> plans = new HashMap<String, String>();
+        int shapeColumn = report.getColumnIndexOrThrow(QueryPlanEntry.COLUMN_SHAPE);
+        int planColumn = report.getColumnIndexOrThrow(QueryPlanEntry.COLUMN_PLAN);
+        int fullScanColumn = report.getColumnIndexOrThrow(QueryPlanEntry.COLUMN_FULL_SCAN);
+        int tempSortColumn = report.getColumnIndexOrThrow(QueryPlanEntry.COLUMN_TEMP_SORT);
+        report.moveToPosition(-1);
+        while (report.moveToNext()) {
+            boolean flagged = report.getInt(fullScanColumn) != 0
+                    || report.getInt(tempSortColumn) != 0;
+            plans.put(report.getString(shapeColumn),
+                    flagged ? report.getString(planColumn) : null);
+        }
+
+        StringBuilder failures = new StringBuilder();
+        for (String query : queries) {
+            String shape = QueryPlanMonitor.shapeOf(query);
+            if (!plans.containsKey(shape)) {
+                failures.append("\nQuery never run: ").append(shape);
+            } else if (plans.get(shape) != null) {
+                failures.append("\nQuery without a matching index: ").append(shape)
+                        .append('\n').append(plans.get(shape));
+            }
+        }
+        if (failures.length() > 0) {
+            throw new AssertionError("Unindexed queries:" + failures);
+        }
+    }
+
+    /**
+     * Check that none of the queries the provider recorded so far reads a whole table without
+     * an index or sorts without one.
+     *
+     * @throws AssertionError listing the shapes and plans of the flagged queries
+     */
+    static void assertNoFullScans(ContentResolver resolver) {
+        Cursor cursor = resolver.query(QueryPlanEntry.CONTENT_URI, null, null, null, null);
+        if (cursor == null) {
+            throw new AssertionError("No query plans");
+        }
+        StringBuilder flagged = new StringBuilder();
+        try {
+            int shapeColumn = cursor.getColumnIndexOrThrow(QueryPlanEntry.COLUMN_SHAPE);
+            int planColumn = cursor.getColumnIndexOrThrow(QueryPlanEntry.COLUMN_PLAN);
+            int fullScanColumn = cursor.getColumnIndexOrThrow(QueryPlanEntry.COLUMN_FULL_SCAN);
+            int tempSortColumn = cursor.getColumnIndexOrThrow(QueryPlanEntry.COLUMN_TEMP_SORT);
+            while (cursor.moveToNext()) {
+                if (cursor.getInt(fullScanColumn) != 0 || cursor.getInt(tempSortColumn) != 0) {
+                    flagged.append('\n').append(cursor.getString(shapeColumn))
+                            .append("\n    ").append(cursor.getString(planColumn)
+                                    .replace("\n", "\n    "));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (flagged.length() > 0) {
+            throw new AssertionError("Queries without a matching index:" + flagged);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.android.games.data;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract.GameEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Switches of a {@link QuerySwitcher} between filtered queries of the games, made faster than
+ * the queries deliver and while the games change: the listener must never be left with a
+ * closed cursor.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QuerySwitcherTest {
+
+    /** Longest time to wait for a query to deliver */
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /** Time after which a change notification has certainly been queried, if it ever is */
+    private static final long SETTLE_MILLIS = ObservableQuery.MAX_DELAY_MILLIS + 500;
+
+    @Rule
+    public final GameTestFixture mFixture = new GameTestFixture();
+
+    private ShownCursor mShown;
+    private QuerySwitcher mSwitcher;
+
+    @Before
+    public void setUp() {
+        mFixture.insertGame("Azul", "Plan B", GameEntry.DEMOGRAPHIC_FAMILY, 25);
+        mFixture.insertGame("Carcassonne", "Hans im Glück", GameEntry.DEMOGRAPHIC_FAMILY, 20);
+        mFixture.insertGame("Catan", "Kosmos", GameEntry.DEMOGRAPHIC_FAMILY, 30);
+        mShown = new ShownCursor();
+        mSwitcher = new QuerySwitcher(mShown);
+    }
+
+    @Test
+    public void switchingTwiceKeepsTheShownCursorOpen() {
+        final ObservableQuery all = newQuery(null);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mSwitcher.start(all);
+            }
+        });
+        awaitCount(3);
+
+        // Neither of the new queries can deliver before both switches are made
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mSwitcher.switchTo(newQuery("C"));
+                mSwitcher.switchTo(newQuery("Ca"));
+                mShown.check();
+            }
+        });
+        awaitCount(2);
+        stop();
+
+        assertFalse(mShown.mClosedWhileShown);
+    }
+
+    @Test
+    public void changeWhileSwitchingDoesNotRequeryTheReplacedQuery() {
+        final ObservableQuery all = newQuery(null);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mSwitcher.start(all);
+            }
+        });
+        awaitCount(3);
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mSwitcher.switchTo(newQuery("C"));
+                mFixture.insertGame("Codenames", "CGE", GameEntry.DEMOGRAPHIC_ADULT, 15);
+                mSwitcher.switchTo(newQuery("Co"));
+            }
+        });
+        awaitCount(1);
+        SystemClock.sleep(SETTLE_MILLIS);
+        stop();
+
+        // The replaced query stopped observing the games before Codenames was added
+        assertEquals(1, all.getQueryCount());
+        assertFalse(mShown.mClosedWhileShown);
+    }
+
+    @Test
+    public void stoppedQueryKeepsItsLastResult() {
+        final ObservableQuery all = newQuery(null);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                all.subscribe(mShown);
+            }
+        });
+        awaitCount(3);
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                all.stopObserving();
+            }
+        });
+        mFixture.insertGame("Codenames", "CGE", GameEntry.DEMOGRAPHIC_ADULT, 15);
+        SystemClock.sleep(SETTLE_MILLIS);
+
+        final int[] count = new int[1];
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mShown.check();
+                count[0] = mShown.mCursor.isClosed() ? -1 : mShown.mCursor.getCount();
+                all.close();
+            }
+        });
+        assertEquals(3, count[0]);
+        assertEquals(1, all.getQueryCount());
+        assertFalse(mShown.mClosedWhileShown);
+    }
+
+    /**
+     * Returns a query of the games whose name starts with the given prefix, or of all of them
+     * if it is null, compared by change time as the catalog is.
+     */
+    private ObservableQuery newQuery(String prefix) {
+        return new ObservableQuery(mFixture.getContext(), GameEntry.CONTENT_URI,
+                new String[] { GameEntry._ID, GameEntry.COLUMN_GAME_NAME },
+                prefix != null ? GameEntry.COLUMN_GAME_NAME + " LIKE ?" : null,
+                prefix != null ? new String[] { prefix + "%" } : null,
+                GameEntry.COLUMN_GAME_NAME, GameEntry.COLUMN_GAME_UPDATED_AT);
+    }
+
+    /**
+     * Wait until the listener shows a result with the given number of games.
+     */
+    private void awaitCount(final int count) {
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        final boolean[] shown = new boolean[1];
+        while (!shown[0]) {
+            assertTrue("No result with " + count + " games",
+                    SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(10);
+            runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mShown.check();
+                    shown[0] = mShown.mCursor != null && !mShown.mCursor.isClosed()
+                            && mShown.mCursor.getCount() == count;
+                }
+            });
+        }
+    }
+
+    private void stop() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mShown.check();
+                mShown.mCursor = null;
+                mSwitcher.stop(false);
+            }
+        });
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    /**
+     * Stands in for the adapter of the list: it shows the last cursor it was given, and notes
+     * whether that cursor was ever closed while it still showed it.
+     */
+    private static final class ShownCursor implements ObservableQuery.Listener {
+
+        Cursor mCursor;
+        boolean mClosedWhileShown;
+
+        @Override
+        public void onQueryResult(Cursor cursor) {
+            check();
+            mCursor = cursor;
+        }
+
+        /**
+         * Note whether the shown cursor is closed, on the main thread, as drawing the list
+         * would find out.
+         */
+        void check() {
+            if (mCursor != null && mCursor.isClosed()) {
+                mClosedWhileShown = true;
+            }
+        }
+    }
+}
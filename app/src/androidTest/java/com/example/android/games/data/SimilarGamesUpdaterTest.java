@@ -0,0 +1,136 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.data.GameContract.SimilarGameEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The lists of similar games kept by {@link SimilarGamesUpdater}, which follow the games as
+ * they are added, renamed, moved to another brand and deleted through {@link GameProvider}.
+ * The updater works in the background, so each check waits for the lists to settle.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SimilarGamesUpdaterTest {
+
+    /** Longest time to wait for the updater to catch up with a change, in milliseconds */
+    private static final long TIMEOUT_MS = 5000;
+
+    @Rule
+    public final GameTestFixture mFixture = new GameTestFixture();
+
+    private ContentResolver mContentResolver;
+
+    /** Catan and Carcassonne share a brand; Azul shares the demographic and price band of Catan */
+    private long mCatan;
+    private long mCarcassonne;
+    private long mAzul;
+    private long mChess;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        mContentResolver = mFixture.getContentResolver();
+
+        mCatan = mFixture.insertGame("Catan", "Kosmos", GameEntry.DEMOGRAPHIC_FAMILY, 30);
+        mCarcassonne = mFixture.insertGame("Carcassonne", "Kosmos", GameEntry.DEMOGRAPHIC_ADULT, 100);
+        mAzul = mFixture.insertGame("Azul", "Plan B", GameEntry.DEMOGRAPHIC_FAMILY, 31);
+        mChess = mFixture.insertGame("Chess", "Staunton", GameEntry.DEMOGRAPHIC_ADULT, 200);
+        assertSimilar(mCatan, "Carcassonne", "Azul");
+        assertSimilar(mCarcassonne, "Catan");
+        assertSimilar(mAzul, "Catan");
+        assertSimilar(mChess);
+    }
+
+    @Test
+    public void addedGameGetsIntoTheLists() throws InterruptedException {
+        long ticket = mFixture.insertGame("Ticket to Ride", "kosmos ", GameEntry.DEMOGRAPHIC_FAMILY, 28);
+
+        // Same brand, demographic and price band as Catan, so more similar than Carcassonne.
+        // Azul is as similar to both, and closer in price to Catan.
+        assertSimilar(ticket, "Catan", "Carcassonne", "Azul");
+        assertSimilar(mCatan, "Ticket to Ride", "Carcassonne", "Azul");
+        assertSimilar(mCarcassonne, "Catan", "Ticket to Ride");
+        assertSimilar(mAzul, "Catan", "Ticket to Ride");
+        assertSimilar(mChess);
+    }
+
+    @Test
+    public void renamedGameKeepsItsPlace() throws InterruptedException {
+        ContentValues values = new ContentValues();
+        values.put(GameEntry.COLUMN_GAME_NAME, "Settlers of Catan");
+        mContentResolver.update(ContentUris.withAppendedId(GameEntry.CONTENT_URI, mCatan), values,
+                null, null);
+
+        assertSimilar(mCatan, "Carcassonne", "Azul");
+        assertSimilar(mCarcassonne, "Settlers of Catan");
+        assertSimilar(mAzul, "Settlers of Catan");
+    }
+
+    @Test
+    public void gameMovedToAnotherBrandLeavesItsLists() throws InterruptedException {
+        ContentValues values = new ContentValues();
+        values.put(GameEntry.COLUMN_GAME_BRAND, "Staunton");
+        values.put(GameEntry.COLUMN_GAME_DEMOGRAPHIC, GameEntry.DEMOGRAPHIC_ADULT);
+        mContentResolver.update(ContentUris.withAppendedId(GameEntry.CONTENT_URI, mCarcassonne),
+                values, null, null);
+
+        assertSimilar(mCatan, "Azul");
+        assertSimilar(mCarcassonne, "Chess");
+        assertSimilar(mChess, "Carcassonne");
+    }
+
+    @Test
+    public void deletedGameLeavesTheLists() throws InterruptedException {
+        mContentResolver.delete(ContentUris.withAppendedId(GameEntry.CONTENT_URI, mCatan),
+                null, null);
+
+        assertSimilar(mCatan);
+        assertSimilar(mCarcassonne);
+        assertSimilar(mAzul);
+    }
+
+    /**
+     * Wait for the list of the given game to hold the given games, most similar first, and
+     * fail if it doesn't in time.
+     */
+    private void assertSimilar(long gameId, String... names) throws InterruptedException {
+        List<String> expected = Arrays.asList(names);
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        List<String> actual = readSimilar(gameId);
+        while (!expected.equals(actual) && SystemClock.elapsedRealtime() < deadline) {
+            Thread.sleep(50);
+            actual = readSimilar(gameId);
+        }
+        assertEquals(expected, actual);
+    }
+
+    private List<String> readSimilar(long gameId) {
+        List<String> names = new ArrayList<String>();
+        Cursor cursor = mContentResolver.query(SimilarGameEntry.buildSimilarUri(gameId),
+                new String[] { GameEntry.COLUMN_GAME_NAME }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+}
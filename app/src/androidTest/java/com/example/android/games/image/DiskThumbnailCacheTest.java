@@ -0,0 +1,167 @@
+package com.example.android.games.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Eviction of the thumbnails of a {@link DiskThumbnailCache}, and how it treats the temporary
+ * files thumbnails are written to.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DiskThumbnailCacheTest {
+
+    private File mDirectory;
+    private Bitmap mBitmap;
+
+    /** Size of the file of one thumbnail, in bytes */
+    private long mThumbnailBytes;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "test.thumbnails");
+        deleteDirectory();
+        mBitmap = Bitmap.createBitmap(64, 64, Bitmap.Config.RGB_565);
+        mBitmap.eraseColor(Color.RED);
+
+        // Every thumbnail of the tests is the same bitmap, so their files have the same size
+        new DiskThumbnailCache(mDirectory, Long.MAX_VALUE).put("probe", mBitmap);
+        File[] files = mDirectory.listFiles();
+        assertEquals(1, files.length);
+        mThumbnailBytes = files[0].length();
+        files[0].delete();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory();
+    }
+
+    @Test
+    public void leastRecentlyUsedThumbnailIsEvicted() {
+        DiskThumbnailCache cache = newCache(3);
+        putAged(cache, "a");
+        putAged(cache, "b");
+        putAged(cache, "c");
+        assertNotNull(cache.get("a"));
+
+        putAged(cache, "d");
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+    }
+
+    @Test
+    public void sizeFollowsFilesDeletedBehindTheCache() {
+        DiskThumbnailCache cache = newCache(3);
+        cache.put("a", mBitmap);
+        cache.put("b", mBitmap);
+        cache.put("c", mBitmap);
+
+        // The system may clear the cache directory while the app runs
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        cache.put("d", mBitmap);
+        cache.put("e", mBitmap);
+
+        assertNotNull(cache.get("d"));
+        assertNotNull(cache.get("e"));
+    }
+
+    @Test
+    public void thumbnailBeingWrittenIsNeitherEvictedNorCounted() throws IOException {
+        DiskThumbnailCache cache = newCache(3);
+        putAged(cache, "a");
+
+        // Another thread is slowly writing a thumbnail larger than the whole cache
+        File tempFile = new File(mDirectory, "other.tmp");
+        writeBytes(tempFile, (int) (4 * mThumbnailBytes));
+        tempFile.setLastModified(System.currentTimeMillis() - 50 * 1000);
+        putAged(cache, "b");
+        putAged(cache, "c");
+        putAged(cache, "d");
+
+        assertTrue(tempFile.exists());
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("d"));
+    }
+
+    @Test
+    public void onlyStaleTemporaryFilesAreDeletedOnOpen() throws IOException {
+        assertTrue(mDirectory.isDirectory());
+        File stale = new File(mDirectory, "stale.tmp");
+        writeBytes(stale, 100);
+        stale.setLastModified(System.currentTimeMillis() - 10 * 60 * 1000);
+        File fresh = new File(mDirectory, "fresh.tmp");
+        writeBytes(fresh, 100);
+
+        newCache(3).put("a", mBitmap);
+
+        assertFalse(stale.exists());
+        assertTrue(fresh.exists());
+    }
+
+    /**
+     * Returns a cache that holds the given number of thumbnails and half of another one, so it
+     * evicts a single thumbnail when one more is added, as it trims down to 90% of its limit.
+     */
+    private DiskThumbnailCache newCache(int thumbnails) {
+        return new DiskThumbnailCache(mDirectory, thumbnails * mThumbnailBytes
+                + mThumbnailBytes / 2);
+    }
+
+    /**
+     * Make the files already in the cache ten seconds older, then store a thumbnail. Some file
+     * systems only keep the modification times to the second, so thumbnails stored one after
+     * the other could otherwise look as recent as each other.
+     */
+    private void putAged(DiskThumbnailCache cache, String key) {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.setLastModified(file.lastModified() - 10 * 1000);
+            }
+        }
+        cache.put(key, mBitmap);
+    }
+
+    private static void writeBytes(File file, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+}
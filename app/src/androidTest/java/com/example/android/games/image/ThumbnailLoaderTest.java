@@ -0,0 +1,237 @@
+package com.example.android.games.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.ImageView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads of {@link ThumbnailLoader} cancelled when their view is reused, and how many loads its
+ * memory and disk caches serve. Each loader of the tests runs its loads on a single thread the
+ * test controls.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailLoaderTest {
+
+    /** Size the thumbnails are loaded at, in pixels */
+    private static final int SIZE = 50;
+
+    /** Largest size of the disk caches of the tests, in bytes */
+    private static final long DISK_CACHE_MAX_BYTES = 1024 * 1024;
+
+    private Context mContext;
+    private File mCacheDirectory;
+    private File mImageDirectory;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mCacheDirectory = new File(mContext.getCacheDir(), "test.thumbnails");
+        mImageDirectory = new File(mContext.getCacheDir(), "test.images");
+        deleteDirectory(mCacheDirectory);
+        deleteDirectory(mImageDirectory);
+        assertTrue(mImageDirectory.mkdirs());
+        mExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        deleteDirectory(mCacheDirectory);
+        deleteDirectory(mImageDirectory);
+    }
+
+    @Test
+    public void reusedViewCancelsItsPendingLoad() throws Exception {
+        final String wide = writeImage("wide", 200, 100);
+        final String tall = writeImage("tall", 100, 200);
+        final ThumbnailLoader loader = newLoader(mExecutor);
+        CountDownLatch release = blockExecutor();
+
+        // The row is recycled for another game before its first thumbnail could load
+        final ImageView[] view = new ImageView[1];
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view[0] = new ImageView(mContext);
+                loader.load(wide, view[0], SIZE);
+                loader.load(tall, view[0], SIZE);
+            }
+        });
+        release.countDown();
+        finishLoads();
+
+        ThumbnailLoader.Stats stats = getStats(loader);
+        assertEquals(1, stats.cancellations);
+        assertEquals(1, stats.misses);
+        Bitmap shown = ((BitmapDrawable) view[0].getDrawable()).getBitmap();
+        assertTrue(shown.getHeight() > shown.getWidth());
+    }
+
+    @Test
+    public void loadOfTheSameThumbnailIsNotCancelled() throws Exception {
+        final String wide = writeImage("wide", 200, 100);
+        final ThumbnailLoader loader = newLoader(mExecutor);
+        CountDownLatch release = blockExecutor();
+
+        final ImageView[] view = new ImageView[1];
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view[0] = new ImageView(mContext);
+                loader.load(wide, view[0], SIZE);
+                loader.load(wide, view[0], SIZE);
+            }
+        });
+        release.countDown();
+        finishLoads();
+
+        ThumbnailLoader.Stats stats = getStats(loader);
+        assertEquals(0, stats.cancellations);
+        assertEquals(1, stats.misses);
+        assertTrue(view[0].getDrawable() instanceof BitmapDrawable);
+    }
+
+    @Test
+    public void cachesServeTheThumbnailsLoadedBefore() throws Exception {
+        final String[] images = {
+                writeImage("a", 200, 100),
+                writeImage("b", 100, 200),
+                writeImage("c", 150, 150) };
+
+        // The first loads decode every image, loading them again hits the memory cache
+        ThumbnailLoader loader = newLoader(mExecutor);
+        loadAll(loader, images);
+        finishLoads();
+        assertEquals(3, getStats(loader).misses);
+        loadAll(loader, images);
+        ThumbnailLoader.Stats stats = getStats(loader);
+        assertEquals(3, stats.memoryHits);
+        assertEquals(3, stats.misses);
+        assertEquals(0.5f, stats.getHitRate(), 0.001f);
+
+        // A new loader, as after a restart of the app, still finds them on disk
+        mExecutor = Executors.newSingleThreadExecutor();
+        ThumbnailLoader restarted = newLoader(mExecutor);
+        loadAll(restarted, images);
+        finishLoads();
+        stats = getStats(restarted);
+        assertEquals(3, stats.diskHits);
+        assertEquals(0, stats.misses);
+        assertEquals(1f, stats.getHitRate(), 0.001f);
+    }
+
+    private ThumbnailLoader newLoader(ExecutorService executor) {
+        return new ThumbnailLoader(mContext.getContentResolver(),
+                new DiskThumbnailCache(mCacheDirectory, DISK_CACHE_MAX_BYTES), executor);
+    }
+
+    /**
+     * Keep the thread of the loads busy until the returned latch is released.
+     */
+    private CountDownLatch blockExecutor() {
+        final CountDownLatch release = new CountDownLatch(1);
+        mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return release;
+    }
+
+    /**
+     * Wait for the loads submitted so far to run, and for their results to reach their views.
+     */
+    private void finishLoads() throws InterruptedException {
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // The results were posted to the main thread before this
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    /**
+     * Load each of the images into a view of its own.
+     */
+    private void loadAll(final ThumbnailLoader loader, final String[] images) {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (String image : images) {
+                    loader.load(image, new ImageView(mContext), SIZE);
+                }
+            }
+        });
+    }
+
+    private ThumbnailLoader.Stats getStats(final ThumbnailLoader loader) {
+        final ThumbnailLoader.Stats[] stats = new ThumbnailLoader.Stats[1];
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                stats[0] = loader.getStats();
+            }
+        });
+        return stats[0];
+    }
+
+    /**
+     * Write an image of the given dimensions and return its URI.
+     */
+    private String writeImage(String name, int width, int height) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        bitmap.eraseColor(Color.BLUE);
+        File file = new File(mImageDirectory, name + ".png");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } finally {
+            out.close();
+        }
+        return Uri.fromFile(file).toString();
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
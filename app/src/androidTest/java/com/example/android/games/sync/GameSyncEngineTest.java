@@ -0,0 +1,371 @@
+package com.example.android.games.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.games.data.GameContract;
+import com.example.android.games.data.GameContract.ArchivedGameEntry;
+import com.example.android.games.data.GameContract.DeletedGameEntry;
+import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.data.GameTestFixture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips between {@link GameSyncEngine} and a {@link LocalSyncServer}: push, pull,
+ * tombstones, conflicts and archived games.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GameSyncEngineTest {
+
+    /** Origin of the changes made by the other device */
+    private static final String OTHER_DEVICE = "other-device";
+
+    /** Time to wait for the change notifications of a sync to arrive */
+    private static final long NOTIFICATION_WAIT_MILLIS = 500;
+
+    @Rule
+    public final GameTestFixture mFixture = new GameTestFixture();
+
+    private Context mContext;
+    private ContentResolver mContentResolver;
+    private SQLiteDatabase mDatabase;
+    private LocalSyncServer mServer;
+    private GameSyncEngine mEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = mFixture.getContext();
+        mContentResolver = mFixture.getContentResolver();
+        mDatabase = mFixture.getDatabase();
+        mContext.getSharedPreferences(GameSyncEngine.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+
+        mServer = new LocalSyncServer();
+        mServer.start();
+        mEngine = new GameSyncEngine(mContext, mServer.getUrl());
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void pushSendsNewGame() throws Exception {
+        insertGame("a", "Catan", "Kosmos");
+
+        GameSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(1, result.pushed);
+        SyncRecord record = mServer.getRecord("a");
+        assertNotNull(record);
+        assertEquals("Catan", record.name);
+        assertEquals(GameEntry.TAG_STRATEGY, record.tags);
+        assertEquals("content://images/a", record.image);
+        assertEquals(0, countGames(GameEntry.COLUMN_GAME_DIRTY + "=1"));
+    }
+
+    @Test
+    public void pullAppliesRemoteGame() throws Exception {
+        mServer.putChange(remoteChange("a", "Carcassonne", "Hans im Glück", 1));
+
+        GameSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(1, result.pulled);
+        Cursor cursor = queryGame("a");
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Carcassonne", cursor.getString(0));
+            assertEquals(GameEntry.naturalKey("Carcassonne", "Hans im Glück"),
+                    cursor.getString(1));
+            assertEquals("content://images/a", cursor.getString(2));
+            assertEquals(GameEntry.TAG_STRATEGY, cursor.getLong(3));
+            assertEquals(0, cursor.getInt(4));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void pushSendsTombstone() throws Exception {
+        long id = insertGame("a", "Catan", "Kosmos");
+        mEngine.sync();
+
+        mContentResolver.delete(
+                ContentUris.withAppendedId(GameEntry.CONTENT_URI, id), null, null);
+        mEngine.sync();
+
+        assertTrue(mServer.getRecord("a").deleted);
+        assertEquals(0, mServer.getGameCount());
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, DeletedGameEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void pullAppliesTombstone() throws Exception {
+        insertGame("a", "Catan", "Kosmos");
+        mEngine.sync();
+
+        mServer.putChange(new SyncRecord("a", null, null, 0, 0, null, 0,
+                System.currentTimeMillis() + 60000, true, OTHER_DEVICE));
+        GameSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(1, result.pulled);
+        assertEquals(0, countGames(null));
+    }
+
+    @Test
+    public void conflictKeepsLaterChange() throws Exception {
+        long id = insertGame("a", "Catan", "Kosmos");
+        mEngine.sync();
+
+        // The other device changed the game after the local edit below
+        mServer.putChange(remoteChange("a", "Settlers of Catan", "Kosmos", 2));
+        ContentValues values = new ContentValues();
+        values.put(GameEntry.COLUMN_GAME_PRICE, 40);
+        mContentResolver.update(
+                ContentUris.withAppendedId(GameEntry.CONTENT_URI, id), values, null, null);
+
+        GameSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(1, result.conflicts);
+        assertEquals("Settlers of Catan", mServer.getRecord("a").name);
+        Cursor cursor = queryGame("a");
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Settlers of Catan", cursor.getString(0));
+            assertEquals(0, cursor.getInt(4));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void collisionKeepsBothGames() throws Exception {
+        insertGame("b", "Catan", "Kosmos");
+        mServer.putChange(remoteChange("a", "Catan", "Kosmos", 1));
+        mServer.putChange(remoteChange("c", "Catan", "Kosmos", 1));
+
+        mEngine.sync();
+
+        // The game with the smallest GUID keeps the natural key, whichever arrived first
+        String naturalKey = GameEntry.naturalKey("Catan", "Kosmos");
+        assertEquals(3, countGames(null));
+        assertNaturalKey("a", naturalKey);
+        assertNaturalKey("b", naturalKey + "#b");
+        assertNaturalKey("c", naturalKey + "#c");
+        assertEquals(3, mServer.getGameCount());
+    }
+
+    @Test
+    public void collisionLeavesNothingPending() throws Exception {
+        insertGame("b", "Catan", "Kosmos");
+        mServer.putChange(remoteChange("a", "Catan", "Kosmos", 1));
+        mEngine.sync();
+
+        // Both changes went through, so another sync has nothing to push or pull
+        GameSyncEngine.Result result = mEngine.sync();
+        assertEquals(0, result.pushed);
+        assertEquals(0, result.pulled);
+        assertEquals(0, countGames(GameEntry.COLUMN_GAME_DIRTY + "=1"));
+        assertEquals(2, mServer.getGameCount());
+    }
+
+    @Test
+    public void collisionInOneBatchKeepsBothGames() throws Exception {
+        mServer.putChange(remoteChange("c", "Catan", "Kosmos", 1));
+        mServer.putChange(remoteChange("a", "Catan", "Kosmos", 1));
+
+        GameSyncEngine.Result result = mEngine.sync();
+
+        // Neither game was here before the batch that brought both of them
+        assertEquals(2, result.pulled);
+        String naturalKey = GameEntry.naturalKey("Catan", "Kosmos");
+        assertNaturalKey("a", naturalKey);
+        assertNaturalKey("c", naturalKey + "#c");
+    }
+
+    @Test
+    public void pulledDeletionLeavesNoTombstone() throws Exception {
+        insertGame("a", "Catan", "Kosmos");
+        mEngine.sync();
+
+        mServer.putChange(new SyncRecord("a", null, null, 0, 0, null, 0,
+                System.currentTimeMillis() + 60000, true, OTHER_DEVICE));
+        mEngine.sync();
+
+        assertEquals(0, countGames(null));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, DeletedGameEntry.TABLE_NAME));
+        assertEquals(0, mEngine.sync().pushed);
+    }
+
+    @Test
+    public void pullChangesArchivedGameInTheArchive() throws Exception {
+        long id = insertGame("a", "Catan", "Kosmos");
+        mEngine.sync();
+        assertEquals(1, archiveAll());
+
+        mServer.putChange(remoteChange("a", "Settlers of Catan", "Kosmos", 1));
+        assertEquals(1, mEngine.sync().pulled);
+
+        // The game stays archived, and comes back with the remote change
+        assertEquals(0, countGames(null));
+        assertEquals(1, countArchivedGames(GameEntry.COLUMN_GAME_NAME + "='Settlers of Catan'"
+                + " AND " + GameEntry.COLUMN_GAME_DIRTY + "=0"));
+        assertTrue(unarchive(id));
+        assertNaturalKey("a", GameEntry.naturalKey("Settlers of Catan", "Kosmos"));
+        assertEquals(0, mEngine.sync().pushed);
+    }
+
+    @Test
+    public void pullDeletesArchivedGame() throws Exception {
+        long id = insertGame("a", "Catan", "Kosmos");
+        mEngine.sync();
+        assertEquals(1, archiveAll());
+
+        mServer.putChange(new SyncRecord("a", null, null, 0, 0, null, 0,
+                System.currentTimeMillis() + 60000, true, OTHER_DEVICE));
+        assertEquals(1, mEngine.sync().pulled);
+
+        assertEquals(0, countArchivedGames(null));
+        assertFalse(unarchive(id));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, DeletedGameEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void pushSendsGameChangedBeforeItWasArchived() throws Exception {
+        insertGame("a", "Catan", "Kosmos");
+        assertEquals(1, archiveAll());
+
+        assertEquals(1, mEngine.sync().pushed);
+
+        assertEquals("Catan", mServer.getRecord("a").name);
+        assertEquals(0, countArchivedGames(GameEntry.COLUMN_GAME_DIRTY + "=1"));
+        assertEquals(0, mEngine.sync().pushed);
+    }
+
+    @Test
+    public void syncNotifiesOnce() throws Exception {
+        mServer.putChange(remoteChange("a", "Catan", "Kosmos", 1));
+        mServer.putChange(remoteChange("b", "Azul", "Plan B", 1));
+        mServer.putChange(remoteChange("c", "Carcassonne", "Hans im Glück", 1));
+
+        final AtomicInteger notifications = new AtomicInteger();
+        final CountDownLatch notified = new CountDownLatch(1);
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                notifications.incrementAndGet();
+                notified.countDown();
+            }
+        };
+        mContentResolver.registerContentObserver(GameEntry.SECTIONS_URI, false, observer);
+        try {
+            assertEquals(3, mEngine.sync().pulled);
+
+            // Each game changes the sections, but the sync holds the notifications back
+            assertTrue(notified.await(5, TimeUnit.SECONDS));
+            SystemClock.sleep(NOTIFICATION_WAIT_MILLIS);
+            assertEquals(1, notifications.get());
+        } finally {
+            mContentResolver.unregisterContentObserver(observer);
+        }
+    }
+
+    /**
+     * Insert a game with the given GUID through the provider and return its ID.
+     */
+    private long insertGame(String guid, String name, String brand) {
+        ContentValues values = new ContentValues();
+        values.put(GameEntry.COLUMN_GAME_GUID, guid);
+        values.put(GameEntry.COLUMN_GAME_NAME, name);
+        values.put(GameEntry.COLUMN_GAME_BRAND, brand);
+        values.put(GameEntry.COLUMN_GAME_DEMOGRAPHIC, GameEntry.DEMOGRAPHIC_FAMILY);
+        values.put(GameEntry.COLUMN_GAME_PRICE, 30);
+        values.put(GameEntry.COLUMN_GAME_IMAGE, "content://images/" + guid);
+        values.put(GameEntry.COLUMN_GAME_TAGS, GameEntry.TAG_STRATEGY);
+        return mFixture.insertGame(values);
+    }
+
+    /**
+     * Returns a change made by the other device some minutes after now, so it wins over any
+     * local change made by the test.
+     */
+    private static SyncRecord remoteChange(String guid, String name, String brand, int minutes) {
+        return new SyncRecord(guid, name, brand, GameEntry.DEMOGRAPHIC_ADULT, 25,
+                "content://images/" + guid, GameEntry.TAG_STRATEGY,
+                System.currentTimeMillis() + minutes * 60000L, false, OTHER_DEVICE);
+    }
+
+    /**
+     * Returns the name, natural key, image, tags and dirty flag of the game with the given GUID.
+     */
+    private Cursor queryGame(String guid) {
+        return mDatabase.query(GameEntry.TABLE_NAME, new String[] {
+                        GameEntry.COLUMN_GAME_NAME,
+                        GameEntry.COLUMN_GAME_NATURAL_KEY,
+                        GameEntry.COLUMN_GAME_IMAGE,
+                        GameEntry.COLUMN_GAME_TAGS,
+                        GameEntry.COLUMN_GAME_DIRTY },
+                GameEntry.COLUMN_GAME_GUID + "=?", new String[] { guid }, null, null, null);
+    }
+
+    /**
+     * Archive all the games and return how many there were.
+     */
+    private int archiveAll() {
+        SystemClock.sleep(10);
+        Bundle extras = new Bundle();
+        extras.putLong(GameContract.EXTRA_WINDOW_MILLIS, 0);
+        return mContentResolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_ARCHIVE, null,
+                extras).getInt(GameContract.EXTRA_COUNT);
+    }
+
+    private boolean unarchive(long id) {
+        Bundle extras = new Bundle();
+        extras.putLong(GameContract.EXTRA_GAME_ID, id);
+        return mContentResolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_UNARCHIVE, null,
+                extras).getBoolean(GameContract.EXTRA_SUCCESS);
+    }
+
+    private int countArchivedGames(String selection) {
+        return (int) DatabaseUtils.queryNumEntries(mFixture.getDbHelper().getArchiveDatabase(),
+                ArchivedGameEntry.TABLE_NAME, selection);
+    }
+
+    private int countGames(String selection) {
+        return (int) DatabaseUtils.queryNumEntries(mDatabase, GameEntry.TABLE_NAME, selection);
+    }
+
+    private void assertNaturalKey(String guid, String naturalKey) {
+        Cursor cursor = queryGame(guid);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(naturalKey, cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.example.android.games.sync;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A minimal in-process stand-in for the sync backend. It speaks the same HTTP protocol as the
+ * real server on a loopback port and keeps its data in memory, so {@link GameSyncEngine} can be
+ * exercised end to end (push, pull, conflicts and batching) without any network access.
+ *
+ * The server keeps the latest change for every game, numbered with an increasing sequence
+ * number. The sync token handed out to a device is the last sequence number it has seen.
+ */
+public class LocalSyncServer {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = LocalSyncServer.class.getSimpleName();
+
+    /** The latest change for every game, by GUID */
+    private final Map<String, SyncRecord> mRecords = new HashMap<String, SyncRecord>();
+
+    /** The latest change for every game, by sequence number */
+    private final TreeMap<Long, SyncRecord> mChangeLog = new TreeMap<Long, SyncRecord>();
+
+    /** The sequence number of every game's latest change, by GUID */
+    private final Map<String, Long> mSequenceNumbers = new HashMap<String, Long>();
+
+    /** The last sequence number handed out */
+    private long mLastSequenceNumber;
+
+    /** Number of requests served, which shows how well the changes were batched */
+    private int mRequestCount;
+
+    private final ServerSocket mServerSocket;
+    private Thread mThread;
+
+    /**
+     * Constructs a new instance of {@link LocalSyncServer} listening on a free loopback port.
+     */
+    public LocalSyncServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    }
+
+    /**
+     * Returns the base URL to pass to {@link GameSyncEngine}.
+     */
+    public URL getUrl() {
+        try {
+            return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), "/");
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Start serving requests on a background thread.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        Socket socket = mServerSocket.accept();
+                        try {
+                            serve(socket);
+                        } finally {
+                            socket.close();
+                        }
+                    } catch (IOException e) {
+                        if (!mServerSocket.isClosed()) {
+                            Log.e(LOG_TAG, "Failed to serve sync request", e);
+                        }
+                    }
+                }
+            }
+        }, LOG_TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stop serving requests.
+     */
+    public void stop() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to close server socket", e);
+        }
+    }
+
+    /**
+     * Returns the number of games the server knows about, not counting deleted ones.
+     */
+    public synchronized int getGameCount() {
+        int count = 0;
+        for (SyncRecord record : mRecords.values()) {
+            if (!record.deleted) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the server's latest change to the game with the given GUID, or null if it has none.
+     */
+    public synchronized SyncRecord getRecord(String guid) {
+        return mRecords.get(guid);
+    }
+
+    /**
+     * Store a change as if another device had pushed it, so the next pull hands it out.
+     */
+    public synchronized void putChange(SyncRecord change) {
+        store(change);
+    }
+
+    /**
+     * Returns the number of requests served so far.
+     */
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Read one HTTP request from the socket, handle it and write the response.
+     */
+    private void serve(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        String requestLine = readLine(in);
+        int contentLength = 0;
+        String header;
+        while ((header = readLine(in)) != null && header.length() > 0) {
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                contentLength = Integer.parseInt(header.substring(colon + 1).trim());
+            }
+        }
+
+        byte[] body = new byte[contentLength];
+        int offset = 0;
+        while (offset < contentLength) {
+            int count = in.read(body, offset, contentLength - offset);
+            if (count == -1) {
+                throw new IOException("Unexpected end of request body");
+            }
+            offset += count;
+        }
+
+        int status = 200;
+        byte[] responseBody;
+        try {
+            String[] parts = requestLine != null ? requestLine.split(" ") : new String[0];
+            if (parts.length < 2 || !"POST".equals(parts[0])) {
+                throw new IllegalArgumentException("Unsupported request " + requestLine);
+            }
+            JSONObject request = SyncCodec.decode(new ByteArrayInputStream(body));
+            JSONObject response;
+            if ("/push".equals(parts[1])) {
+                response = handlePush(request);
+            } else if ("/pull".equals(parts[1])) {
+                response = handlePull(request);
+            } else {
+                throw new IllegalArgumentException("Unknown path " + parts[1]);
+            }
+            responseBody = SyncCodec.encode(response);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Rejected malformed sync request", e);
+            status = 400;
+            responseBody = new byte[0];
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Rejected sync request", e);
+            status = 400;
+            responseBody = new byte[0];
+        }
+
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        headers.write(("HTTP/1.1 " + status + (status == 200 ? " OK" : " Bad Request") + "\r\n"
+                + "Content-Type: " + SyncCodec.CONTENT_TYPE + "\r\n"
+                + "Content-Encoding: " + SyncCodec.CONTENT_ENCODING + "\r\n"
+                + "Content-Length: " + responseBody.length + "\r\n"
+                + "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+        OutputStream out = socket.getOutputStream();
+        out.write(headers.toByteArray());
+        out.write(responseBody);
+        out.flush();
+    }
+
+    /**
+     * Accept every pushed change that supersedes the change the server already has, and send
+     * back the server's change for every one that doesn't.
+     */
+    private synchronized JSONObject handlePush(JSONObject request) throws JSONException {
+        mRequestCount++;
+        JSONArray changes = request.getJSONArray("changes");
+        JSONArray conflicts = new JSONArray();
+        for (int i = 0; i < changes.length(); i++) {
+            SyncRecord change = SyncRecord.fromJson(changes.getJSONObject(i));
+            SyncRecord current = mRecords.get(change.guid);
+            if (current != null && !change.supersedes(current)) {
+                conflicts.put(current.toJson());
+                continue;
+            }
+            store(change);
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("conflicts", conflicts);
+        return response;
+    }
+
+    /**
+     * Make the given change the latest one of its game, with the next sequence number.
+     */
+    private void store(SyncRecord change) {
+        Long previous = mSequenceNumbers.get(change.guid);
+        if (previous != null) {
+            mChangeLog.remove(previous);
+        }
+        long sequenceNumber = ++mLastSequenceNumber;
+        mRecords.put(change.guid, change);
+        mChangeLog.put(sequenceNumber, change);
+        mSequenceNumbers.put(change.guid, sequenceNumber);
+    }
+
+    /**
+     * Send back the changes after the device's token, leaving out the device's own changes.
+     */
+    private synchronized JSONObject handlePull(JSONObject request) throws JSONException {
+        mRequestCount++;
+        String device = request.getString("device");
+        long token = request.getLong("token");
+        int limit = request.getInt("limit");
+
+        JSONArray changes = new JSONArray();
+        Iterator<Map.Entry<Long, SyncRecord>> iterator =
+                mChangeLog.tailMap(token, false).entrySet().iterator();
+        while (iterator.hasNext() && changes.length() < limit) {
+            Map.Entry<Long, SyncRecord> entry = iterator.next();
+            token = entry.getKey();
+            if (!device.equals(entry.getValue().origin)) {
+                changes.put(entry.getValue().toJson());
+            }
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("changes", changes);
+        response.put("token", token);
+        response.put("has_more", iterator.hasNext());
+        return response;
+    }
+
+    /**
+     * Read one line of an HTTP header, without the line terminator. Returns null at the end of
+     * the stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        if (c == -1 && line.length() == 0) {
+            return null;
+        }
+        return line.toString();
+    }
+}
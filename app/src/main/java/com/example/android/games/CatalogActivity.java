@@ -1,38 +1,77 @@
 
 package com.example.android.games;
 
-import android.app.LoaderManager;
+import android.app.SearchManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
+import android.widget.FilterQueryProvider;
 import android.widget.ListView;
+import android.widget.SimpleCursorAdapter;
+import android.widget.Toast;
 
 import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.data.ObservableQuery;
+import com.example.android.games.data.QuerySwitcher;
+import com.example.android.games.search.SuggestionIndex;
+
+import java.util.List;
 
 /**
  * Displays list of games that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+        ObservableQuery.Listener {
+
+    /** Key of the current search in the saved instance state */
+    private static final String STATE_FILTER = "filter";
+
+    /** Largest number of suggestions shown while typing a search */
+    private static final int MAX_SUGGESTIONS = 8;
 
-    /** Identifier for the game data loader */
-    private static final int GAME_LOADER = 0;
+    /** Columns of the cursor of suggestions */
+    private static final String[] SUGGESTION_COLUMNS = {
+            GameEntry._ID, SearchManager.SUGGEST_COLUMN_TEXT_1 };
 
     /** Adapter for the ListView */
     GameCursorAdapter mCursorAdapter;
 
+    /**
+     * Keeps the list of games up to date. The queries are kept across configuration changes,
+     * and the results of the last filter stay on screen until those of a new one are ready.
+     */
+    private final QuerySwitcher mCatalogQueries = new QuerySwitcher(this);
+
+    /** Keeps the sections of the list up to date, the same way as {@link #mCatalogQueries} */
+    private final QuerySwitcher mSectionsQueries = new QuerySwitcher(
+            new ObservableQuery.Listener() {
+                @Override
+                public void onQueryResult(Cursor cursor) {
+                    // Hand the sections of the list to the adapter, for fast scrolling
+                    mCursorAdapter.swapSections(cursor);
+                }
+            });
+
+    /** The name or brand prefix the list is filtered by, or null to list every game */
+    private String mFilter;
+
+    /** Suggests names and brands while typing a search */
+    private SuggestionIndex mSuggestionIndex;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -77,13 +116,64 @@ public class CatalogActivity extends AppCompatActivity implements
                 // Set the URI on the data field of the intent
                 intent.setData(currentGameUri);
 
+                // Hand over the values of the game that are already on screen, so the editor
+                // can show them immediately instead of waiting for its own query
+                Cursor cursor = (Cursor) adapterView.getItemAtPosition(position);
+                if (cursor != null) {
+                    intent.putExtra(EditorActivity.EXTRA_NAME, cursor.getString(
+                            cursor.getColumnIndex(GameEntry.COLUMN_GAME_NAME)));
+                    intent.putExtra(EditorActivity.EXTRA_BRAND, cursor.getString(
+                            cursor.getColumnIndex(GameEntry.COLUMN_GAME_BRAND)));
+                    intent.putExtra(EditorActivity.EXTRA_DEMOGRAPHIC, cursor.getInt(
+                            cursor.getColumnIndex(GameEntry.COLUMN_GAME_DEMOGRAPHIC)));
+                    intent.putExtra(EditorActivity.EXTRA_PRICE, cursor.getInt(
+                            cursor.getColumnIndex(GameEntry.COLUMN_GAME_PRICE)));
+                    intent.putExtra(EditorActivity.EXTRA_UPDATED_AT, cursor.getLong(
+                            cursor.getColumnIndex(GameEntry.COLUMN_GAME_UPDATED_AT)));
+                }
+
                 // Launch the {@link EditorActivity} to display the data for the current game.
                 startActivity(intent);
             }
         });
 
-        // Kick off the loader
-        getLoaderManager().initLoader(GAME_LOADER, null, this);
+        // Start observing the game data and its sections, reusing the queries of the previous
+        // instance of this activity after a configuration change
+        if (savedInstanceState != null) {
+            mFilter = savedInstanceState.getString(STATE_FILTER);
+        }
+        ObservableQuery[] queries = (ObservableQuery[]) getLastCustomNonConfigurationInstance();
+        if (queries != null) {
+            mCatalogQueries.start(queries[0]);
+            mSectionsQueries.start(queries[1]);
+        } else {
+            mCatalogQueries.start(createCatalogQuery(mFilter));
+            mSectionsQueries.start(createSectionsQuery(mFilter));
+        }
+
+        // Build the index of names and brands in the background, so it's ready by the time
+        // the user starts a search
+        mSuggestionIndex = SuggestionIndex.getInstance(this);
+        mSuggestionIndex.start();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_FILTER, mFilter);
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return new ObservableQuery[] { mCatalogQueries.getQuery(), mSectionsQueries.getQuery() };
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mCursorAdapter.swapCursor(null);
+        mCatalogQueries.stop(isChangingConfigurations());
+        mSectionsQueries.stop(isChangingConfigurations());
     }
 
     /**
@@ -102,7 +192,13 @@ public class CatalogActivity extends AppCompatActivity implements
         // Use the {@link GameEntry#CONTENT_URI} to indicate that we want to insert
         // into the games database table.
         // Receive the new content URI that will allow us to access Monopoly's data in the future.
-        Uri newUri = getContentResolver().insert(GameEntry.CONTENT_URI, values);
+        try {
+            Uri newUri = getContentResolver().insert(GameEntry.CONTENT_URI, values);
+        } catch (SQLiteConstraintException e) {
+            // Monopoly by Hasbro is already in the catalog
+            Toast.makeText(this, getString(R.string.catalog_dummy_data_exists),
+                    Toast.LENGTH_SHORT).show();
+        }
     }
 
     /**
@@ -118,9 +214,108 @@ public class CatalogActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        setupSearch(menu.findItem(R.id.action_search));
         return true;
     }
 
+    /**
+     * Set up the search action: suggest names and brands while typing, and filter the list
+     * of games when a search is submitted.
+     */
+    private void setupSearch(MenuItem searchItem) {
+        final SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+
+        // Show the current search again after a configuration change
+        if (mFilter != null) {
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(mFilter, false);
+            searchView.clearFocus();
+        }
+
+        // Suggestions come from the in-memory index, so every keystroke can be answered
+        // without a query to the provider
+        final SimpleCursorAdapter suggestionsAdapter = new SimpleCursorAdapter(this,
+                android.R.layout.simple_list_item_1, null,
+                new String[] { SearchManager.SUGGEST_COLUMN_TEXT_1 },
+                new int[] { android.R.id.text1 }, 0);
+        suggestionsAdapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                MatrixCursor suggestions = new MatrixCursor(SUGGESTION_COLUMNS);
+                if (constraint != null) {
+                    List<String> terms = mSuggestionIndex.suggest(constraint.toString(),
+                            MAX_SUGGESTIONS);
+                    for (int i = 0; i < terms.size(); i++) {
+                        suggestions.addRow(new Object[] { i, terms.get(i) });
+                    }
+                }
+                return suggestions;
+            }
+        });
+        searchView.setSuggestionsAdapter(suggestionsAdapter);
+        SearchView.SearchAutoComplete searchText =
+                (SearchView.SearchAutoComplete) searchView.findViewById(R.id.search_src_text);
+        searchText.setThreshold(1);
+
+        searchView.setOnSuggestionListener(new SearchView.OnSuggestionListener() {
+            @Override
+            public boolean onSuggestionSelect(int position) {
+                return false;
+            }
+
+            @Override
+            public boolean onSuggestionClick(int position) {
+                Cursor cursor = suggestionsAdapter.getCursor();
+                if (cursor != null && cursor.moveToPosition(position)) {
+                    searchView.setQuery(cursor.getString(1), true);
+                }
+                return true;
+            }
+        });
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                filterCatalog(query.trim().length() > 0 ? query.trim() : null);
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                return false;
+            }
+        });
+        MenuItemCompat.setOnActionExpandListener(searchItem,
+                new MenuItemCompat.OnActionExpandListener() {
+                    @Override
+                    public boolean onMenuItemActionExpand(MenuItem item) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onMenuItemActionCollapse(MenuItem item) {
+                        // Closing the search shows every game again
+                        filterCatalog(null);
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Show only the games whose name or brand starts with the given text, or every game if it
+     * is null.
+     */
+    private void filterCatalog(String filter) {
+        if (filter == null ? mFilter == null : filter.equals(mFilter)) {
+            return;
+        }
+        mFilter = filter;
+
+        // Keep the current results on screen until the new queries have delivered theirs
+        mCatalogQueries.switchTo(createCatalogQuery(filter));
+        mSectionsQueries.switchTo(createSectionsQuery(filter));
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -137,32 +332,65 @@ public class CatalogActivity extends AppCompatActivity implements
         return super.onOptionsItemSelected(item);
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+    /**
+     * Returns the query for the list of games, filtered by the given name or brand prefix if
+     * it isn't null.
+     */
+    private ObservableQuery createCatalogQuery(String filter) {
         // Define a projection that specifies the columns from the table we care about.
         String[] projection = {
                 GameEntry._ID,
                 GameEntry.COLUMN_GAME_NAME,
-                GameEntry.COLUMN_GAME_BRAND };
+                GameEntry.COLUMN_GAME_BRAND,
+                GameEntry.COLUMN_GAME_DEMOGRAPHIC,
+                GameEntry.COLUMN_GAME_PRICE,
+                GameEntry.COLUMN_GAME_UPDATED_AT,
+                GameEntry.COLUMN_GAME_IMAGE };
 
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
+        // This query will execute the ContentProvider's query method on a background thread,
+        // and again after every burst of changes to the game data
+        return new ObservableQuery(this,   // Parent activity context
                 GameEntry.CONTENT_URI,   // Provider content URI to query
                 projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+                filterSelection(filter),      // Only the games that match the filter
+                filterSelectionArgs(filter),  // The filter, as a LIKE pattern
+                GameEntry.SORT_ORDER_SECTIONS,  // Alphabetical, to match the sections
+                GameEntry.COLUMN_GAME_UPDATED_AT);  // Changes with every change to a game
     }
 
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link GameCursorAdapter} with this new cursor containing updated game data
-        mCursorAdapter.swapCursor(data);
+    /**
+     * Returns the query for the sections of the list of games, with the same filter as
+     * {@link #createCatalogQuery}.
+     */
+    private ObservableQuery createSectionsQuery(String filter) {
+        return new ObservableQuery(this, GameEntry.SECTIONS_URI, null,
+                filterSelection(filter), filterSelectionArgs(filter), null);
+    }
+
+    /**
+     * Returns the selection of the games whose name or brand starts with the filter, or null
+     * if there is no filter.
+     */
+    private static String filterSelection(String filter) {
+        if (filter == null) {
+            return null;
+        }
+        return GameEntry.SELECTION_PREFIX_FILTER;
+    }
+
+    /**
+     * Returns the arguments of {@link #filterSelection}, or null if there is no filter.
+     */
+    private static String[] filterSelectionArgs(String filter) {
+        if (filter == null) {
+            return null;
+        }
+        return GameEntry.prefixFilterArgs(filter);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+    public void onQueryResult(Cursor cursor) {
+        // Update {@link GameCursorAdapter} with this new cursor containing updated game data
+        mCursorAdapter.swapCursor(cursor);
     }
 }
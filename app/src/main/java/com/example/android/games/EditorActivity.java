@@ -9,6 +9,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
@@ -35,6 +36,17 @@ public class EditorActivity extends AppCompatActivity implements
     /** Identifier for the game data loader */
     private static final int EXISTING_GAME_LOADER = 0;
 
+    /**
+     * Intent extra keys for the values of an existing game that the caller already has on
+     * screen. When they are present, the editor shows them right away instead of waiting for
+     * the loader, which then only replaces them if the game has changed in the meantime.
+     */
+    public static final String EXTRA_NAME = "name";
+    public static final String EXTRA_BRAND = "brand";
+    public static final String EXTRA_DEMOGRAPHIC = "demographic";
+    public static final String EXTRA_PRICE = "price";
+    public static final String EXTRA_UPDATED_AT = "updated_at";
+
     /** Content URI for the existing game (null if it's a new game) */
     private Uri mCurrentGameUri;
 
@@ -57,6 +69,12 @@ public class EditorActivity extends AppCompatActivity implements
      */
     private int mDemographic = GameEntry.DEMOGRAPHIC_FAMILY;
 
+    /**
+     * Version ({@link GameEntry#COLUMN_GAME_UPDATED_AT}) of the game values that are currently
+     * shown, or -1 if none have been shown yet.
+     */
+    private long mShownUpdatedAt = -1;
+
     /** Boolean flag that keeps track of whether the game has been edited (true) or not (false) */
     private boolean mGameHasChanged = false;
 
@@ -115,6 +133,16 @@ public class EditorActivity extends AppCompatActivity implements
         mDemographicSpinner.setOnTouchListener(mTouchListener);
 
         setupSpinner();
+
+        // If the caller handed over the values of the game, show them without waiting for
+        // the loader
+        if (mCurrentGameUri != null && intent.hasExtra(EXTRA_UPDATED_AT)) {
+            showGame(intent.getStringExtra(EXTRA_NAME),
+                    intent.getStringExtra(EXTRA_BRAND),
+                    intent.getIntExtra(EXTRA_DEMOGRAPHIC, GameEntry.DEMOGRAPHIC_FAMILY),
+                    intent.getIntExtra(EXTRA_PRICE, 0),
+                    intent.getLongExtra(EXTRA_UPDATED_AT, -1));
+        }
     }
 
     /**
@@ -157,9 +185,11 @@ public class EditorActivity extends AppCompatActivity implements
     }
 
     /**
-     * Get user input from editor and save game into database.
+     * Get user input from editor and save game into database. Returns false if the game
+     * couldn't be saved because another game has the same name and brand, so the user can
+     * change them.
      */
-    private void saveGame() {
+    private boolean saveGame() {
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
         String nameString = mNameEditText.getText().toString().trim();
@@ -173,7 +203,7 @@ public class EditorActivity extends AppCompatActivity implements
                 TextUtils.isEmpty(priceString) && mDemographic == GameEntry.DEMOGRAPHIC_FAMILY) {
             // Since no fields were modified, we can return early without creating a new game.
             // No need to create ContentValues and no need to do any ContentProvider operations.
-            return;
+            return true;
         }
 
         // Create a ContentValues object where column names are the keys,
@@ -194,7 +224,15 @@ public class EditorActivity extends AppCompatActivity implements
         if (mCurrentGameUri == null) {
             // This is a NEW game, so insert a new game into the provider,
             // returning the content URI for the new game.
-            Uri newUri = getContentResolver().insert(GameEntry.CONTENT_URI, values);
+            Uri newUri;
+            try {
+                newUri = getContentResolver().insert(GameEntry.CONTENT_URI, values);
+            } catch (SQLiteConstraintException e) {
+                // Another game already has the same name and brand
+                Toast.makeText(this, getString(R.string.editor_game_exists),
+                        Toast.LENGTH_SHORT).show();
+                return false;
+            }
 
             // Show a toast message depending on whether or not the insertion was successful.
             if (newUri == null) {
@@ -211,7 +249,15 @@ public class EditorActivity extends AppCompatActivity implements
             // and pass in the new ContentValues. Pass in null for the selection and selection args
             // because mCurrentGameUri will already identify the correct row in the database that
             // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentGameUri, values, null, null);
+            int rowsAffected;
+            try {
+                rowsAffected = getContentResolver().update(mCurrentGameUri, values, null, null);
+            } catch (SQLiteConstraintException e) {
+                // Another game already has the same name and brand
+                Toast.makeText(this, getString(R.string.editor_game_exists),
+                        Toast.LENGTH_SHORT).show();
+                return false;
+            }
 
             // Show a toast message depending on whether or not the update was successful.
             if (rowsAffected == 0) {
@@ -224,6 +270,7 @@ public class EditorActivity extends AppCompatActivity implements
                         Toast.LENGTH_SHORT).show();
             }
         }
+        return true;
     }
 
     @Override
@@ -255,10 +302,10 @@ public class EditorActivity extends AppCompatActivity implements
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save game to database
-                saveGame();
-                // Exit activity
-                finish();
+                // Save game to database, and exit activity unless the user has to fix the game
+                if (saveGame()) {
+                    finish();
+                }
                 return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
@@ -328,7 +375,8 @@ public class EditorActivity extends AppCompatActivity implements
                 GameEntry.COLUMN_GAME_NAME,
                 GameEntry.COLUMN_GAME_BRAND,
                 GameEntry.COLUMN_GAME_DEMOGRAPHIC,
-                GameEntry.COLUMN_GAME_PRICE };
+                GameEntry.COLUMN_GAME_PRICE,
+                GameEntry.COLUMN_GAME_UPDATED_AT };
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -354,6 +402,14 @@ public class EditorActivity extends AppCompatActivity implements
             int brandColumnIndex = cursor.getColumnIndex(GameEntry.COLUMN_GAME_BRAND);
             int demographicColumnIndex = cursor.getColumnIndex(GameEntry.COLUMN_GAME_DEMOGRAPHIC);
             int priceColumnIndex = cursor.getColumnIndex(GameEntry.COLUMN_GAME_PRICE);
+            int updatedAtColumnIndex = cursor.getColumnIndex(GameEntry.COLUMN_GAME_UPDATED_AT);
+
+            // If the values on screen are already the current version of the game,
+            // leave the views alone
+            long updatedAt = cursor.getLong(updatedAtColumnIndex);
+            if (updatedAt == mShownUpdatedAt) {
+                return;
+            }
 
             // Extract out the value from the Cursor for the given column index
             String name = cursor.getString(nameColumnIndex);
@@ -361,25 +417,33 @@ public class EditorActivity extends AppCompatActivity implements
             int demographic = cursor.getInt(demographicColumnIndex);
             int price = cursor.getInt(priceColumnIndex);
 
-            // Update the views on the screen with the values from the database
-            mNameEditText.setText(name);
-            mBrandEditText.setText(brand);
-            mPriceEditText.setText(Integer.toString(price));
-
-            // Demographic is a dropdown spinner, so map the constant value from the database
-            // into one of the dropdown options (0 is Unknown, 1 is Male, 2 is Female).
-            // Then call setSelection() so that option is displayed on screen as the current selection.
-            switch (demographic) {
-                case GameEntry.DEMOGRAPHIC_CHILDREN:
-                    mDemographicSpinner.setSelection(1);
-                    break;
-                case GameEntry.DEMOGRAPHIC_ADULT:
-                    mDemographicSpinner.setSelection(2);
-                    break;
-                default:
-                    mDemographicSpinner.setSelection(0);
-                    break;
-            }
+            showGame(name, brand, demographic, price, updatedAt);
+        }
+    }
+
+    /**
+     * Update the views on the screen with the given values of the game.
+     */
+    private void showGame(String name, String brand, int demographic, int price, long updatedAt) {
+        mShownUpdatedAt = updatedAt;
+
+        mNameEditText.setText(name);
+        mBrandEditText.setText(brand);
+        mPriceEditText.setText(Integer.toString(price));
+
+        // Demographic is a dropdown spinner, so map the constant value from the database
+        // into one of the dropdown options (0 is Family, 1 is Children, 2 is Adult).
+        // Then call setSelection() so that option is displayed on screen as the current selection.
+        switch (demographic) {
+            case GameEntry.DEMOGRAPHIC_CHILDREN:
+                mDemographicSpinner.setSelection(1);
+                break;
+            case GameEntry.DEMOGRAPHIC_ADULT:
+                mDemographicSpinner.setSelection(2);
+                break;
+            default:
+                mDemographicSpinner.setSelection(0);
+                break;
         }
     }
 
@@ -389,7 +453,8 @@ public class EditorActivity extends AppCompatActivity implements
         mNameEditText.setText("");
         mBrandEditText.setText("");
         mPriceEditText.setText("");
-        mDemographicSpinner.setSelection(0); // Select "Unknown" demographic
+        mDemographicSpinner.setSelection(0); // Select "Family" demographic
+        mShownUpdatedAt = -1;
     }
 
     /**
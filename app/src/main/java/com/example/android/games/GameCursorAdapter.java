@@ -2,22 +2,109 @@
 package com.example.android.games;
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
-import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CursorAdapter;
+import android.widget.ImageView;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 
 import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.image.ThumbnailLoader;
+
+import java.util.Arrays;
 
 /**
  * {@link GameCursorAdapter} is an adapter for a list or grid view
  * that uses a {@link Cursor} of game data as its data source. This adapter knows
  * how to create list items for each row of game data in the {@link Cursor}.
+ *
+ * It is also the section indexer for fast scrolling. The games must be sorted by
+ * {@link GameEntry#SORT_ORDER_SECTIONS}, and the sections are handed over separately with
+ * {@link #swapSections}, so finding a section never has to walk the cursor.
+ *
+ * Binding a row without box art allocates nothing once the list has scrolled a little: the
+ * views of each item are kept in a {@link ViewHolder}, the columns are found once per cursor,
+ * and the text is copied into buffers the holder reuses instead of new Strings. Neither does
+ * binding a row again to the view that already shows its box art, as happens to every visible
+ * row when the cursor changes. Showing box art in a view that had other art before makes a
+ * String of the image URI, which the thumbnail caches are keyed by.
  */
-public class GameCursorAdapter extends CursorAdapter {
+public class GameCursorAdapter extends CursorAdapter implements SectionIndexer {
+
+    /** Loads the box art thumbnails off the main thread */
+    private final ThumbnailLoader mThumbnailLoader;
+
+    /** Size of a box art thumbnail, in pixels */
+    private final int mThumbnailSize;
+
+    /** Letters of the sections that have games in them, in list order */
+    private String[] mSections = new String[0];
+
+    /** Position of the first game of each section in {@link #mSections} */
+    private int[] mSectionPositions = new int[0];
+
+    /** Text shown for a game without a brand */
+    private final String mUnknownBrand;
+
+    /** Indexes of the columns of the current cursor, see {@link #findColumns} */
+    private int mNameColumnIndex;
+    private int mBrandColumnIndex;
+    private int mImageColumnIndex;
+
+    /**
+     * The views of a list item, and the buffers their text is copied into. Kept as the tag of
+     * the item view.
+     */
+    private static final class ViewHolder {
+
+        final TextView nameTextView;
+        final TextView summaryTextView;
+        final ImageView imageView;
+
+        /** Grow to fit the longest name, brand and image bound so far, then stay that size */
+        final CharArrayBuffer nameBuffer = new CharArrayBuffer(64);
+        final CharArrayBuffer brandBuffer = new CharArrayBuffer(32);
+        final CharArrayBuffer imageBuffer = new CharArrayBuffer(128);
+
+        /**
+         * The image URI the image view was last given, empty for none. The length is -1 until
+         * the first bind.
+         */
+        char[] shownImage = new char[128];
+        int shownImageLength = -1;
+
+        ViewHolder(View view) {
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            summaryTextView = (TextView) view.findViewById(R.id.summary);
+            imageView = (ImageView) view.findViewById(R.id.image);
+        }
+
+        /** Returns whether the image view was last given the image URI in {@link #imageBuffer} */
+        boolean isShowingImage() {
+            if (imageBuffer.sizeCopied != shownImageLength) {
+                return false;
+            }
+            for (int i = 0; i < shownImageLength; i++) {
+                if (imageBuffer.data[i] != shownImage[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Remember that the image view was given the image URI in {@link #imageBuffer} */
+        void setShowingImage() {
+            if (shownImage.length < imageBuffer.sizeCopied) {
+                shownImage = new char[imageBuffer.sizeCopied];
+            }
+            System.arraycopy(imageBuffer.data, 0, shownImage, 0, imageBuffer.sizeCopied);
+            shownImageLength = imageBuffer.sizeCopied;
+        }
+    }
 
     /**
      * Constructs a new {@link GameCursorAdapter}.
@@ -27,6 +114,33 @@ public class GameCursorAdapter extends CursorAdapter {
      */
     public GameCursorAdapter(Context context, Cursor c) {
         super(context, c, 0 /* flags */);
+        mThumbnailLoader = ThumbnailLoader.getInstance(context);
+        mThumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+        mUnknownBrand = context.getString(R.string.unknown_brand);
+        findColumns(c);
+    }
+
+    /**
+     * Swap in a new cursor, and find the columns of the new cursor once for all its rows.
+     * {@link #changeCursor} goes through here as well.
+     */
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        Cursor oldCursor = super.swapCursor(newCursor);
+        findColumns(newCursor);
+        return oldCursor;
+    }
+
+    /**
+     * Find the columns of game attributes that we're interested in, in the given cursor.
+     */
+    private void findColumns(Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        mNameColumnIndex = cursor.getColumnIndex(GameEntry.COLUMN_GAME_NAME);
+        mBrandColumnIndex = cursor.getColumnIndex(GameEntry.COLUMN_GAME_BRAND);
+        mImageColumnIndex = cursor.getColumnIndex(GameEntry.COLUMN_GAME_IMAGE);
     }
 
     /**
@@ -40,8 +154,11 @@ public class GameCursorAdapter extends CursorAdapter {
      */
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        // Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        // Inflate a list item view using the layout specified in list_item.xml, and find its
+        // views once for every row it will show
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        view.setTag(new ViewHolder(view));
+        return view;
     }
 
     /**
@@ -56,26 +173,81 @@ public class GameCursorAdapter extends CursorAdapter {
      */
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
-        // Find individual views that we want to modify in the list item layout
-        TextView nameTextView = (TextView) view.findViewById(R.id.name);
-        TextView summaryTextView = (TextView) view.findViewById(R.id.summary);
-
-        // Find the columns of game attributes that we're interested in
-        int nameColumnIndex = cursor.getColumnIndex(GameEntry.COLUMN_GAME_NAME);
-        int brandColumnIndex = cursor.getColumnIndex(GameEntry.COLUMN_GAME_BRAND);
+        ViewHolder holder = (ViewHolder) view.getTag();
 
-        // Read the game attributes from the Cursor for the current game
-        String gameName = cursor.getString(nameColumnIndex);
-        String gameBrand = cursor.getString(brandColumnIndex);
+        // Copy the name and brand of the current game into the buffers of the holder. The
+        // TextViews keep wrapping the same buffers, so no String is made for them.
+        cursor.copyStringToBuffer(mNameColumnIndex, holder.nameBuffer);
+        cursor.copyStringToBuffer(mBrandColumnIndex, holder.brandBuffer);
+        holder.nameTextView.setText(holder.nameBuffer.data, 0, holder.nameBuffer.sizeCopied);
 
         // If the game brand is empty string or null, then use some default text
         // that says "Unknown brand", so the TextView isn't blank.
-        if (TextUtils.isEmpty(gameBrand)) {
-            gameBrand = context.getString(R.string.unknown_brand);
+        if (holder.brandBuffer.sizeCopied == 0) {
+            holder.summaryTextView.setText(mUnknownBrand);
+        } else {
+            holder.summaryTextView.setText(holder.brandBuffer.data, 0, holder.brandBuffer.sizeCopied);
+        }
+
+        // The thumbnail is decoded in the background. If this view was showing another image
+        // before, the load for that image is cancelled. If it was given the same image, it
+        // keeps the thumbnail or the load it has, and the URI isn't made into a String.
+        cursor.copyStringToBuffer(mImageColumnIndex, holder.imageBuffer);
+        if (!holder.isShowingImage()) {
+            String gameImage = holder.imageBuffer.sizeCopied == 0 ? null
+                    : new String(holder.imageBuffer.data, 0, holder.imageBuffer.sizeCopied);
+            mThumbnailLoader.load(gameImage, holder.imageView, mThumbnailSize);
+            holder.setShowingImage();
+        }
+    }
+
+    /**
+     * Replace the sections of the list with the rows of the given cursor of
+     * {@link GameEntry#SECTIONS_URI}. The cursor is only read, not kept or closed.
+     */
+    public void swapSections(Cursor sections) {
+        int count = sections != null ? sections.getCount() : 0;
+        String[] letters = new String[count];
+        int[] positions = new int[count];
+        if (sections != null) {
+            int sectionColumnIndex = sections.getColumnIndex(GameEntry.COLUMN_GAME_SECTION);
+            int countColumnIndex = sections.getColumnIndex(GameEntry._COUNT);
+            int position = 0;
+            sections.moveToPosition(-1);
+            for (int i = 0; sections.moveToNext(); i++) {
+                letters[i] = sections.getString(sectionColumnIndex);
+                positions[i] = position;
+                position += sections.getInt(countColumnIndex);
+            }
+        }
+        mSections = letters;
+        mSectionPositions = positions;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public Object[] getSections() {
+        return mSections;
+    }
+
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        if (mSectionPositions.length == 0) {
+            return 0;
         }
+        sectionIndex = Math.max(0, Math.min(sectionIndex, mSectionPositions.length - 1));
+
+        // The sections may be a moment ahead of or behind the games, so stay inside the list
+        return Math.max(0, Math.min(mSectionPositions[sectionIndex], getCount() - 1));
+    }
 
-        // Update the TextViews with the attributes for the current game
-        nameTextView.setText(gameName);
-        summaryTextView.setText(gameBrand);
+    @Override
+    public int getSectionForPosition(int position) {
+        int index = Arrays.binarySearch(mSectionPositions, position);
+        if (index < 0) {
+            // Not the first game of a section, so it is in the section before the insertion point
+            index = -index - 2;
+        }
+        return Math.max(0, index);
     }
 }
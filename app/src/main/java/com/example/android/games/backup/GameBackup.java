@@ -0,0 +1,638 @@
+package com.example.android.games.backup;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.games.data.GameContract;
+import com.example.android.games.data.GameDbHelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Backs up the games database and the archive database while the app keeps using them, and
+ * restores them from a backup.
+ *
+ * A backup is a chain of compressed files in a directory of the caller's choice: a full copy
+ * of every page of the database files, followed by incremental backups that only hold the
+ * pages that changed since the previous backup of the chain. A manifest in the same directory
+ * keeps a checksum of every page as of the last backup, which is how changed pages are found.
+ * Every {@link #MAX_INCREMENTS} backups, a new chain starts with a full backup and the old
+ * chain is deleted.
+ *
+ * A backup first copies each database file as of a moment between two transactions, see
+ * {@link #snapshot}, while the app goes on reading and selling. The pages are then compared
+ * and compressed from the copies, without holding up the database. A game moves to or from
+ * the archive in a transaction in each database, so the two are copied between two moves, and
+ * a restored game is never in both or in neither.
+ *
+ * {@link #backup} and {@link #restore} do disk I/O, so they must not be called on the main
+ * thread.
+ */
+public class GameBackup {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = GameBackup.class.getSimpleName();
+
+    /** Number of incremental backups after a full one before the next full one */
+    static final int MAX_INCREMENTS = 6;
+
+    /** First bytes of every backup file and of the manifest: "GBAK" */
+    private static final int MAGIC = 0x4742414b;
+
+    /**
+     * Version of the format of the backup files and the manifest. Version 2 adds the archive
+     * database after the games database.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /** Number of databases in a backup: the games database, then the archive database */
+    private static final int DATABASE_COUNT = 2;
+
+    /** Marks the end of the pages of a database in a backup file */
+    private static final int END_OF_PAGES = -1;
+
+    /** Name of the manifest in the backup directory */
+    private static final String MANIFEST_NAME = "manifest";
+
+    /** Names of the files the databases are copied to before their pages are compared */
+    private static final String[] SNAPSHOT_NAMES = { "backup.games", "backup.archive" };
+
+    /** Name of the savepoint that holds the read of a snapshot */
+    private static final String SNAPSHOT_SAVEPOINT = "backup_snapshot";
+
+    /** Number of times to try to take a snapshot of a database before giving up */
+    private static final int MAX_SNAPSHOT_ATTEMPTS = 5;
+
+    /** Time to wait before trying again to take a snapshot, in milliseconds */
+    private static final long SNAPSHOT_RETRY_MILLIS = 100;
+
+    /** Offset of the page size in the header of a database file */
+    private static final int PAGE_SIZE_OFFSET = 16;
+
+    /**
+     * Counts of one call to {@link #backup}.
+     */
+    public static final class Result {
+
+        /** Sequence number of the backup, which is also in its file name */
+        public long sequence;
+
+        /** Whether this is a full backup, as opposed to an incremental one */
+        public boolean full;
+
+        /** Number of pages of the databases */
+        public int pages;
+
+        /** Number of pages written to the backup */
+        public int changedPages;
+
+        /** Size of the backup file, in bytes */
+        public long size;
+
+        @Override
+        public String toString() {
+            return "sequence=" + sequence + " full=" + full + " pages=" + pages
+                    + " changed=" + changedPages + " size=" + size;
+        }
+    }
+
+    /**
+     * State of the backups as of the last one, stored in the manifest.
+     */
+    private static final class Manifest {
+
+        /** Version of the format of the last backup */
+        int formatVersion;
+
+        /** Sequence number of the last backup */
+        long sequence;
+
+        /** Sequence number of the full backup the chain of the last backup starts with */
+        long chainStart;
+
+        /** Size of a page of each database, or null if the format is an older one */
+        int[] pageSizes;
+
+        /** Checksum of every page of each database as of the last backup */
+        int[][] pageChecksums;
+    }
+
+    private final Context mContext;
+    private final File mDirectory;
+
+    /**
+     * Constructs a new instance of {@link GameBackup}.
+     *
+     * @param context   of the app
+     * @param directory where the backup files are kept; created if it doesn't exist
+     */
+    public GameBackup(Context context, File directory) {
+        mContext = context.getApplicationContext();
+        mDirectory = directory;
+    }
+
+    /**
+     * Back up the databases, incrementally unless a full backup is due.
+     */
+    public Result backup() throws IOException {
+        return backup(false);
+    }
+
+    /**
+     * Back up the databases.
+     *
+     * @param full whether to start a new chain with a full backup even if it isn't due
+     * @throws IOException if the databases stayed too busy to be copied, or the copy failed
+     */
+    public Result backup(boolean full) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        GameDbHelper dbHelper = GameDbHelper.getInstance(mContext);
+        File[] snapshots = new File[DATABASE_COUNT];
+        for (int i = 0; i < DATABASE_COUNT; i++) {
+            snapshots[i] = new File(mContext.getCacheDir(), SNAPSHOT_NAMES[i]);
+        }
+        try {
+            // No game moves to or from the archive between the two copies
+            synchronized (dbHelper.getArchiveLock()) {
+                snapshot(dbHelper.getWritableDatabase(), dbHelper.getDatabaseFile(), snapshots[0]);
+                snapshot(dbHelper.getArchiveDatabase(), dbHelper.getArchiveDatabaseFile(),
+                        snapshots[1]);
+            }
+            return backup(snapshots, full);
+        } finally {
+            for (File snapshot : snapshots) {
+                snapshot.delete();
+            }
+        }
+    }
+
+    /**
+     * Back up the copies of the databases.
+     */
+    private Result backup(File[] snapshots, boolean full) throws IOException {
+        Manifest previous = readManifest();
+        int[] pageSizes = new int[DATABASE_COUNT];
+        for (int i = 0; i < DATABASE_COUNT; i++) {
+            pageSizes[i] = readPageSize(snapshots[i]);
+        }
+        if (previous != null && (previous.formatVersion != FORMAT_VERSION
+                || !Arrays.equals(previous.pageSizes, pageSizes)
+                || previous.sequence - previous.chainStart >= MAX_INCREMENTS)) {
+            full = true;
+        }
+
+        Result result = new Result();
+        result.sequence = previous != null ? previous.sequence + 1 : 1;
+        result.full = full || previous == null;
+
+        Manifest manifest = new Manifest();
+        manifest.formatVersion = FORMAT_VERSION;
+        manifest.sequence = result.sequence;
+        manifest.chainStart = result.full ? result.sequence : previous.chainStart;
+        manifest.pageSizes = pageSizes;
+        manifest.pageChecksums = new int[DATABASE_COUNT][];
+
+        // The backup file only appears once it is complete
+        File file = backupFile(result.sequence);
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(temporary))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            for (int i = 0; i < DATABASE_COUNT; i++) {
+                manifest.pageChecksums[i] = copyPages(snapshots[i], pageSizes[i],
+                        result.full ? null : previous.pageChecksums[i], out, result);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Cannot write " + file);
+        }
+        result.size = file.length();
+        writeManifest(manifest);
+
+        // The new chain is complete, so the old one isn't needed anymore
+        if (result.full && previous != null) {
+            for (long sequence = previous.chainStart; sequence <= previous.sequence; sequence++) {
+                backupFile(sequence).delete();
+            }
+        }
+        Log.i(LOG_TAG, "Backup finished: " + result);
+        return result;
+    }
+
+    /**
+     * Copy the database file to the given file as it is between two transactions, while
+     * other threads go on reading and writing the database.
+     *
+     * The committed changes in the write-ahead log are first written to the database file, and
+     * the log is emptied. A connection of its own then starts to read. If the log is still
+     * empty once it has, SQLite reads that transaction from the database file alone, and keeps
+     * any checkpoint from writing to the file until the read ends, so the file doesn't change
+     * while it is copied; the writes that commit meanwhile go to the log. If a write got in
+     * first, it is tried again. Without a write-ahead log, the read keeps the writes from
+     * committing until the copy is done instead, but reads still go on.
+     *
+     * @param database writable database of the file, to checkpoint its log
+     * @throws IOException if a snapshot couldn't be taken after {@link #MAX_SNAPSHOT_ATTEMPTS}
+     */
+    private static void snapshot(SQLiteDatabase database, File databaseFile, File target)
+            throws IOException {
+        File wal = new File(databaseFile.getPath() + "-wal");
+        SQLiteDatabase reader;
+        try {
+            // A connection that only reads leaves the journal mode as it is
+            reader = SQLiteDatabase.openDatabase(databaseFile.getPath(), null,
+                    SQLiteDatabase.OPEN_READONLY);
+        } catch (SQLiteException e) {
+            throw new IOException("Cannot open " + databaseFile, e);
+        }
+        try {
+            for (int attempt = 1; ; attempt++) {
+                // The first column is 1 if a reader or a writer kept the checkpoint from finishing
+                boolean checkpointed = DatabaseUtils.longForQuery(database,
+                        "PRAGMA wal_checkpoint(TRUNCATE)", null) == 0;
+
+                // A savepoint starts a deferred transaction, unlike BEGIN on Android, and the
+                // first query starts the read
+                reader.execSQL("SAVEPOINT " + SNAPSHOT_SAVEPOINT);
+                try {
+                    DatabaseUtils.longForQuery(reader, "SELECT COUNT(*) FROM sqlite_master", null);
+                    if (checkpointed && wal.length() == 0) {
+                        copyFile(databaseFile, target);
+                        return;
+                    }
+                } finally {
+                    reader.execSQL("RELEASE " + SNAPSHOT_SAVEPOINT);
+                }
+                if (attempt == MAX_SNAPSHOT_ATTEMPTS) {
+                    throw new IOException(databaseFile + " stayed too busy to be backed up");
+                }
+                SystemClock.sleep(SNAPSHOT_RETRY_MILLIS);
+            }
+        } catch (SQLiteException e) {
+            throw new IOException("Cannot copy " + databaseFile, e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Copy the pages of the copy of a database that changed since the previous backup to the
+     * backup file, and return the checksums of all of them.
+     *
+     * @param previousChecksums the checksums as of the previous backup, or null to copy every page
+     */
+    private static int[] copyPages(File databaseFile, int pageSize, int[] previousChecksums,
+            DataOutputStream out, Result result) throws IOException {
+        int pageCount = (int) (databaseFile.length() / pageSize);
+        int[] checksums = new int[pageCount];
+        result.pages += pageCount;
+
+        out.writeInt(pageSize);
+        out.writeInt(pageCount);
+        InputStream in = new BufferedInputStream(new FileInputStream(databaseFile));
+        try {
+            byte[] page = new byte[pageSize];
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < pageCount; i++) {
+                readFully(in, page);
+                crc.reset();
+                crc.update(page, 0, pageSize);
+                checksums[i] = (int) crc.getValue();
+                if (previousChecksums == null || i >= previousChecksums.length
+                        || previousChecksums[i] != checksums[i]) {
+                    out.writeInt(i);
+                    out.write(page);
+                    result.changedPages++;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        out.writeInt(END_OF_PAGES);
+
+        // Checksum of the checksums, so that a restore can check the database as a whole
+        out.writeLong(checksumOf(checksums));
+        return checksums;
+    }
+
+    /**
+     * Replace the databases with the ones of the last backup. The chain of the last backup is
+     * applied to copies next to the databases, which are checked before they replace the
+     * databases: their pages must match the checksums the backup recorded, SQLite must find
+     * them intact, and they must not be newer than the app.
+     *
+     * Every open cursor and every statement running on the databases fails, so this is meant
+     * to be done while the app isn't in use. Games synced since the backup are not pulled
+     * again by {@link com.example.android.games.sync.GameSyncEngine}.
+     *
+     * @throws FileNotFoundException if there is no backup
+     * @throws IOException           if the backup is incomplete, corrupt or of an older format
+     * @throws IllegalStateException if the database is still being upgraded in the background
+     */
+    public void restore() throws IOException {
+        Manifest manifest = readManifest();
+        if (manifest == null) {
+            throw new FileNotFoundException("No backup in " + mDirectory);
+        }
+        if (manifest.formatVersion != FORMAT_VERSION) {
+            throw new IOException("The backup in " + mDirectory + " is of an older format");
+        }
+        GameDbHelper dbHelper = GameDbHelper.getInstance(mContext);
+        File[] restored = {
+                new File(dbHelper.getDatabaseFile().getPath() + "-restore"),
+                new File(dbHelper.getArchiveDatabaseFile().getPath() + "-restore") };
+        try {
+            RandomAccessFile[] out = new RandomAccessFile[DATABASE_COUNT];
+            try {
+                for (int i = 0; i < DATABASE_COUNT; i++) {
+                    restored[i].delete();
+                    out[i] = new RandomAccessFile(restored[i], "rw");
+                }
+                for (long sequence = manifest.chainStart; sequence <= manifest.sequence; sequence++) {
+                    applyBackup(backupFile(sequence), out, manifest.pageSizes);
+                }
+            } finally {
+                for (RandomAccessFile file : out) {
+                    if (file != null) {
+                        file.close();
+                    }
+                }
+            }
+            checkDatabase(restored[0], GameDbHelper.DATABASE_VERSION);
+            checkDatabase(restored[1], GameDbHelper.ARCHIVE_VERSION);
+            dbHelper.replaceDatabases(restored[0], restored[1]);
+        } finally {
+            for (File file : restored) {
+                file.delete();
+            }
+        }
+
+        // Everything may have changed
+        mContext.getContentResolver().notifyChange(GameContract.BASE_CONTENT_URI, null);
+        Log.i(LOG_TAG, "Restored backup " + manifest.sequence);
+    }
+
+    /**
+     * Write the pages of one backup file to the restored databases, and check the result
+     * against the checksums recorded in the backup.
+     */
+    private static void applyBackup(File file, RandomAccessFile[] out, int[] expectedPageSizes)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException(file + " is not a backup");
+            }
+            for (int i = 0; i < DATABASE_COUNT; i++) {
+                applyPages(file, in, out[i], expectedPageSizes[i]);
+            }
+        } catch (EOFException e) {
+            throw new IOException(file + " is incomplete", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the pages of one database in a backup file to its restored database, and check
+     * the result against the checksums recorded in the backup.
+     */
+    private static void applyPages(File file, DataInputStream in, RandomAccessFile out,
+            int expectedPageSize) throws IOException {
+        int pageSize = in.readInt();
+        int pageCount = in.readInt();
+        if (pageSize != expectedPageSize || pageCount < 0) {
+            throw new IOException(file + " doesn't belong to this backup");
+        }
+
+        // The database may have shrunk since the previous backup
+        out.setLength((long) pageCount * pageSize);
+        byte[] page = new byte[pageSize];
+        int index;
+        while ((index = in.readInt()) != END_OF_PAGES) {
+            if (index < 0 || index >= pageCount) {
+                throw new IOException(file + " is corrupt");
+            }
+            in.readFully(page);
+            out.seek((long) index * pageSize);
+            out.write(page);
+        }
+        long expectedChecksum = in.readLong();
+
+        int[] checksums = new int[pageCount];
+        CRC32 crc = new CRC32();
+        out.seek(0);
+        for (int i = 0; i < pageCount; i++) {
+            out.readFully(page);
+            crc.reset();
+            crc.update(page, 0, pageSize);
+            checksums[i] = (int) crc.getValue();
+        }
+        if (checksumOf(checksums) != expectedChecksum) {
+            throw new IOException("The database restored from " + file + " doesn't match the backup");
+        }
+    }
+
+    /**
+     * Check that SQLite finds the restored database intact, and that the app can open it.
+     *
+     * @param maxVersion the version of the database the app creates
+     */
+    private static void checkDatabase(File file, int maxVersion) throws IOException {
+        SQLiteDatabase database;
+        try {
+            database = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        } catch (SQLiteException e) {
+            throw new IOException("The restored database can't be opened", e);
+        }
+        try {
+            String integrity = DatabaseUtils.stringForQuery(database, "PRAGMA integrity_check", null);
+            if (!"ok".equals(integrity)) {
+                throw new IOException("The restored database is corrupt: " + integrity);
+            }
+            int version = database.getVersion();
+            if (version < 1 || version > maxVersion) {
+                throw new IOException("The restored database has unknown version " + version);
+            }
+        } catch (SQLiteException e) {
+            throw new IOException("The restored database is corrupt", e);
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Returns the state of the last backup, or null if there is none. The page sizes and
+     * checksums of a backup of an older format aren't read, as only its chain is needed, to
+     * delete it once a new one starts.
+     */
+    private Manifest readManifest() throws IOException {
+        File file = new File(mDirectory, MANIFEST_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            Manifest manifest = new Manifest();
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a backup manifest");
+            }
+            manifest.formatVersion = in.readInt();
+            if (manifest.formatVersion < 1 || manifest.formatVersion > FORMAT_VERSION) {
+                throw new IOException(file + " has unknown version " + manifest.formatVersion);
+            }
+            manifest.sequence = in.readLong();
+            manifest.chainStart = in.readLong();
+            if (manifest.formatVersion != FORMAT_VERSION) {
+                return manifest;
+            }
+            manifest.pageSizes = new int[DATABASE_COUNT];
+            manifest.pageChecksums = new int[DATABASE_COUNT][];
+            for (int i = 0; i < DATABASE_COUNT; i++) {
+                manifest.pageSizes[i] = in.readInt();
+                int[] checksums = new int[in.readInt()];
+                for (int j = 0; j < checksums.length; j++) {
+                    checksums[j] = in.readInt();
+                }
+                manifest.pageChecksums[i] = checksums;
+            }
+            return manifest;
+        } catch (EOFException e) {
+            throw new IOException(file + " is incomplete", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Store the state of the backup that was just made. The manifest is replaced in one step,
+     * so it always describes a complete chain.
+     */
+    private void writeManifest(Manifest manifest) throws IOException {
+        File file = new File(mDirectory, MANIFEST_NAME);
+        File temporary = new File(mDirectory, MANIFEST_NAME + ".tmp");
+        OutputStream stream = new FileOutputStream(temporary);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(manifest.sequence);
+            out.writeLong(manifest.chainStart);
+            for (int i = 0; i < DATABASE_COUNT; i++) {
+                out.writeInt(manifest.pageSizes[i]);
+                out.writeInt(manifest.pageChecksums[i].length);
+                for (int checksum : manifest.pageChecksums[i]) {
+                    out.writeInt(checksum);
+                }
+            }
+            out.flush();
+        } finally {
+            stream.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Cannot write " + file);
+        }
+    }
+
+    /**
+     * Returns the file of the backup with the given sequence number.
+     */
+    private File backupFile(long sequence) {
+        return new File(mDirectory, "shop-" + sequence + ".gz");
+    }
+
+    /**
+     * Returns a checksum of the checksums of all pages.
+     */
+    private static long checksumOf(int[] checksums) {
+        CRC32 crc = new CRC32();
+        for (int checksum : checksums) {
+            crc.update(checksum >>> 24);
+            crc.update(checksum >>> 16);
+            crc.update(checksum >>> 8);
+            crc.update(checksum);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Returns the size of a page of the given database file, from its header.
+     */
+    private static int readPageSize(File databaseFile) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(databaseFile, "r");
+        try {
+            in.seek(PAGE_SIZE_OFFSET);
+            int pageSize = in.readUnsignedShort();
+            // 65536 doesn't fit in the two bytes of the header, so it is stored as 1
+            return pageSize == 1 ? 65536 : pageSize;
+        } catch (EOFException e) {
+            throw new IOException(databaseFile + " is not a database", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copy a file.
+     */
+    private static void copyFile(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Fill the buffer from the stream.
+     */
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int count = in.read(buffer, offset, buffer.length - offset);
+            if (count == -1) {
+                throw new EOFException();
+            }
+            offset += count;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.games.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.games.data.GameContract.ArchivedGameEntry;
+import com.example.android.games.data.GameContract.GameEntry;
+
+/**
+ * Database helper for the archived games, which are kept in a database file of their own so
+ * the games database stays small. Only {@link GameDbHelper} uses it, see
+ * {@link GameDbHelper#getArchiveDatabase}.
+ *
+ * The archive isn't attached to the games database: attaching a database turns write-ahead
+ * logging off on Android. A game moves between the two databases in two transactions, one in
+ * each, and the moves table of the archive lists the games whose move may be halfway, so
+ * {@link GameDbHelper} can finish them the next time the archive is opened.
+ */
+class ArchiveDbHelper extends SQLiteOpenHelper {
+
+    /** Name of the database file of the archived games */
+    static final String DATABASE_NAME = "shop_archive.db";
+
+    /** Name of the table of the games whose move to or from the archive may be halfway */
+    static final String TABLE_MOVES = "moves";
+
+    /**
+     * Constructs a new instance of {@link ArchiveDbHelper}.
+     *
+     * @param context of the app
+     */
+    ArchiveDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, GameDbHelper.ARCHIVE_VERSION);
+    }
+
+    /**
+     * Use a write-ahead log where the games database does, see {@link GameDbHelper#onConfigure}.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (Build.VERSION.SDK_INT >= GameDbHelper.WRITE_AHEAD_LOGGING_SDK) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        Log.i(GameDbHelper.LOG_TAG, "Creating the archive database");
+        createArchiveTable(db);
+        createMovesTable(db);
+        createSyncIndexes(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // Version 2 of the archive keeps the tags of the games
+            db.execSQL("ALTER TABLE " + ArchivedGameEntry.TABLE_NAME + " ADD COLUMN "
+                    + GameEntry.COLUMN_GAME_TAGS + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 3) {
+            // Version 3 moves the games in two transactions, as the archive isn't attached
+            createMovesTable(db);
+        }
+        if (oldVersion < 4) {
+            // Version 4 lets the sync engine find the archived games
+            createSyncIndexes(db);
+        }
+    }
+
+    /**
+     * Create the table of archived games. It has the columns of
+     * {@link GameDbHelper#GAME_COLUMNS}, and the time each game was archived. The app only
+     * looks up archived games by ID, see {@link #createSyncIndexes} for the sync engine.
+     */
+    private static void createArchiveTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + ArchivedGameEntry.TABLE_NAME + " ("
+                + GameEntry._ID + " INTEGER PRIMARY KEY, "
+                + GameEntry.COLUMN_GAME_NAME + " TEXT NOT NULL, "
+                + GameEntry.COLUMN_GAME_BRAND + " TEXT, "
+                + GameEntry.COLUMN_GAME_DEMOGRAPHIC + " INTEGER NOT NULL, "
+                + GameEntry.COLUMN_GAME_PRICE + " INTEGER NOT NULL DEFAULT 0, "
+                + GameEntry.COLUMN_GAME_IMAGE + " TEXT, "
+                + GameEntry.COLUMN_GAME_GUID + " TEXT, "
+                + GameEntry.COLUMN_GAME_UPDATED_AT + " INTEGER NOT NULL DEFAULT 0, "
+                + GameEntry.COLUMN_GAME_DIRTY + " INTEGER NOT NULL DEFAULT 1, "
+                + GameEntry.COLUMN_GAME_NATURAL_KEY + " TEXT, "
+                + GameEntry.COLUMN_GAME_SECTION + " TEXT, "
+                + GameEntry.COLUMN_GAME_TAGS + " INTEGER NOT NULL DEFAULT 0, "
+                + ArchivedGameEntry.COLUMN_ARCHIVED_AT + " INTEGER NOT NULL);");
+    }
+
+    /**
+     * Create the indexes the sync engine finds the archived games with: by GUID, to apply a
+     * remote change to a game that is archived here, and the dirty ones, to push the changes
+     * made before the games were archived. The GUID index isn't unique, as an archive of an
+     * older version may have the same game twice.
+     */
+    private static void createSyncIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX archive_guid ON " + ArchivedGameEntry.TABLE_NAME + " ("
+                + GameEntry.COLUMN_GAME_GUID + ")");
+        db.execSQL("CREATE INDEX archive_dirty ON " + ArchivedGameEntry.TABLE_NAME + " ("
+                + GameEntry.COLUMN_GAME_DIRTY + ")");
+    }
+
+    /**
+     * Create the table of the games whose move may be halfway, by ID. A game is listed in the
+     * same transaction that adds it to the archive or that starts to take it out, and unlisted
+     * once the games database has its side of the move.
+     */
+    private static void createMovesTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MOVES + " (" + GameEntry._ID + " INTEGER PRIMARY KEY)");
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.android.games.data;
+
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.text.TextUtils;
+
+import com.example.android.games.data.GameContract.ArchivedGameEntry;
+import com.example.android.games.data.GameContract.GameEntry;
+
+import java.util.List;
+
+/**
+ * Observer of {@link GameEntry#CONTENT_URI} and its descendants that tells a change to single
+ * games apart from a change to many games at once, for the caches kept in step with the games.
+ *
+ * The provider notifies the URI of every game it changes, bulk writes included, as long as
+ * there are few enough of them; only beyond that, or for work like an upgrade of the database,
+ * does it notify the URI of all games. The sections only change along with a game, which is
+ * notified as well, and so does the archive, so neither is passed on.
+ */
+public abstract class GameChangeObserver extends ContentObserver {
+
+    /**
+     * Constructs a new observer.
+     *
+     * @param handler to call the observer on, or null to call it on the thread of the binder
+     */
+    public GameChangeObserver(Handler handler) {
+        super(handler);
+    }
+
+    @Override
+    public final void onChange(boolean selfChange) {
+        // Before API 16 the changed URI isn't known, so assume every game changed
+        onGamesChanged();
+    }
+
+    @Override
+    public final void onChange(boolean selfChange, Uri uri) {
+        if (uri == null) {
+            onGamesChanged();
+            return;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() == 2 && TextUtils.isDigitsOnly(segments.get(1))) {
+            onGameChanged(ContentUris.parseId(uri));
+        } else if (segments.size() <= 2 && !GameEntry.SECTIONS_URI.equals(uri)
+                && !ArchivedGameEntry.CONTENT_URI.equals(uri)) {
+            onGamesChanged();
+        }
+    }
+
+    /**
+     * Called when the game with the given ID was added, changed or deleted.
+     */
+    protected abstract void onGameChanged(long id);
+
+    /**
+     * Called when any number of games may have been added, changed or deleted.
+     */
+    protected abstract void onGamesChanged();
+}
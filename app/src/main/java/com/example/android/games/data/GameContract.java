@@ -5,6 +5,8 @@ import android.net.Uri;
 import android.content.ContentResolver;
 import android.provider.BaseColumns;
 
+import java.text.Collator;
+
 /**
  * API Contract for the Games app.
  */
@@ -36,6 +38,307 @@ public final class GameContract {
      */
     public static final String PATH_GAMES = "games";
 
+    /**
+     * Path of the alphabetical sections of the catalog, appended to the path of the games.
+     * For instance, content://com.example.android.games/games/sections
+     */
+    public static final String PATH_SECTIONS = "sections";
+
+    /**
+     * Path of the games similar to a game, appended to the URI of the game.
+     * For instance, content://com.example.android.games/games/3/similar
+     */
+    public static final String PATH_SIMILAR = "similar";
+
+    /**
+     * Path of the archived games, appended to the path of the games.
+     * For instance, content://com.example.android.games/games/archive
+     */
+    public static final String PATH_ARCHIVE = "archive";
+
+    /**
+     * Path of the stock of the games in the stores.
+     * For instance, content://com.example.android.games/inventory
+     */
+    public static final String PATH_INVENTORY = "inventory";
+
+    /**
+     * Path of the sales ledger.
+     * For instance, content://com.example.android.games/sales
+     */
+    public static final String PATH_SALES = "sales";
+
+    /**
+     * Paths of the daily sales reports, appended to the path of the sales.
+     * For instance, content://com.example.android.games/sales/by_brand
+     */
+    public static final String PATH_SALES_BY_GAME = "by_game";
+    public static final String PATH_SALES_BY_BRAND = "by_brand";
+    public static final String PATH_SALES_BY_DEMOGRAPHIC = "by_demographic";
+
+    /**
+     * Path of the query plan diagnostics.
+     * For instance, content://com.example.android.games/query_plans
+     */
+    public static final String PATH_QUERY_PLANS = "query_plans";
+
+    /**
+     * Path of the deleted games that haven't been pushed to the sync server yet.
+     * For instance, content://com.example.android.games/deleted_games
+     */
+    public static final String PATH_DELETED_GAMES = "deleted_games";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that reads games in bulk.
+     * Instead of a Cursor, the result is a Bundle of parallel arrays
+     * ({@link #EXTRA_IDS}, {@link #EXTRA_NAMES}, {@link #EXTRA_BRANDS},
+     * {@link #EXTRA_DEMOGRAPHICS} and {@link #EXTRA_PRICES}), one entry per game, ordered by ID.
+     *
+     * The request extras may contain {@link #EXTRA_AFTER_ID}, {@link #EXTRA_TO_ID},
+     * {@link #EXTRA_SELECTION} and {@link #EXTRA_SELECTION_ARGS}. A single call returns at most
+     * one chunk that fits in a binder transaction. If {@link #EXTRA_HAS_MORE} is true, call
+     * again with {@link #EXTRA_AFTER_ID} set to the returned {@link #EXTRA_NEXT_AFTER_ID}.
+     *
+     * The provider isn't exported, so the callers are in the app's own process and the
+     * chunks don't actually cross a binder. They still bound the memory a read takes, and how
+     * long it holds a database connection, and the method keeps working if the provider is
+     * ever exported.
+     */
+    public static final String METHOD_BULK_READ = "bulkRead";
+
+    /** Request key (long): only return games with an ID greater than this value. */
+    public static final String EXTRA_AFTER_ID = "after_id";
+
+    /** Request key (long): only return games with an ID less than or equal to this value. */
+    public static final String EXTRA_TO_ID = "to_id";
+
+    /** Request key (String): extra selection clause applied to the games table. */
+    public static final String EXTRA_SELECTION = "selection";
+
+    /** Request key (String[]): arguments for the {@link #EXTRA_SELECTION} clause. */
+    public static final String EXTRA_SELECTION_ARGS = "selection_args";
+
+    /** Request key (int): maximum number of games to return in one chunk. */
+    public static final String EXTRA_LIMIT = "limit";
+
+    /** Result key (long[]): IDs of the games in this chunk. */
+    public static final String EXTRA_IDS = "ids";
+
+    /** Result key (String[]): names of the games in this chunk. */
+    public static final String EXTRA_NAMES = "names";
+
+    /** Result key (String[]): brands of the games in this chunk (entries may be null). */
+    public static final String EXTRA_BRANDS = "brands";
+
+    /** Result key (int[]): demographics of the games in this chunk. */
+    public static final String EXTRA_DEMOGRAPHICS = "demographics";
+
+    /** Result key (int[]): prices of the games in this chunk. */
+    public static final String EXTRA_PRICES = "prices";
+
+    /** Result key (boolean): whether more games match the request after this chunk. */
+    public static final String EXTRA_HAS_MORE = "has_more";
+
+    /** Result key (long): the value to pass as {@link #EXTRA_AFTER_ID} to read the next chunk. */
+    public static final String EXTRA_NEXT_AFTER_ID = "next_after_id";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that changes the price of
+     * every game matching {@link #EXTRA_SELECTION} in a single statement. The change is either
+     * a percentage ({@link #EXTRA_PERCENT}) or a fixed amount ({@link #EXTRA_AMOUNT}), which may
+     * be negative. Percentage changes are rounded with {@link #EXTRA_ROUNDING}, and a price is
+     * never lowered below 0. The result contains the number of changed games in
+     * {@link #EXTRA_COUNT}.
+     */
+    public static final String METHOD_ADJUST_PRICES = "adjustPrices";
+
+    /**
+     * Request key (double, or any other number): percentage to add to the price, for example
+     * 10 or -25.
+     */
+    public static final String EXTRA_PERCENT = "percent";
+
+    /** Request key (int or long): amount to add to the price, for example 5 or -5. */
+    public static final String EXTRA_AMOUNT = "amount";
+
+    /**
+     * Request key (String): how to round a new price, one of {@link #ROUNDING_NEAREST}
+     * (the default), {@link #ROUNDING_UP} or {@link #ROUNDING_DOWN}.
+     */
+    public static final String EXTRA_ROUNDING = "rounding";
+
+    /**
+     * Possible values for {@link #EXTRA_ROUNDING}.
+     */
+    public static final String ROUNDING_NEAREST = "nearest";
+    public static final String ROUNDING_UP = "up";
+    public static final String ROUNDING_DOWN = "down";
+
+    /** Result key (int): number of games affected by the call. */
+    public static final String EXTRA_COUNT = "count";
+
+    /**
+     * Query parameter for inserts into {@link GameEntry#CONTENT_URI}. When set to "true", a game
+     * with the same {@link GameEntry#COLUMN_GAME_NATURAL_KEY} as an existing game updates that
+     * game instead of failing, and the returned URI is the URI of the existing game. A new game
+     * whose {@link GameEntry#COLUMN_GAME_GUID} belongs to another game still fails, with an
+     * {@link android.database.sqlite.SQLiteConstraintException}.
+     */
+    public static final String QUERY_PARAMETER_UPSERT = "upsert";
+
+    /**
+     * Query parameters for queries of {@link GameEntry#CONTENT_URI} and
+     * {@link GameEntry#SECTIONS_URI} that filter the games by their
+     * {@link GameEntry#COLUMN_GAME_TAGS}. Each one is a mask of TAG_ values, in decimal: the
+     * games must have all the tags of {@link #QUERY_PARAMETER_TAGS_ALL}, at least one of the
+     * tags of {@link #QUERY_PARAMETER_TAGS_ANY}, and none of the tags of
+     * {@link #QUERY_PARAMETER_TAGS_NONE}. They combine with the selection of the query. Use
+     * {@link GameEntry#withTagFilter} to add them.
+     */
+    public static final String QUERY_PARAMETER_TAGS_ALL = "tags_all";
+    public static final String QUERY_PARAMETER_TAGS_ANY = "tags_any";
+    public static final String QUERY_PARAMETER_TAGS_NONE = "tags_none";
+
+    /**
+     * Query parameter for changes made by the sync engine. When set to "true", the changes
+     * come from the sync server, so the games stay clean ({@link GameEntry#COLUMN_GAME_DIRTY}
+     * is 0) and keep the {@link GameEntry#COLUMN_GAME_UPDATED_AT} and
+     * {@link GameEntry#COLUMN_GAME_NATURAL_KEY} they are given, and deleted games leave no
+     * tombstone. Only the sync engine sets it. Use {@link #asSyncAdapter} to add it.
+     */
+    public static final String QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER = "caller_is_syncadapter";
+
+    /**
+     * Query parameter for queries of {@link GameEntry#CONTENT_URI} and
+     * {@link DeletedGameEntry#CONTENT_URI}: the largest number of rows to return.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Returns the given URI with {@link #QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER} set.
+     */
+    public static Uri asSyncAdapter(Uri uri) {
+        return uri.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER, "true")
+                .build();
+    }
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that inserts or updates a
+     * batch of games ({@link #EXTRA_VALUES}) in one transaction, matching them to existing games
+     * by {@link GameEntry#COLUMN_GAME_NATURAL_KEY}. Existing games whose values are all the same
+     * are left untouched. The result contains {@link #EXTRA_INSERTED}, {@link #EXTRA_UPDATED}
+     * and {@link #EXTRA_UNCHANGED}. If a new game has the {@link GameEntry#COLUMN_GAME_GUID} of
+     * another game, the call fails with an
+     * {@link android.database.sqlite.SQLiteConstraintException} and none of the games are
+     * written.
+     */
+    public static final String METHOD_UPSERT = "upsert";
+
+    /** Request key (ArrayList&lt;ContentValues&gt;): the games to insert or update. */
+    public static final String EXTRA_VALUES = "values";
+
+    /** Result key (int): number of new games inserted by the call. */
+    public static final String EXTRA_INSERTED = "inserted";
+
+    /** Result key (int): number of existing games updated by the call. */
+    public static final String EXTRA_UPDATED = "updated";
+
+    /** Result key (int): number of existing games that already had the same values. */
+    public static final String EXTRA_UNCHANGED = "unchanged";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that opens a notification
+     * batch. Until the matching {@link #METHOD_END_BATCH} call, the provider collects the URIs
+     * it changes instead of notifying them, and then notifies each of them once. Several
+     * batches can be open at once, and the URIs are notified when the last one closes. A batch
+     * that is left open for too long is closed by the provider. The result contains
+     * {@link #EXTRA_BATCH_TOKEN}.
+     */
+    public static final String METHOD_BEGIN_BATCH = "beginBatch";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that closes the notification
+     * batch opened with {@link #METHOD_BEGIN_BATCH} whose {@link #EXTRA_BATCH_TOKEN} is given.
+     */
+    public static final String METHOD_END_BATCH = "endBatch";
+
+    /**
+     * Result key of {@link #METHOD_BEGIN_BATCH}, and request key of {@link #METHOD_END_BATCH}
+     * (long): identifies one notification batch.
+     */
+    public static final String EXTRA_BATCH_TOKEN = "batch_token";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that sells
+     * {@link #EXTRA_QUANTITY} copies of the game {@link #EXTRA_GAME_ID} in the store
+     * {@link #EXTRA_STORE}. The sale only goes through if the store has enough copies in stock,
+     * and the check and the decrement are a single atomic statement, so concurrent sales of
+     * the same game can never oversell it. A sale that goes through is recorded in the
+     * {@link SaleEntry sales ledger} in the same transaction. The result contains
+     * {@link #EXTRA_SUCCESS} and {@link #EXTRA_STOCK}.
+     */
+    public static final String METHOD_SELL = "sell";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that adds
+     * {@link #EXTRA_QUANTITY} copies of the game {@link #EXTRA_GAME_ID} to the stock of the
+     * store {@link #EXTRA_STORE}. The result contains {@link #EXTRA_SUCCESS}, which is false if
+     * there is no such game, and {@link #EXTRA_STOCK}.
+     */
+    public static final String METHOD_RESTOCK = "restock";
+
+    /** Request key (long): ID of the game. */
+    public static final String EXTRA_GAME_ID = "game_id";
+
+    /** Request key (String): the store, see {@link InventoryEntry#COLUMN_INVENTORY_STORE}. */
+    public static final String EXTRA_STORE = "store";
+
+    /**
+     * Request key (int or long): number of copies, from 1 to {@link Integer#MAX_VALUE}.
+     * Defaults to 1.
+     */
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /** Result key (boolean): whether the call changed the stock. */
+    public static final String EXTRA_SUCCESS = "success";
+
+    /** Result key (int): number of copies in stock after the call. */
+    public static final String EXTRA_STOCK = "stock";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that moves retired games
+     * to the {@link ArchivedGameEntry archive}. A game is retired if it hasn't been changed or
+     * sold within {@link #EXTRA_WINDOW_MILLIS} and has no copies left in any store. The games
+     * are moved in small batches, each in its own transaction, so other writers are never held
+     * up for long. The result contains the number of archived games in {@link #EXTRA_COUNT}.
+     */
+    public static final String METHOD_ARCHIVE = "archive";
+
+    /**
+     * Request key (long): how long a game has to go without changes or sales before it is
+     * archived, in milliseconds. Defaults to {@link ArchivedGameEntry#DEFAULT_WINDOW_MILLIS}.
+     */
+    public static final String EXTRA_WINDOW_MILLIS = "window_millis";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that moves the archived game
+     * {@link #EXTRA_GAME_ID} back to the games table, with the same ID. The result contains
+     * {@link #EXTRA_SUCCESS}, which is false if there is no such archived game, or if another
+     * game now has the same natural key or GUID.
+     */
+    public static final String METHOD_UNARCHIVE = "unarchive";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that turns the
+     * {@link QueryPlanEntry query plan diagnostics} on or off, as given by
+     * {@link #EXTRA_ENABLED}. Either way, the plans recorded so far are cleared.
+     */
+    public static final String METHOD_SET_QUERY_PLAN_DIAGNOSTICS = "setQueryPlanDiagnostics";
+
+    /** Request key (boolean): whether to turn the diagnostics on. */
+    public static final String EXTRA_ENABLED = "enabled";
+
     /**
      * Inner class that defines constant values for the games database table.
      * Each entry in the table represents a single game.
@@ -57,6 +360,20 @@ public final class GameContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_GAMES;
 
+        /**
+         * The content URI of the alphabetical sections of the catalog. Each row is one section
+         * that has games in it, with its {@link #COLUMN_GAME_SECTION} and the number of games
+         * in it ({@link #_COUNT}), in the order of {@link #SORT_ORDER_SECTIONS}. It is notified
+         * whenever the sections may have changed.
+         */
+        public static final Uri SECTIONS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SECTIONS);
+
+        /**
+         * The MIME type of the {@link #SECTIONS_URI}.
+         */
+        public static final String CONTENT_SECTIONS_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SECTIONS;
+
         /** Name of database table for games */
         public final static String TABLE_NAME = "games";
 
@@ -98,6 +415,117 @@ public final class GameContract {
          */
         public final static String COLUMN_GAME_PRICE = "price";
 
+        /**
+         * Content URI of the box art image of the game, or null if it doesn't have one.
+         * Any URI that {@link ContentResolver#openInputStream} can open is valid.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_GAME_IMAGE = "image";
+
+        /**
+         * Globally unique ID of the game, shared by every device the game is synced to.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_GAME_GUID = "guid";
+
+        /**
+         * Time of the last change to the game, in milliseconds since the epoch. Also used as
+         * the row version when syncing.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_GAME_UPDATED_AT = "updated_at";
+
+        /**
+         * Whether the game has local changes that haven't been pushed to the sync server yet.
+         * 1 if it does, 0 if it doesn't.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_GAME_DIRTY = "dirty";
+
+        /**
+         * Natural key of the game, derived from its name and brand by {@link #naturalKey}.
+         * No two games can have the same natural key: inserting or updating a game so that it
+         * has the same name and brand as another game throws a
+         * {@link android.database.sqlite.SQLiteConstraintException}. When a sync brings in a
+         * game with the same name and brand as a local one, the key of one of them ends in "#"
+         * and its GUID.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_GAME_NATURAL_KEY = "natural_key";
+
+        /**
+         * Alphabetical section of the game in the catalog, derived from its name by
+         * {@link #section} in the language of the device. Maintained by the provider, and
+         * recomputed in the background when the language of the device changes.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_GAME_SECTION = "section";
+
+        /**
+         * Key that sorts the section of the game in the order of the language of the device,
+         * derived from the section by {@link #sectionKey}. Sorting by the section itself would
+         * put "Ä" before "Å" in Swedish, where it comes after. Maintained by the provider along
+         * with the section.
+         *
+         * Type: BLOB
+         */
+        public final static String COLUMN_GAME_SECTION_KEY = "section_key";
+
+        /**
+         * Key that sorts the game by name in the order of the language of the device, derived
+         * from its name by {@link #sortKey}. Unlike the name compared without case, it sorts
+         * "Éclipse" next to "Eclipse" rather than after "Zombies". Maintained by the provider,
+         * and recomputed in the background when the language of the device changes.
+         *
+         * Type: BLOB
+         */
+        public final static String COLUMN_GAME_SORT_KEY = "sort_key";
+
+        /**
+         * Brand of the game as games are matched by it, derived from the brand by
+         * {@link #brandKey}: without case, and with white space trimmed and collapsed, or an
+         * empty string if the game has no brand. Maintained by the provider, and indexed, so
+         * the games of a brand are found without comparing every brand.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_GAME_BRAND_KEY = "brand_key";
+
+        /**
+         * Tags of the game, as a bitmask of TAG_ values, 0 if it has none. Filter on several
+         * tags at once with {@link #withTagFilter}, which tests every game with a single
+         * bitwise operation instead of looking up each tag.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_GAME_TAGS = "tags";
+
+        /**
+         * The section of games whose name doesn't start with a letter.
+         */
+        public static final String SECTION_OTHER = GameText.SECTION_OTHER;
+
+        /**
+         * Sort order that lists the games section by section, and by name within a section,
+         * in the order of the language of the device. The positions of the sections in a list
+         * sorted this way follow from the counts of {@link #SECTIONS_URI}.
+         */
+        public static final String SORT_ORDER_SECTIONS = COLUMN_GAME_SECTION_KEY + ", "
+                + COLUMN_GAME_SECTION + ", " + COLUMN_GAME_SORT_KEY;
+
+        /**
+         * Selection of the games whose name or brand starts with a filter, as the catalog
+         * filters them. Its arguments come from {@link #prefixFilterArgs}.
+         */
+        public static final String SELECTION_PREFIX_FILTER = "(" + COLUMN_GAME_NAME
+                + " LIKE ? ESCAPE '\\' OR " + COLUMN_GAME_BRAND + " LIKE ? ESCAPE '\\')";
+
         /**
          * Possible values for the demographic of the game.
          */
@@ -115,7 +543,515 @@ public final class GameContract {
             }
             return false;
         }
+
+        /**
+         * Possible tags of the game, one bit each. New tags take the next free bit, and a bit
+         * is never reused, as games keep the bits they already have.
+         */
+        public static final long TAG_COOP = 1L;
+        public static final long TAG_PARTY = 1L << 1;
+        public static final long TAG_TWO_PLAYER = 1L << 2;
+        public static final long TAG_STRATEGY = 1L << 3;
+        public static final long TAG_CARD = 1L << 4;
+        public static final long TAG_DICE = 1L << 5;
+        public static final long TAG_WORD = 1L << 6;
+        public static final long TAG_TRIVIA = 1L << 7;
+
+        /** Every tag there is */
+        public static final long ALL_TAGS = TAG_COOP | TAG_PARTY | TAG_TWO_PLAYER | TAG_STRATEGY
+                | TAG_CARD | TAG_DICE | TAG_WORD | TAG_TRIVIA;
+
+        /**
+         * Returns whether or not the given tags are a combination of the TAG_ values, including
+         * none of them.
+         */
+        public static boolean isValidTags(long tags) {
+            return (tags & ~ALL_TAGS) == 0;
+        }
+
+        /**
+         * Returns the given URI of {@link #CONTENT_URI} or {@link #SECTIONS_URI} with a filter
+         * on the tags of the games. Pass 0 for a part of the filter that isn't needed.
+         *
+         * @param all  tags the games must all have
+         * @param any  tags the games must have at least one of
+         * @param none tags the games must not have
+         */
+        public static Uri withTagFilter(Uri uri, long all, long any, long none) {
+            Uri.Builder builder = uri.buildUpon();
+            if (all != 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_TAGS_ALL, String.valueOf(all));
+            }
+            if (any != 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_TAGS_ANY, String.valueOf(any));
+            }
+            if (none != 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_TAGS_NONE, String.valueOf(none));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Returns the {@link #COLUMN_GAME_NATURAL_KEY} for a game with the given name and brand.
+         * Case, leading and trailing white space, and repeated white space are ignored, so
+         * "Monopoly " by "hasbro" and "monopoly" by "Hasbro" are the same game.
+         */
+        public static String naturalKey(String name, String brand) {
+            return GameText.naturalKey(name, brand);
+        }
+
+        /**
+         * Returns the {@link #COLUMN_GAME_BRAND_KEY} for a game with the given brand.
+         */
+        public static String brandKey(String brand) {
+            return GameText.brandKey(brand);
+        }
+
+        /**
+         * Returns the {@link #COLUMN_GAME_SECTION} for a game with the given name, in the
+         * current language of the device: the letter of its alphabet the name starts with, in
+         * upper case, or {@link #SECTION_OTHER} if the name doesn't start with a letter.
+         */
+        public static String section(String name) {
+            return section(Collator.getInstance(), name);
+        }
+
+        /**
+         * Returns the {@link #COLUMN_GAME_SECTION} for a game with the given name, in the
+         * language of the given collator. "Ö" is in section "O" in German, and in a section of
+         * its own after "Z" in Swedish.
+         */
+        public static String section(Collator collator, String name) {
+            return GameText.section(collator, name);
+        }
+
+        /**
+         * Returns the {@link #COLUMN_GAME_SECTION_KEY} for the given section, using the given
+         * collator.
+         */
+        public static byte[] sectionKey(Collator collator, String section) {
+            return GameText.sectionKey(collator, section);
+        }
+
+        /**
+         * Returns the {@link #COLUMN_GAME_SORT_KEY} for a game with the given name, in the
+         * current language of the device.
+         */
+        public static byte[] sortKey(String name) {
+            return sortKey(Collator.getInstance(), name);
+        }
+
+        /**
+         * Returns the {@link #COLUMN_GAME_SORT_KEY} for a game with the given name, using the
+         * given collator. Computing many keys with one collator saves creating one per key.
+         * The bytes of the keys compare in the order of the collator, which is how SQLite
+         * compares BLOBs, so sorting by the key needs no collation in the database.
+         */
+        public static byte[] sortKey(Collator collator, String name) {
+            return GameText.sortKey(collator, name);
+        }
+
+        /**
+         * Returns the selection arguments of {@link #SELECTION_PREFIX_FILTER} for the given
+         * filter, which is matched literally.
+         */
+        public static String[] prefixFilterArgs(String filter) {
+            String pattern = GameText.prefixPattern(filter);
+            return new String[] { pattern, pattern };
+        }
     }
 
-}
+    /**
+     * Inner class that defines constant values for the archived games database table.
+     * The table has the same columns as the games table, and lives in a separate database
+     * file that is only opened when it is needed. {@link GameEntry#CONTENT_URI} never lists
+     * archived games; they can only be read through {@link #CONTENT_URI}, and changed by
+     * moving them back with {@link #METHOD_UNARCHIVE}. Only the sync engine changes and deletes
+     * them where they are, with {@link GameContract#asSyncAdapter}, so a game keeps its place
+     * in the archive when another device changes it.
+     */
+    public static final class ArchivedGameEntry implements BaseColumns {
+
+        /** The content URI to read the archived games in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(GameEntry.CONTENT_URI, PATH_ARCHIVE);
 
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of archived games.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single archived game.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        /** Name of database table for archived games, in the archive database */
+        public final static String TABLE_NAME = GameEntry.TABLE_NAME;
+
+        /**
+         * Time the game was archived, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ARCHIVED_AT = "archived_at";
+
+        /** Default window of {@link #EXTRA_WINDOW_MILLIS}: 180 days */
+        public static final long DEFAULT_WINDOW_MILLIS = 180L * 24 * 60 * 60 * 1000;
+    }
+
+    /**
+     * Inner class that defines constant values for the similar games database table.
+     * Each entry is one of the {@link #MAX_SIMILAR} games most similar to a game, by brand,
+     * demographic and price band. The table is kept up to date in the background after the
+     * games change, so it may lag behind them for a moment. Read it through
+     * {@link #buildSimilarUri}, which returns the similar games themselves, with the columns
+     * of {@link GameEntry}, most similar first.
+     */
+    public static final class SimilarGameEntry {
+
+        /**
+         * URI notified whenever the similar games have been updated after a change to the
+         * games. The lists themselves are read through {@link #buildSimilarUri}.
+         */
+        public static final Uri NOTIFICATION_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, "similar_games");
+
+        /** Name of database table for similar games */
+        public final static String TABLE_NAME = "similar_games";
+
+        /**
+         * ID of the game the entry belongs to.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SIMILAR_GAME_ID = "game_id";
+
+        /**
+         * Position of the similar game in the list, from 0 for the most similar one.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SIMILAR_RANK = "rank";
+
+        /**
+         * ID of the similar game.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SIMILAR_ID = "similar_id";
+
+        /**
+         * How similar the games are, higher is more similar.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SIMILAR_SCORE = "score";
+
+        /** Largest number of similar games kept for a game */
+        public static final int MAX_SIMILAR = 10;
+
+        /**
+         * Returns the content URI of the games similar to the game with the given ID.
+         */
+        public static Uri buildSimilarUri(long gameId) {
+            return GameEntry.CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(gameId))
+                    .appendPath(PATH_SIMILAR)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the deleted games database table.
+     * Each entry in the table records a deleted game that hasn't been pushed to the
+     * sync server yet. The provider records them when games are deleted; only the sync engine
+     * deletes them, through {@link GameContract#asSyncAdapter}.
+     */
+    public static final class DeletedGameEntry implements BaseColumns {
+
+        /** The content URI to read the deleted games in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_DELETED_GAMES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of deleted games.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DELETED_GAMES;
+
+        /** Name of database table for deleted games */
+        public final static String TABLE_NAME = "deleted_games";
+
+        /**
+         * Globally unique ID of the deleted game.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_GUID = "guid";
+
+        /**
+         * Time the game was deleted, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DELETED_AT = "deleted_at";
+    }
+
+    /**
+     * Inner class that defines constant values for the inventory database table.
+     * Each entry in the table is the stock of one game in one store. The stock can only be
+     * changed with {@link #METHOD_SELL} and {@link #METHOD_RESTOCK}.
+     */
+    public static final class InventoryEntry implements BaseColumns {
+
+        /** The content URI to read the stock of the games in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_INVENTORY);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of stock entries.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_INVENTORY;
+
+        /** Name of database table for the inventory */
+        public final static String TABLE_NAME = "inventory";
+
+        /**
+         * ID of the game in the games table.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_INVENTORY_GAME_ID = "game_id";
+
+        /**
+         * Code of the store, for example "downtown".
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_INVENTORY_STORE = "store";
+
+        /**
+         * Number of copies of the game in stock in the store. Never less than 0.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_INVENTORY_QUANTITY = "quantity";
+    }
+
+    /**
+     * Inner class that defines constant values for the sales ledger database table.
+     * Each entry in the table is one sale made with {@link #METHOD_SELL}. Entries are never
+     * changed or deleted. The game's brand, demographic and price are copied into the entry
+     * at the time of the sale, so later changes to the game don't rewrite history.
+     */
+    public static final class SaleEntry implements BaseColumns {
+
+        /** The content URI to read the sales ledger in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SALES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of sales.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SALES;
+
+        /** Name of database table for the sales ledger */
+        public final static String TABLE_NAME = "sales";
+
+        /**
+         * ID of the game sold. The game may have been deleted since.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SALE_GAME_ID = "game_id";
+
+        /**
+         * Code of the store that made the sale.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SALE_STORE = "store";
+
+        /**
+         * Number of copies sold.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SALE_QUANTITY = "quantity";
+
+        /**
+         * Price of one copy at the time of the sale.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SALE_UNIT_PRICE = "unit_price";
+
+        /**
+         * Revenue of the sale, the quantity times the unit price.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SALE_REVENUE = "revenue";
+
+        /**
+         * Brand of the game at the time of the sale, or an empty string if it had none.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SALE_BRAND = "brand";
+
+        /**
+         * Demographic of the game at the time of the sale.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SALE_DEMOGRAPHIC = "demographic";
+
+        /**
+         * Time of the sale, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SALE_SOLD_AT = "sold_at";
+
+        /**
+         * Local date of the sale, in the form "2016-08-31".
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SALE_DAY = "day";
+    }
+
+    /**
+     * Inner class that defines constant values for the daily sales report tables.
+     * Each entry in a table is the total of one day for one game, brand or demographic. The
+     * totals are updated in the same transaction as every sale, so reading a day is an index
+     * lookup no matter how long the sales ledger gets. The reports can only be read.
+     */
+    public static final class SalesReportEntry {
+
+        /** The content URI of the daily sales per game */
+        public static final Uri BY_GAME_URI =
+                Uri.withAppendedPath(SaleEntry.CONTENT_URI, PATH_SALES_BY_GAME);
+
+        /** The content URI of the daily sales per brand */
+        public static final Uri BY_BRAND_URI =
+                Uri.withAppendedPath(SaleEntry.CONTENT_URI, PATH_SALES_BY_BRAND);
+
+        /** The content URI of the daily sales per demographic */
+        public static final Uri BY_DEMOGRAPHIC_URI =
+                Uri.withAppendedPath(SaleEntry.CONTENT_URI, PATH_SALES_BY_DEMOGRAPHIC);
+
+        /**
+         * The MIME type of the report URIs.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/sales_report";
+
+        /** Names of the database tables of the reports */
+        public final static String TABLE_BY_GAME = "sales_daily_by_game";
+        public final static String TABLE_BY_BRAND = "sales_daily_by_brand";
+        public final static String TABLE_BY_DEMOGRAPHIC = "sales_daily_by_demographic";
+
+        /**
+         * Local date of the sales, in the form "2016-08-31".
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_REPORT_DAY = "day";
+
+        /**
+         * ID of the game, in the report per game.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REPORT_GAME_ID = "game_id";
+
+        /**
+         * Brand, in the report per brand. An empty string for games without a brand.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_REPORT_BRAND = "brand";
+
+        /**
+         * Demographic, in the report per demographic.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REPORT_DEMOGRAPHIC = "demographic";
+
+        /**
+         * Number of copies sold that day.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REPORT_QUANTITY = "quantity";
+
+        /**
+         * Revenue of that day.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REPORT_REVENUE = "revenue";
+    }
+
+    /**
+     * Inner class that defines constant values for the query plan diagnostics. While they are
+     * on, the provider runs EXPLAIN QUERY PLAN once for every distinct shape of query it is
+     * asked for, the shape being the SQL with its literals replaced by "?". Each entry is the
+     * plan of one shape, flagged if it reads a whole table without an index or sorts the rows
+     * without one. The diagnostics are off unless the build turns them on with the
+     * query_plan_diagnostics resource, and can be turned on or off with
+     * {@link #METHOD_SET_QUERY_PLAN_DIAGNOSTICS}. The projection, selection and sort
+     * order of a query of {@link #CONTENT_URI} are ignored.
+     */
+    public static final class QueryPlanEntry implements BaseColumns {
+
+        /** The content URI to read the recorded query plans in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_QUERY_PLANS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of query plans.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_QUERY_PLANS;
+
+        /**
+         * Shape of the query: its SQL in lower case, with literals replaced by "?".
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SHAPE = "shape";
+
+        /**
+         * Plan of the query, one step per line, as described by EXPLAIN QUERY PLAN.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_PLAN = "plan";
+
+        /**
+         * 1 if the query reads a whole table without an index, 0 otherwise.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_FULL_SCAN = "full_scan";
+
+        /**
+         * 1 if the query sorts or groups the rows in a temporary B-tree, 0 otherwise.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TEMP_SORT = "temp_sort";
+
+        /**
+         * Number of queries of this shape since the diagnostics were turned on.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUERY_COUNT = "query_count";
+    }
+
+}
@@ -1,12 +1,35 @@
 
 package com.example.android.games.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.games.R;
+import com.example.android.games.data.GameContract.ArchivedGameEntry;
 import com.example.android.games.data.GameContract.GameEntry;
 
+import java.io.File;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Database helper for Games app. Manages database creation and version management.
  */
@@ -20,15 +43,536 @@ public class GameDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 14;
+
+    /** Versions whose background work changes what the app can rely on, see {@link #isMigrationPending} */
+    public static final int VERSION_SYNC = 2;
+    public static final int VERSION_NATURAL_KEY = 4;
+    public static final int VERSION_SECTIONS = 5;
+    public static final int VERSION_SORT_KEYS = 11;
+    public static final int VERSION_BRAND_KEYS = 13;
+    public static final int VERSION_SECTION_KEYS = 14;
+
+    /**
+     * The steps from each version of the database to the next. A new version of the schema
+     * is a new step at the end, and a change to onCreate that has the same result.
+     */
+    private static final Migration[] MIGRATIONS = {
+            new Migration(VERSION_SYNC, true) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 2 adds the columns and tables used by the sync engine. Existing
+                    // games are marked dirty, so the first sync pushes all of them once.
+                    db.execSQL("ALTER TABLE " + GameEntry.TABLE_NAME + " ADD COLUMN "
+                            + GameEntry.COLUMN_GAME_GUID + " TEXT");
+                    db.execSQL("ALTER TABLE " + GameEntry.TABLE_NAME + " ADD COLUMN "
+                            + GameEntry.COLUMN_GAME_UPDATED_AT + " INTEGER NOT NULL DEFAULT 0");
+                    db.execSQL("ALTER TABLE " + GameEntry.TABLE_NAME + " ADD COLUMN "
+                            + GameEntry.COLUMN_GAME_DIRTY + " INTEGER NOT NULL DEFAULT 1");
+                    createDeletedGamesTable(db);
+                }
+
+                @Override
+                long backfill(SQLiteDatabase db, long afterId) {
+                    // Existing games get a fresh GUID
+                    long lastId = lastIdOfBatch(db, afterId);
+                    if (lastId != -1) {
+                        db.execSQL("UPDATE " + GameEntry.TABLE_NAME + " SET "
+                                + GameEntry.COLUMN_GAME_GUID + " = lower(hex(randomblob(16)))"
+                                + " WHERE " + ID_RANGE + " AND " + GameEntry.COLUMN_GAME_GUID + " IS NULL",
+                                new Object[] { afterId, lastId });
+                    }
+                    return lastId;
+                }
+
+                @Override
+                void cutover(SQLiteDatabase db) {
+                    createSyncIndexes(db);
+                }
+            },
+            new Migration(3, false) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 3 adds the box art image of the game
+                    db.execSQL("ALTER TABLE " + GameEntry.TABLE_NAME + " ADD COLUMN "
+                            + GameEntry.COLUMN_GAME_IMAGE + " TEXT");
+                }
+            },
+            new Migration(VERSION_NATURAL_KEY, true) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 4 adds the natural key of the game
+                    db.execSQL("ALTER TABLE " + GameEntry.TABLE_NAME + " ADD COLUMN "
+                            + GameEntry.COLUMN_GAME_NATURAL_KEY + " TEXT");
+                }
+
+                @Override
+                long backfill(SQLiteDatabase db, long afterId) {
+                    // The unique index comes first, in a transaction of its own, so each batch
+                    // can look up the keys it computes. Only the games the app added or changed
+                    // since the upgrade have a key yet.
+                    if (afterId == 0 && !hasIndex(db, GameSchema.INDEX_NATURAL_KEY)) {
+                        createNaturalKeyIndexOverNewKeys(db);
+                        return afterId;
+                    }
+                    long lastId = lastIdOfBatch(db, afterId);
+                    if (lastId != -1) {
+                        backfillNaturalKeys(db, afterId, lastId);
+                    }
+                    return lastId;
+                }
+            },
+            new Migration(VERSION_SECTIONS, true) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 5 adds the alphabetical section of the game
+                    db.execSQL("ALTER TABLE " + GameEntry.TABLE_NAME + " ADD COLUMN "
+                            + GameEntry.COLUMN_GAME_SECTION + " TEXT");
+                }
+
+                @Override
+                long backfill(SQLiteDatabase db, long afterId) {
+                    long lastId = lastIdOfBatch(db, afterId);
+                    if (lastId != -1) {
+                        backfillSections(db, afterId, lastId);
+                    }
+                    return lastId;
+                }
+
+                @Override
+                void cutover(SQLiteDatabase db) {
+                    // Version 5 sorted the sections by name without case. Version 11 replaces
+                    // the index, so it is created here as it was then.
+                    db.execSQL("CREATE INDEX " + GameSchema.INDEX_SECTION + " ON "
+                            + GameEntry.TABLE_NAME + " (" + GameEntry.COLUMN_GAME_SECTION + ", "
+                            + GameEntry.COLUMN_GAME_NAME + " COLLATE NOCASE)");
+                }
+            },
+            new Migration(6, false) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 6 adds the stock of the games in the stores
+                    createInventoryTable(db);
+                }
+            },
+            new Migration(7, false) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 7 adds the sales ledger and the daily sales reports
+                    createSalesTables(db);
+                }
+            },
+            new Migration(8, true) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 8 finds the last sale of a game, to tell which games can be
+                    // archived. The ledger may be long, so the index is built in the background.
+                }
+
+                @Override
+                void cutover(SQLiteDatabase db) {
+                    createSalesByGameIndex(db);
+                }
+            },
+            new Migration(9, false) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 9 tracks the background work of the upgrades, in the table that
+                    // onUpgrade creates before any step runs
+                }
+            },
+            new Migration(10, false) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 10 adds the similar games, which fill in once the database is open
+                    createSimilarGamesTable(db);
+                }
+            },
+            new Migration(VERSION_SORT_KEYS, true) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 11 adds the sort key of the game. The same backfill runs again
+                    // whenever the language of the device changes, see checkSortKeyLocale.
+                    db.execSQL("ALTER TABLE " + GameEntry.TABLE_NAME + " ADD COLUMN "
+                            + GameEntry.COLUMN_GAME_SORT_KEY + " BLOB");
+                    createSortKeyLocaleTable(db);
+                }
+
+                @Override
+                long backfill(SQLiteDatabase db, long afterId) {
+                    long lastId = lastIdOfBatch(db, afterId);
+                    if (lastId != -1) {
+                        backfillSortKeys(db, afterId, lastId);
+                        return lastId;
+                    }
+
+                    // Before version 11 the section index sorted by name without case. Once
+                    // every game has a key, it is replaced in a transaction of its own rather
+                    // than in the one of the last batch. After a change of language the index
+                    // is already sorted by the key, and the updates of the keys kept it in
+                    // order. Version 14 replaces the index again, so it is created here as it
+                    // was then.
+                    if (!isSectionIndexSortedByKey(db)) {
+                        db.execSQL("DROP INDEX IF EXISTS " + GameSchema.INDEX_SECTION);
+                        db.execSQL("CREATE INDEX " + GameSchema.INDEX_SECTION + " ON "
+                                + GameEntry.TABLE_NAME + " (" + GameEntry.COLUMN_GAME_SECTION
+                                + ", " + GameEntry.COLUMN_GAME_SORT_KEY + ")");
+                        return afterId;
+                    }
+                    return -1;
+                }
+            },
+            new Migration(12, false) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 12 adds the tags of the game. Existing games have none.
+                    db.execSQL("ALTER TABLE " + GameEntry.TABLE_NAME + " ADD COLUMN "
+                            + GameEntry.COLUMN_GAME_TAGS + " INTEGER NOT NULL DEFAULT 0");
+                }
+            },
+            new Migration(VERSION_BRAND_KEYS, true) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 13 adds the brand key of the game, and the indexes the similar
+                    // games select the games of a brand, or of a demographic and price band, by
+                    db.execSQL("ALTER TABLE " + GameEntry.TABLE_NAME + " ADD COLUMN "
+                            + GameEntry.COLUMN_GAME_BRAND_KEY + " TEXT");
+                }
+
+                @Override
+                long backfill(SQLiteDatabase db, long afterId) {
+                    long lastId = lastIdOfBatch(db, afterId);
+                    if (lastId != -1) {
+                        backfillBrandKeys(db, afterId, lastId);
+                    }
+                    return lastId;
+                }
+
+                @Override
+                void cutover(SQLiteDatabase db) {
+                    db.execSQL(GameSchema.CREATE_BRAND_KEY_INDEX);
+                    db.execSQL(GameSchema.CREATE_DEMOGRAPHIC_PRICE_INDEX);
+                }
+            },
+            new Migration(VERSION_SECTION_KEYS, true) {
+                @Override
+                void upgrade(SQLiteDatabase db) {
+                    // Version 14 takes the sections from the language of the device, and adds
+                    // the key that sorts them in its order
+                    db.execSQL("ALTER TABLE " + GameEntry.TABLE_NAME + " ADD COLUMN "
+                            + GameEntry.COLUMN_GAME_SECTION_KEY + " BLOB");
+                }
+
+                @Override
+                long backfill(SQLiteDatabase db, long afterId) {
+                    long lastId = lastIdOfBatch(db, afterId);
+                    if (lastId != -1) {
+                        backfillSectionKeys(db, afterId, lastId);
+                    }
+                    return lastId;
+                }
+
+                @Override
+                void cutover(SQLiteDatabase db) {
+                    // After a change of language the index is already the right one, and the
+                    // updates of the keys kept it in order
+                    if (!isSectionIndexCurrent(db)) {
+                        db.execSQL("DROP INDEX IF EXISTS " + GameSchema.INDEX_SECTION);
+                        createSectionIndex(db);
+                    }
+                }
+            } };
+
+    /** Selection of the games with an ID in a range, exclusive of the first bound */
+    private static final String ID_RANGE = GameEntry._ID + " > ? AND " + GameEntry._ID + " <= ?";
+
+    /** Version of the archive database, see {@link ArchiveDbHelper} */
+    public static final int ARCHIVE_VERSION = 4;
+
+    /**
+     * First version of Android whose SQLite can empty the write-ahead log on a checkpoint,
+     * which backups need to copy a snapshot of the database file. Older versions keep the
+     * rollback journal.
+     */
+    static final int WRITE_AHEAD_LOGGING_SDK = Build.VERSION_CODES.M;
+
+    /**
+     * The columns a game has in the games table, the archive and the replica, in the same
+     * order. Moving or copying a game between them copies exactly these columns. The sort key
+     * and the section key aren't among them, as the archive doesn't keep them: the language of
+     * the device may have changed by the time a game is unarchived, so its keys and its section
+     * are computed again. Neither is the
+     * brand key, which only the games table needs, and which is computed again the same way.
+     */
+    static final String GAME_COLUMNS = GameEntry._ID + ", "
+            + GameEntry.COLUMN_GAME_NAME + ", "
+            + GameEntry.COLUMN_GAME_BRAND + ", "
+            + GameEntry.COLUMN_GAME_DEMOGRAPHIC + ", "
+            + GameEntry.COLUMN_GAME_PRICE + ", "
+            + GameEntry.COLUMN_GAME_IMAGE + ", "
+            + GameEntry.COLUMN_GAME_GUID + ", "
+            + GameEntry.COLUMN_GAME_UPDATED_AT + ", "
+            + GameEntry.COLUMN_GAME_DIRTY + ", "
+            + GameEntry.COLUMN_GAME_NATURAL_KEY + ", "
+            + GameEntry.COLUMN_GAME_SECTION + ", "
+            + GameEntry.COLUMN_GAME_TAGS;
+
+    /**
+     * The columns a game has in the replica, those of {@link #GAME_COLUMNS} and the keys the
+     * catalog is sorted by
+     */
+    private static final String REPLICA_COLUMNS = GAME_COLUMNS + ", "
+            + GameEntry.COLUMN_GAME_SORT_KEY + ", " + GameEntry.COLUMN_GAME_SECTION_KEY;
+
+    /** Name of the in-memory replica database, as it is attached to the main database */
+    private static final String REPLICA_SCHEMA_NAME = "replica";
+
+    /**
+     * Name of the replica of the games table. It differs from the name of the games table, so
+     * the triggers that keep the replica up to date can refer to it without the database name,
+     * which SQLite doesn't allow in triggers.
+     */
+    private static final String REPLICA_TABLE_NAME = "replica_games";
+
+    /** Longest time {@link #releaseInstance} waits for the background work to stop, in seconds */
+    private static final int RELEASE_TIMEOUT_SECONDS = 10;
+
+    /**
+     * The instance shared by the provider and the background jobs of the app, by app context.
+     * The app has a single one; the tests give the app contexts of their own, each with its
+     * own database files.
+     */
+    private static final Map<Context, GameDbHelper> sInstances = new HashMap<Context, GameDbHelper>();
+
+    /** Context of the app, to find the archive database file */
+    private final Context mContext;
+
+    /** Database helper of the archived games */
+    private final ArchiveDbHelper mArchiveHelper;
+
+    /** Held while games move to or from the archive, see {@link #getArchiveLock} */
+    private final Object mArchiveLock = new Object();
+
+    /** Whether the moves that were halfway when the archive was last opened are finished */
+    private boolean mArchiveMovesFinished;
+
+    /** Whether to load the in-memory replica, see {@link #getGamesTableForReading} */
+    private final boolean mReplicaMode;
+
+    /** Whether the games are read from the in-memory replica, see {@link #getGamesTableForReading} */
+    private volatile boolean mReplicaLoaded;
+
+    /** Guards the state of the background work of the upgrade below */
+    private final Object mMigrationLock = new Object();
+
+    /** Versions of the steps that still have work to do in the background, in order */
+    private final TreeSet<Integer> mPendingMigrations = new TreeSet<Integer>();
+
+    /** Whether the background work is running */
+    private boolean mMigrationsRunning;
+
+    /** Why the background work stopped, or null if it didn't fail */
+    private RuntimeException mMigrationFailure;
+
+    /** Number of steps whose background work is done since the app started */
+    private int mCompletedMigrationCount;
+
+    /** Runs the background work of the upgrade */
+    private final ExecutorService mMigrationExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Returns the shared instance of {@link GameDbHelper}. Every part of the app should use
+     * the same instance, so that SQLite can serialize their access to the database file.
+     *
+     * @param context of the app
+     */
+    public static synchronized GameDbHelper getInstance(Context context) {
+        Context appContext = context.getApplicationContext();
+        GameDbHelper instance = sInstances.get(appContext);
+        if (instance == null) {
+            instance = new GameDbHelper(appContext);
+            sInstances.put(appContext, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Stop the background work of the shared instance of the given context, and close its
+     * database. The next call to {@link #getInstance} with the same context opens the database
+     * again. Used by the tests, which give every test a database of its own.
+     */
+    static synchronized void releaseInstance(Context context) {
+        GameDbHelper instance = sInstances.remove(context.getApplicationContext());
+        if (instance == null) {
+            return;
+        }
+        instance.mMigrationExecutor.shutdown();
+        try {
+            instance.mMigrationExecutor.awaitTermination(RELEASE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        instance.close();
+    }
 
     /**
      * Constructs a new instance of {@link GameDbHelper}.
      *
      * @param context of the app
      */
-    public GameDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    private GameDbHelper(Context context) {
+        this(context, DATABASE_NAME, DATABASE_VERSION);
+    }
+
+    /**
+     * Constructs a new instance of {@link GameDbHelper} for the given database file, opened
+     * at the given version. Used by the tests to build and upgrade databases of older
+     * versions; the app uses {@link #getInstance}.
+     *
+     * @param context of the app
+     * @param name    of the database file
+     * @param version to create or upgrade the database to
+     */
+    GameDbHelper(Context context, String name, int version) {
+        this(context, name, version, context.getResources().getBoolean(R.bool.replica_mode));
+    }
+
+    /**
+     * Constructs a new instance of {@link GameDbHelper} for the given database file, with
+     * replica mode on or off whatever the configuration says. Used by the tests of the
+     * replica.
+     *
+     * @param context     of the app
+     * @param name        of the database file
+     * @param version     to create or upgrade the database to
+     * @param replicaMode whether to read the games from an in-memory replica, see
+     *                    {@link #getGamesTableForReading}
+     */
+    GameDbHelper(Context context, String name, int version, boolean replicaMode) {
+        super(context, name, null, version);
+        mContext = context;
+        mReplicaMode = replicaMode;
+        mArchiveHelper = new ArchiveDbHelper(context);
+    }
+
+    /**
+     * Returns the writable archive database, see {@link ArchiveDbHelper}. It is opened the
+     * first time it is needed, so the games database and the queries that only use it never pay
+     * for the archive. The moves of games that were halfway when the app stopped are finished
+     * then.
+     */
+    public SQLiteDatabase getArchiveDatabase() {
+        synchronized (mArchiveLock) {
+            SQLiteDatabase archive = mArchiveHelper.getWritableDatabase();
+            if (!mArchiveMovesFinished) {
+                finishArchiveMoves(getWritableDatabase(), archive);
+                mArchiveMovesFinished = true;
+            }
+            return archive;
+        }
+    }
+
+    /**
+     * Returns the lock to hold while moving games to or from the archive. A move is two
+     * transactions, one in each database, so a backup holds it to copy the two databases as
+     * they are between moves.
+     */
+    public Object getArchiveLock() {
+        return mArchiveLock;
+    }
+
+    /**
+     * Returns the table the provider should read the games from. In replica mode, set with
+     * the replica_mode configuration resource, it is an in-memory copy of the games table and
+     * its indexes, loaded when the database is opened. Meant for kiosks that only browse the
+     * catalog and have slow flash storage. Writes still go to the games table, and triggers
+     * apply them to the replica in the same transaction. Otherwise, or if the replica couldn't
+     * be loaded, it is the games table itself.
+     */
+    public String getGamesTableForReading() {
+        getWritableDatabase();
+        return mReplicaLoaded ? REPLICA_TABLE_NAME : GameEntry.TABLE_NAME;
+    }
+
+    /**
+     * Returns the file of the games database.
+     */
+    public File getDatabaseFile() {
+        return mContext.getDatabasePath(getDatabaseName());
+    }
+
+    /**
+     * Returns the file of the archive database.
+     */
+    public File getArchiveDatabaseFile() {
+        return mContext.getDatabasePath(ArchiveDbHelper.DATABASE_NAME);
+    }
+
+    /**
+     * Replace the games database and the archive database with the given files, which must be
+     * valid databases of this version or an older one, in the same directory. The databases
+     * are closed, so any statement still running on them fails, and reopened from the new
+     * files, upgrading them if needed. Used to restore a backup.
+     *
+     * @throws IllegalStateException if the background work of an upgrade is running
+     */
+    public void replaceDatabases(File file, File archiveFile) {
+        synchronized (mMigrationLock) {
+            if (mMigrationsRunning) {
+                throw new IllegalStateException("Cannot replace the database while it is being upgraded");
+            }
+        }
+        // In the order getArchiveDatabase takes the locks
+        synchronized (mArchiveLock) {
+            synchronized (this) {
+                close();
+                mReplicaLoaded = false;
+                mArchiveMovesFinished = false;
+                replaceFile(getArchiveDatabaseFile(), archiveFile);
+                replaceFile(getDatabaseFile(), file);
+                Log.i(LOG_TAG, "Databases replaced, reopening them");
+                getArchiveDatabase();
+            }
+        }
+    }
+
+    /**
+     * Replace a closed database file with the given file.
+     */
+    private static void replaceFile(File databaseFile, File file) {
+        // A journal or write-ahead log left by the old file would be applied to the new one
+        new File(databaseFile.getPath() + "-journal").delete();
+        new File(databaseFile.getPath() + "-wal").delete();
+        new File(databaseFile.getPath() + "-shm").delete();
+        if (!file.renameTo(databaseFile)) {
+            throw new IllegalStateException("Cannot replace " + databaseFile + " with " + file);
+        }
+    }
+
+    /**
+     * Close the games database and the archive database.
+     */
+    @Override
+    public synchronized void close() {
+        mArchiveHelper.close();
+        super.close();
+    }
+
+    /**
+     * Use a write-ahead log, so that reading the games never waits for a sale to commit, and
+     * the threads that write wait for one another's disk syncs for less long. Versions of
+     * Android before {@link #WRITE_AHEAD_LOGGING_SDK} keep the rollback journal, and so does
+     * replica mode, which attaches the replica to the database; Android 9 and later would turn
+     * on a compatibility write-ahead log otherwise.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (Build.VERSION.SDK_INT >= WRITE_AHEAD_LOGGING_SDK && !mReplicaMode) {
+            db.enableWriteAheadLogging();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            db.disableWriteAheadLogging();
+        }
     }
 
     /**
@@ -36,23 +580,714 @@ public class GameDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Create a String that contains the SQL statement to create the games table
-        String SQL_CREATE_GAMES_TABLE =  "CREATE TABLE " + GameEntry.TABLE_NAME + " ("
-                + GameEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+        for (String sql : GameSchema.CREATE_STATEMENTS) {
+            db.execSQL(sql);
+        }
+        insertSortKeyLocale(db);
+    }
+
+    /**
+     * This is called when the database needs to be upgraded. Runs the quick part of every
+     * step after the old version, and records the steps that have work left to do in the
+     * background.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        createMigrationsTable(db);
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= oldVersion || migration.version > newVersion) {
+                continue;
+            }
+            migration.upgrade(db);
+            if (migration.deferred) {
+                db.execSQL("INSERT INTO " + GameSchema.TABLE_MIGRATIONS + " ("
+                        + GameSchema.COLUMN_MIGRATION_VERSION + ") VALUES (" + migration.version
+                        + ")");
+            }
+        }
+    }
+
+    /**
+     * Find the steps that still have work to do in the background, and start doing it.
+     * Also recompute the sort keys if the language of the device changed while the app wasn't
+     * running.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (mReplicaMode) {
+            loadReplica(db);
+        }
+        checkSortKeyLocale();
+
+        Cursor cursor = db.query(GameSchema.TABLE_MIGRATIONS,
+                new String[] { GameSchema.COLUMN_MIGRATION_VERSION },
+                null, null, null, null, GameSchema.COLUMN_MIGRATION_VERSION);
+        try {
+            synchronized (mMigrationLock) {
+                mPendingMigrations.clear();
+                while (cursor.moveToNext()) {
+                    mPendingMigrations.add(cursor.getInt(0));
+                }
+                if (mPendingMigrations.isEmpty() || mMigrationsRunning) {
+                    return;
+                }
+                mMigrationsRunning = true;
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.i(LOG_TAG, "Resuming the upgrade of the database in the background");
+        mMigrationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runMigrations();
+            }
+        });
+    }
+
+    /**
+     * Copy the games table and its indexes to an in-memory database, and keep the copy up to
+     * date with triggers. Runs while the database is being opened, so no other thread can
+     * change the games in between. If the copy fails, the games are read from the games table.
+     */
+    private void loadReplica(SQLiteDatabase db) {
+        long start = System.currentTimeMillis();
+        db.execSQL("ATTACH DATABASE ':memory:' AS " + REPLICA_SCHEMA_NAME);
+        db.beginTransaction();
+        try {
+            createReplicaTable(db);
+            db.execSQL("INSERT INTO " + REPLICA_SCHEMA_NAME + "." + REPLICA_TABLE_NAME
+                    + " (" + REPLICA_COLUMNS + ") SELECT " + REPLICA_COLUMNS + " FROM main." + GameEntry.TABLE_NAME);
+            createReplicaTriggers(db);
+            db.setTransactionSuccessful();
+            mReplicaLoaded = true;
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Failed to load the replica, reading the games from disk", e);
+        } finally {
+            db.endTransaction();
+        }
+        if (!mReplicaLoaded) {
+            db.execSQL("DETACH DATABASE " + REPLICA_SCHEMA_NAME);
+            return;
+        }
+        Log.i(LOG_TAG, "Replica loaded in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Recompute the sort keys and the sections of every game in the background if the language
+     * of the device differs from the one they were computed in. The provider calls it when the
+     * configuration of the device changes. They are recomputed by the backfills of
+     * {@link #VERSION_SORT_KEYS} and {@link #VERSION_SECTION_KEYS}, batch by batch, so
+     * {@link #isMigrationPending} tells whether the keys can be relied on, and a rebuild that is
+     * interrupted carries on the next time the app starts. New and changed games get a key in
+     * the new language right away.
+     *
+     * @return the pending check. Once it is done, {@link #awaitMigration} waits for the keys.
+     */
+    public Future<?> checkSortKeyLocale() {
+        return mMigrationExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebuildSortKeysIfLocaleChanged();
+                } catch (SQLiteException e) {
+                    Log.e(LOG_TAG, "Failed to check the language of the sort keys", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Restart the backfill of the sort keys if the language changed. Runs on the thread of the
+     * background work, so it never races with a backfill that is running.
+     */
+    private void rebuildSortKeysIfLocaleChanged() {
+        SQLiteDatabase db = getWritableDatabase();
+        String locale = Locale.getDefault().toString();
+        String keysLocale = DatabaseUtils.stringForQuery(db, "SELECT "
+                + GameSchema.COLUMN_SORT_KEY_LOCALE + " FROM " + GameSchema.TABLE_SORT_KEY_LOCALE,
+                null);
+        if (locale.equals(keysLocale)) {
+            return;
+        }
+        Log.i(LOG_TAG, "Language changed from " + keysLocale + " to " + locale
+                + ", recomputing the sort keys and the sections in the background");
+
+        // Start over from the first game, even if a backfill in the old language was halfway.
+        // The sections come from the language too, since version 14.
+        List<Integer> versions = new ArrayList<Integer>();
+        versions.add(VERSION_SORT_KEYS);
+        if (db.getVersion() >= VERSION_SECTION_KEYS) {
+            versions.add(VERSION_SECTION_KEYS);
+        }
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(GameSchema.COLUMN_SORT_KEY_LOCALE, locale);
+            db.update(GameSchema.TABLE_SORT_KEY_LOCALE, values, null, null);
+            for (int version : versions) {
+                db.execSQL("INSERT OR REPLACE INTO " + GameSchema.TABLE_MIGRATIONS + " ("
+                        + GameSchema.COLUMN_MIGRATION_VERSION + ") VALUES (" + version + ")");
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        synchronized (mMigrationLock) {
+            mPendingMigrations.addAll(versions);
+            if (mMigrationsRunning) {
+                // Already queued on this thread by onOpen, and will get to it
+                return;
+            }
+            mMigrationsRunning = true;
+        }
+        runMigrations();
+    }
+
+    /**
+     * Returns whether the step to the given version still has work to do in the background.
+     * Until it is done, the database has the shape from before that step.
+     */
+    public boolean isMigrationPending(int version) {
+        getWritableDatabase();
+        synchronized (mMigrationLock) {
+            return mPendingMigrations.contains(version);
+        }
+    }
+
+    /**
+     * Returns the number of steps whose background work was done since the app started. The
+     * cutover of a step can change the result of a query without changing any game, for
+     * example its order, so it counts as a change of every game.
+     */
+    int getCompletedMigrationCount() {
+        synchronized (mMigrationLock) {
+            return mCompletedMigrationCount;
+        }
+    }
+
+    /**
+     * Returns whether any step still has work to do in the background.
+     */
+    public boolean hasPendingMigrations() {
+        getWritableDatabase();
+        synchronized (mMigrationLock) {
+            return !mPendingMigrations.isEmpty();
+        }
+    }
+
+    /**
+     * Wait until the step to the given version is done. Must not be called on the main
+     * thread, as the step may have a lot of games left to backfill.
+     *
+     * @throws IllegalStateException if the step failed, or the wait was interrupted
+     */
+    public void awaitMigration(int version) {
+        getWritableDatabase();
+        synchronized (mMigrationLock) {
+            while (mPendingMigrations.contains(version)) {
+                if (mMigrationFailure != null) {
+                    throw new IllegalStateException("Database upgrade failed", mMigrationFailure);
+                }
+                try {
+                    mMigrationLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the database upgrade");
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the progress of the background work of the upgrade, from 0 to 1, or 1 if there
+     * is none.
+     */
+    public float getMigrationProgress() {
+        SQLiteDatabase db = getWritableDatabase();
+        Cursor cursor = db.rawQuery("SELECT SUM(MIN(" + GameSchema.COLUMN_MIGRATION_AFTER_ID + ", "
+                + GameSchema.COLUMN_MIGRATION_LAST_ID + ")), SUM("
+                + GameSchema.COLUMN_MIGRATION_LAST_ID + "), COUNT(*)"
+                + " FROM " + GameSchema.TABLE_MIGRATIONS, null);
+        try {
+            if (!cursor.moveToFirst() || cursor.getInt(2) == 0) {
+                return 1;
+            }
+            // Steps that haven't started yet count as 0, so the progress never goes back
+            long total = cursor.getLong(1);
+            return total > 0 ? (float) cursor.getLong(0) / total : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Do the background work of the pending steps, one batch per transaction, in version
+     * order. Runs on its own thread. If a batch fails, the work stops and is retried the next
+     * time the database is opened.
+     */
+    private void runMigrations() {
+        try {
+            while (true) {
+                Migration migration;
+                synchronized (mMigrationLock) {
+                    if (mPendingMigrations.isEmpty()) {
+                        break;
+                    }
+                    migration = findMigration(mPendingMigrations.first());
+                }
+                runMigration(migration);
+                synchronized (mMigrationLock) {
+                    mPendingMigrations.remove(migration.version);
+                    mCompletedMigrationCount++;
+                    mMigrationLock.notifyAll();
+                }
+                Log.i(LOG_TAG, "Database upgrade to version " + migration.version + " done");
+
+                // The cutover may change what the games look like, for example their order
+                mContext.getContentResolver().notifyChange(GameEntry.CONTENT_URI, null);
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Database upgrade failed", e);
+            synchronized (mMigrationLock) {
+                mMigrationFailure = e;
+                mMigrationLock.notifyAll();
+            }
+        } finally {
+            synchronized (mMigrationLock) {
+                mMigrationsRunning = false;
+            }
+        }
+    }
+
+    /**
+     * Backfill the given step batch by batch, then cut it over. Each batch records how far it
+     * got in the same transaction, so an interrupted backfill never skips or repeats a batch.
+     */
+    private void runMigration(Migration migration) {
+        SQLiteDatabase db = getWritableDatabase();
+        String[] versionArgs = new String[] { String.valueOf(migration.version) };
+
+        // Remember the last game the backfill has to reach, for the progress
+        db.execSQL("UPDATE " + GameSchema.TABLE_MIGRATIONS + " SET "
+                + GameSchema.COLUMN_MIGRATION_LAST_ID
+                + " = (SELECT IFNULL(MAX(" + GameEntry._ID + "), 0) FROM " + GameEntry.TABLE_NAME + ")"
+                + " WHERE " + GameSchema.COLUMN_MIGRATION_VERSION + " = ? AND "
+                + GameSchema.COLUMN_MIGRATION_LAST_ID + " IS NULL", versionArgs);
+
+        boolean done = false;
+        while (!done) {
+            db.beginTransaction();
+            try {
+                long afterId = DatabaseUtils.longForQuery(db, "SELECT "
+                        + GameSchema.COLUMN_MIGRATION_AFTER_ID
+                        + " FROM " + GameSchema.TABLE_MIGRATIONS
+                        + " WHERE " + GameSchema.COLUMN_MIGRATION_VERSION + " = ?", versionArgs);
+                long lastId = migration.backfill(db, afterId);
+                done = lastId == -1;
+                if (done) {
+                    migration.cutover(db);
+                    db.delete(GameSchema.TABLE_MIGRATIONS,
+                            GameSchema.COLUMN_MIGRATION_VERSION + " = ?", versionArgs);
+                } else {
+                    ContentValues values = new ContentValues();
+                    values.put(GameSchema.COLUMN_MIGRATION_AFTER_ID, lastId);
+                    db.update(GameSchema.TABLE_MIGRATIONS, values,
+                            GameSchema.COLUMN_MIGRATION_VERSION + " = ?", versionArgs);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    private static Migration findMigration(int version) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version == version) {
+                return migration;
+            }
+        }
+        throw new IllegalStateException("Unknown database version " + version);
+    }
+
+    /**
+     * Create the table that tracks the steps that still have work to do in the background.
+     */
+    private static void createMigrationsTable(SQLiteDatabase db) {
+        db.execSQL(GameSchema.CREATE_MIGRATIONS_TABLE);
+    }
+
+    /**
+     * Compute the section of the games with an ID in the range (afterId, lastId].
+     */
+    private static void backfillSections(SQLiteDatabase db, long afterId, long lastId) {
+        SQLiteStatement statement = db.compileStatement("UPDATE " + GameEntry.TABLE_NAME
+                + " SET " + GameEntry.COLUMN_GAME_SECTION + " = ? WHERE " + GameEntry._ID + " = ?");
+        Cursor cursor = db.query(GameEntry.TABLE_NAME, new String[] {
+                GameEntry._ID, GameEntry.COLUMN_GAME_NAME }, ID_RANGE,
+                new String[] { String.valueOf(afterId), String.valueOf(lastId) }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                statement.bindString(1, GameEntry.section(cursor.getString(1)));
+                statement.bindLong(2, cursor.getLong(0));
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            statement.close();
+        }
+    }
+
+    /**
+     * Compute the sort key of the games with an ID in the range (afterId, lastId], in the
+     * current language of the device.
+     */
+    private static void backfillSortKeys(SQLiteDatabase db, long afterId, long lastId) {
+        Collator collator = Collator.getInstance();
+        SQLiteStatement statement = db.compileStatement("UPDATE " + GameEntry.TABLE_NAME
+                + " SET " + GameEntry.COLUMN_GAME_SORT_KEY + " = ? WHERE " + GameEntry._ID + " = ?");
+        Cursor cursor = db.query(GameEntry.TABLE_NAME, new String[] {
+                GameEntry._ID, GameEntry.COLUMN_GAME_NAME }, ID_RANGE,
+                new String[] { String.valueOf(afterId), String.valueOf(lastId) }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                statement.bindBlob(1, GameEntry.sortKey(collator, cursor.getString(1)));
+                statement.bindLong(2, cursor.getLong(0));
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            statement.close();
+        }
+    }
+
+    /**
+     * Compute the section and the section key of the games with an ID in the range
+     * (afterId, lastId], in the current language of the device.
+     */
+    private static void backfillSectionKeys(SQLiteDatabase db, long afterId, long lastId) {
+        Collator collator = Collator.getInstance();
+        SQLiteStatement statement = db.compileStatement("UPDATE " + GameEntry.TABLE_NAME
+                + " SET " + GameEntry.COLUMN_GAME_SECTION + " = ?, "
+                + GameEntry.COLUMN_GAME_SECTION_KEY + " = ? WHERE " + GameEntry._ID + " = ?");
+        Cursor cursor = db.query(GameEntry.TABLE_NAME, new String[] {
+                GameEntry._ID, GameEntry.COLUMN_GAME_NAME }, ID_RANGE,
+                new String[] { String.valueOf(afterId), String.valueOf(lastId) }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String section = GameEntry.section(collator, cursor.getString(1));
+                statement.bindString(1, section);
+                statement.bindBlob(2, GameEntry.sectionKey(collator, section));
+                statement.bindLong(3, cursor.getLong(0));
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            statement.close();
+        }
+    }
+
+    /**
+     * Compute the brand key of the games with an ID in the range (afterId, lastId]. SQLite
+     * can't compute it itself, as its lower() only knows ASCII.
+     */
+    private static void backfillBrandKeys(SQLiteDatabase db, long afterId, long lastId) {
+        SQLiteStatement statement = db.compileStatement("UPDATE " + GameEntry.TABLE_NAME
+                + " SET " + GameEntry.COLUMN_GAME_BRAND_KEY + " = ? WHERE " + GameEntry._ID + " = ?");
+        Cursor cursor = db.query(GameEntry.TABLE_NAME, new String[] {
+                GameEntry._ID, GameEntry.COLUMN_GAME_BRAND }, ID_RANGE,
+                new String[] { String.valueOf(afterId), String.valueOf(lastId) }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                statement.bindString(1, GameEntry.brandKey(cursor.getString(1)));
+                statement.bindLong(2, cursor.getLong(0));
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            statement.close();
+        }
+    }
+
+    /**
+     * Create the table that remembers the language the sort keys are computed in, with the
+     * current language in its single row.
+     */
+    private static void createSortKeyLocaleTable(SQLiteDatabase db) {
+        db.execSQL(GameSchema.CREATE_SORT_KEY_LOCALE_TABLE);
+        insertSortKeyLocale(db);
+    }
+
+    /**
+     * Add the current language as the single row of the sort key language table.
+     */
+    private static void insertSortKeyLocale(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        values.put(GameSchema.COLUMN_SORT_KEY_LOCALE, Locale.getDefault().toString());
+        db.insert(GameSchema.TABLE_SORT_KEY_LOCALE, null, values);
+    }
+
+    /**
+     * Compute the natural key of the games with an ID in the range (afterId, lastId] that
+     * don't have one yet. When two games share a key, the older one, the one with the lower ID,
+     * keeps it and the other gets its ID appended to the key, so it stays a separate game, as
+     * {@link #separateDuplicateNaturalKeys} does. That holds even for a game the app added or
+     * changed during the upgrade, which got its key before the older game it copies. The
+     * unique index must exist, as it finds the other game.
+     */
+    private static void backfillNaturalKeys(SQLiteDatabase db, long afterId, long lastId) {
+        SQLiteStatement holder = db.compileStatement("SELECT IFNULL(MAX(" + GameEntry._ID
+                + "), 0) FROM " + GameEntry.TABLE_NAME
+                + " WHERE " + GameEntry.COLUMN_GAME_NATURAL_KEY + " = ?");
+        SQLiteStatement statement = db.compileStatement("UPDATE " + GameEntry.TABLE_NAME
+                + " SET " + GameEntry.COLUMN_GAME_NATURAL_KEY + " = ? WHERE " + GameEntry._ID + " = ?");
+        Cursor cursor = db.query(GameEntry.TABLE_NAME, new String[] {
+                GameEntry._ID, GameEntry.COLUMN_GAME_NAME, GameEntry.COLUMN_GAME_BRAND },
+                ID_RANGE + " AND " + GameEntry.COLUMN_GAME_NATURAL_KEY + " IS NULL",
+                new String[] { String.valueOf(afterId), String.valueOf(lastId) },
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                String naturalKey = GameEntry.naturalKey(cursor.getString(1), cursor.getString(2));
+                holder.bindString(1, naturalKey);
+                long holderId = holder.simpleQueryForLong();
+                if (holderId > id) {
+                    // A newer game took the key while this one had none yet, so it gives it up
+                    statement.bindString(1, naturalKey + "#" + holderId);
+                    statement.bindLong(2, holderId);
+                    statement.executeUpdateDelete();
+                } else if (holderId != 0) {
+                    naturalKey += "#" + id;
+                }
+                statement.bindString(1, naturalKey);
+                statement.bindLong(2, id);
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            holder.close();
+            statement.close();
+        }
+    }
+
+    /**
+     * Create the unique index of the natural key while most games don't have a key yet. The
+     * games the app added or changed since the upgrade have one, and in the rare case that
+     * two of them share it, they are kept apart first.
+     */
+    private static void createNaturalKeyIndexOverNewKeys(SQLiteDatabase db) {
+        try {
+            createNaturalKeyIndex(db);
+        } catch (SQLiteConstraintException e) {
+            Log.w(LOG_TAG, "Games added during the upgrade share a natural key", e);
+            separateDuplicateNaturalKeys(db);
+            createNaturalKeyIndex(db);
+        }
+    }
+
+    /**
+     * Keep the games that share a natural key apart: all but the oldest of them get their ID
+     * appended to the key, so they stay separate games and the unique index can be created.
+     */
+    private static void separateDuplicateNaturalKeys(SQLiteDatabase db) {
+        db.execSQL("UPDATE " + GameEntry.TABLE_NAME + " SET " + GameEntry.COLUMN_GAME_NATURAL_KEY
+                + " = " + GameEntry.COLUMN_GAME_NATURAL_KEY + " || '#' || " + GameEntry._ID
+                + " WHERE " + GameEntry.COLUMN_GAME_NATURAL_KEY + " IS NOT NULL AND "
+                + GameEntry._ID + " NOT IN (SELECT MIN(" + GameEntry._ID + ") FROM "
+                + GameEntry.TABLE_NAME + " GROUP BY " + GameEntry.COLUMN_GAME_NATURAL_KEY + ")");
+    }
+
+    /**
+     * Returns whether the database has an index with the given name.
+     */
+    private static boolean hasIndex(SQLiteDatabase db, String name) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND name = ?", new String[] { name }) > 0;
+    }
+
+    /**
+     * Create the unique index that enforces the natural key and finds a game by it.
+     */
+    private static void createNaturalKeyIndex(SQLiteDatabase db) {
+        db.execSQL(GameSchema.CREATE_NATURAL_KEY_INDEX);
+    }
+
+    /**
+     * Create the index that lists the games in {@link GameEntry#SORT_ORDER_SECTIONS} and counts
+     * the games per section without sorting or reading the table.
+     */
+    private static void createSectionIndex(SQLiteDatabase db) {
+        db.execSQL(GameSchema.CREATE_SECTION_INDEX);
+    }
+
+    /**
+     * Returns whether the section index is the one {@link #createSectionIndex} creates, as
+     * opposed to the one of the versions before {@link #VERSION_SECTION_KEYS} or none at all.
+     */
+    private static boolean isSectionIndexCurrent(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND name = ? AND sql = ?",
+                new String[] { GameSchema.INDEX_SECTION, GameSchema.CREATE_SECTION_INDEX }) > 0;
+    }
+
+    /**
+     * Returns whether the section index sorts the games by their sort key, as it has since
+     * {@link #VERSION_SORT_KEYS}, as opposed to by name without case, or there is none at all.
+     */
+    private static boolean isSectionIndexSortedByKey(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND name = ? AND sql LIKE ?",
+                new String[] { GameSchema.INDEX_SECTION,
+                        "%" + GameEntry.COLUMN_GAME_SORT_KEY + "%" }) > 0;
+    }
+
+    /**
+     * Create the table of the stock of the games in the stores. The stock of a game is deleted
+     * along with the game, whichever way the game is deleted.
+     */
+    private static void createInventoryTable(SQLiteDatabase db) {
+        db.execSQL(GameSchema.CREATE_INVENTORY_TABLE);
+        db.execSQL(GameSchema.CREATE_INVENTORY_TRIGGER);
+    }
+
+    /**
+     * Create the sales ledger and the daily report tables. Triggers keep the ledger
+     * append-only, and add every new sale to the reports in the same transaction.
+     */
+    private static void createSalesTables(SQLiteDatabase db) {
+        db.execSQL(GameSchema.CREATE_SALES_TABLE);
+        db.execSQL(GameSchema.CREATE_REPORT_BY_GAME_TABLE);
+        db.execSQL(GameSchema.CREATE_REPORT_BY_BRAND_TABLE);
+        db.execSQL(GameSchema.CREATE_REPORT_BY_DEMOGRAPHIC_TABLE);
+        db.execSQL(GameSchema.CREATE_SALES_UPDATE_TRIGGER);
+        db.execSQL(GameSchema.CREATE_SALES_DELETE_TRIGGER);
+        db.execSQL(GameSchema.CREATE_SALES_REPORTS_TRIGGER);
+    }
+
+    /**
+     * Create the index that finds the latest sales of a game without reading the whole ledger.
+     */
+    private static void createSalesByGameIndex(SQLiteDatabase db) {
+        db.execSQL(GameSchema.CREATE_SALES_BY_GAME_INDEX);
+    }
+
+    /**
+     * Create the table of similar games. Its primary key is the key of the lookup of the
+     * similar games of a game, and the index on the similar game finds the lists a changed or
+     * deleted game is in.
+     */
+    private static void createSimilarGamesTable(SQLiteDatabase db) {
+        db.execSQL(GameSchema.CREATE_SIMILAR_GAMES_TABLE);
+        db.execSQL(GameSchema.CREATE_SIMILAR_GAMES_INDEX);
+    }
+
+    /**
+     * Finish the moves of games to or from the archive that were halfway. A game listed in
+     * the moves table that is in the games database is there for good, either because it never
+     * left or because it came back, so its copy in the archive goes. Any other listed game is
+     * in the archive.
+     */
+    private static void finishArchiveMoves(SQLiteDatabase db, SQLiteDatabase archive) {
+        Cursor cursor = archive.query(ArchiveDbHelper.TABLE_MOVES, new String[] { GameEntry._ID },
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String[] idArgs = new String[] { cursor.getString(0) };
+                archive.beginTransaction();
+                try {
+                    if (DatabaseUtils.queryNumEntries(db, GameEntry.TABLE_NAME,
+                            GameEntry._ID + "=?", idArgs) > 0) {
+                        archive.delete(ArchivedGameEntry.TABLE_NAME, ArchivedGameEntry._ID + "=?", idArgs);
+                    }
+                    archive.delete(ArchiveDbHelper.TABLE_MOVES, GameEntry._ID + "=?", idArgs);
+                    archive.setTransactionSuccessful();
+                } finally {
+                    archive.endTransaction();
+                }
+            }
+            if (cursor.getCount() > 0) {
+                Log.i(LOG_TAG, "Finished " + cursor.getCount() + " moves to or from the archive");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Create the in-memory replica of the games table, with the same columns and the same
+     * indexes. The indexes aren't unique, as the replica only ever gets rows that the games
+     * table already accepted.
+     */
+    private static void createReplicaTable(SQLiteDatabase db) {
+        String table = REPLICA_SCHEMA_NAME + "." + REPLICA_TABLE_NAME;
+        db.execSQL("CREATE TABLE " + table + " ("
+                + GameEntry._ID + " INTEGER PRIMARY KEY, "
                 + GameEntry.COLUMN_GAME_NAME + " TEXT NOT NULL, "
                 + GameEntry.COLUMN_GAME_BRAND + " TEXT, "
                 + GameEntry.COLUMN_GAME_DEMOGRAPHIC + " INTEGER NOT NULL, "
-                + GameEntry.COLUMN_GAME_PRICE + " INTEGER NOT NULL DEFAULT 0);";
+                + GameEntry.COLUMN_GAME_PRICE + " INTEGER NOT NULL DEFAULT 0, "
+                + GameEntry.COLUMN_GAME_IMAGE + " TEXT, "
+                + GameEntry.COLUMN_GAME_GUID + " TEXT, "
+                + GameEntry.COLUMN_GAME_UPDATED_AT + " INTEGER NOT NULL DEFAULT 0, "
+                + GameEntry.COLUMN_GAME_DIRTY + " INTEGER NOT NULL DEFAULT 1, "
+                + GameEntry.COLUMN_GAME_NATURAL_KEY + " TEXT, "
+                + GameEntry.COLUMN_GAME_SECTION + " TEXT, "
+                + GameEntry.COLUMN_GAME_SORT_KEY + " BLOB, "
+                + GameEntry.COLUMN_GAME_TAGS + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("CREATE INDEX " + REPLICA_SCHEMA_NAME + ".replica_games_guid ON "
+                + REPLICA_TABLE_NAME + " (" + GameEntry.COLUMN_GAME_GUID + ")");
+        db.execSQL("CREATE INDEX " + REPLICA_SCHEMA_NAME + ".replica_games_dirty ON "
+                + REPLICA_TABLE_NAME + " (" + GameEntry.COLUMN_GAME_DIRTY + ")");
+        db.execSQL("CREATE INDEX " + REPLICA_SCHEMA_NAME + ".replica_games_natural_key ON "
+                + REPLICA_TABLE_NAME + " (" + GameEntry.COLUMN_GAME_NATURAL_KEY + ")");
+        db.execSQL("CREATE INDEX " + REPLICA_SCHEMA_NAME + ".replica_games_section ON "
+                + REPLICA_TABLE_NAME + " (" + GameEntry.SORT_ORDER_SECTIONS + ")");
+    }
+
+    /**
+     * Create the triggers that apply every change of the games table to the replica. They are
+     * temporary, so they only exist on this connection, which is the one that has the replica
+     * attached.
+     */
+    private static void createReplicaTriggers(SQLiteDatabase db) {
+        StringBuilder newValues = new StringBuilder();
+        for (String column : REPLICA_COLUMNS.split(", ")) {
+            if (newValues.length() > 0) {
+                newValues.append(", ");
+            }
+            newValues.append("NEW.").append(column);
+        }
+        String insert = "INSERT INTO " + REPLICA_TABLE_NAME + " (" + REPLICA_COLUMNS + ") VALUES ("
+                + newValues + "); ";
+        String delete = "DELETE FROM " + REPLICA_TABLE_NAME + " WHERE " + GameEntry._ID
+                + " = OLD." + GameEntry._ID + "; ";
 
-        // Execute the SQL statement
-        db.execSQL(SQL_CREATE_GAMES_TABLE);
+        db.execSQL("CREATE TEMP TRIGGER replica_games_insert AFTER INSERT ON main."
+                + GameEntry.TABLE_NAME + " BEGIN " + insert + "END");
+        db.execSQL("CREATE TEMP TRIGGER replica_games_update AFTER UPDATE ON main."
+                + GameEntry.TABLE_NAME + " BEGIN " + delete + insert + "END");
+        db.execSQL("CREATE TEMP TRIGGER replica_games_delete AFTER DELETE ON main."
+                + GameEntry.TABLE_NAME + " BEGIN " + delete + "END");
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * Create the indexes that let the sync engine find changed games quickly.
      */
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+    private static void createSyncIndexes(SQLiteDatabase db) {
+        db.execSQL(GameSchema.CREATE_GUID_INDEX);
+        db.execSQL(GameSchema.CREATE_DIRTY_INDEX);
+    }
+
+    /**
+     * Create the table of the tombstones of deleted games, for the sync engine.
+     */
+    private static void createDeletedGamesTable(SQLiteDatabase db) {
+        db.execSQL(GameSchema.CREATE_DELETED_GAMES_TABLE);
     }
 }
\ No newline at end of file
@@ -2,15 +2,47 @@
 package com.example.android.games.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.Configuration;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.games.R;
+import com.example.android.games.data.GameContract.ArchivedGameEntry;
+import com.example.android.games.data.GameContract.DeletedGameEntry;
 import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.data.GameContract.InventoryEntry;
+import com.example.android.games.data.GameContract.QueryPlanEntry;
+import com.example.android.games.data.GameContract.SaleEntry;
+import com.example.android.games.data.GameContract.SalesReportEntry;
+import com.example.android.games.data.GameContract.SimilarGameEntry;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * {@link ContentProvider} for Games app.
@@ -26,6 +58,53 @@ public class GameProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single game in the games table */
     private static final int GAME_ID = 101;
 
+    /** URI matcher code for the content URI for the alphabetical sections of the catalog */
+    private static final int GAME_SECTIONS = 102;
+
+    /** URI matcher code for the content URI for the archived games */
+    private static final int ARCHIVED_GAMES = 103;
+
+    /** URI matcher code for the content URI for a single archived game */
+    private static final int ARCHIVED_GAME_ID = 104;
+
+    /** URI matcher code for the content URI for the games similar to a game */
+    private static final int SIMILAR_GAMES = 105;
+
+    /** URI matcher code for the content URI for the inventory table */
+    private static final int INVENTORY = 200;
+
+    /** URI matcher code for the content URI for the sales ledger */
+    private static final int SALES = 300;
+
+    /** URI matcher codes for the content URIs for the daily sales reports */
+    private static final int SALES_BY_GAME = 301;
+    private static final int SALES_BY_BRAND = 302;
+    private static final int SALES_BY_DEMOGRAPHIC = 303;
+
+    /** URI matcher code for the content URI for the query plan diagnostics */
+    private static final int QUERY_PLANS = 400;
+
+    /** URI matcher code for the content URI for the deleted games */
+    private static final int DELETED_GAMES = 500;
+
+    /** Largest number of games returned by a single {@link GameContract#METHOD_BULK_READ} call */
+    private static final int BULK_READ_MAX_ROWS = 5000;
+
+    /**
+     * Rough upper bound (in bytes) on the size of a single {@link GameContract#METHOD_BULK_READ}
+     * result. The binder transaction buffer is 1MB and is shared by every transaction in flight
+     * in the process, so stay well below it.
+     */
+    private static final int BULK_READ_MAX_BYTES = 256 * 1024;
+
+    /** Columns read by {@link GameContract#METHOD_BULK_READ}, in the order they are indexed */
+    private static final String[] BULK_READ_PROJECTION = {
+            GameEntry._ID,
+            GameEntry.COLUMN_GAME_NAME,
+            GameEntry.COLUMN_GAME_BRAND,
+            GameEntry.COLUMN_GAME_DEMOGRAPHIC,
+            GameEntry.COLUMN_GAME_PRICE };
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -52,23 +131,458 @@ public class GameProvider extends ContentProvider {
         // For example, "content://com.example.android.games/games/3" matches, but
         // "content://com.example.android.games/games" (without a number at the end) doesn't match.
         sUriMatcher.addURI(GameContract.CONTENT_AUTHORITY, GameContract.PATH_GAMES + "/#", GAME_ID);
+
+        // The content URI of the form "content://com.example.android.games/games/sections" will
+        // map to the integer code {@link #GAME_SECTIONS}. This URI is used to count the games in
+        // each alphabetical section of the catalog.
+        sUriMatcher.addURI(GameContract.CONTENT_AUTHORITY,
+                GameContract.PATH_GAMES + "/" + GameContract.PATH_SECTIONS, GAME_SECTIONS);
+
+        // The content URI of the form "content://com.example.android.games/games/#/similar" will
+        // map to the integer code {@link #SIMILAR_GAMES}. This URI is used to read the games
+        // similar to a game.
+        sUriMatcher.addURI(GameContract.CONTENT_AUTHORITY,
+                GameContract.PATH_GAMES + "/#/" + GameContract.PATH_SIMILAR, SIMILAR_GAMES);
+
+        // The content URIs of the form "content://com.example.android.games/games/archive" and
+        // "content://com.example.android.games/games/archive/#" map to the archived games.
+        sUriMatcher.addURI(GameContract.CONTENT_AUTHORITY,
+                GameContract.PATH_GAMES + "/" + GameContract.PATH_ARCHIVE, ARCHIVED_GAMES);
+        sUriMatcher.addURI(GameContract.CONTENT_AUTHORITY,
+                GameContract.PATH_GAMES + "/" + GameContract.PATH_ARCHIVE + "/#", ARCHIVED_GAME_ID);
+
+        // The content URI of the form "content://com.example.android.games/inventory" will map
+        // to the integer code {@link #INVENTORY}. This URI is used to read the stock of the
+        // games in the stores.
+        sUriMatcher.addURI(GameContract.CONTENT_AUTHORITY, GameContract.PATH_INVENTORY, INVENTORY);
+
+        // The content URIs of the form "content://com.example.android.games/sales" and
+        // "content://com.example.android.games/sales/by_game" (or by_brand, by_demographic)
+        // map to the sales ledger and to its daily reports.
+        sUriMatcher.addURI(GameContract.CONTENT_AUTHORITY, GameContract.PATH_SALES, SALES);
+        sUriMatcher.addURI(GameContract.CONTENT_AUTHORITY,
+                GameContract.PATH_SALES + "/" + GameContract.PATH_SALES_BY_GAME, SALES_BY_GAME);
+        sUriMatcher.addURI(GameContract.CONTENT_AUTHORITY,
+                GameContract.PATH_SALES + "/" + GameContract.PATH_SALES_BY_BRAND, SALES_BY_BRAND);
+        sUriMatcher.addURI(GameContract.CONTENT_AUTHORITY,
+                GameContract.PATH_SALES + "/" + GameContract.PATH_SALES_BY_DEMOGRAPHIC,
+                SALES_BY_DEMOGRAPHIC);
+
+        // The content URI of the form "content://com.example.android.games/query_plans" will
+        // map to the integer code {@link #QUERY_PLANS}. This URI is used to read the plans of
+        // the queries recorded by the query plan diagnostics.
+        sUriMatcher.addURI(GameContract.CONTENT_AUTHORITY, GameContract.PATH_QUERY_PLANS, QUERY_PLANS);
+
+        // The content URI of the form "content://com.example.android.games/deleted_games" will
+        // map to the integer code {@link #DELETED_GAMES}. This URI is used by the sync engine
+        // to read and clear the tombstones of the deleted games.
+        sUriMatcher.addURI(GameContract.CONTENT_AUTHORITY, GameContract.PATH_DELETED_GAMES,
+                DELETED_GAMES);
     }
 
+    /**
+     * Columns compared by an upsert to tell whether an existing game would actually change.
+     */
+    private static final String[] UPSERT_COMPARED_COLUMNS = {
+            GameEntry.COLUMN_GAME_NAME,
+            GameEntry.COLUMN_GAME_BRAND,
+            GameEntry.COLUMN_GAME_DEMOGRAPHIC,
+            GameEntry.COLUMN_GAME_PRICE,
+            GameEntry.COLUMN_GAME_IMAGE,
+            GameEntry.COLUMN_GAME_TAGS };
+
+    /**
+     * Possible outcomes of {@link #upsertGame}.
+     */
+    private static final int UPSERT_INSERTED = 0;
+    private static final int UPSERT_UPDATED = 1;
+    private static final int UPSERT_UNCHANGED = 2;
+
+    /**
+     * Longest time a client's notification batch can hold back notifications. A client that
+     * opens a batch with {@link GameContract#METHOD_BEGIN_BATCH} and dies before closing it
+     * can't silence the provider for longer than this.
+     */
+    private static final long NOTIFICATION_BATCH_TIMEOUT_MILLIS = 30 * 1000;
+
+    /**
+     * Largest number of URIs a notification batch collects. Beyond that, the batch notifies the
+     * tables the rows belong to instead of every single row.
+     */
+    private static final int MAX_PENDING_NOTIFICATIONS = 64;
+
+    /**
+     * Largest number of games a bulk write notifies one by one, see {@link #findGameIds}. It
+     * leaves room in a batch for the other URIs the write notifies.
+     */
+    private static final int MAX_NOTIFIED_GAMES = MAX_PENDING_NOTIFICATIONS / 2;
+
+    /** Columns of the {@link GameEntry#SECTIONS_URI} */
+    private static final String[] SECTIONS_PROJECTION = {
+            GameEntry.COLUMN_GAME_SECTION,
+            "COUNT(*) AS " + GameEntry._COUNT };
+
+    /** The grouping and order of the sections, in the order of the language */
+    private static final String SECTIONS_ORDER = GameEntry.COLUMN_GAME_SECTION_KEY + ", "
+            + GameEntry.COLUMN_GAME_SECTION;
+
+    /** Largest number of games moved to the archive in one transaction */
+    private static final int ARCHIVE_BATCH_SIZE = 200;
+
+    /**
+     * Selects the games with an ID in the range (?1, ?2] that haven't been changed or sold
+     * since ?3 and have no copies left in any store. The sales_game index answers the sales
+     * check, and the primary key of the inventory the stock check.
+     */
+    private static final String SQL_ARCHIVABLE = GameEntry._ID + " > ?1"
+            + " AND " + GameEntry._ID + " <= ?2"
+            + " AND " + GameEntry.COLUMN_GAME_UPDATED_AT + " < ?3"
+            + " AND NOT EXISTS (SELECT 1 FROM " + SaleEntry.TABLE_NAME
+            + " WHERE " + SaleEntry.COLUMN_SALE_GAME_ID + " = " + GameEntry.TABLE_NAME + "." + GameEntry._ID
+            + " AND " + SaleEntry.COLUMN_SALE_SOLD_AT + " >= ?3)"
+            + " AND NOT EXISTS (SELECT 1 FROM " + InventoryEntry.TABLE_NAME
+            + " WHERE " + InventoryEntry.COLUMN_INVENTORY_GAME_ID + " = " + GameEntry.TABLE_NAME + "." + GameEntry._ID
+            + " AND " + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " > 0)";
+
+    /** Finds the ID of the last game of the next batch to archive, or -1 if there is none */
+    private static final String SQL_LAST_ARCHIVABLE_ID = "SELECT IFNULL(MAX(" + GameEntry._ID + "), -1)"
+            + " FROM (SELECT " + GameEntry._ID + " FROM " + GameEntry.TABLE_NAME
+            + " WHERE " + SQL_ARCHIVABLE + " ORDER BY " + GameEntry._ID + " LIMIT " + ARCHIVE_BATCH_SIZE + ")";
+
+    /** The columns of a game that move to the archive and back, see {@link GameDbHelper#GAME_COLUMNS} */
+    private static final String[] ARCHIVE_PROJECTION = GameDbHelper.GAME_COLUMNS.split(", ");
+
+    /**
+     * Deletes a batch of games copied to the archive. No tombstones are recorded, as the
+     * games still exist; their empty stock entries go with them.
+     */
+    private static final String SQL_DELETE_ARCHIVED = "DELETE FROM " + GameEntry.TABLE_NAME
+            + " WHERE " + SQL_ARCHIVABLE;
+
     /** Database helper object */
     private GameDbHelper mDbHelper;
 
+    /** Guards the notification batch state below */
+    private final Object mNotificationLock = new Object();
+
+    /** Number of notification batches the provider itself has open (they can be nested) */
+    private int mNotificationBatchDepth;
+
+    /** Uptime at which each batch opened by a client was opened, by the token handed out for it */
+    private final Map<Long, Long> mClientBatches = new HashMap<Long, Long>();
+
+    /** The last token handed out for a client's batch */
+    private long mLastBatchToken;
+
+    /** URIs changed while a notification batch is open, notified once it closes */
+    private final Set<Uri> mPendingNotifications = new HashSet<Uri>();
+
+    /**
+     * Longest time a client's notification batch can hold back notifications, normally
+     * {@link #NOTIFICATION_BATCH_TIMEOUT_MILLIS}
+     */
+    private volatile long mNotificationBatchTimeoutMillis = NOTIFICATION_BATCH_TIMEOUT_MILLIS;
+
+    /** Runs {@link #mFlushTimedOutBatches} when a client's batch times out */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Notifies what a client's batch held back once the batch has timed out, even if nothing
+     * else changes afterwards. It is posted once for every batch, and finds nothing to do for
+     * the batches that were closed in time.
+     */
+    private final Runnable mFlushTimedOutBatches = new Runnable() {
+        @Override
+        public void run() {
+            flushNotifications();
+        }
+    };
+
+    /** Keeps the similar games up to date, see {@link SimilarGameEntry} */
+    private SimilarGamesUpdater mSimilarGames;
+
+    /** Records the plans of the queries, see {@link QueryPlanEntry} */
+    private final QueryPlanMonitor mQueryPlans = new QueryPlanMonitor();
+
+    /** The last value handed out by {@link #nextUpdatedAt()} */
+    private static long sLastUpdatedAt;
+
     @Override
     public boolean onCreate() {
-        mDbHelper = new GameDbHelper(getContext());
+        mDbHelper = GameDbHelper.getInstance(getContext());
+
+        // The diagnostics cost an EXPLAIN per new shape of query, so only builds that ask
+        // for them record the plans from the start
+        mQueryPlans.setEnabled(getContext().getResources().getBoolean(
+                R.bool.query_plan_diagnostics));
+
+        // The updater does all of its work in the background
+        mSimilarGames = new SimilarGamesUpdater(getContext(), mDbHelper);
+        mSimilarGames.start();
         return true;
     }
 
+    /**
+     * The language of the device may have changed, and with it the order of the names.
+     */
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        mDbHelper.checkSortKeyLocale();
+    }
+
+    /**
+     * Stop the background work of the provider. Only the tests call it, on the providers they
+     * create for databases of their own.
+     */
+    @Override
+    public void shutdown() {
+        mHandler.removeCallbacks(mFlushTimedOutBatches);
+        mSimilarGames.stop();
+        super.shutdown();
+    }
+
+    /**
+     * Set the longest time a client's notification batch can hold back notifications. Used by
+     * the tests, which can't wait for {@link #NOTIFICATION_BATCH_TIMEOUT_MILLIS}.
+     */
+    void setNotificationBatchTimeout(long millis) {
+        mNotificationBatchTimeoutMillis = millis;
+    }
+
+    /**
+     * Returns the value for {@link GameEntry#COLUMN_GAME_UPDATED_AT} of a change made now.
+     * The sync engine uses it as the row version, so it is strictly increasing even when
+     * several changes happen in the same millisecond.
+     */
+    private static synchronized long nextUpdatedAt() {
+        sLastUpdatedAt = Math.max(System.currentTimeMillis(), sLastUpdatedAt + 1);
+        return sLastUpdatedAt;
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. While a notification
+     * batch is open, the URI is only collected, and notified when the last batch closes.
+     */
+    private void notifyChange(Uri uri) {
+        // Observers are matched by path, so the query parameters of the URI only keep it from
+        // being merged with the same URI without them
+        uri = uri.buildUpon().query(null).build();
+        synchronized (mNotificationLock) {
+            mPendingNotifications.add(uri);
+            if (mPendingNotifications.size() > MAX_PENDING_NOTIFICATIONS) {
+                collapsePendingNotifications();
+            }
+        }
+        flushNotifications();
+    }
+
+    /**
+     * Returns whether a notification batch is open, after closing the batches of clients that
+     * have kept them open for too long. Must be called with the lock held.
+     */
+    private boolean isNotificationBatchOpen() {
+        if (!mClientBatches.isEmpty()) {
+            long now = SystemClock.uptimeMillis();
+            Iterator<Map.Entry<Long, Long>> iterator = mClientBatches.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Long> batch = iterator.next();
+                if (now - batch.getValue() >= mNotificationBatchTimeoutMillis) {
+                    Log.w(LOG_TAG, "Notification batch " + batch.getKey() + " timed out");
+                    iterator.remove();
+                }
+            }
+        }
+        return mNotificationBatchDepth > 0 || !mClientBatches.isEmpty();
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed, and so have the
+     * sections of the catalog. If the URI is the URI of all games, that already covers the
+     * sections, and they are only notified once.
+     */
+    private void notifySectionsChange(Uri uri) {
+        beginNotificationBatch();
+        try {
+            notifyChange(uri);
+            notifyChange(GameEntry.SECTIONS_URI);
+        } finally {
+            endNotificationBatch();
+        }
+    }
+
+    /**
+     * Notify all listeners that the given games have changed, or all games if the IDs are
+     * null, and if asked to, that the sections have too.
+     */
+    private void notifyGamesChange(long[] ids, boolean sectionsChanged) {
+        beginNotificationBatch();
+        try {
+            if (ids == null) {
+                notifyChange(GameEntry.CONTENT_URI);
+            } else {
+                for (long id : ids) {
+                    notifyChange(ContentUris.withAppendedId(GameEntry.CONTENT_URI, id));
+                }
+            }
+            if (sectionsChanged) {
+                notifyChange(GameEntry.SECTIONS_URI);
+            }
+        } finally {
+            endNotificationBatch();
+        }
+    }
+
+    /**
+     * Returns the IDs of the games that match the selection, or null if there are more than
+     * {@link #MAX_NOTIFIED_GAMES}. A bulk write reads them in its transaction before it changes
+     * the games, so it can notify each game it changes, and the caches that follow the games
+     * only look at those instead of starting over. Reading stops after the limit, so it costs
+     * no more than the write itself.
+     */
+    private static long[] findGameIds(SQLiteDatabase database, String selection,
+                                      String[] selectionArgs) {
+        return readGameIds(database.query(GameEntry.TABLE_NAME, new String[] { GameEntry._ID },
+                selection, selectionArgs, null, null, null,
+                String.valueOf(MAX_NOTIFIED_GAMES + 1)));
+    }
+
+    /**
+     * Returns the IDs in the first column of the given cursor, or null if there are more than
+     * {@link #MAX_NOTIFIED_GAMES}, and closes it.
+     */
+    private static long[] readGameIds(Cursor cursor) {
+        try {
+            if (cursor.getCount() > MAX_NOTIFIED_GAMES) {
+                return null;
+            }
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replace every pending URI with the URI of its table, for example
+     * "content://com.example.android.games/games/3" with
+     * "content://com.example.android.games/games". Must be called with the lock held.
+     */
+    private void collapsePendingNotifications() {
+        Set<Uri> tables = new HashSet<Uri>();
+        for (Uri uri : mPendingNotifications) {
+            List<String> segments = uri.getPathSegments();
+            Uri.Builder table = uri.buildUpon().path(null).query(null).fragment(null);
+            if (!segments.isEmpty()) {
+                table.appendPath(segments.get(0));
+            }
+            tables.add(table.build());
+        }
+        mPendingNotifications.clear();
+        mPendingNotifications.addAll(tables);
+    }
+
+    /**
+     * Open a notification batch of the provider itself. Batches can be nested; the changes are
+     * notified when the outermost one is closed by {@link #endNotificationBatch()}, unless a
+     * client's batch is still open.
+     */
+    private void beginNotificationBatch() {
+        synchronized (mNotificationLock) {
+            mNotificationBatchDepth++;
+        }
+    }
+
+    /**
+     * Close a notification batch opened by {@link #beginNotificationBatch()}. If no other batch
+     * is open, every URI changed inside it is notified once.
+     */
+    private void endNotificationBatch() {
+        synchronized (mNotificationLock) {
+            mNotificationBatchDepth--;
+        }
+        flushNotifications();
+    }
+
+    /**
+     * Open a notification batch for a client, see {@link GameContract#METHOD_BEGIN_BATCH}.
+     * Each client's batch is closed on its own by its token, so one client can't close the
+     * batch of another.
+     */
+    private Bundle beginClientBatch() {
+        long token;
+        long timeoutAt;
+        synchronized (mNotificationLock) {
+            token = ++mLastBatchToken;
+            long now = SystemClock.uptimeMillis();
+            mClientBatches.put(token, now);
+            timeoutAt = now + mNotificationBatchTimeoutMillis;
+        }
+        mHandler.postAtTime(mFlushTimedOutBatches, timeoutAt);
+        Bundle result = new Bundle();
+        result.putLong(GameContract.EXTRA_BATCH_TOKEN, token);
+        return result;
+    }
+
+    /**
+     * Close the notification batch of a client, see {@link GameContract#METHOD_END_BATCH}.
+     */
+    private Bundle endClientBatch(Bundle extras) {
+        if (!extras.containsKey(GameContract.EXTRA_BATCH_TOKEN)) {
+            throw new IllegalArgumentException("Closing a batch requires its token");
+        }
+        long token = extras.getLong(GameContract.EXTRA_BATCH_TOKEN);
+        synchronized (mNotificationLock) {
+            if (mClientBatches.remove(token) == null) {
+                // The batch already timed out and was flushed
+                Log.w(LOG_TAG, "Notification batch " + token + " is not open");
+                return null;
+            }
+        }
+        flushNotifications();
+        return null;
+    }
+
+    /**
+     * Notify every pending URI, unless it's already covered by notifying one of its ancestors
+     * (observers of a URI are also woken up by a change to any of its ancestors).
+     */
+    private void flushNotifications() {
+        Set<Uri> uris;
+        synchronized (mNotificationLock) {
+            if (isNotificationBatchOpen() || mPendingNotifications.isEmpty()) {
+                return;
+            }
+            uris = new HashSet<Uri>(mPendingNotifications);
+            mPendingNotifications.clear();
+        }
+
+        for (Uri uri : uris) {
+            boolean coveredByAncestor = false;
+            List<String> segments = uri.getPathSegments();
+            Uri.Builder ancestor = uri.buildUpon().path(null).query(null).fragment(null);
+            for (int i = 0; i < segments.size() - 1 && !coveredByAncestor; i++) {
+                ancestor.appendPath(segments.get(i));
+                coveredByAncestor = uris.contains(ancestor.build());
+            }
+            if (!coveredByAncestor) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        }
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
+        // In replica mode the games are read from memory
+        String gamesTable = mDbHelper.getGamesTableForReading();
+
         // This cursor will hold the result of the query
         Cursor cursor;
 
@@ -76,11 +590,32 @@ public class GameProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
         switch (match) {
             case GAMES:
+                // Until the upgrade has given every game its section, list the games by name
+                // alone, which is the same order without the sections. Until every game has
+                // a section key, list the sections by their letter. Until every game has
+                // a sort key in the current language, compare the names without case.
+                if (GameEntry.SORT_ORDER_SECTIONS.equals(sortOrder)) {
+                    boolean sortKeysPending =
+                            mDbHelper.isMigrationPending(GameDbHelper.VERSION_SORT_KEYS);
+                    if (mDbHelper.isMigrationPending(GameDbHelper.VERSION_SECTIONS)) {
+                        sortOrder = GameEntry.COLUMN_GAME_NAME + " COLLATE NOCASE";
+                    } else if (mDbHelper.isMigrationPending(GameDbHelper.VERSION_SECTION_KEYS)) {
+                        sortOrder = GameEntry.COLUMN_GAME_SECTION + ", " + (sortKeysPending
+                                ? GameEntry.COLUMN_GAME_NAME + " COLLATE NOCASE"
+                                : GameEntry.COLUMN_GAME_SORT_KEY);
+                    } else if (sortKeysPending) {
+                        sortOrder = GameEntry.COLUMN_GAME_SECTION_KEY + ", "
+                                + GameEntry.COLUMN_GAME_SECTION + ", "
+                                + GameEntry.COLUMN_GAME_NAME + " COLLATE NOCASE";
+                    }
+                }
+
                 // For the GAMES code, query the games table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the games table.
-                cursor = database.query(GameEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                selection = withTagFilter(uri, selection);
+                cursor = queryTable(database, gamesTable, projection, selection,
+                        selectionArgs, null, sortOrder, readLimitParameter(uri));
                 break;
             case GAME_ID:
                 // For the GAME_ID code, extract out the ID from the URI.
@@ -96,8 +631,82 @@ public class GameProvider extends ContentProvider {
 
                 // This will perform a query on the games table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(GameEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = queryTable(database, gamesTable, projection, selection,
+                        selectionArgs, null, sortOrder, null);
+                break;
+            case SIMILAR_GAMES:
+                // For the SIMILAR_GAMES code, read the list of the game with the ID in the URI
+                // by its primary key, and join each entry to its game
+                selection = SimilarGameEntry.TABLE_NAME + "."
+                        + SimilarGameEntry.COLUMN_SIMILAR_GAME_ID + "=?";
+                selectionArgs = new String[] { uri.getPathSegments().get(1) };
+                cursor = queryTable(database, SimilarGameEntry.TABLE_NAME + " JOIN " + gamesTable
+                                + " ON " + gamesTable + "." + GameEntry._ID + " = "
+                                + SimilarGameEntry.TABLE_NAME + "." + SimilarGameEntry.COLUMN_SIMILAR_ID,
+                        projection, selection, selectionArgs, null,
+                        SimilarGameEntry.TABLE_NAME + "." + SimilarGameEntry.COLUMN_SIMILAR_RANK, null);
+
+                // The list changes in the background after the games change
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        SimilarGameEntry.NOTIFICATION_URI);
+                return cursor;
+            case GAME_SECTIONS:
+                // Until the upgrade has given every game its section, there are no sections
+                if (mDbHelper.isMigrationPending(GameDbHelper.VERSION_SECTIONS)) {
+                    cursor = new MatrixCursor(new String[] {
+                            GameEntry.COLUMN_GAME_SECTION, GameEntry._COUNT });
+                    break;
+                }
+
+                // For the GAME_SECTIONS code, count the games in each section, in the order of
+                // the language. The games_section index is already ordered by section key and
+                // section, so the grouping walks the index once and never touches the table.
+                // The projection and sort order are fixed. A filter on the tags has to match the
+                // one of the list of games, or the counts won't.
+                selection = withTagFilter(uri, selection);
+                String sectionsOrder = mDbHelper.isMigrationPending(
+                        GameDbHelper.VERSION_SECTION_KEYS)
+                        ? GameEntry.COLUMN_GAME_SECTION : SECTIONS_ORDER;
+                cursor = queryTable(database, gamesTable, SECTIONS_PROJECTION, selection,
+                        selectionArgs, sectionsOrder, sectionsOrder, null);
+                break;
+            case ARCHIVED_GAMES:
+                // For the ARCHIVED_GAMES code, open the archive if it isn't yet, and query
+                // the archived games table
+                cursor = queryTable(mDbHelper.getArchiveDatabase(), ArchivedGameEntry.TABLE_NAME,
+                        projection, selection, selectionArgs, null, sortOrder,
+                        readLimitParameter(uri));
+                break;
+            case ARCHIVED_GAME_ID:
+                // For the ARCHIVED_GAME_ID code, query the archived game with the ID in the URI
+                selection = ArchivedGameEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = queryTable(mDbHelper.getArchiveDatabase(), ArchivedGameEntry.TABLE_NAME,
+                        projection, selection, selectionArgs, null, sortOrder, null);
+                break;
+            case INVENTORY:
+                // For the INVENTORY code, query the inventory table directly
+                cursor = queryTable(database, InventoryEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, sortOrder, null);
+                break;
+            case SALES:
+            case SALES_BY_GAME:
+            case SALES_BY_BRAND:
+            case SALES_BY_DEMOGRAPHIC:
+                // For the sales codes, query the ledger or the report table directly. The
+                // reports are keyed by day first, so selecting a day or a range of days is an
+                // index lookup.
+                cursor = queryTable(database, salesTable(match), projection, selection,
+                        selectionArgs, null, sortOrder, null);
+                break;
+            case QUERY_PLANS:
+                // For the QUERY_PLANS code, return the plans recorded so far
+                cursor = mQueryPlans.report();
+                break;
+            case DELETED_GAMES:
+                // For the DELETED_GAMES code, query the tombstones table directly
+                cursor = queryTable(database, DeletedGameEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, sortOrder, readLimitParameter(uri));
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -112,6 +721,126 @@ public class GameProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Query a table of the database, after recording the plan of the query if the query plan
+     * diagnostics are on. The arguments are the same as those of {@link SQLiteDatabase#query}.
+     */
+    private Cursor queryTable(SQLiteDatabase database, String table, String[] projection,
+            String selection, String[] selectionArgs, String groupBy, String sortOrder,
+            String limit) {
+        mQueryPlans.record(database, table, projection, selection, selectionArgs, groupBy,
+                sortOrder, limit);
+        return database.query(table, projection, selection, selectionArgs, groupBy, null,
+                sortOrder, limit);
+    }
+
+    /**
+     * Returns the given selection combined with the filter on the tags in the query parameters
+     * of the URI, see {@link GameContract#QUERY_PARAMETER_TAGS_ALL}. Each part of the filter is
+     * one bitwise operation per game. The masks are checked to be numbers, so they go into the
+     * SQL as they are, and the selection arguments don't change.
+     */
+    private static String withTagFilter(Uri uri, String selection) {
+        StringBuilder filter = new StringBuilder();
+        long all = readTagsParameter(uri, GameContract.QUERY_PARAMETER_TAGS_ALL);
+        if (all != 0) {
+            appendTagClause(filter, " = " + all, all);
+        }
+        long any = readTagsParameter(uri, GameContract.QUERY_PARAMETER_TAGS_ANY);
+        if (any != 0) {
+            appendTagClause(filter, " != 0", any);
+        }
+        long none = readTagsParameter(uri, GameContract.QUERY_PARAMETER_TAGS_NONE);
+        if (none != 0) {
+            appendTagClause(filter, " = 0", none);
+        }
+
+        if (filter.length() == 0) {
+            return selection;
+        }
+        if (TextUtils.isEmpty(selection)) {
+            return filter.toString();
+        }
+        return "(" + selection + ") AND " + filter;
+    }
+
+    /**
+     * Append a clause that compares the tags of a game masked with the given tags.
+     */
+    private static void appendTagClause(StringBuilder filter, String comparison, long tags) {
+        if (filter.length() > 0) {
+            filter.append(" AND ");
+        }
+        filter.append('(').append(GameEntry.COLUMN_GAME_TAGS).append(" & ").append(tags)
+                .append(')').append(comparison);
+    }
+
+    /**
+     * Returns the tags in the given query parameter of the URI, or 0 if it isn't there.
+     */
+    private static long readTagsParameter(Uri uri, String parameter) {
+        String value = uri.getQueryParameter(parameter);
+        if (value == null) {
+            return 0;
+        }
+        long tags;
+        try {
+            tags = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + parameter + " in " + uri);
+        }
+        if (!GameEntry.isValidTags(tags)) {
+            throw new IllegalArgumentException("Unknown tags in " + parameter + " of " + uri);
+        }
+        return tags;
+    }
+
+    /**
+     * Returns the limit in the {@link GameContract#QUERY_PARAMETER_LIMIT} of the URI, or null
+     * if it isn't there.
+     */
+    private static String readLimitParameter(Uri uri) {
+        String value = uri.getQueryParameter(GameContract.QUERY_PARAMETER_LIMIT);
+        if (value == null) {
+            return null;
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit in " + uri);
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid limit in " + uri);
+        }
+        return String.valueOf(limit);
+    }
+
+    /**
+     * Returns whether the change at the given URI comes from the sync engine, see
+     * {@link GameContract#QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER}.
+     */
+    private static boolean isCallerSyncAdapter(Uri uri) {
+        return uri.getBooleanQueryParameter(GameContract.QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER,
+                false);
+    }
+
+    /**
+     * Returns the table of the sales ledger or of a daily report, for the given URI matcher code.
+     */
+    private static String salesTable(int match) {
+        switch (match) {
+            case SALES_BY_GAME:
+                return SalesReportEntry.TABLE_BY_GAME;
+            case SALES_BY_BRAND:
+                return SalesReportEntry.TABLE_BY_BRAND;
+            case SALES_BY_DEMOGRAPHIC:
+                return SalesReportEntry.TABLE_BY_DEMOGRAPHIC;
+            default:
+                return SaleEntry.TABLE_NAME;
+        }
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
@@ -128,6 +857,63 @@ public class GameProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertGame(Uri uri, ContentValues values) {
+        checkNewGame(values);
+        boolean syncAdapter = isCallerSyncAdapter(uri);
+        if (syncAdapter && (values.getAsString(GameEntry.COLUMN_GAME_GUID) == null
+                || values.getAsLong(GameEntry.COLUMN_GAME_UPDATED_AT) == null)) {
+            throw new IllegalArgumentException("Synced game requires a GUID and a change time");
+        }
+        values = stampNewGame(values, syncAdapter);
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long id;
+        if (uri.getBooleanQueryParameter(GameContract.QUERY_PARAMETER_UPSERT, false)) {
+            // Matching games by natural key needs every game to have one
+            mDbHelper.awaitMigration(GameDbHelper.VERSION_NATURAL_KEY);
+
+            // Insert the game, or update the existing game with the same natural key
+            String naturalKey = values.getAsString(GameEntry.COLUMN_GAME_NATURAL_KEY);
+            int outcome;
+            database.beginTransaction();
+            try {
+                outcome = upsertGame(database, values);
+                id = findGameId(database, naturalKey);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            if (outcome == UPSERT_UNCHANGED) {
+                // Nothing changed, so there is no need to wake up the listeners
+                return ContentUris.withAppendedId(GameEntry.CONTENT_URI, id);
+            }
+        } else {
+            // Insert the new game with the given values. If another game already has the same
+            // name and brand, let the caller know instead of failing silently.
+            id = database.insertOrThrow(GameEntry.TABLE_NAME, null, values);
+        }
+
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        Uri gameUri = ContentUris.withAppendedId(GameEntry.CONTENT_URI, id);
+
+        // Notify all listeners that the data has changed for the new game. Listeners of the
+        // list of games are notified of changes to any game in it, and the sections too.
+        notifySectionsChange(gameUri);
+        return gameUri;
+    }
+
+    /**
+     * Check that the given content values are valid for a new game, and throw an
+     * {@link IllegalArgumentException} if they aren't.
+     */
+    private void checkNewGame(ContentValues values) {
         // Check that the name is not null
         String name = values.getAsString(GameEntry.COLUMN_GAME_NAME);
         if (name == null) {
@@ -146,27 +932,124 @@ public class GameProvider extends ContentProvider {
             throw new IllegalArgumentException("Game requires valid price");
         }
 
-        // No need to check the brand, any value is valid (including null).
+        // If the tags are provided, check that they are all known tags
+        Long tags = values.getAsLong(GameEntry.COLUMN_GAME_TAGS);
+        if (tags != null && !GameEntry.isValidTags(tags)) {
+            throw new IllegalArgumentException("Game requires valid tags");
+        }
 
-        // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        // No need to check the brand or the image, any value is valid (including null).
+    }
 
-        // Insert the new game with the given values
-        long id = database.insert(GameEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+    /**
+     * Returns a copy of the given content values of a new game, with the columns that the
+     * provider maintains filled in. A game from the sync engine is already synced, and keeps
+     * the change time and natural key it comes with.
+     */
+    private static ContentValues stampNewGame(ContentValues values, boolean syncAdapter) {
+        values = new ContentValues(values);
+
+        // Stamp the game for the sync engine. Keep the GUID if the caller already knows it.
+        if (values.getAsString(GameEntry.COLUMN_GAME_GUID) == null) {
+            values.put(GameEntry.COLUMN_GAME_GUID, UUID.randomUUID().toString());
         }
+        if (!syncAdapter) {
+            values.put(GameEntry.COLUMN_GAME_UPDATED_AT, nextUpdatedAt());
+        }
+        values.put(GameEntry.COLUMN_GAME_DIRTY, syncAdapter ? 0 : 1);
 
-        // Notify all listeners that the data has changed for the game content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (!syncAdapter || !values.containsKey(GameEntry.COLUMN_GAME_NATURAL_KEY)) {
+            values.put(GameEntry.COLUMN_GAME_NATURAL_KEY, GameEntry.naturalKey(
+                    values.getAsString(GameEntry.COLUMN_GAME_NAME),
+                    values.getAsString(GameEntry.COLUMN_GAME_BRAND)));
+        }
+        putNameKeys(values);
+        values.put(GameEntry.COLUMN_GAME_BRAND_KEY, GameEntry.brandKey(
+                values.getAsString(GameEntry.COLUMN_GAME_BRAND)));
+        return values;
+    }
 
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+    /**
+     * Put the section, the section key and the sort key of the game named in the given values,
+     * all in the current language of the device.
+     */
+    private static void putNameKeys(ContentValues values) {
+        Collator collator = Collator.getInstance();
+        String name = values.getAsString(GameEntry.COLUMN_GAME_NAME);
+        String section = GameEntry.section(collator, name);
+        values.put(GameEntry.COLUMN_GAME_SECTION, section);
+        values.put(GameEntry.COLUMN_GAME_SECTION_KEY, GameEntry.sectionKey(collator, section));
+        values.put(GameEntry.COLUMN_GAME_SORT_KEY, GameEntry.sortKey(collator, name));
     }
 
-    @Override
+    /**
+     * Insert the given new game, or update the existing game with the same natural key. The
+     * existing game is only written to if one of its values actually differs, so upserting an
+     * unchanged game costs two index lookups and no writes. The values must already be stamped
+     * by {@link #stampNewGame}. Returns {@link #UPSERT_INSERTED}, {@link #UPSERT_UPDATED} or
+     * {@link #UPSERT_UNCHANGED}.
+     *
+     * @throws SQLiteConstraintException if the game is new but its GUID belongs to another game
+     */
+    private int upsertGame(SQLiteDatabase database, ContentValues values) {
+        // Match the existing game by natural key, and only if one of the given values differs
+        StringBuilder selection = new StringBuilder(GameEntry.COLUMN_GAME_NATURAL_KEY + "=? AND NOT (");
+        List<String> selectionArgs = new ArrayList<String>();
+        selectionArgs.add(values.getAsString(GameEntry.COLUMN_GAME_NATURAL_KEY));
+        boolean first = true;
+        for (String column : UPSERT_COMPARED_COLUMNS) {
+            if (!values.containsKey(column)) {
+                continue;
+            }
+            if (!first) {
+                selection.append(" AND ");
+            }
+            first = false;
+            Object value = values.get(column);
+            if (value == null) {
+                selection.append(column).append(" IS NULL");
+            } else {
+                selection.append(column).append(" IS ?");
+                selectionArgs.add(value.toString());
+            }
+        }
+        selection.append(')');
+
+        // The existing game keeps its own GUID
+        ContentValues changes = new ContentValues(values);
+        changes.remove(GameEntry.COLUMN_GAME_GUID);
+        int rowsUpdated = database.update(GameEntry.TABLE_NAME, changes, selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]));
+        if (rowsUpdated != 0) {
+            return UPSERT_UPDATED;
+        }
+
+        // Either the game already has the same values, or there is no such game yet. Any
+        // other constraint the new game breaks is the caller's to know about, not a no-op.
+        String[] keyArgs = new String[] { values.getAsString(GameEntry.COLUMN_GAME_NATURAL_KEY) };
+        if (DatabaseUtils.queryNumEntries(database, GameEntry.TABLE_NAME,
+                GameEntry.COLUMN_GAME_NATURAL_KEY + "=?", keyArgs) != 0) {
+            return UPSERT_UNCHANGED;
+        }
+        database.insertOrThrow(GameEntry.TABLE_NAME, null, values);
+        return UPSERT_INSERTED;
+    }
+
+    /**
+     * Returns the ID of the game with the given natural key, or -1 if there is none.
+     */
+    private static long findGameId(SQLiteDatabase database, String naturalKey) {
+        Cursor cursor = database.query(GameEntry.TABLE_NAME, new String[] { GameEntry._ID },
+                GameEntry.COLUMN_GAME_NATURAL_KEY + "=?", new String[] { naturalKey },
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
@@ -180,6 +1063,8 @@ public class GameProvider extends ContentProvider {
                 selection = GameEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
                 return updateGame(uri, contentValues, selection, selectionArgs);
+            case ARCHIVED_GAMES:
+                return updateArchivedGames(uri, contentValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -189,8 +1074,83 @@ public class GameProvider extends ContentProvider {
      * Update games in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more games).
      * Return the number of rows that were successfully updated.
+     *
+     * @throws SQLiteConstraintException if a game would get the same name and brand as another
+     *                                   game, in which case no game is updated
      */
     private int updateGame(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        checkChangedGame(values);
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Stamp the changed games for the sync engine. Changes from the sync engine are
+        // already synced, and keep their own change time.
+        boolean syncAdapter = isCallerSyncAdapter(uri);
+        values = new ContentValues(values);
+        if (!syncAdapter) {
+            values.put(GameEntry.COLUMN_GAME_UPDATED_AT, nextUpdatedAt());
+        }
+        values.put(GameEntry.COLUMN_GAME_DIRTY, syncAdapter ? 0 : 1);
+
+        // If both the name and the brand change, the new natural key is known up front.
+        // If only one of them changes, the key also depends on the other one of each game.
+        // The sync engine may give the key itself, to tell apart two games with the same one.
+        boolean hasName = values.containsKey(GameEntry.COLUMN_GAME_NAME);
+        boolean hasBrand = values.containsKey(GameEntry.COLUMN_GAME_BRAND);
+        boolean keepNaturalKey = syncAdapter
+                && values.containsKey(GameEntry.COLUMN_GAME_NATURAL_KEY);
+        if (hasName && hasBrand && !keepNaturalKey) {
+            values.put(GameEntry.COLUMN_GAME_NATURAL_KEY, GameEntry.naturalKey(
+                    values.getAsString(GameEntry.COLUMN_GAME_NAME),
+                    values.getAsString(GameEntry.COLUMN_GAME_BRAND)));
+        }
+        boolean recomputeNaturalKeys = hasName != hasBrand && !keepNaturalKey;
+        if (hasName) {
+            putNameKeys(values);
+        }
+        if (hasBrand) {
+            values.put(GameEntry.COLUMN_GAME_BRAND_KEY, GameEntry.brandKey(
+                    values.getAsString(GameEntry.COLUMN_GAME_BRAND)));
+        }
+
+        // Otherwise, get writeable database to update the data
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Perform the update on the database and get the number of rows affected
+        int rowsUpdated;
+        long[] changedIds;
+        database.beginTransaction();
+        try {
+            changedIds = findGameIds(database, selection, selectionArgs);
+            if (recomputeNaturalKeys) {
+                rowsUpdated = updateGamesByNaturalKey(database, values, selection, selectionArgs,
+                        hasName);
+            } else {
+                rowsUpdated = database.update(GameEntry.TABLE_NAME, values, selection, selectionArgs);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // If 1 or more rows were updated, then notify all listeners that the data of the
+        // updated games has changed. A new name may also move the games to another section.
+        if (rowsUpdated != 0) {
+            notifyGamesChange(changedIds, hasName);
+        }
+
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    /**
+     * Check that the given content values are valid changes to a game, and throw an
+     * {@link IllegalArgumentException} if they aren't.
+     */
+    private static void checkChangedGame(ContentValues values) {
         // If the {@link GameEntry#COLUMN_GAME_NAME} key is present,
         // check that the name value is not null.
         if (values.containsKey(GameEntry.COLUMN_GAME_NAME)) {
@@ -219,63 +1179,256 @@ public class GameProvider extends ContentProvider {
             }
         }
 
-        // No need to check the brand, any value is valid (including null).
+        // If the {@link GameEntry#COLUMN_GAME_TAGS} key is present,
+        // check that the tags value is valid.
+        if (values.containsKey(GameEntry.COLUMN_GAME_TAGS)) {
+            Long tags = values.getAsLong(GameEntry.COLUMN_GAME_TAGS);
+            if (tags == null || !GameEntry.isValidTags(tags)) {
+                throw new IllegalArgumentException("Game requires valid tags");
+            }
+        }
 
-        // If there are no values to update, then don't try to update the database
+        // No need to check the brand or the image, any value is valid (including null).
+    }
+
+    /**
+     * Apply a change from the sync server to archived games, which stay archived. Only the
+     * sync engine changes archived games, so the games stay clean, and keep the change time and
+     * natural key they are given. The name and the brand change together, so the natural key
+     * never falls behind. Return the number of rows that were successfully updated.
+     */
+    private int updateArchivedGames(Uri uri, ContentValues values, String selection,
+                                    String[] selectionArgs) {
+        checkArchiveWrite(uri);
+        checkChangedGame(values);
+        boolean hasName = values.containsKey(GameEntry.COLUMN_GAME_NAME);
+        if (hasName != values.containsKey(GameEntry.COLUMN_GAME_BRAND)) {
+            throw new IllegalArgumentException("Archived game requires both a name and a brand");
+        }
         if (values.size() == 0) {
             return 0;
         }
 
-        // Otherwise, get writeable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(GameEntry.TABLE_NAME, values, selection, selectionArgs);
+        values = new ContentValues(values);
+        values.put(GameEntry.COLUMN_GAME_DIRTY, 0);
+        if (hasName) {
+            if (!values.containsKey(GameEntry.COLUMN_GAME_NATURAL_KEY)) {
+                values.put(GameEntry.COLUMN_GAME_NATURAL_KEY, GameEntry.naturalKey(
+                        values.getAsString(GameEntry.COLUMN_GAME_NAME),
+                        values.getAsString(GameEntry.COLUMN_GAME_BRAND)));
+            }
+            values.put(GameEntry.COLUMN_GAME_SECTION, GameEntry.section(
+                    values.getAsString(GameEntry.COLUMN_GAME_NAME)));
+        }
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+        int rowsUpdated;
+        synchronized (mDbHelper.getArchiveLock()) {
+            rowsUpdated = mDbHelper.getArchiveDatabase().update(ArchivedGameEntry.TABLE_NAME,
+                    values, selection, selectionArgs);
+        }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(ArchivedGameEntry.CONTENT_URI);
         }
-
-        // Return the number of rows updated
         return rowsUpdated;
     }
 
+    /**
+     * Delete archived games the sync server deleted. Return the number of rows deleted.
+     */
+    private int deleteArchivedGames(Uri uri, String selection, String[] selectionArgs) {
+        checkArchiveWrite(uri);
+        int rowsDeleted;
+        synchronized (mDbHelper.getArchiveLock()) {
+            rowsDeleted = mDbHelper.getArchiveDatabase().delete(ArchivedGameEntry.TABLE_NAME,
+                    selection, selectionArgs);
+        }
+        if (rowsDeleted != 0) {
+            notifyChange(ArchivedGameEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Check that a write to the archived games at the given URI comes from the sync engine,
+     * outside of a batch. Everywhere else the archive lock is taken before a transaction of the
+     * games database, so taking it inside one could deadlock with a move to the archive.
+     */
+    private void checkArchiveWrite(Uri uri) {
+        if (!isCallerSyncAdapter(uri)) {
+            throw new IllegalArgumentException("Only the sync engine changes " + uri);
+        }
+        if (mDbHelper.getWritableDatabase().inTransaction()) {
+            throw new IllegalStateException("Archived games can't be changed in a batch");
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Track the number of rows that were deleted
+        // Track the number of rows that were deleted, and which games they were
         int rowsDeleted;
+        long[] deletedIds;
 
         final int match = sUriMatcher.match(uri);
         switch (match) {
-            case GAMES:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(GameEntry.TABLE_NAME, selection, selectionArgs);
-                break;
             case GAME_ID:
                 // Delete a single row given by the ID in the URI
                 selection = GameEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(GameEntry.TABLE_NAME, selection, selectionArgs);
+                // Fall through
+            case GAMES:
+                // Delete all rows that match the selection and selection args
+                database.beginTransaction();
+                try {
+                    deletedIds = findGameIds(database, selection, selectionArgs);
+                    rowsDeleted = deleteGames(database, selection, selectionArgs,
+                            !isCallerSyncAdapter(uri));
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
                 break;
+            case ARCHIVED_GAMES:
+                return deleteArchivedGames(uri, selection, selectionArgs);
+            case DELETED_GAMES:
+                // Only the sync engine clears the tombstones, once the server has them. Nobody
+                // observes them, so there is nothing to notify.
+                if (!isCallerSyncAdapter(uri)) {
+                    throw new IllegalArgumentException("Only the sync engine deletes " + uri);
+                }
+                return database.delete(DeletedGameEntry.TABLE_NAME, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
-        // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
+        // If 1 or more rows were deleted, then notify all listeners that the deleted games
+        // and the sections have changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyGamesChange(deletedIds, true);
         }
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Update the games that match the selection with the given values, when only one of the
+     * name and the brand changes. The new natural key of each game then depends on its other
+     * value, so the games are grouped by that value and each group is updated with a single
+     * statement, with its key computed once. SQLite can't compute the key itself, as its
+     * lower() only knows ASCII. Returns the number of rows updated.
+     */
+    private static int updateGamesByNaturalKey(SQLiteDatabase database, ContentValues values,
+                                               String selection, String[] selectionArgs,
+                                               boolean nameChanged) {
+        String otherColumn = nameChanged ? GameEntry.COLUMN_GAME_BRAND : GameEntry.COLUMN_GAME_NAME;
+        String changedValue = values.getAsString(
+                nameChanged ? GameEntry.COLUMN_GAME_NAME : GameEntry.COLUMN_GAME_BRAND);
+
+        // Read all the groups before updating, as the update may change what the selection matches
+        List<String> otherValues = new ArrayList<String>();
+        List<String> idLists = new ArrayList<String>();
+        Cursor cursor = database.query(GameEntry.TABLE_NAME, new String[] {
+                        otherColumn, "group_concat(" + GameEntry._ID + ")" },
+                selection, selectionArgs, otherColumn, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                otherValues.add(cursor.isNull(0) ? null : cursor.getString(0));
+                idLists.add(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        values = new ContentValues(values);
+        int rowsUpdated = 0;
+        for (int i = 0; i < idLists.size(); i++) {
+            String otherValue = otherValues.get(i);
+            values.put(GameEntry.COLUMN_GAME_NATURAL_KEY, nameChanged
+                    ? GameEntry.naturalKey(changedValue, otherValue)
+                    : GameEntry.naturalKey(otherValue, changedValue));
+            rowsUpdated += database.update(GameEntry.TABLE_NAME, values,
+                    GameEntry._ID + " IN (" + idLists.get(i) + ")", null);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete the games that match the selection, and record a tombstone for each of them in the
+     * same transaction, so the sync engine can push the deletions later. Games the upgrade
+     * hasn't given a GUID yet have never been synced, so they need no tombstone, and neither do
+     * the games the sync engine deletes because the server did. Return the number of rows
+     * deleted.
+     */
+    private int deleteGames(SQLiteDatabase database, String selection, String[] selectionArgs,
+                            boolean recordTombstones) {
+        String where = " WHERE " + GameEntry.COLUMN_GAME_GUID + " IS NOT NULL";
+        if (!TextUtils.isEmpty(selection)) {
+            where += " AND (" + selection + ")";
+        }
+        database.beginTransaction();
+        try {
+            if (recordTombstones) {
+                database.execSQL("INSERT OR REPLACE INTO " + DeletedGameEntry.TABLE_NAME + " ("
+                        + DeletedGameEntry.COLUMN_GUID + ", " + DeletedGameEntry.COLUMN_DELETED_AT + ")"
+                        + " SELECT " + GameEntry.COLUMN_GAME_GUID + ", " + nextUpdatedAt()
+                        + " FROM " + GameEntry.TABLE_NAME + where,
+                        selectionArgs != null ? selectionArgs : new String[0]);
+            }
+            int rowsDeleted = database.delete(GameEntry.TABLE_NAME, selection, selectionArgs);
+            database.setTransactionSuccessful();
+            return rowsDeleted;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Apply the operations in one transaction, and notify every changed URI once at the end.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        beginNotificationBatch();
+        try {
+            database.beginTransaction();
+            try {
+                ContentProviderResult[] results = super.applyBatch(operations);
+                database.setTransactionSuccessful();
+                return results;
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            endNotificationBatch();
+        }
+    }
+
+    /**
+     * Insert the games in one transaction, and notify the listeners once at the end. If one of
+     * the games has the same name and brand as another game, none of them are inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        beginNotificationBatch();
+        try {
+            database.beginTransaction();
+            try {
+                int rowsInserted = super.bulkInsert(uri, values);
+                database.setTransactionSuccessful();
+                return rowsInserted;
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            endNotificationBatch();
+        }
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -284,8 +1437,673 @@ public class GameProvider extends ContentProvider {
                 return GameEntry.CONTENT_LIST_TYPE;
             case GAME_ID:
                 return GameEntry.CONTENT_ITEM_TYPE;
+            case SIMILAR_GAMES:
+                return GameEntry.CONTENT_LIST_TYPE;
+            case GAME_SECTIONS:
+                return GameEntry.CONTENT_SECTIONS_TYPE;
+            case ARCHIVED_GAMES:
+                return ArchivedGameEntry.CONTENT_LIST_TYPE;
+            case ARCHIVED_GAME_ID:
+                return ArchivedGameEntry.CONTENT_ITEM_TYPE;
+            case INVENTORY:
+                return InventoryEntry.CONTENT_LIST_TYPE;
+            case SALES:
+                return SaleEntry.CONTENT_LIST_TYPE;
+            case SALES_BY_GAME:
+            case SALES_BY_BRAND:
+            case SALES_BY_DEMOGRAPHIC:
+                return SalesReportEntry.CONTENT_LIST_TYPE;
+            case QUERY_PLANS:
+                return QueryPlanEntry.CONTENT_LIST_TYPE;
+            case DELETED_GAMES:
+                return DeletedGameEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (GameContract.METHOD_BULK_READ.equals(method)) {
+            return bulkRead(extras != null ? extras : Bundle.EMPTY);
+        } else if (GameContract.METHOD_ADJUST_PRICES.equals(method)) {
+            return adjustPrices(extras != null ? extras : Bundle.EMPTY);
+        } else if (GameContract.METHOD_UPSERT.equals(method)) {
+            return upsertGames(extras != null ? extras : Bundle.EMPTY);
+        } else if (GameContract.METHOD_SELL.equals(method)) {
+            return changeStock(extras != null ? extras : Bundle.EMPTY, true);
+        } else if (GameContract.METHOD_RESTOCK.equals(method)) {
+            return changeStock(extras != null ? extras : Bundle.EMPTY, false);
+        } else if (GameContract.METHOD_ARCHIVE.equals(method)) {
+            return archiveGames(extras != null ? extras : Bundle.EMPTY);
+        } else if (GameContract.METHOD_UNARCHIVE.equals(method)) {
+            return unarchiveGame(extras != null ? extras : Bundle.EMPTY);
+        } else if (GameContract.METHOD_SET_QUERY_PLAN_DIAGNOSTICS.equals(method)) {
+            mQueryPlans.setEnabled(extras != null && extras.getBoolean(GameContract.EXTRA_ENABLED));
+            return null;
+        } else if (GameContract.METHOD_BEGIN_BATCH.equals(method)) {
+            return beginClientBatch();
+        } else if (GameContract.METHOD_END_BATCH.equals(method)) {
+            return endClientBatch(extras != null ? extras : Bundle.EMPTY);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Read one chunk of games into parallel arrays, ordered by ID. The chunk ends when either
+     * the requested limit is reached or the estimated size of the result would no longer fit
+     * comfortably in a binder transaction. See {@link GameContract#METHOD_BULK_READ}.
+     */
+    private Bundle bulkRead(Bundle extras) {
+        long afterId = extras.getLong(GameContract.EXTRA_AFTER_ID, 0);
+        int limit = extras.getInt(GameContract.EXTRA_LIMIT, BULK_READ_MAX_ROWS);
+        if (limit < 1 || limit > BULK_READ_MAX_ROWS) {
+            limit = BULK_READ_MAX_ROWS;
+        }
+
+        // Build the selection. Paging is done on the ID (rather than with an OFFSET), so every
+        // chunk is a range read on the primary key no matter how deep into the table it is.
+        StringBuilder selection = new StringBuilder(GameEntry._ID + ">?");
+        ArrayList<String> selectionArgs = new ArrayList<String>();
+        selectionArgs.add(String.valueOf(afterId));
+        if (extras.containsKey(GameContract.EXTRA_TO_ID)) {
+            selection.append(" AND " + GameEntry._ID + "<=?");
+            selectionArgs.add(String.valueOf(extras.getLong(GameContract.EXTRA_TO_ID)));
+        }
+        String filter = extras.getString(GameContract.EXTRA_SELECTION);
+        if (!TextUtils.isEmpty(filter)) {
+            selection.append(" AND (").append(filter).append(')');
+            String[] filterArgs = extras.getStringArray(GameContract.EXTRA_SELECTION_ARGS);
+            if (filterArgs != null) {
+                selectionArgs.addAll(Arrays.asList(filterArgs));
+            }
+        }
+
+        // Get readable database
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+
+        // Ask for one row more than the limit, so we know whether there is another chunk
+        Cursor cursor = queryTable(database, mDbHelper.getGamesTableForReading(),
+                BULK_READ_PROJECTION, selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null, GameEntry._ID + " ASC", String.valueOf(limit + 1));
+
+        long[] ids;
+        String[] names;
+        String[] brands;
+        int[] demographics;
+        int[] prices;
+        int count = 0;
+        boolean hasMore;
+        try {
+            int capacity = Math.min(limit, cursor.getCount());
+            ids = new long[capacity];
+            names = new String[capacity];
+            brands = new String[capacity];
+            demographics = new int[capacity];
+            prices = new int[capacity];
+
+            int bytes = 0;
+            while (count < capacity && cursor.moveToNext()) {
+                String name = cursor.getString(1);
+                String brand = cursor.isNull(2) ? null : cursor.getString(2);
+
+                // Parcels store strings as UTF-16 with a length prefix, and every array
+                // element has some fixed overhead on top of its value.
+                int rowBytes = 32 + 2 * name.length() + (brand != null ? 2 * brand.length() : 0);
+                if (count > 0 && bytes + rowBytes > BULK_READ_MAX_BYTES) {
+                    break;
+                }
+                bytes += rowBytes;
+
+                ids[count] = cursor.getLong(0);
+                names[count] = name;
+                brands[count] = brand;
+                demographics[count] = cursor.getInt(3);
+                prices[count] = cursor.getInt(4);
+                count++;
+            }
+            hasMore = count < cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+
+        // Trim the arrays if the chunk was cut short by the size limit
+        if (count < ids.length) {
+            ids = Arrays.copyOf(ids, count);
+            names = Arrays.copyOf(names, count);
+            brands = Arrays.copyOf(brands, count);
+            demographics = Arrays.copyOf(demographics, count);
+            prices = Arrays.copyOf(prices, count);
+        }
+
+        Bundle result = new Bundle();
+        result.putLongArray(GameContract.EXTRA_IDS, ids);
+        result.putStringArray(GameContract.EXTRA_NAMES, names);
+        result.putStringArray(GameContract.EXTRA_BRANDS, brands);
+        result.putIntArray(GameContract.EXTRA_DEMOGRAPHICS, demographics);
+        result.putIntArray(GameContract.EXTRA_PRICES, prices);
+        result.putBoolean(GameContract.EXTRA_HAS_MORE, hasMore);
+        result.putLong(GameContract.EXTRA_NEXT_AFTER_ID, count > 0 ? ids[count - 1] : afterId);
+        return result;
+    }
+
+    /**
+     * Change the price of every matching game with one UPDATE statement inside a transaction.
+     * The new price is computed, rounded and clamped to 0 by SQLite, so no row ever has to be
+     * read back into Java. See {@link GameContract#METHOD_ADJUST_PRICES}.
+     */
+    private Bundle adjustPrices(Bundle extras) {
+        boolean isPercent = extras.containsKey(GameContract.EXTRA_PERCENT);
+        if (isPercent == extras.containsKey(GameContract.EXTRA_AMOUNT)) {
+            throw new IllegalArgumentException("Price adjustment requires either a percent or an amount");
+        }
+
+        // Bundle.getInt and getDouble return 0 for a value of another type, which would turn a
+        // call with a long amount into a successful call that changes nothing
+        Object adjustment = extras.get(isPercent ? GameContract.EXTRA_PERCENT : GameContract.EXTRA_AMOUNT);
+        if (isPercent ? !(adjustment instanceof Number)
+                : !(adjustment instanceof Integer || adjustment instanceof Long)) {
+            throw new IllegalArgumentException("Invalid price adjustment " + adjustment);
+        }
+
+        // The adjustment is bound as parameter ?1, so it can be referenced several times, and the
+        // change time as ?2. Every plain "?" in the selection is then numbered after them,
+        // starting at 3.
+        String newPrice;
+        if (isPercent) {
+            newPrice = "(" + GameEntry.COLUMN_GAME_PRICE + " * (100.0 + ?1) / 100.0)";
+        } else {
+            newPrice = "(" + GameEntry.COLUMN_GAME_PRICE + " + ?1)";
+        }
+
+        String rounding = extras.getString(GameContract.EXTRA_ROUNDING, GameContract.ROUNDING_NEAREST);
+        if (GameContract.ROUNDING_NEAREST.equals(rounding)) {
+            newPrice = "CAST(ROUND(" + newPrice + ") AS INTEGER)";
+        } else if (GameContract.ROUNDING_DOWN.equals(rounding)) {
+            newPrice = "CAST(" + newPrice + " AS INTEGER)";
+        } else if (GameContract.ROUNDING_UP.equals(rounding)) {
+            newPrice = "(CAST(" + newPrice + " AS INTEGER) + (" + newPrice + " > CAST("
+                    + newPrice + " AS INTEGER)))";
+        } else {
+            throw new IllegalArgumentException("Unknown rounding " + rounding);
+        }
+
+        // A price must be greater than or equal to 0, so clamp it in the statement itself
+        String sql = "UPDATE " + GameEntry.TABLE_NAME
+                + " SET " + GameEntry.COLUMN_GAME_PRICE + " = MAX(0, " + newPrice + "), "
+                + GameEntry.COLUMN_GAME_UPDATED_AT + " = ?2, "
+                + GameEntry.COLUMN_GAME_DIRTY + " = 1";
+        String selection = extras.getString(GameContract.EXTRA_SELECTION);
+        if (!TextUtils.isEmpty(selection)) {
+            sql += " WHERE " + selection;
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        String[] selectionArgs = extras.getStringArray(GameContract.EXTRA_SELECTION_ARGS);
+        int rowsUpdated;
+        long[] changedIds;
+        database.beginTransaction();
+        try {
+            changedIds = findAdjustedGameIds(database, selection, selectionArgs);
+            SQLiteStatement statement = database.compileStatement(sql);
+            try {
+                if (isPercent) {
+                    statement.bindDouble(1, ((Number) adjustment).doubleValue());
+                } else {
+                    statement.bindLong(1, ((Number) adjustment).longValue());
+                }
+                statement.bindLong(2, nextUpdatedAt());
+                if (selectionArgs != null) {
+                    for (int i = 0; i < selectionArgs.length; i++) {
+                        statement.bindString(i + 3, selectionArgs[i]);
+                    }
+                }
+                rowsUpdated = statement.executeUpdateDelete();
+            } finally {
+                statement.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Notify all listeners once for the whole adjustment. A price doesn't move a game to
+        // another section.
+        if (rowsUpdated != 0) {
+            notifyGamesChange(changedIds, false);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(GameContract.EXTRA_COUNT, rowsUpdated);
+        return result;
+    }
+
+    /**
+     * Returns the IDs of the games a price adjustment with the given selection changes, as
+     * {@link #findGameIds} does. The selection is written for parameters numbered from 3, so
+     * the query takes two parameters it doesn't need first.
+     */
+    private static long[] findAdjustedGameIds(SQLiteDatabase database, String selection,
+                                              String[] selectionArgs) {
+        String sql = "SELECT " + GameEntry._ID + " FROM " + GameEntry.TABLE_NAME
+                + " WHERE ?1 IS NOT NULL AND ?2 IS NOT NULL";
+        if (!TextUtils.isEmpty(selection)) {
+            sql += " AND (" + selection + ")";
+        }
+        sql += " LIMIT " + (MAX_NOTIFIED_GAMES + 1);
+        int argCount = selectionArgs != null ? selectionArgs.length : 0;
+        String[] args = new String[argCount + 2];
+        args[0] = "0";
+        args[1] = "0";
+        for (int i = 0; i < argCount; i++) {
+            args[i + 2] = selectionArgs[i];
+        }
+
+        return readGameIds(database.rawQuery(sql, args));
+    }
+
+    /**
+     * Insert or update a batch of games in one transaction. See
+     * {@link GameContract#METHOD_UPSERT}.
+     */
+    private Bundle upsertGames(Bundle extras) {
+        ArrayList<ContentValues> games = extras.getParcelableArrayList(GameContract.EXTRA_VALUES);
+        if (games == null) {
+            throw new IllegalArgumentException("Upsert requires a list of games");
+        }
+
+        // Check every game before writing any of them
+        for (ContentValues values : games) {
+            checkNewGame(values);
+        }
+
+        // Matching games by natural key needs every game to have one
+        mDbHelper.awaitMigration(GameDbHelper.VERSION_NATURAL_KEY);
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int inserted = 0;
+        int updated = 0;
+        int unchanged = 0;
+        long[] changedIds = new long[Math.min(games.size(), MAX_NOTIFIED_GAMES)];
+        database.beginTransaction();
+        try {
+            for (ContentValues values : games) {
+                values = stampNewGame(values, false);
+                int outcome = upsertGame(database, values);
+                switch (outcome) {
+                    case UPSERT_INSERTED:
+                        inserted++;
+                        break;
+                    case UPSERT_UPDATED:
+                        updated++;
+                        break;
+                    default:
+                        unchanged++;
+                        break;
+                }
+
+                // Keep the IDs of the changed games for the notifications, while they are few
+                int changed = inserted + updated;
+                if (outcome != UPSERT_UNCHANGED && changed <= MAX_NOTIFIED_GAMES) {
+                    changedIds[changed - 1] = findGameId(database,
+                            values.getAsString(GameEntry.COLUMN_GAME_NATURAL_KEY));
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Notify all listeners once, and only if something changed
+        int changed = inserted + updated;
+        if (changed != 0) {
+            notifyGamesChange(changed <= MAX_NOTIFIED_GAMES
+                    ? Arrays.copyOf(changedIds, changed) : null, true);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(GameContract.EXTRA_INSERTED, inserted);
+        result.putInt(GameContract.EXTRA_UPDATED, updated);
+        result.putInt(GameContract.EXTRA_UNCHANGED, unchanged);
+        return result;
+    }
+
+    /**
+     * Sell or restock copies of a game in a store. See {@link GameContract#METHOD_SELL} and
+     * {@link GameContract#METHOD_RESTOCK}.
+     *
+     * The stock is never read into Java to decide anything: a sale is a single conditional
+     * UPDATE, so two tills selling the last copy at the same time can't both succeed. The
+     * transaction records a sale in the ledger together with the stock change and keeps the
+     * stock that is returned consistent with it. It is opened in immediate mode, so it takes
+     * the write lock up front instead of upgrading a read lock halfway, which could fail when
+     * another writer got there first. Readers go on alongside it, on the other connections the
+     * write-ahead log allows, but other writers wait until the transaction ends, so it is kept
+     * to a few statements.
+     */
+    private Bundle changeStock(Bundle extras, boolean sell) {
+        long gameId = extras.getLong(GameContract.EXTRA_GAME_ID, -1);
+        if (gameId < 1) {
+            throw new IllegalArgumentException("Stock change requires a game ID");
+        }
+        String store = extras.getString(GameContract.EXTRA_STORE);
+        if (TextUtils.isEmpty(store)) {
+            throw new IllegalArgumentException("Stock change requires a store");
+        }
+
+        // Bundle.getInt returns the default for a value of another type, which would turn a
+        // call with a long quantity into a change of a single copy
+        long quantity = 1;
+        if (extras.containsKey(GameContract.EXTRA_QUANTITY)) {
+            Object value = extras.get(GameContract.EXTRA_QUANTITY);
+            if (!(value instanceof Integer || value instanceof Long)) {
+                throw new IllegalArgumentException("Invalid quantity " + value);
+            }
+            quantity = ((Number) value).longValue();
+        }
+        if (quantity < 1 || quantity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Stock change requires a quantity of 1 or more");
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        boolean success;
+        int stock;
+        database.beginTransactionNonExclusive();
+        try {
+            if (!sell) {
+                SQLiteStatement create = database.compileStatement(GameSchema.CREATE_STOCK);
+                try {
+                    create.bindLong(1, gameId);
+                    create.bindString(2, store);
+                    create.executeInsert();
+                } finally {
+                    create.close();
+                }
+            }
+
+            SQLiteStatement statement = database.compileStatement(
+                    sell ? GameSchema.SELL : GameSchema.RESTOCK);
+            try {
+                statement.bindLong(1, quantity);
+                statement.bindLong(2, gameId);
+                statement.bindString(3, store);
+                success = statement.executeUpdateDelete() == 1;
+            } finally {
+                statement.close();
+            }
+
+            if (sell && success) {
+                recordSale(database, gameId, store, quantity);
+            }
+
+            stock = readStock(database, gameId, store);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Notify all listeners of the inventory if the stock changed, and of the sales and
+        // their reports if it was a sale
+        if (success) {
+            beginNotificationBatch();
+            try {
+                notifyChange(InventoryEntry.CONTENT_URI);
+                if (sell) {
+                    notifyChange(SaleEntry.CONTENT_URI);
+                }
+            } finally {
+                endNotificationBatch();
+            }
+        }
+
+        Bundle result = new Bundle();
+        result.putBoolean(GameContract.EXTRA_SUCCESS, success);
+        result.putInt(GameContract.EXTRA_STOCK, stock);
+        return result;
+    }
+
+    /**
+     * Append a sale to the ledger. Must be called inside the transaction of the sale.
+     */
+    private static void recordSale(SQLiteDatabase database, long gameId, String store,
+                                   long quantity) {
+        SQLiteStatement statement = database.compileStatement(GameSchema.RECORD_SALE);
+        try {
+            statement.bindLong(1, quantity);
+            statement.bindLong(2, gameId);
+            statement.bindString(3, store);
+            statement.bindLong(4, System.currentTimeMillis());
+            statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Move the retired games to the archive, one batch per transaction. The batches walk the
+     * games in ID order, so every game is looked at once no matter how many are archived.
+     * See {@link GameContract#METHOD_ARCHIVE}.
+     */
+    private Bundle archiveGames(Bundle extras) {
+        long window = extras.getLong(GameContract.EXTRA_WINDOW_MILLIS,
+                ArchivedGameEntry.DEFAULT_WINDOW_MILLIS);
+        if (window < 0) {
+            throw new IllegalArgumentException("Archive requires a window of 0 or more");
+        }
+        long now = System.currentTimeMillis();
+        long cutoff = now - window;
+
+        // Games that are still being upgraded would miss the rest of the upgrade in the archive
+        if (mDbHelper.hasPendingMigrations()) {
+            Log.i(LOG_TAG, "Not archiving while the database is being upgraded");
+            Bundle result = new Bundle();
+            result.putInt(GameContract.EXTRA_COUNT, 0);
+            return result;
+        }
+
+        int archived = 0;
+        synchronized (mDbHelper.getArchiveLock()) {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            SQLiteDatabase archive = mDbHelper.getArchiveDatabase();
+            long afterId = 0;
+            boolean hasMore = true;
+            while (hasMore) {
+                database.beginTransaction();
+                try {
+                    SQLiteStatement last = database.compileStatement(SQL_LAST_ARCHIVABLE_ID);
+                    long lastId;
+                    try {
+                        bindArchivable(last, afterId, Long.MAX_VALUE, cutoff);
+                        lastId = last.simpleQueryForLong();
+                    } finally {
+                        last.close();
+                    }
+
+                    hasMore = lastId != -1;
+                    if (hasMore) {
+                        // The archive commits its copy first, so the games are never lost,
+                        // and the delete selects the games that were copied, since nothing
+                        // else can write inside the transaction
+                        copyToArchive(database, archive, afterId, lastId, cutoff, now);
+                        SQLiteStatement delete = database.compileStatement(SQL_DELETE_ARCHIVED);
+                        try {
+                            bindArchivable(delete, afterId, lastId, cutoff);
+                            archived += delete.executeUpdateDelete();
+                        } finally {
+                            delete.close();
+                        }
+                        afterId = lastId;
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+
+                // The moves of the batch are done
+                archive.delete(ArchiveDbHelper.TABLE_MOVES, null, null);
+            }
+        }
+        Log.i(LOG_TAG, "Archived " + archived + " games");
+
+        // The archived games left the catalog and its sections, and joined the archive, which
+        // are all below the URI of the games
+        if (archived != 0) {
+            notifyChange(GameEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(GameContract.EXTRA_COUNT, archived);
+        return result;
+    }
+
+    /**
+     * Copy the archivable games with an ID in the range (afterId, lastId] to the archive, with
+     * the given time they are archived, and list them as moving in the same transaction.
+     */
+    private static void copyToArchive(SQLiteDatabase database, SQLiteDatabase archive,
+                                      long afterId, long lastId, long cutoff, long now) {
+        Cursor cursor = database.query(GameEntry.TABLE_NAME, ARCHIVE_PROJECTION, SQL_ARCHIVABLE,
+                new String[] { String.valueOf(afterId), String.valueOf(lastId),
+                        String.valueOf(cutoff) }, null, null, null);
+        archive.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            ContentValues move = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.clear();
+                DatabaseUtils.cursorRowToContentValues(cursor, values);
+                values.put(ArchivedGameEntry.COLUMN_ARCHIVED_AT, now);
+                archive.insertWithOnConflict(ArchivedGameEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+                move.put(GameEntry._ID, cursor.getLong(0));
+                archive.insertWithOnConflict(ArchiveDbHelper.TABLE_MOVES, null, move,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            archive.setTransactionSuccessful();
+        } finally {
+            archive.endTransaction();
+            cursor.close();
+        }
+    }
+
+    /**
+     * Bind the parameters of {@link #SQL_ARCHIVABLE} in the given statement.
+     */
+    private static void bindArchivable(SQLiteStatement statement, long afterId, long lastId,
+                                       long cutoff) {
+        statement.bindLong(1, afterId);
+        statement.bindLong(2, lastId);
+        statement.bindLong(3, cutoff);
+    }
+
+    /**
+     * Move an archived game back to the games table. It is stamped as changed, so the next
+     * archive run doesn't move it straight back. See {@link GameContract#METHOD_UNARCHIVE}.
+     */
+    private Bundle unarchiveGame(Bundle extras) {
+        long gameId = extras.getLong(GameContract.EXTRA_GAME_ID, -1);
+        if (gameId < 1) {
+            throw new IllegalArgumentException("Unarchive requires a game ID");
+        }
+        String[] idArgs = new String[] { String.valueOf(gameId) };
+
+        boolean success = false;
+        synchronized (mDbHelper.getArchiveLock()) {
+            SQLiteDatabase archive = mDbHelper.getArchiveDatabase();
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+            // Read the archived game, and list it as moving before the games table gets it
+            ContentValues values = null;
+            archive.beginTransaction();
+            try {
+                Cursor cursor = archive.query(ArchivedGameEntry.TABLE_NAME, ARCHIVE_PROJECTION,
+                        ArchivedGameEntry._ID + "=?", idArgs, null, null, null);
+                try {
+                    if (cursor.moveToFirst()) {
+                        values = new ContentValues();
+                        DatabaseUtils.cursorRowToContentValues(cursor, values);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                if (values != null) {
+                    ContentValues move = new ContentValues();
+                    move.put(GameEntry._ID, gameId);
+                    archive.insertWithOnConflict(ArchiveDbHelper.TABLE_MOVES, null, move,
+                            SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                archive.setTransactionSuccessful();
+            } finally {
+                archive.endTransaction();
+            }
+
+            if (values != null) {
+                // The archive doesn't keep the sort key nor the section key, and its section
+                // may be in another language, as the language may have changed since. Nor does
+                // it keep the brand key.
+                values.put(GameEntry.COLUMN_GAME_UPDATED_AT, nextUpdatedAt());
+                values.put(GameEntry.COLUMN_GAME_DIRTY, 1);
+                putNameKeys(values);
+                values.put(GameEntry.COLUMN_GAME_BRAND_KEY,
+                        GameEntry.brandKey(values.getAsString(GameEntry.COLUMN_GAME_BRAND)));
+                try {
+                    database.insertOrThrow(GameEntry.TABLE_NAME, null, values);
+                    success = true;
+                } catch (SQLiteConstraintException e) {
+                    // Another game now has the same natural key or GUID
+                    Log.e(LOG_TAG, "Failed to unarchive game " + gameId, e);
+                }
+
+                // The game is in one of the two databases again
+                archive.beginTransaction();
+                try {
+                    if (success) {
+                        archive.delete(ArchivedGameEntry.TABLE_NAME, ArchivedGameEntry._ID + "=?", idArgs);
+                    }
+                    archive.delete(ArchiveDbHelper.TABLE_MOVES, GameEntry._ID + "=?", idArgs);
+                    archive.setTransactionSuccessful();
+                } finally {
+                    archive.endTransaction();
+                }
+            }
+        }
+
+        // The game is back in the catalog, and gone from the archive
+        if (success) {
+            beginNotificationBatch();
+            try {
+                notifySectionsChange(ContentUris.withAppendedId(GameEntry.CONTENT_URI, gameId));
+                notifyChange(ArchivedGameEntry.CONTENT_URI);
+            } finally {
+                endNotificationBatch();
+            }
+        }
+
+        Bundle result = new Bundle();
+        result.putBoolean(GameContract.EXTRA_SUCCESS, success);
+        return result;
+    }
+
+    /**
+     * Returns the number of copies of the game in stock in the store.
+     */
+    private static int readStock(SQLiteDatabase database, long gameId, String store) {
+        Cursor cursor = database.query(InventoryEntry.TABLE_NAME,
+                new String[] { InventoryEntry.COLUMN_INVENTORY_QUANTITY },
+                InventoryEntry.COLUMN_INVENTORY_GAME_ID + "=? AND "
+                        + InventoryEntry.COLUMN_INVENTORY_STORE + "=?",
+                new String[] { String.valueOf(gameId), store }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
 }
@@ -0,0 +1,309 @@
+package com.example.android.games.data;
+
+import com.example.android.games.data.GameContract.DeletedGameEntry;
+import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.data.GameContract.InventoryEntry;
+import com.example.android.games.data.GameContract.SaleEntry;
+import com.example.android.games.data.GameContract.SalesReportEntry;
+import com.example.android.games.data.GameContract.SimilarGameEntry;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The SQL of the games database: the statements that create the current version of the schema,
+ * and the statements of the provider that the load test replays as they are.
+ *
+ * {@link GameDbHelper} creates the database from {@link #CREATE_STATEMENTS}, and the load test
+ * creates its database from the same list, so the two can't drift apart. The load test runs on
+ * a desktop JVM without the Android framework, so this class must only use the compile-time
+ * constants of {@link GameContract}, never a method or a field like a content URI that would
+ * load the framework.
+ */
+public final class GameSchema {
+
+    private GameSchema() {}
+
+    /** Name of the table of the steps that still have work to do in the background */
+    static final String TABLE_MIGRATIONS = "migrations";
+
+    /** Version of the step */
+    static final String COLUMN_MIGRATION_VERSION = "version";
+
+    /** ID of the last game the step has backfilled */
+    static final String COLUMN_MIGRATION_AFTER_ID = "after_id";
+
+    /** ID of the last game that existed when the backfill started, or null if it hasn't */
+    static final String COLUMN_MIGRATION_LAST_ID = "last_id";
+
+    /** Name of the table of the language the sort keys of the games are computed in */
+    static final String TABLE_SORT_KEY_LOCALE = "sort_key_locale";
+
+    /** The language, as returned by {@link java.util.Locale#toString} */
+    static final String COLUMN_SORT_KEY_LOCALE = "locale";
+
+    /** Creates the games table */
+    public static final String CREATE_GAMES_TABLE = "CREATE TABLE " + GameEntry.TABLE_NAME + " ("
+            + GameEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + GameEntry.COLUMN_GAME_NAME + " TEXT NOT NULL, "
+            + GameEntry.COLUMN_GAME_BRAND + " TEXT, "
+            + GameEntry.COLUMN_GAME_DEMOGRAPHIC + " INTEGER NOT NULL, "
+            + GameEntry.COLUMN_GAME_PRICE + " INTEGER NOT NULL DEFAULT 0, "
+            + GameEntry.COLUMN_GAME_IMAGE + " TEXT, "
+            + GameEntry.COLUMN_GAME_GUID + " TEXT, "
+            + GameEntry.COLUMN_GAME_UPDATED_AT + " INTEGER NOT NULL DEFAULT 0, "
+            + GameEntry.COLUMN_GAME_DIRTY + " INTEGER NOT NULL DEFAULT 1, "
+            + GameEntry.COLUMN_GAME_NATURAL_KEY + " TEXT, "
+            + GameEntry.COLUMN_GAME_SECTION + " TEXT, "
+            + GameEntry.COLUMN_GAME_SORT_KEY + " BLOB, "
+            + GameEntry.COLUMN_GAME_TAGS + " INTEGER NOT NULL DEFAULT 0, "
+            + GameEntry.COLUMN_GAME_BRAND_KEY + " TEXT, "
+            + GameEntry.COLUMN_GAME_SECTION_KEY + " BLOB);";
+
+    /** Creates the index that finds a game by its GUID, for the sync engine */
+    public static final String CREATE_GUID_INDEX = "CREATE UNIQUE INDEX games_guid ON "
+            + GameEntry.TABLE_NAME + " (" + GameEntry.COLUMN_GAME_GUID + ")";
+
+    /** Creates the index that finds the changed games, for the sync engine */
+    public static final String CREATE_DIRTY_INDEX = "CREATE INDEX games_dirty ON "
+            + GameEntry.TABLE_NAME + " (" + GameEntry.COLUMN_GAME_DIRTY + ")";
+
+    /** Creates the table of the tombstones of deleted games, for the sync engine */
+    public static final String CREATE_DELETED_GAMES_TABLE = "CREATE TABLE "
+            + DeletedGameEntry.TABLE_NAME + " ("
+            + DeletedGameEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + DeletedGameEntry.COLUMN_GUID + " TEXT NOT NULL UNIQUE, "
+            + DeletedGameEntry.COLUMN_DELETED_AT + " INTEGER NOT NULL);";
+
+    /** Name of the unique index of the natural key */
+    static final String INDEX_NATURAL_KEY = "games_natural_key";
+
+    /** Creates the unique index that enforces the natural key and finds a game by it */
+    public static final String CREATE_NATURAL_KEY_INDEX = "CREATE UNIQUE INDEX "
+            + INDEX_NATURAL_KEY + " ON " + GameEntry.TABLE_NAME
+            + " (" + GameEntry.COLUMN_GAME_NATURAL_KEY + ")";
+
+    /** Name of the index of the sections */
+    static final String INDEX_SECTION = "games_section";
+
+    /**
+     * Creates the index that lists the games in {@link GameEntry#SORT_ORDER_SECTIONS} and counts
+     * the games per section without sorting or reading the table.
+     */
+    public static final String CREATE_SECTION_INDEX = "CREATE INDEX " + INDEX_SECTION + " ON "
+            + GameEntry.TABLE_NAME + " (" + GameEntry.SORT_ORDER_SECTIONS + ")";
+
+    /** Creates the index that finds the games of a brand, for the similar games */
+    public static final String CREATE_BRAND_KEY_INDEX = "CREATE INDEX games_brand_key ON "
+            + GameEntry.TABLE_NAME + " (" + GameEntry.COLUMN_GAME_BRAND_KEY + ")";
+
+    /**
+     * Creates the index that finds the games of a demographic in a price range, for the similar
+     * games. Together with the brand key index, it finds every game similar to a given one
+     * without reading the table.
+     */
+    public static final String CREATE_DEMOGRAPHIC_PRICE_INDEX = "CREATE INDEX "
+            + "games_demographic_price ON " + GameEntry.TABLE_NAME + " ("
+            + GameEntry.COLUMN_GAME_DEMOGRAPHIC + ", " + GameEntry.COLUMN_GAME_PRICE + ")";
+
+    /** Creates the table of the stock of the games in the stores */
+    public static final String CREATE_INVENTORY_TABLE = "CREATE TABLE "
+            + InventoryEntry.TABLE_NAME + " ("
+            + InventoryEntry.COLUMN_INVENTORY_GAME_ID + " INTEGER NOT NULL, "
+            + InventoryEntry.COLUMN_INVENTORY_STORE + " TEXT NOT NULL, "
+            + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " INTEGER NOT NULL DEFAULT 0 CHECK ("
+            + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " >= 0), "
+            + "PRIMARY KEY (" + InventoryEntry.COLUMN_INVENTORY_GAME_ID + ", "
+            + InventoryEntry.COLUMN_INVENTORY_STORE + "));";
+
+    /** Creates the trigger that deletes the stock of a game along with the game */
+    public static final String CREATE_INVENTORY_TRIGGER = "CREATE TRIGGER games_delete_inventory "
+            + "AFTER DELETE ON " + GameEntry.TABLE_NAME
+            + " BEGIN DELETE FROM " + InventoryEntry.TABLE_NAME + " WHERE "
+            + InventoryEntry.COLUMN_INVENTORY_GAME_ID + " = OLD." + GameEntry._ID + "; END";
+
+    /** Creates the sales ledger */
+    public static final String CREATE_SALES_TABLE = "CREATE TABLE " + SaleEntry.TABLE_NAME + " ("
+            + SaleEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + SaleEntry.COLUMN_SALE_GAME_ID + " INTEGER NOT NULL, "
+            + SaleEntry.COLUMN_SALE_STORE + " TEXT NOT NULL, "
+            + SaleEntry.COLUMN_SALE_QUANTITY + " INTEGER NOT NULL, "
+            + SaleEntry.COLUMN_SALE_UNIT_PRICE + " INTEGER NOT NULL, "
+            + SaleEntry.COLUMN_SALE_REVENUE + " INTEGER NOT NULL, "
+            + SaleEntry.COLUMN_SALE_BRAND + " TEXT NOT NULL, "
+            + SaleEntry.COLUMN_SALE_DEMOGRAPHIC + " INTEGER NOT NULL, "
+            + SaleEntry.COLUMN_SALE_SOLD_AT + " INTEGER NOT NULL, "
+            + SaleEntry.COLUMN_SALE_DAY + " TEXT NOT NULL);";
+
+    /** Creates the daily report of the sales per game */
+    public static final String CREATE_REPORT_BY_GAME_TABLE = createReportTable(
+            SalesReportEntry.TABLE_BY_GAME, SalesReportEntry.COLUMN_REPORT_GAME_ID, "INTEGER");
+
+    /** Creates the daily report of the sales per brand */
+    public static final String CREATE_REPORT_BY_BRAND_TABLE = createReportTable(
+            SalesReportEntry.TABLE_BY_BRAND, SalesReportEntry.COLUMN_REPORT_BRAND, "TEXT");
+
+    /** Creates the daily report of the sales per demographic */
+    public static final String CREATE_REPORT_BY_DEMOGRAPHIC_TABLE = createReportTable(
+            SalesReportEntry.TABLE_BY_DEMOGRAPHIC, SalesReportEntry.COLUMN_REPORT_DEMOGRAPHIC,
+            "INTEGER");
+
+    /** Creates the trigger that keeps the sales ledger from being changed */
+    public static final String CREATE_SALES_UPDATE_TRIGGER = "CREATE TRIGGER "
+            + "sales_append_only_update BEFORE UPDATE ON " + SaleEntry.TABLE_NAME
+            + " BEGIN SELECT RAISE(ABORT, 'sales are append-only'); END";
+
+    /** Creates the trigger that keeps sales from being deleted from the ledger */
+    public static final String CREATE_SALES_DELETE_TRIGGER = "CREATE TRIGGER "
+            + "sales_append_only_delete BEFORE DELETE ON " + SaleEntry.TABLE_NAME
+            + " BEGIN SELECT RAISE(ABORT, 'sales are append-only'); END";
+
+    /** Creates the trigger that adds every new sale to the daily reports */
+    public static final String CREATE_SALES_REPORTS_TRIGGER = "CREATE TRIGGER sales_reports "
+            + "AFTER INSERT ON " + SaleEntry.TABLE_NAME + " BEGIN "
+            + addToReport(SalesReportEntry.TABLE_BY_GAME,
+                    SalesReportEntry.COLUMN_REPORT_GAME_ID, SaleEntry.COLUMN_SALE_GAME_ID)
+            + addToReport(SalesReportEntry.TABLE_BY_BRAND,
+                    SalesReportEntry.COLUMN_REPORT_BRAND, SaleEntry.COLUMN_SALE_BRAND)
+            + addToReport(SalesReportEntry.TABLE_BY_DEMOGRAPHIC,
+                    SalesReportEntry.COLUMN_REPORT_DEMOGRAPHIC, SaleEntry.COLUMN_SALE_DEMOGRAPHIC)
+            + "END";
+
+    /** Creates the index that finds the latest sales of a game without reading the whole ledger */
+    public static final String CREATE_SALES_BY_GAME_INDEX = "CREATE INDEX sales_game ON "
+            + SaleEntry.TABLE_NAME + " ("
+            + SaleEntry.COLUMN_SALE_GAME_ID + ", " + SaleEntry.COLUMN_SALE_SOLD_AT + ")";
+
+    /** Creates the table that tracks the steps that still have work to do in the background */
+    public static final String CREATE_MIGRATIONS_TABLE = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_MIGRATIONS + " ("
+            + COLUMN_MIGRATION_VERSION + " INTEGER PRIMARY KEY, "
+            + COLUMN_MIGRATION_AFTER_ID + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_MIGRATION_LAST_ID + " INTEGER);";
+
+    /**
+     * Creates the table of similar games. Its primary key is the key of the lookup of the
+     * similar games of a game.
+     */
+    public static final String CREATE_SIMILAR_GAMES_TABLE = "CREATE TABLE "
+            + SimilarGameEntry.TABLE_NAME + " ("
+            + SimilarGameEntry.COLUMN_SIMILAR_GAME_ID + " INTEGER NOT NULL, "
+            + SimilarGameEntry.COLUMN_SIMILAR_RANK + " INTEGER NOT NULL, "
+            + SimilarGameEntry.COLUMN_SIMILAR_ID + " INTEGER NOT NULL, "
+            + SimilarGameEntry.COLUMN_SIMILAR_SCORE + " INTEGER NOT NULL, "
+            + "PRIMARY KEY (" + SimilarGameEntry.COLUMN_SIMILAR_GAME_ID + ", "
+            + SimilarGameEntry.COLUMN_SIMILAR_RANK + "))";
+
+    /** Creates the index that finds the lists of similar games a changed or deleted game is in */
+    public static final String CREATE_SIMILAR_GAMES_INDEX = "CREATE INDEX similar_games_similar ON "
+            + SimilarGameEntry.TABLE_NAME + " (" + SimilarGameEntry.COLUMN_SIMILAR_ID + ")";
+
+    /**
+     * Creates the table that remembers the language the sort keys are computed in. The helper
+     * adds its single row.
+     */
+    public static final String CREATE_SORT_KEY_LOCALE_TABLE = "CREATE TABLE "
+            + TABLE_SORT_KEY_LOCALE + " (" + COLUMN_SORT_KEY_LOCALE + " TEXT NOT NULL);";
+
+    /** The statements that create the current version of the database, in order */
+    public static final List<String> CREATE_STATEMENTS = Collections.unmodifiableList(
+            Arrays.asList(
+                    CREATE_GAMES_TABLE,
+                    CREATE_GUID_INDEX,
+                    CREATE_DIRTY_INDEX,
+                    CREATE_DELETED_GAMES_TABLE,
+                    CREATE_NATURAL_KEY_INDEX,
+                    CREATE_SECTION_INDEX,
+                    CREATE_BRAND_KEY_INDEX,
+                    CREATE_DEMOGRAPHIC_PRICE_INDEX,
+                    CREATE_INVENTORY_TABLE,
+                    CREATE_INVENTORY_TRIGGER,
+                    CREATE_SALES_TABLE,
+                    CREATE_REPORT_BY_GAME_TABLE,
+                    CREATE_REPORT_BY_BRAND_TABLE,
+                    CREATE_REPORT_BY_DEMOGRAPHIC_TABLE,
+                    CREATE_SALES_UPDATE_TRIGGER,
+                    CREATE_SALES_DELETE_TRIGGER,
+                    CREATE_SALES_REPORTS_TRIGGER,
+                    CREATE_SALES_BY_GAME_INDEX,
+                    CREATE_MIGRATIONS_TABLE,
+                    CREATE_SIMILAR_GAMES_TABLE,
+                    CREATE_SIMILAR_GAMES_INDEX,
+                    CREATE_SORT_KEY_LOCALE_TABLE));
+
+    /**
+     * Sells copies of a game, but only if there are enough in stock. Checking and decrementing
+     * in one statement makes the sale atomic without any lock in the provider.
+     */
+    public static final String SELL = "UPDATE " + InventoryEntry.TABLE_NAME
+            + " SET " + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " = "
+            + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " - ?1"
+            + " WHERE " + InventoryEntry.COLUMN_INVENTORY_GAME_ID + " = ?2"
+            + " AND " + InventoryEntry.COLUMN_INVENTORY_STORE + " = ?3"
+            + " AND " + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " >= ?1";
+
+    /** Creates an empty stock entry for a game in a store, if the game exists */
+    public static final String CREATE_STOCK = "INSERT OR IGNORE INTO " + InventoryEntry.TABLE_NAME
+            + " (" + InventoryEntry.COLUMN_INVENTORY_GAME_ID + ", "
+            + InventoryEntry.COLUMN_INVENTORY_STORE + ")"
+            + " SELECT " + GameEntry._ID + ", ?2 FROM " + GameEntry.TABLE_NAME
+            + " WHERE " + GameEntry._ID + " = ?1";
+
+    /** Adds copies of a game to the stock of a store */
+    public static final String RESTOCK = "UPDATE " + InventoryEntry.TABLE_NAME
+            + " SET " + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " = "
+            + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " + ?1"
+            + " WHERE " + InventoryEntry.COLUMN_INVENTORY_GAME_ID + " = ?2"
+            + " AND " + InventoryEntry.COLUMN_INVENTORY_STORE + " = ?3";
+
+    /**
+     * Records a sale in the ledger, copying the game's current price, brand and demographic.
+     * The triggers of the ledger add it to the daily reports.
+     */
+    public static final String RECORD_SALE = "INSERT INTO " + SaleEntry.TABLE_NAME + " ("
+            + SaleEntry.COLUMN_SALE_GAME_ID + ", "
+            + SaleEntry.COLUMN_SALE_STORE + ", "
+            + SaleEntry.COLUMN_SALE_QUANTITY + ", "
+            + SaleEntry.COLUMN_SALE_UNIT_PRICE + ", "
+            + SaleEntry.COLUMN_SALE_REVENUE + ", "
+            + SaleEntry.COLUMN_SALE_BRAND + ", "
+            + SaleEntry.COLUMN_SALE_DEMOGRAPHIC + ", "
+            + SaleEntry.COLUMN_SALE_SOLD_AT + ", "
+            + SaleEntry.COLUMN_SALE_DAY + ")"
+            + " SELECT " + GameEntry._ID + ", ?3, ?1, "
+            + GameEntry.COLUMN_GAME_PRICE + ", " + GameEntry.COLUMN_GAME_PRICE + " * ?1, "
+            + "IFNULL(" + GameEntry.COLUMN_GAME_BRAND + ", ''), "
+            + GameEntry.COLUMN_GAME_DEMOGRAPHIC + ", ?4, date(?4 / 1000, 'unixepoch', 'localtime')"
+            + " FROM " + GameEntry.TABLE_NAME + " WHERE " + GameEntry._ID + " = ?2";
+
+    /**
+     * Returns the statement that creates a daily report table, with one row per day and value
+     * of the given key column.
+     */
+    private static String createReportTable(String table, String keyColumn, String keyType) {
+        return "CREATE TABLE " + table + " ("
+                + SalesReportEntry.COLUMN_REPORT_DAY + " TEXT NOT NULL, "
+                + keyColumn + " " + keyType + " NOT NULL, "
+                + SalesReportEntry.COLUMN_REPORT_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                + SalesReportEntry.COLUMN_REPORT_REVENUE + " INTEGER NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (" + SalesReportEntry.COLUMN_REPORT_DAY + ", " + keyColumn + "));";
+    }
+
+    /**
+     * Returns the trigger statements that add the NEW sale to the row of its day and key in
+     * the given report table, creating the row first if needed.
+     */
+    private static String addToReport(String table, String keyColumn, String saleColumn) {
+        return "INSERT OR IGNORE INTO " + table + " (" + SalesReportEntry.COLUMN_REPORT_DAY
+                + ", " + keyColumn + ") VALUES (NEW." + SaleEntry.COLUMN_SALE_DAY + ", NEW."
+                + saleColumn + "); "
+                + "UPDATE " + table + " SET "
+                + SalesReportEntry.COLUMN_REPORT_QUANTITY + " = "
+                + SalesReportEntry.COLUMN_REPORT_QUANTITY + " + NEW." + SaleEntry.COLUMN_SALE_QUANTITY + ", "
+                + SalesReportEntry.COLUMN_REPORT_REVENUE + " = "
+                + SalesReportEntry.COLUMN_REPORT_REVENUE + " + NEW." + SaleEntry.COLUMN_SALE_REVENUE
+                + " WHERE " + SalesReportEntry.COLUMN_REPORT_DAY + " = NEW." + SaleEntry.COLUMN_SALE_DAY
+                + " AND " + keyColumn + " = NEW." + saleColumn + "; ";
+    }
+}
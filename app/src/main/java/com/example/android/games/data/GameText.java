@@ -0,0 +1,131 @@
+package com.example.android.games.data;
+
+import java.text.CollationElementIterator;
+import java.text.Collator;
+import java.text.Normalizer;
+import java.text.RuleBasedCollator;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The values the provider derives from the name and brand of a game, and the pattern the
+ * catalog filters them with. {@link GameContract.GameEntry} exposes them to the app.
+ *
+ * The load test computes the same values on a desktop JVM without the Android framework, so
+ * this class must only use the Java library, never a class of the framework.
+ */
+public final class GameText {
+
+    private GameText() {}
+
+    /** The section of games whose name doesn't start with a letter */
+    public static final String SECTION_OTHER = "#";
+
+    /** Runs of white space, which count as a single space in a natural key */
+    private static final Pattern WHITE_SPACE = Pattern.compile("\\s+");
+
+    /**
+     * Returns the natural key of a game with the given name and brand. Case, leading and
+     * trailing white space, and repeated white space are ignored.
+     */
+    public static String naturalKey(String name, String brand) {
+        return normalize(name) + "\n" + brandKey(brand);
+    }
+
+    /**
+     * Returns the brand of a game as games are matched by it: without case, and with leading,
+     * trailing and repeated white space ignored. Returns an empty string for a game without a
+     * brand.
+     */
+    public static String brandKey(String brand) {
+        return normalize(brand);
+    }
+
+    /**
+     * Returns the section of a game with the given name, in the language of the given collator:
+     * the letter of the alphabet the name starts with, in upper case, or {@link #SECTION_OTHER}
+     * if the name doesn't start with a letter. Letters the language sorts as another letter
+     * are in the section of that letter, the way an index of a book in that language would
+     * have them: "Ö" is in section "O" in German, but has a section of its own after "Z" in
+     * Swedish.
+     */
+    public static String section(Collator collator, String name) {
+        if (name == null) {
+            return SECTION_OTHER;
+        }
+        name = name.trim();
+        if (name.length() == 0 || !Character.isLetter(name.codePointAt(0))) {
+            return SECTION_OTHER;
+        }
+        String letter = name.substring(0, Character.charCount(name.codePointAt(0)))
+                .toUpperCase(Locale.ROOT);
+
+        // Decompose the letter, so "É" ends up in the same section as "E" in most languages
+        String base = Normalizer.normalize(letter, Normalizer.Form.NFD).substring(0, 1);
+        if (!(collator instanceof RuleBasedCollator)) {
+            return base;
+        }
+
+        // The collator tells which letters are the same letter of the alphabet: their first
+        // collation elements have the same primary weight. A name mostly starts with a letter
+        // of A to Z, so that is looked at first.
+        RuleBasedCollator rules = (RuleBasedCollator) collator;
+        int primary = firstPrimary(rules, letter);
+        if (base.charAt(0) >= 'A' && base.charAt(0) <= 'Z' && firstPrimary(rules, base) == primary) {
+            return base;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            if (firstPrimary(rules, String.valueOf(c)) == primary) {
+                return String.valueOf(c);
+            }
+        }
+        return firstPrimary(rules, base) == primary ? base : letter;
+    }
+
+    /**
+     * Returns the sort key of the given section, using the given collator. Sorting by it puts
+     * the sections in the order of the language, "Å", "Ä" and "Ö" after "Z" in Swedish and
+     * "Æ", "Ø" and "Å" after "Z" in Danish, as sorting by the section itself wouldn't.
+     */
+    public static byte[] sectionKey(Collator collator, String section) {
+        return sortKey(collator, section);
+    }
+
+    /**
+     * Returns the sort key of a game with the given name, using the given collator.
+     */
+    public static byte[] sortKey(Collator collator, String name) {
+        return collator.getCollationKey(name == null ? "" : name.trim()).toByteArray();
+    }
+
+    /**
+     * Returns the LIKE pattern that matches the values starting with the given filter, taken
+     * literally. Use it with ESCAPE '\'.
+     */
+    public static String prefixPattern(String filter) {
+        return filter.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    /**
+     * Returns the primary weight of the first collation element of the given text that has
+     * one, or 0 if none has.
+     */
+    private static int firstPrimary(RuleBasedCollator collator, String text) {
+        CollationElementIterator elements = collator.getCollationElementIterator(text);
+        for (int element = elements.next(); element != CollationElementIterator.NULLORDER;
+                element = elements.next()) {
+            int primary = CollationElementIterator.primaryOrder(element);
+            if (primary != 0) {
+                return primary;
+            }
+        }
+        return 0;
+    }
+
+    private static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        return WHITE_SPACE.matcher(value.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.games.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.games.data.GameContract.GameEntry;
+
+/**
+ * One numbered step of the schema of the games database, from the previous version to
+ * {@link #version}.
+ *
+ * A step is split in two parts. {@link #upgrade} runs in {@link GameDbHelper#onUpgrade}, in the
+ * transaction that opens the database, so it must be quick no matter how many games there are:
+ * adding columns and tables is fine, rewriting every game is not. A deferred step does the
+ * rest in the background once the database is open: {@link #backfill} is called with one batch
+ * of games after the other, each in its own transaction, and {@link #cutover} runs in the
+ * transaction of the last batch. The progress is stored in the database, so a backfill that is
+ * interrupted carries on where it stopped the next time the app starts.
+ *
+ * Until the cutover, the app has to work with the database as it was before the deferred part:
+ * rows the backfill hasn't reached yet, and none of the indexes the cutover creates. For the
+ * same reason, the quick part of a step can't rely on the deferred part of an earlier step.
+ */
+abstract class Migration {
+
+    /** Largest number of games handled by one batch of a backfill */
+    static final int BATCH_SIZE = 500;
+
+    /** Finds the ID of the last game of a batch, or -1 if there are no games after ?1 */
+    private static final String SQL_LAST_ID_OF_BATCH = "SELECT IFNULL(MAX(" + GameEntry._ID + "), -1)"
+            + " FROM (SELECT " + GameEntry._ID + " FROM " + GameEntry.TABLE_NAME
+            + " WHERE " + GameEntry._ID + " > ?1 ORDER BY " + GameEntry._ID + " LIMIT " + BATCH_SIZE + ")";
+
+    /** The database version this step upgrades to */
+    final int version;
+
+    /** Whether this step has work to do in the background after {@link #upgrade} */
+    final boolean deferred;
+
+    /**
+     * Constructs a new step.
+     *
+     * @param version  the database version this step upgrades to
+     * @param deferred whether it overrides {@link #backfill} or {@link #cutover}
+     */
+    Migration(int version, boolean deferred) {
+        this.version = version;
+        this.deferred = deferred;
+    }
+
+    /**
+     * Make the quick changes of this step. Runs inside the upgrade transaction.
+     */
+    abstract void upgrade(SQLiteDatabase db);
+
+    /**
+     * Handle the next batch of games, the ones with an ID after the given one, and return the
+     * ID of the last game handled. Returns -1 once there are no games left, and the cutover
+     * follows. Runs inside a transaction, in the background.
+     *
+     * A step can also return the ID it was given, after work that handles no games itself,
+     * like creating an index the batches need. That work gets a transaction of its own, and
+     * the backfill is called again with the same ID. The cutover should be kept as small, as
+     * it shares the transaction of the last batch.
+     */
+    long backfill(SQLiteDatabase db, long afterId) {
+        return -1;
+    }
+
+    /**
+     * Finish this step once every game has been backfilled, for example by creating the
+     * indexes that need the backfilled values. Runs inside the transaction of the last batch.
+     */
+    void cutover(SQLiteDatabase db) {
+    }
+
+    /**
+     * Returns the ID of the last game of the batch that follows the given ID, or -1 if there
+     * are no games after it. New games can only get a higher ID, so a backfill that walks the
+     * batches in order sees every game that existed when it started.
+     */
+    static long lastIdOfBatch(SQLiteDatabase db, long afterId) {
+        SQLiteStatement statement = db.compileStatement(SQL_LAST_ID_OF_BATCH);
+        try {
+            statement.bindLong(1, afterId);
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A query against the {@link GameProvider} whose result is pushed to its listeners again
+ * whenever the data behind it changes.
+ *
+ * Unlike a CursorLoader, which re-queries on every change notification, change notifications
+ * are debounced: a burst of writes triggers a single re-query once the burst has been quiet for
+ * {@link #DEBOUNCE_MILLIS}, or at the latest after {@link #MAX_DELAY_MILLIS}. Notifications that
+ * arrive while a query is running are conflated into one more query afterwards. A result with
+ * the same contents as the previous one isn't delivered at all.
+ *
+ * For a large result, reading all of it just to compare it with the previous one costs more
+ * than delivering it. Such a query names a version column instead, one that changes with every
+ * change to a row, like {@link GameContract.GameEntry#COLUMN_GAME_UPDATED_AT}: the number
+ * of rows and the sum and maximum of that column are then compared, read with one aggregate
+ * query. Without a version column, the result is compared value by value, which suits small
+ * results.
+ *
+ * Queries run on a small executor shared by every instance. Listeners are called on the main
+ * thread, and every method must be called on the main thread too. The stream owns its cursors:
+ * a delivered cursor stays open until the next one has been delivered or the stream is closed.
+ */
+public class ObservableQuery {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ObservableQuery.class.getSimpleName();
+
+    /** Quiet time after the last change notification before the query is run again */
+    static final long DEBOUNCE_MILLIS = 100;
+
+    /** Longest time a change notification can wait for its query during a long burst */
+    static final long MAX_DELAY_MILLIS = 500;
+
+    /** Encoding of the text values in a fingerprint */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Number of threads that run queries, shared by every instance */
+    private static final int THREAD_COUNT = 2;
+
+    /** Executor that runs the queries of every instance */
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+
+    /**
+     * Receives the results of an {@link ObservableQuery}.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the main thread with a new result. The cursor must not be closed by the
+         * listener.
+         */
+        void onQueryResult(Cursor cursor);
+    }
+
+    private final ContentResolver mContentResolver;
+    private final GameDbHelper mDbHelper;
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mSortOrder;
+    private final String mVersionColumn;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new ArrayList<Listener>();
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            scheduleQuery();
+        }
+    };
+
+    private final Runnable mRunQuery = new Runnable() {
+        @Override
+        public void run() {
+            mFirstPendingChange = 0;
+            startQuery();
+        }
+    };
+
+    /** The last result delivered, or null if there isn't one yet */
+    private Cursor mCursor;
+
+    /** Fingerprint of the contents of {@link #mCursor} */
+    private byte[] mFingerprint;
+
+    /** Uptime of the first change notification that hasn't been queried yet, or 0 */
+    private long mFirstPendingChange;
+
+    private boolean mObserving;
+    private boolean mQueryRunning;
+    private boolean mChangedWhileRunning;
+    private boolean mStopped;
+    private boolean mClosed;
+
+    /** Number of queries run, to check how well the notifications were debounced */
+    private int mQueryCount;
+
+    /**
+     * Constructs a new instance of {@link ObservableQuery} whose results are compared value by
+     * value. The arguments are the same as for {@link ContentResolver#query}. Nothing is
+     * queried until the first listener subscribes.
+     */
+    public ObservableQuery(Context context, Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder) {
+        this(context, uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Constructs a new instance of {@link ObservableQuery} whose results are compared by the
+     * given version column, or value by value if it is null. The URI must then accept
+     * aggregates of that column in its projection.
+     */
+    public ObservableQuery(Context context, Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder, String versionColumn) {
+        mContentResolver = context.getApplicationContext().getContentResolver();
+        mDbHelper = GameDbHelper.getInstance(context);
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+        mVersionColumn = versionColumn;
+    }
+
+    /**
+     * Start delivering results to the listener. If there already is a result, it is delivered
+     * right away.
+     */
+    public void subscribe(Listener listener) {
+        if (mClosed || mStopped) {
+            throw new IllegalStateException("Query no longer delivers results");
+        }
+        mListeners.add(listener);
+        if (!mObserving) {
+            mObserving = true;
+            mContentResolver.registerContentObserver(mUri, true, mObserver);
+            startQuery();
+        } else if (mCursor != null) {
+            listener.onQueryResult(mCursor);
+        }
+    }
+
+    /**
+     * Stop delivering results to the listener. The stream keeps observing changes, so it can be
+     * handed over to a new listener, for example across a configuration change.
+     */
+    public void unsubscribe(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Stop observing changes and delivering results, but keep the last result open until
+     * {@link #close}, for a listener that still shows it. A query that is still running is
+     * dropped when it is done, rather than replacing that result.
+     */
+    public void stopObserving() {
+        mStopped = true;
+        mHandler.removeCallbacks(mRunQuery);
+        if (mObserving) {
+            mContentResolver.unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+    }
+
+    /**
+     * Stop observing changes and close the last result. The stream can't be used afterwards.
+     */
+    public void close() {
+        mClosed = true;
+        mListeners.clear();
+        mHandler.removeCallbacks(mRunQuery);
+        if (mObserving) {
+            mContentResolver.unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        if (mCursor != null) {
+            mCursor.close();
+            mCursor = null;
+        }
+    }
+
+    /**
+     * Returns the number of queries run so far.
+     */
+    public int getQueryCount() {
+        return mQueryCount;
+    }
+
+    /**
+     * Run the query once the current burst of changes is over, but no later than
+     * {@link #MAX_DELAY_MILLIS} after the first change of the burst.
+     */
+    private void scheduleQuery() {
+        long now = SystemClock.uptimeMillis();
+        if (mFirstPendingChange == 0) {
+            mFirstPendingChange = now;
+        }
+        long delay = Math.min(DEBOUNCE_MILLIS, Math.max(0, mFirstPendingChange + MAX_DELAY_MILLIS - now));
+        mHandler.removeCallbacks(mRunQuery);
+        mHandler.postDelayed(mRunQuery, delay);
+    }
+
+    /**
+     * Run the query on the executor, unless one is already running, in which case it is run
+     * once more when that one is done.
+     */
+    private void startQuery() {
+        if (mClosed || mStopped) {
+            return;
+        }
+        if (mQueryRunning) {
+            mChangedWhileRunning = true;
+            return;
+        }
+        mQueryRunning = true;
+        mQueryCount++;
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = null;
+                byte[] fingerprint = null;
+                try {
+                    // Read the versions first: if the data changes in between, the result is
+                    // newer than its fingerprint, and the next result is delivered for nothing
+                    // instead of being wrongly skipped
+                    if (mVersionColumn != null) {
+                        fingerprint = queryVersions();
+                    }
+                    cursor = mContentResolver.query(mUri, mProjection, mSelection, mSelectionArgs,
+                            mSortOrder);
+                    if (cursor != null) {
+                        // Fill the cursor window here, so the main thread doesn't have to
+                        cursor.getCount();
+                        if (mVersionColumn == null) {
+                            fingerprint = fingerprint(cursor);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to query " + mUri, e);
+                }
+
+                final Cursor result = cursor;
+                final byte[] resultFingerprint = fingerprint;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(result, resultFingerprint);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Hand a new result to the listeners, unless it has the same contents as the last one.
+     */
+    private void deliver(Cursor cursor, byte[] fingerprint) {
+        mQueryRunning = false;
+        if (mClosed || mStopped) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+
+        if (cursor != null) {
+            if (mCursor != null && fingerprint != null
+                    && Arrays.equals(fingerprint, mFingerprint)) {
+                cursor.close();
+            } else {
+                Cursor oldCursor = mCursor;
+                mCursor = cursor;
+                mFingerprint = fingerprint;
+                for (Listener listener : new ArrayList<Listener>(mListeners)) {
+                    listener.onQueryResult(cursor);
+                }
+                if (oldCursor != null) {
+                    oldCursor.close();
+                }
+            }
+        }
+
+        if (mChangedWhileRunning) {
+            mChangedWhileRunning = false;
+            scheduleQuery();
+        }
+    }
+
+    /**
+     * Returns the fingerprint of the result from the number of rows it has and the sum and
+     * maximum of its version column, or null if they can't be read, in which case the result
+     * is delivered whatever it is.
+     */
+    private byte[] queryVersions() {
+        MessageDigest digest = newDigest();
+        updateDigest(digest, mDbHelper.getCompletedMigrationCount());
+        Cursor cursor = mContentResolver.query(mUri, new String[] {
+                "COUNT(*)", "SUM(" + mVersionColumn + ")", "MAX(" + mVersionColumn + ")" },
+                mSelection, mSelectionArgs, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            updateDigest(digest, cursor);
+        } finally {
+            cursor.close();
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Returns the SHA-1 digest of every value in the cursor.
+     */
+    private static byte[] fingerprint(Cursor cursor) {
+        MessageDigest digest = newDigest();
+        updateDigest(digest, cursor);
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Add every value in the cursor to the digest, each one with its type and length, so that
+     * no two different results add the same bytes.
+     */
+    private static void updateDigest(MessageDigest digest, Cursor cursor) {
+        int columnCount = cursor.getColumnCount();
+        updateDigest(digest, columnCount);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < columnCount; i++) {
+                int type = cursor.getType(i);
+                digest.update((byte) type);
+                switch (type) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        updateDigest(digest, cursor.getLong(i));
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        updateDigest(digest, Double.doubleToLongBits(cursor.getDouble(i)));
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte[] blob = cursor.getBlob(i);
+                        updateDigest(digest, blob.length);
+                        digest.update(blob);
+                        break;
+                    default:
+                        byte[] text = cursor.getString(i).getBytes(UTF_8);
+                        updateDigest(digest, text.length);
+                        digest.update(text);
+                        break;
+                }
+            }
+        }
+        cursor.moveToPosition(-1);
+    }
+
+    private static void updateDigest(MessageDigest digest, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (value >>> shift));
+        }
+    }
+}
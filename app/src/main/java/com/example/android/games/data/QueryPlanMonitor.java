@@ -0,0 +1,196 @@
+package com.example.android.games.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.util.Log;
+
+import com.example.android.games.data.GameContract.QueryPlanEntry;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Records the query plan of every distinct shape of query the provider runs, so the queries
+ * that read a whole table or sort without an index can be found. The shape of a query is its
+ * SQL with the literals replaced by "?", so the same query with other values is only
+ * explained once. See {@link QueryPlanEntry}.
+ *
+ * Recording is off until {@link #setEnabled} turns it on. While it is off, {@link #record}
+ * costs a single check.
+ */
+final class QueryPlanMonitor {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = QueryPlanMonitor.class.getSimpleName();
+
+    /** Largest number of shapes recorded. Shapes beyond it are ignored. */
+    static final int MAX_SHAPES = 500;
+
+    /** String literals, including quotes escaped by doubling them */
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+
+    /** Number literals, but not digits that are part of a name */
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])\\d+(?:\\.\\d+)?");
+
+    /** Lists of values, which count as one value whatever their length */
+    private static final Pattern VALUE_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+
+    /** Runs of white space */
+    private static final Pattern WHITE_SPACE = Pattern.compile("\\s+");
+
+    /** Columns of the report, see {@link #report} */
+    private static final String[] REPORT_COLUMNS = {
+            QueryPlanEntry._ID,
+            QueryPlanEntry.COLUMN_SHAPE,
+            QueryPlanEntry.COLUMN_PLAN,
+            QueryPlanEntry.COLUMN_FULL_SCAN,
+            QueryPlanEntry.COLUMN_TEMP_SORT,
+            QueryPlanEntry.COLUMN_QUERY_COUNT };
+
+    /**
+     * The plan of one shape of query.
+     */
+    private static final class Plan {
+
+        final String plan;
+        final boolean fullScan;
+        final boolean tempSort;
+        int queryCount;
+
+        Plan(String plan, boolean fullScan, boolean tempSort) {
+            this.plan = plan;
+            this.fullScan = fullScan;
+            this.tempSort = tempSort;
+        }
+    }
+
+    /** Whether queries are recorded */
+    private volatile boolean mEnabled;
+
+    /** The plan of every shape recorded, in the order the shapes were first seen */
+    private final Map<String, Plan> mPlans = new LinkedHashMap<String, Plan>();
+
+    /**
+     * Turn recording on or off. Either way, the shapes recorded so far are forgotten.
+     */
+    void setEnabled(boolean enabled) {
+        synchronized (mPlans) {
+            mPlans.clear();
+        }
+        mEnabled = enabled;
+    }
+
+    /**
+     * Record the plan of the given query, unless a query of the same shape was recorded
+     * before. The arguments are the same as those of {@link SQLiteDatabase#query}.
+     */
+    void record(SQLiteDatabase database, String table, String[] projection, String selection,
+            String[] selectionArgs, String groupBy, String sortOrder, String limit) {
+        if (!mEnabled) {
+            return;
+        }
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection, selection,
+                groupBy, null, sortOrder, limit);
+        String shape = shapeOf(sql);
+        synchronized (mPlans) {
+            Plan plan = mPlans.get(shape);
+            if (plan != null) {
+                plan.queryCount++;
+                return;
+            }
+            if (mPlans.size() >= MAX_SHAPES) {
+                return;
+            }
+        }
+
+        // Explain the query without holding the lock, as the database may be busy with a
+        // transaction of a thread that is about to record a query of its own
+        Plan plan;
+        try {
+            plan = explain(database, sql, selectionArgs);
+        } catch (SQLiteException e) {
+            // The query itself will fail the same way and report it
+            return;
+        }
+        if (plan.fullScan || plan.tempSort) {
+            Log.w(LOG_TAG, "Query without a matching index: " + shape + "\n" + plan.plan);
+        }
+        synchronized (mPlans) {
+            Plan previous = mPlans.get(shape);
+            if (previous != null) {
+                plan = previous;
+            } else {
+                mPlans.put(shape, plan);
+            }
+            plan.queryCount++;
+        }
+    }
+
+    /**
+     * Returns the recorded plans, with the columns of {@link QueryPlanEntry}, in the order
+     * the shapes were first seen.
+     */
+    Cursor report() {
+        MatrixCursor cursor = new MatrixCursor(REPORT_COLUMNS);
+        synchronized (mPlans) {
+            long id = 1;
+            for (Map.Entry<String, Plan> entry : mPlans.entrySet()) {
+                Plan plan = entry.getValue();
+                cursor.addRow(new Object[] { id++, entry.getKey(), plan.plan,
+                        plan.fullScan ? 1 : 0, plan.tempSort ? 1 : 0, plan.queryCount });
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the shape of the given SQL: literals and lists of values replaced by a single
+     * "?", white space collapsed and everything in lower case.
+     */
+    static String shapeOf(String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = VALUE_LIST.matcher(shape).replaceAll("(?)");
+        shape = WHITE_SPACE.matcher(shape.trim()).replaceAll(" ");
+        return shape.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Run EXPLAIN QUERY PLAN on the given query, and find the steps that read a whole table
+     * without an index, or that sort the rows in a temporary B-tree.
+     */
+    private static Plan explain(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            // The detail is the last column in every version of SQLite
+            int detailColumn = cursor.getColumnCount() - 1;
+            StringBuilder plan = new StringBuilder();
+            boolean fullScan = false;
+            boolean tempSort = false;
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailColumn);
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(detail);
+
+                // "SCAN TABLE games" in older versions, "SCAN games" in newer ones. A scan
+                // that uses an index walks it in order, which is what listing everything needs.
+                if (detail.startsWith("SCAN ") && !detail.contains(" INDEX ")) {
+                    fullScan = true;
+                }
+                if (detail.contains("TEMP B-TREE")) {
+                    tempSort = true;
+                }
+            }
+            return new Plan(plan.toString(), fullScan, tempSort);
+        } finally {
+            cursor.close();
+        }
+    }
+}
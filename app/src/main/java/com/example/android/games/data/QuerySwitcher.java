@@ -0,0 +1,98 @@
+package com.example.android.games.data;
+
+import android.database.Cursor;
+
+/**
+ * Hands the results of an {@link ObservableQuery} to a listener, and switches the listener to
+ * another query without showing an empty result in between, for example when the user changes
+ * a filter.
+ *
+ * The listener keeps the last result of the old query until the new query delivers its first
+ * one, and that cursor stays open until then. The old query stops observing changes as soon as
+ * it is replaced, so a change can't make it query again and close the cursor the listener still
+ * has. Switching again before the new query has delivered anything drops that query instead,
+ * as the listener never saw its results.
+ *
+ * Every method must be called on the main thread.
+ */
+public class QuerySwitcher {
+
+    private final ObservableQuery.Listener mListener;
+
+    private final ObservableQuery.Listener mHandover = new ObservableQuery.Listener() {
+        @Override
+        public void onQueryResult(Cursor cursor) {
+            mListener.onQueryResult(cursor);
+            if (mReplacedQuery != null) {
+                mReplacedQuery.close();
+                mReplacedQuery = null;
+            }
+        }
+    };
+
+    /** The query whose results are handed to the listener */
+    private ObservableQuery mQuery;
+
+    /**
+     * Query whose last result the listener still has, until {@link #mQuery} delivers its
+     * first one, or null
+     */
+    private ObservableQuery mReplacedQuery;
+
+    /**
+     * Constructs a new instance of {@link QuerySwitcher}.
+     *
+     * @param listener that gets the results
+     */
+    public QuerySwitcher(ObservableQuery.Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Start handing the results of the given query to the listener.
+     */
+    public void start(ObservableQuery query) {
+        mQuery = query;
+        mQuery.subscribe(mHandover);
+    }
+
+    /**
+     * Returns the query whose results are handed to the listener.
+     */
+    public ObservableQuery getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Hand the results of the given query to the listener from now on, see the class comment.
+     */
+    public void switchTo(ObservableQuery query) {
+        mQuery.unsubscribe(mHandover);
+        if (mReplacedQuery == null) {
+            // The listener has the last result of the current query
+            mQuery.stopObserving();
+            mReplacedQuery = mQuery;
+        } else {
+            // The listener still has the result of the query before
+            mQuery.close();
+        }
+        mQuery = query;
+        mQuery.subscribe(mHandover);
+    }
+
+    /**
+     * Stop handing results to the listener, which must no longer use the cursor it was given.
+     * The replaced query is closed, and the current one too unless it is kept, for example
+     * for the next instance of an activity after a configuration change.
+     */
+    public void stop(boolean keepQuery) {
+        mQuery.unsubscribe(mHandover);
+        if (mReplacedQuery != null) {
+            mReplacedQuery.close();
+            mReplacedQuery = null;
+        }
+        if (!keepQuery) {
+            mQuery.close();
+        }
+    }
+}
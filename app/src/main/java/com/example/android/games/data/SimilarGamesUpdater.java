@@ -0,0 +1,527 @@
+package com.example.android.games.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.data.GameContract.SimilarGameEntry;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link SimilarGameEntry similar games} table up to date with the games.
+ *
+ * Games are scored by their brand, their demographic and the band of their price (a power of
+ * two). Games with the same brand, or with the same demographic and price band, are similar,
+ * and a game's list holds the {@link SimilarGameEntry#MAX_SIMILAR} most similar ones. When it
+ * starts, the updater checks the list of every game. After that, it follows the change
+ * notifications of the provider: when single games change, it only recomputes the lists that
+ * the changed games were in or may now get into; only a change to many games at once checks
+ * every list again. Changes that arrive while a pass is running are collected and handled
+ * together by the next pass.
+ *
+ * The games are compared in memory, and only the lists that actually changed are written, in
+ * small transactions. A pass that checks every list reads every game once. A pass after
+ * changes to single games only reads the games that share a brand, or a demographic and a
+ * price band, with the games whose lists it recomputes, as no other game can get into them.
+ * The brand key and the demographic and price indexes find those games, and the lowest score
+ * of each list they are in is looked up by its primary key, so such a pass never reads a
+ * whole table.
+ */
+final class SimilarGamesUpdater {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = SimilarGamesUpdater.class.getSimpleName();
+
+    /** Score of games with the same brand, demographic or price band */
+    private static final int BRAND_SCORE = 4;
+    private static final int DEMOGRAPHIC_SCORE = 2;
+    private static final int PRICE_BAND_SCORE = 1;
+
+    /**
+     * Lowest score of a similar game: the same brand, or the same demographic and price band.
+     * A lower bar would make nearly every game of a demographic similar.
+     */
+    private static final int MIN_SCORE = DEMOGRAPHIC_SCORE + PRICE_BAND_SCORE;
+
+    /** Number of lists written in one transaction */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Largest number of brands and of demographic and price band pairs a pass selects the
+     * games by. Beyond it, the selection would cost more than reading every game.
+     */
+    private static final int MAX_SELECTION_KEYS = 200;
+
+    /** Longest time {@link #stop} waits for the running pass, in seconds */
+    private static final int STOP_TIMEOUT_SECONDS = 10;
+
+    /** Selection of the lists that have the given game in them */
+    private static final String SQL_LISTS_WITH = "SELECT " + SimilarGameEntry.COLUMN_SIMILAR_GAME_ID
+            + " FROM " + SimilarGameEntry.TABLE_NAME + " WHERE " + SimilarGameEntry.COLUMN_SIMILAR_ID + " = ?";
+
+    /**
+     * Score of the least similar game of the list of a game, if the list is full. A list is
+     * ranked most similar first, so that game has the last rank.
+     */
+    private static final String SQL_LOWEST_SCORE = "SELECT " + SimilarGameEntry.COLUMN_SIMILAR_SCORE
+            + " FROM " + SimilarGameEntry.TABLE_NAME + " WHERE " + SimilarGameEntry.COLUMN_SIMILAR_GAME_ID
+            + " = ? AND " + SimilarGameEntry.COLUMN_SIMILAR_RANK + " = " + (SimilarGameEntry.MAX_SIMILAR - 1);
+
+    /**
+     * The games as of the start of a pass, in parallel arrays ordered by ID.
+     */
+    private static final class Games {
+
+        final long[] ids;
+        final String[] brands;
+        final int[] demographics;
+        final int[] prices;
+
+        Games(int count) {
+            ids = new long[count];
+            brands = new String[count];
+            demographics = new int[count];
+            prices = new int[count];
+        }
+
+        /** Returns the index of the game with the given ID, or a negative number if there is none */
+        int indexOf(long id) {
+            return Arrays.binarySearch(ids, id);
+        }
+
+        int score(int a, int b) {
+            int score = 0;
+            if (brands[a] != null && brands[a].equals(brands[b])) {
+                score += BRAND_SCORE;
+            }
+            if (demographics[a] == demographics[b]) {
+                score += DEMOGRAPHIC_SCORE;
+            }
+            if (priceBand(prices[a]) == priceBand(prices[b])) {
+                score += PRICE_BAND_SCORE;
+            }
+            return score;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+    private final GameDbHelper mDbHelper;
+
+    /** Runs the passes one at a time */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /** IDs of the games changed since the last pass started, guarded by this */
+    private Set<Long> mChangedIds = new HashSet<Long>();
+
+    /** Whether the next pass has to check every list, guarded by this */
+    private boolean mCheckAll;
+
+    /** Whether a pass is queued and hasn't started yet, guarded by this */
+    private boolean mPassQueued;
+
+    private final GameChangeObserver mObserver = new GameChangeObserver(null) {
+        @Override
+        protected void onGameChanged(long id) {
+            scheduleUpdate(id);
+        }
+
+        @Override
+        protected void onGamesChanged() {
+            scheduleCheckAll();
+        }
+    };
+
+    /**
+     * Constructs a new instance of {@link SimilarGamesUpdater}.
+     *
+     * @param context  of the app
+     * @param dbHelper of the games database
+     */
+    SimilarGamesUpdater(Context context, GameDbHelper dbHelper) {
+        mContentResolver = context.getContentResolver();
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Check every list in the background, and start following the changes to the games.
+     */
+    void start() {
+        mContentResolver.registerContentObserver(GameEntry.CONTENT_URI, true, mObserver);
+        scheduleCheckAll();
+    }
+
+    /**
+     * Stop following the changes to the games, and wait for the pass that is running, if any.
+     */
+    void stop() {
+        mContentResolver.unregisterContentObserver(mObserver);
+        synchronized (this) {
+            mExecutor.shutdown();
+        }
+        try {
+            mExecutor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void scheduleCheckAll() {
+        mCheckAll = true;
+        schedulePass();
+    }
+
+    private synchronized void scheduleUpdate(long id) {
+        mChangedIds.add(id);
+        schedulePass();
+    }
+
+    private synchronized void schedulePass() {
+        // A change may still be notified after the updater stopped
+        if (mPassQueued || mExecutor.isShutdown()) {
+            return;
+        }
+        mPassQueued = true;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Set<Long> changedIds;
+                boolean checkAll;
+                synchronized (SimilarGamesUpdater.this) {
+                    changedIds = mChangedIds;
+                    checkAll = mCheckAll;
+                    mChangedIds = new HashSet<Long>();
+                    mCheckAll = false;
+                    mPassQueued = false;
+                }
+                try {
+                    runPass(checkAll ? null : changedIds);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to update the similar games", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Recompute the lists affected by the changes to the given games, or every list if null,
+     * and write the ones that changed. Runs on the executor.
+     */
+    private void runPass(Set<Long> changedIds) {
+        // Until the upgrade has given every game its brand key, the games of a brand can't be
+        // found by it
+        mDbHelper.awaitMigration(GameDbHelper.VERSION_BRAND_KEYS);
+
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        Games games;
+        long[] targets;
+        if (changedIds == null) {
+            games = readGames(database, null, null);
+            database.delete(SimilarGameEntry.TABLE_NAME, SimilarGameEntry.COLUMN_SIMILAR_GAME_ID
+                    + " NOT IN (SELECT " + GameEntry._ID + " FROM " + GameEntry.TABLE_NAME + ")", null);
+            targets = games.ids;
+        } else {
+            targets = findAffectedGames(database, changedIds);
+
+            // Every game that can get into the lists of the targets, the targets included.
+            // Deleted games aren't read, so their lists are left empty.
+            games = readSimilarGames(database, readGames(database, idIn(targets), null));
+        }
+
+        int changedLists = 0;
+        SQLiteStatement delete = database.compileStatement("DELETE FROM "
+                + SimilarGameEntry.TABLE_NAME + " WHERE " + SimilarGameEntry.COLUMN_SIMILAR_GAME_ID + " = ?");
+        SQLiteStatement insert = database.compileStatement("INSERT INTO "
+                + SimilarGameEntry.TABLE_NAME + " (" + SimilarGameEntry.COLUMN_SIMILAR_GAME_ID + ", "
+                + SimilarGameEntry.COLUMN_SIMILAR_RANK + ", " + SimilarGameEntry.COLUMN_SIMILAR_ID + ", "
+                + SimilarGameEntry.COLUMN_SIMILAR_SCORE + ") VALUES (?, ?, ?, ?)");
+        try {
+            int[] similar = new int[SimilarGameEntry.MAX_SIMILAR];
+            int[] scores = new int[SimilarGameEntry.MAX_SIMILAR];
+            for (int first = 0; first < targets.length; first += BATCH_SIZE) {
+                database.beginTransaction();
+                try {
+                    int last = Math.min(first + BATCH_SIZE, targets.length);
+                    for (int i = first; i < last; i++) {
+                        long id = targets[i];
+                        int index = games.indexOf(id);
+                        int count = index >= 0 ? findSimilar(games, index, similar, scores) : 0;
+                        if (isStored(database, games, id, similar, scores, count)) {
+                            continue;
+                        }
+                        delete.bindLong(1, id);
+                        delete.executeUpdateDelete();
+                        for (int rank = 0; rank < count; rank++) {
+                            insert.bindLong(1, id);
+                            insert.bindLong(2, rank);
+                            insert.bindLong(3, games.ids[similar[rank]]);
+                            insert.bindLong(4, scores[rank]);
+                            insert.executeInsert();
+                        }
+                        changedLists++;
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+        } finally {
+            delete.close();
+            insert.close();
+        }
+
+        // Notify even if no list changed, as the games in them may have
+        mContentResolver.notifyChange(SimilarGameEntry.NOTIFICATION_URI, null);
+        Log.i(LOG_TAG, "Checked " + targets.length + " lists of similar games against "
+                + games.ids.length + " games, " + changedLists + " changed, in "
+                + (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+
+    /**
+     * Returns the IDs of the games whose list may change because of the changed games: the
+     * changed games themselves, the games whose list has one of them, and the games that one
+     * of them is now at least as similar to as the least similar game of their list.
+     */
+    private static long[] findAffectedGames(SQLiteDatabase database, Set<Long> changedIds) {
+        TreeSet<Long> affected = new TreeSet<Long>(changedIds);
+        String[] args = new String[1];
+        for (long id : changedIds) {
+            args[0] = String.valueOf(id);
+            Cursor cursor = database.rawQuery(SQL_LISTS_WITH, args);
+            try {
+                while (cursor.moveToNext()) {
+                    affected.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        // Only the games similar to a changed game can have it in their lists now
+        Games games = readSimilarGames(database, readGames(database, idIn(changedIds), null));
+
+        // The score a changed game needs to get into the list of each of them, looked up the
+        // first time it's needed, or 0 if it hasn't been yet
+        int[] lowestScores = new int[games.ids.length];
+        SQLiteStatement lowestScore = database.compileStatement(SQL_LOWEST_SCORE);
+        try {
+            for (long id : changedIds) {
+                int changed = games.indexOf(id);
+                if (changed < 0) {
+                    continue;
+                }
+                for (int i = 0; i < games.ids.length; i++) {
+                    int score = games.score(i, changed);
+                    if (i == changed || score < MIN_SCORE || affected.contains(games.ids[i])) {
+                        continue;
+                    }
+                    if (lowestScores[i] == 0) {
+                        lowestScores[i] = readLowestScore(lowestScore, games.ids[i]);
+                    }
+                    if (score >= lowestScores[i]) {
+                        affected.add(games.ids[i]);
+                    }
+                }
+            }
+        } finally {
+            lowestScore.close();
+        }
+
+        long[] ids = new long[affected.size()];
+        int i = 0;
+        for (long id : affected) {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the score a game needs to get into the list of the game with the given ID: the
+     * score of the least similar game of the list if it is full, or else {@link #MIN_SCORE},
+     * as a list that isn't full takes any similar game.
+     */
+    private static int readLowestScore(SQLiteStatement lowestScore, long id) {
+        lowestScore.bindLong(1, id);
+        try {
+            return (int) lowestScore.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return MIN_SCORE;
+        }
+    }
+
+    /**
+     * Read the games that are at least {@link #MIN_SCORE} similar to one of the given games:
+     * those with the same brand, or with the same demographic and price band. The given games
+     * are among them. If the given games have too many brands or bands to select by, every
+     * game is read.
+     */
+    private static Games readSimilarGames(SQLiteDatabase database, Games games) {
+        Set<String> brands = new TreeSet<String>();
+        Set<Long> bands = new TreeSet<Long>();
+        for (int i = 0; i < games.ids.length; i++) {
+            if (games.brands[i] != null) {
+                brands.add(games.brands[i]);
+            }
+            bands.add(((long) games.demographics[i] << 32) | priceBand(games.prices[i]));
+        }
+        if (bands.isEmpty()) {
+            return games;
+        }
+        if (brands.size() + bands.size() > MAX_SELECTION_KEYS) {
+            return readGames(database, null, null);
+        }
+
+        StringBuilder selection = new StringBuilder();
+        for (long band : bands) {
+            int demographic = (int) (band >> 32);
+            int priceBand = (int) band;
+            if (selection.length() > 0) {
+                selection.append(" OR ");
+            }
+            selection.append('(').append(GameEntry.COLUMN_GAME_DEMOGRAPHIC).append(" = ")
+                    .append(demographic).append(" AND ").append(GameEntry.COLUMN_GAME_PRICE);
+            if (priceBand == 0) {
+                selection.append(" <= 0)");
+            } else {
+                // The prices whose highest bit is the one of the band
+                selection.append(" BETWEEN ").append(1L << (priceBand - 1))
+                        .append(" AND ").append((1L << priceBand) - 1).append(')');
+            }
+        }
+        if (!brands.isEmpty()) {
+            selection.append(" OR ").append(GameEntry.COLUMN_GAME_BRAND_KEY).append(" IN (");
+            for (int i = 0; i < brands.size(); i++) {
+                selection.append(i == 0 ? "?" : ", ?");
+            }
+            selection.append(')');
+        }
+        return readGames(database, selection.toString(), brands.toArray(new String[brands.size()]));
+    }
+
+    /**
+     * Returns a selection of the games with the given IDs.
+     */
+    private static String idIn(Set<Long> ids) {
+        return GameEntry._ID + " IN (" + TextUtils.join(", ", ids) + ")";
+    }
+
+    private static String idIn(long[] ids) {
+        StringBuilder selection = new StringBuilder(GameEntry._ID).append(" IN (");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                selection.append(", ");
+            }
+            selection.append(ids[i]);
+        }
+        return selection.append(')').toString();
+    }
+
+    /**
+     * Find the most similar games to the game at the given index, most similar first. Games
+     * with the same score are ordered by how close their price is, then by ID. Returns the
+     * number of similar games found, at most {@link SimilarGameEntry#MAX_SIMILAR}.
+     */
+    private static int findSimilar(Games games, int target, int[] similar, int[] scores) {
+        int count = 0;
+        for (int i = 0; i < games.ids.length; i++) {
+            if (i == target) {
+                continue;
+            }
+            int score = games.score(target, i);
+            if (score < MIN_SCORE) {
+                continue;
+            }
+            long distance = Math.abs((long) games.prices[i] - games.prices[target]);
+
+            // Insert the game into the sorted list, unless it's less similar than all of them
+            int position = count;
+            while (position > 0 && (scores[position - 1] < score || (scores[position - 1] == score
+                    && Math.abs((long) games.prices[similar[position - 1]] - games.prices[target])
+                    > distance))) {
+                position--;
+            }
+            if (position == similar.length) {
+                continue;
+            }
+            int end = Math.min(count, similar.length - 1);
+            System.arraycopy(similar, position, similar, position + 1, end - position);
+            System.arraycopy(scores, position, scores, position + 1, end - position);
+            similar[position] = i;
+            scores[position] = score;
+            count = Math.min(count + 1, similar.length);
+        }
+        return count;
+    }
+
+    /**
+     * Returns whether the stored list of the given game is the same as the computed one.
+     */
+    private static boolean isStored(SQLiteDatabase database, Games games, long id, int[] similar,
+            int[] scores, int count) {
+        Cursor cursor = database.query(SimilarGameEntry.TABLE_NAME, new String[] {
+                        SimilarGameEntry.COLUMN_SIMILAR_ID, SimilarGameEntry.COLUMN_SIMILAR_SCORE },
+                SimilarGameEntry.COLUMN_SIMILAR_GAME_ID + "=?", new String[] { String.valueOf(id) },
+                null, null, SimilarGameEntry.COLUMN_SIMILAR_RANK);
+        try {
+            if (cursor.getCount() != count) {
+                return false;
+            }
+            for (int rank = 0; cursor.moveToNext(); rank++) {
+                if (cursor.getLong(0) != games.ids[similar[rank]] || cursor.getInt(1) != scores[rank]) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read the brand key, demographic and price of the selected games, or of every game if the
+     * selection is null. Games are compared by brand key, as in the selection of
+     * {@link #readSimilarGames}.
+     */
+    private static Games readGames(SQLiteDatabase database, String selection,
+            String[] selectionArgs) {
+        Cursor cursor = database.query(GameEntry.TABLE_NAME, new String[] {
+                        GameEntry._ID, GameEntry.COLUMN_GAME_BRAND_KEY,
+                        GameEntry.COLUMN_GAME_DEMOGRAPHIC, GameEntry.COLUMN_GAME_PRICE },
+                selection, selectionArgs, null, null, GameEntry._ID);
+        try {
+            Games games = new Games(cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                games.ids[i] = cursor.getLong(0);
+                String brand = cursor.getString(1);
+                games.brands[i] = brand != null && brand.length() > 0 ? brand : null;
+                games.demographics[i] = cursor.getInt(2);
+                games.prices[i] = cursor.getInt(3);
+            }
+            return games;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the price band of a price: prices in the same power of two are in the same band.
+     */
+    private static int priceBand(int price) {
+        return price <= 0 ? 0 : 32 - Integer.numberOfLeadingZeros(price);
+    }
+}
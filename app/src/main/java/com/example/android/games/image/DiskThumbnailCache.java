@@ -0,0 +1,206 @@
+package com.example.android.games.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A size-bounded cache of decoded thumbnails on disk. Each thumbnail is stored as a small JPEG
+ * file. When the total size grows past the limit, the least recently used files are deleted.
+ *
+ * A thumbnail is first written to a temporary file, which is renamed once complete. Temporary
+ * files don't count towards the size, and are never evicted while they are being written.
+ *
+ * The cache is safe to use from several threads. It doesn't touch the disk until it is first
+ * used, so it can be created on the main thread.
+ */
+class DiskThumbnailCache {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = DiskThumbnailCache.class.getSimpleName();
+
+    /** JPEG quality of the stored thumbnails */
+    private static final int JPEG_QUALITY = 85;
+
+    /** Suffix of the files thumbnails are written to before they are complete */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Age after which a temporary file is left over from a write that never finished, for
+     * example because the app was killed, rather than still being written
+     */
+    private static final long STALE_TEMP_MILLIS = 60 * 1000;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /** Whether the cache directory was created and scanned, see {@link #open} */
+    private boolean mOpened;
+
+    /**
+     * Total size of the thumbnails in the cache directory, in bytes. Only an estimate between
+     * two trims, as the system may delete cache files behind the app's back.
+     */
+    private long mSize;
+
+    /**
+     * Constructs a new instance of {@link DiskThumbnailCache}.
+     *
+     * @param directory where the thumbnails are stored
+     * @param maxBytes  the largest total size of the thumbnails
+     */
+    DiskThumbnailCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Create the cache directory and add up the size of the thumbnails in it, the first time
+     * the cache is written to. Temporary files left over from an earlier run are deleted.
+     */
+    private synchronized void open() {
+        if (mOpened) {
+            return;
+        }
+        mOpened = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Failed to create thumbnail cache directory " + mDirectory);
+        }
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+            for (File file : files) {
+                if (!isTempFile(file)) {
+                    mSize += file.length();
+                } else if (file.lastModified() < staleBefore) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cached thumbnail for the given key, or null if there isn't one.
+     */
+    Bitmap get(String key) {
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap != null) {
+            // Remember that the file was used, so it is the last to be evicted
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Store the thumbnail for the given key, and evict old thumbnails if the cache is too big.
+     */
+    void put(String key, Bitmap bitmap) {
+        open();
+        File file = fileFor(key);
+        File tempFile = null;
+        try {
+            // Each write has a file of its own, as two threads may store the same thumbnail
+            tempFile = File.createTempFile(file.getName(), TEMP_SUFFIX, mDirectory);
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write thumbnail " + file, e);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+            return;
+        }
+
+        synchronized (this) {
+            long oldLength = file.length();
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                return;
+            }
+            mSize += file.length() - oldLength;
+            if (mSize > mMaxBytes) {
+                trim();
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used thumbnails until the cache is down to 90% of its limit.
+     * The size is first added up again from the files themselves, so it doesn't drift from what
+     * is actually on disk. Temporary files are left alone, as another thread may be writing
+     * them.
+     */
+    private void trim() {
+        File[] files = mDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !isTempFile(file);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        mSize = 0;
+        for (File file : files) {
+            mSize += file.length();
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long left = lhs.lastModified();
+                long right = rhs.lastModified();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+
+        long target = mMaxBytes * 9 / 10;
+        for (int i = 0; i < files.length && mSize > target; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                mSize -= length;
+            }
+        }
+    }
+
+    private static boolean isTempFile(File file) {
+        return file.getName().endsWith(TEMP_SUFFIX);
+    }
+
+    /**
+     * Returns the file that holds the thumbnail for the given key.
+     */
+    private File fileFor(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(mDirectory, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.example.android.games.image;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads downsampled box art thumbnails into {@link ImageView}s.
+ *
+ * Thumbnails are looked up in a memory cache first, then in a cache on disk, and only decoded
+ * from the original image if both miss. Disk reads and decoding happen on background threads.
+ * When a list row is recycled for another game, the work for the game it showed before is
+ * cancelled, so a fast fling doesn't queue up decodes for rows that are long gone.
+ *
+ * {@link #load} and {@link #cancel} must be called on the main thread.
+ */
+public class ThumbnailLoader {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ThumbnailLoader.class.getSimpleName();
+
+    /** Fraction of the heap used by the memory cache */
+    private static final int MEMORY_CACHE_HEAP_DIVISOR = 8;
+
+    /** Largest size of the disk cache, in bytes */
+    private static final long DISK_CACHE_MAX_BYTES = 32 * 1024 * 1024;
+
+    /** Number of threads that read and decode thumbnails */
+    private static final int THREAD_COUNT = 2;
+
+    /** The single instance shared by every screen of the app */
+    private static ThumbnailLoader sInstance;
+
+    /**
+     * Hit and miss counts of the caches, since the loader was created.
+     */
+    public static final class Stats {
+
+        /** Number of thumbnails found in the memory cache */
+        public final int memoryHits;
+
+        /** Number of thumbnails found in the disk cache */
+        public final int diskHits;
+
+        /** Number of thumbnails that had to be decoded from the original image */
+        public final int misses;
+
+        /** Number of loads cancelled because the view was reused first */
+        public final int cancellations;
+
+        Stats(int memoryHits, int diskHits, int misses, int cancellations) {
+            this.memoryHits = memoryHits;
+            this.diskHits = diskHits;
+            this.misses = misses;
+            this.cancellations = cancellations;
+        }
+
+        /**
+         * Returns the fraction of loads served by either cache, between 0 and 1.
+         */
+        public float getHitRate() {
+            int total = memoryHits + diskHits + misses;
+            return total == 0 ? 0f : (float) (memoryHits + diskHits) / total;
+        }
+
+        @Override
+        public String toString() {
+            return "memoryHits=" + memoryHits + " diskHits=" + diskHits + " misses=" + misses
+                    + " cancellations=" + cancellations + " hitRate=" + getHitRate();
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final DiskThumbnailCache mDiskCache;
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The load in progress for each view (main thread only) */
+    private final Map<ImageView, LoadTask> mPendingLoads = new WeakHashMap<ImageView, LoadTask>();
+
+    private int mMemoryHits;
+    private int mDiskHits;
+    private int mMisses;
+    private int mCancellations;
+
+    /**
+     * Returns the shared instance of {@link ThumbnailLoader}.
+     *
+     * @param context of the app
+     */
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ThumbnailLoader(Context context) {
+        this(context.getContentResolver(),
+                new DiskThumbnailCache(new File(context.getCacheDir(), "thumbnails"),
+                        DISK_CACHE_MAX_BYTES),
+                Executors.newFixedThreadPool(THREAD_COUNT));
+    }
+
+    /**
+     * Constructs a new instance of {@link ThumbnailLoader} with the given disk cache and
+     * background threads. Used by the tests, which need a cache of their own and to control
+     * when the loads run.
+     *
+     * @param contentResolver to read the original images with
+     * @param diskCache       where the thumbnails are stored
+     * @param executor        that reads and decodes the thumbnails
+     */
+    ThumbnailLoader(ContentResolver contentResolver, DiskThumbnailCache diskCache,
+            ExecutorService executor) {
+        mContentResolver = contentResolver;
+        mDiskCache = diskCache;
+        mExecutor = executor;
+
+        // Size the memory cache in kilobytes, as a fraction of the largest possible heap
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024);
+        mMemoryCache = new LruCache<String, Bitmap>(maxKilobytes / MEMORY_CACHE_HEAP_DIVISOR) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail of the given image in the view, scaled down to about the given size.
+     * The view is cleared until the thumbnail is ready, and any load still running for the view
+     * is cancelled.
+     *
+     * @param imageUri content URI of the original image, or null for no image
+     * @param view     the view to show the thumbnail in
+     * @param size     the width and height of the view, in pixels
+     */
+    public void load(String imageUri, ImageView view, int size) {
+        if (TextUtils.isEmpty(imageUri)) {
+            cancel(view);
+            view.setImageDrawable(null);
+            return;
+        }
+
+        String key = imageUri + "#" + size;
+        LoadTask pending = mPendingLoads.get(view);
+        if (pending != null) {
+            if (pending.mKey.equals(key)) {
+                // The view is already waiting for this thumbnail
+                return;
+            }
+            cancel(view);
+        }
+
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            mMemoryHits++;
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        LoadTask task = new LoadTask(key, Uri.parse(imageUri), size, view);
+        mPendingLoads.put(view, task);
+        task.mFuture = mExecutor.submit(task);
+    }
+
+    /**
+     * Cancel the load still running for the view, if there is one.
+     */
+    public void cancel(ImageView view) {
+        LoadTask task = mPendingLoads.remove(view);
+        if (task != null) {
+            task.mCancelled = true;
+            task.mFuture.cancel(false);
+            mCancellations++;
+        }
+    }
+
+    /**
+     * Returns the hit and miss counts of the caches (main thread only).
+     */
+    public Stats getStats() {
+        return new Stats(mMemoryHits, mDiskHits, mMisses, mCancellations);
+    }
+
+    /**
+     * Decode the image at the given URI, downsampled by a power of two so that it is still at
+     * least the given size in both dimensions. Returns null if it can't be decoded.
+     */
+    private Bitmap decodeThumbnail(Uri uri, int size) throws IOException {
+        // First only read the dimensions of the image, without allocating any pixels
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream in = mContentResolver.openInputStream(uri);
+        try {
+            BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= size
+                && options.outHeight / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        in = mContentResolver.openInputStream(uri);
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Loads one thumbnail on a background thread and hands it to its view on the main thread.
+     */
+    private class LoadTask implements Runnable {
+
+        final String mKey;
+        final Uri mUri;
+        final int mSize;
+        final ImageView mView;
+        Future<?> mFuture;
+        volatile boolean mCancelled;
+
+        LoadTask(String key, Uri uri, int size, ImageView view) {
+            mKey = key;
+            mUri = uri;
+            mSize = size;
+            mView = view;
+        }
+
+        @Override
+        public void run() {
+            boolean fromDisk = false;
+            Bitmap bitmap = null;
+            try {
+                bitmap = mDiskCache.get(mKey);
+                if (bitmap != null) {
+                    fromDisk = true;
+                } else {
+                    if (mCancelled) {
+                        // cancel() already forgot about this task
+                        return;
+                    }
+                    bitmap = decodeThumbnail(mUri, mSize);
+                    if (bitmap != null) {
+                        mDiskCache.put(mKey, bitmap);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to decode image " + mUri, e);
+            } catch (RuntimeException e) {
+                // For example a SecurityException when the app may no longer read the image
+                Log.e(LOG_TAG, "Failed to load image " + mUri, e);
+            } catch (OutOfMemoryError e) {
+                Log.e(LOG_TAG, "Out of memory decoding image " + mUri, e);
+            }
+
+            final Bitmap result = bitmap;
+            final boolean resultFromDisk = fromDisk;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (resultFromDisk) {
+                        mDiskHits++;
+                    } else {
+                        mMisses++;
+                    }
+                    if (result != null) {
+                        mMemoryCache.put(mKey, result);
+                    }
+
+                    // Only touch the view if it hasn't moved on to another game, whose load
+                    // is still pending. A failed load leaves the view empty.
+                    if (mPendingLoads.get(mView) == LoadTask.this) {
+                        mPendingLoads.remove(mView);
+                        if (result != null) {
+                            mView.setImageBitmap(result);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
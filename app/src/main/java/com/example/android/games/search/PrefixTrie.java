@@ -0,0 +1,332 @@
+package com.example.android.games.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact prefix tree of search terms. Chains of nodes with a single child are merged into
+ * one node with a longer label, so the tree has at most about two nodes per term no matter how
+ * long the terms are. Children are kept in sorted arrays rather than maps.
+ *
+ * Every term has a key, which is what prefixes are matched against, and the text to show for
+ * it. A term is counted, so the same term can be added for several games and only disappears
+ * once it has been removed as often. Completions are returned in key order.
+ *
+ * The size of the tree on the heap is estimated as it changes. The tree is not thread safe.
+ */
+final class PrefixTrie {
+
+    /** Rough size of a node object on the heap, in bytes */
+    private static final int NODE_BYTES = 32;
+
+    /** Rough size of the header of an array on the heap, in bytes */
+    private static final int ARRAY_BYTES = 16;
+
+    /** Rough size of a reference, in bytes */
+    private static final int REFERENCE_BYTES = 4;
+
+    /** Rough size of a String object without its characters, in bytes */
+    private static final int STRING_BYTES = 40;
+
+    private static final char[] EMPTY_LABEL = new char[0];
+
+    /**
+     * A node of the tree. The key of a node is the concatenation of the labels from the root.
+     */
+    private static final class Node {
+
+        /** Characters of the key between the parent and this node */
+        char[] label;
+
+        /** Children, sorted by the first character of their label, or null if there are none */
+        Node[] children;
+
+        /** Number of used entries in {@link #children} */
+        int childCount;
+
+        /** Text of the term whose key ends here, or null if no term ends here */
+        String term;
+
+        /** Number of times the term has been added and not removed */
+        int count;
+
+        Node(char[] label) {
+            this.label = label;
+        }
+    }
+
+    private final Node mRoot = new Node(EMPTY_LABEL);
+    private int mTermCount;
+    private int mNodeCount = 1;
+    private long mEstimatedBytes = sizeOf(mRoot);
+
+    /**
+     * Add a term with the given key, or count it once more if the key is already there.
+     *
+     * @param key     normalized key of the term
+     * @param term    text of the term, used if the key is new
+     * @param mayGrow whether a new key may be added; if false, only existing keys are counted
+     * @return the text stored for the key (which may be an earlier text with the same key), or
+     * null if the key is new and may not be added
+     */
+    String add(String key, String term, boolean mayGrow) {
+        Node node = mRoot;
+        int i = 0;
+        while (i < key.length()) {
+            int index = findChild(node, key.charAt(i));
+            if (index < 0) {
+                if (!mayGrow) {
+                    return null;
+                }
+                Node leaf = newNode(key.substring(i).toCharArray());
+                insertChild(node, -index - 1, leaf);
+                node = leaf;
+                break;
+            }
+
+            Node child = node.children[index];
+            int common = commonLength(child.label, key, i);
+            if (common < child.label.length) {
+                if (!mayGrow) {
+                    // No term ends or branches off inside a label, so the key is new
+                    return null;
+                }
+                // The key leaves the label of the child halfway, so split the child there
+                Node middle = newNode(Arrays.copyOf(child.label, common));
+                resize(child, Arrays.copyOfRange(child.label, common, child.label.length),
+                        child.children);
+                resize(middle, middle.label, new Node[] { child });
+                middle.childCount = 1;
+                node.children[index] = middle;
+                child = middle;
+            }
+            node = child;
+            i += common;
+        }
+
+        if (node.count == 0) {
+            if (!mayGrow) {
+                return null;
+            }
+            node.term = term;
+            mTermCount++;
+            mEstimatedBytes += sizeOf(term);
+        }
+        node.count++;
+        return node.term;
+    }
+
+    /**
+     * Uncount the term with the given key once, and remove it when it isn't used anymore.
+     * Returns false if there is no term with that key.
+     */
+    boolean remove(String key) {
+        List<Node> path = new ArrayList<Node>();
+        Node node = mRoot;
+        int i = 0;
+        while (i < key.length()) {
+            int index = findChild(node, key.charAt(i));
+            if (index < 0) {
+                return false;
+            }
+            Node child = node.children[index];
+            if (commonLength(child.label, key, i) < child.label.length) {
+                return false;
+            }
+            path.add(node);
+            node = child;
+            i += child.label.length;
+        }
+        if (node.count == 0) {
+            return false;
+        }
+
+        node.count--;
+        if (node.count > 0) {
+            return true;
+        }
+        mEstimatedBytes -= sizeOf(node.term);
+        node.term = null;
+        mTermCount--;
+
+        // Take the node out of the tree if it's empty now, and merge whatever is left with a
+        // single child back into one node
+        if (node == mRoot) {
+            return true;
+        }
+        Node parent = path.get(path.size() - 1);
+        if (node.childCount == 0) {
+            removeChild(parent, node);
+            if (parent != mRoot && parent.term == null && parent.childCount == 1) {
+                mergeWithChild(parent);
+            }
+        } else if (node.childCount == 1) {
+            mergeWithChild(node);
+        }
+        return true;
+    }
+
+    /**
+     * Add the texts of up to the given number of terms whose key starts with the prefix to the
+     * list, in key order.
+     */
+    void collect(String prefix, int limit, List<String> out) {
+        Node node = mRoot;
+        int i = 0;
+        while (i < prefix.length()) {
+            int index = findChild(node, prefix.charAt(i));
+            if (index < 0) {
+                return;
+            }
+            Node child = node.children[index];
+            int common = commonLength(child.label, prefix, i);
+            if (common < child.label.length && i + common < prefix.length()) {
+                return;
+            }
+            node = child;
+            i += child.label.length;
+        }
+        collectSubtree(node, limit, out);
+    }
+
+    /**
+     * Returns the number of distinct terms.
+     */
+    int getTermCount() {
+        return mTermCount;
+    }
+
+    /**
+     * Returns the number of nodes.
+     */
+    int getNodeCount() {
+        return mNodeCount;
+    }
+
+    /**
+     * Returns the estimated size of the tree and its terms on the heap, in bytes.
+     */
+    long getEstimatedBytes() {
+        return mEstimatedBytes;
+    }
+
+    private static void collectSubtree(Node node, int limit, List<String> out) {
+        if (out.size() >= limit) {
+            return;
+        }
+        if (node.term != null) {
+            out.add(node.term);
+        }
+        for (int i = 0; i < node.childCount && out.size() < limit; i++) {
+            collectSubtree(node.children[i], limit, out);
+        }
+    }
+
+    /**
+     * Returns the index of the child whose label starts with the given character, or
+     * (-(insertion point) - 1) if there is none.
+     */
+    private static int findChild(Node node, char c) {
+        int low = 0;
+        int high = node.childCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char first = node.children[middle].label[0];
+            if (first < c) {
+                low = middle + 1;
+            } else if (first > c) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns the length of the common prefix of the label and the key from the given offset.
+     */
+    private static int commonLength(char[] label, String key, int offset) {
+        int length = Math.min(label.length, key.length() - offset);
+        for (int i = 0; i < length; i++) {
+            if (label[i] != key.charAt(offset + i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private Node newNode(char[] label) {
+        Node node = new Node(label);
+        mNodeCount++;
+        mEstimatedBytes += sizeOf(node);
+        return node;
+    }
+
+    private void insertChild(Node node, int index, Node child) {
+        Node[] children = node.children;
+        if (children == null || node.childCount == children.length) {
+            // Grow slowly, most nodes only ever have a couple of children
+            children = new Node[node.childCount + Math.max(2, node.childCount / 4)];
+            if (node.children != null) {
+                System.arraycopy(node.children, 0, children, 0, node.childCount);
+            }
+            resize(node, node.label, children);
+        }
+        System.arraycopy(children, index, children, index + 1, node.childCount - index);
+        children[index] = child;
+        node.childCount++;
+    }
+
+    private void removeChild(Node node, Node child) {
+        int index = findChild(node, child.label[0]);
+        System.arraycopy(node.children, index + 1, node.children, index,
+                node.childCount - index - 1);
+        node.childCount--;
+        node.children[node.childCount] = null;
+        if (node.childCount == 0) {
+            resize(node, node.label, null);
+        }
+        mNodeCount--;
+        mEstimatedBytes -= sizeOf(child);
+    }
+
+    /**
+     * Merge the only child of the node into the node.
+     */
+    private void mergeWithChild(Node node) {
+        Node child = node.children[0];
+        char[] label = Arrays.copyOf(node.label, node.label.length + child.label.length);
+        System.arraycopy(child.label, 0, label, node.label.length, child.label.length);
+
+        mNodeCount--;
+        mEstimatedBytes -= sizeOf(child);
+        resize(node, label, child.children);
+        node.childCount = child.childCount;
+        node.term = child.term;
+        node.count = child.count;
+    }
+
+    /**
+     * Replace the label and the children array of the node, keeping the size estimate current.
+     */
+    private void resize(Node node, char[] label, Node[] children) {
+        mEstimatedBytes -= sizeOf(node);
+        node.label = label;
+        node.children = children;
+        mEstimatedBytes += sizeOf(node);
+    }
+
+    private static long sizeOf(Node node) {
+        long bytes = NODE_BYTES + ARRAY_BYTES + 2 * node.label.length;
+        if (node.children != null) {
+            bytes += ARRAY_BYTES + REFERENCE_BYTES * node.children.length;
+        }
+        return bytes;
+    }
+
+    private static long sizeOf(String term) {
+        return STRING_BYTES + 2 * term.length();
+    }
+}
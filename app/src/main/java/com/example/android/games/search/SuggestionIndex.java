@@ -0,0 +1,324 @@
+package com.example.android.games.search;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.v4.util.LongSparseArray;
+import android.util.Log;
+
+import com.example.android.games.data.GameChangeObserver;
+import com.example.android.games.data.GameContract;
+import com.example.android.games.data.GameContract.GameEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index of the names and brands of all games, for typeahead suggestions.
+ *
+ * The index is built on a background thread with a single scan of the {@link GameContract#METHOD_BULK_READ}
+ * chunks, and then kept current from the change notifications of the provider: a change to a
+ * single game only re-reads that game, and so do the changes of a bulk write, which the
+ * provider notifies game by game unless there are too many of them. Only a change to more
+ * games than that rebuilds the index. Looking up the completions of a prefix never touches the database.
+ *
+ * The index is limited to a fraction of the heap. Once it is full, new names and brands are
+ * left out until the next rebuild, and {@link #getStats} reports how many were left out.
+ * {@link #suggest} can be called on any thread.
+ */
+public class SuggestionIndex {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = SuggestionIndex.class.getSimpleName();
+
+    /** Fraction of the heap the index may use */
+    private static final int HEAP_DIVISOR = 16;
+
+    /** Rough size of one game in the per-game arrays, in bytes */
+    private static final int GAME_BYTES = 2 * (8 + 4);
+
+    /** The single instance shared by every screen of the app */
+    private static SuggestionIndex sInstance;
+
+    /**
+     * Size and contents of the index.
+     */
+    public static final class Stats {
+
+        /** Number of games indexed */
+        public final int gameCount;
+
+        /** Number of distinct names and brands */
+        public final int termCount;
+
+        /** Number of nodes of the prefix tree */
+        public final int nodeCount;
+
+        /** Estimated size of the index on the heap, in bytes */
+        public final long estimatedBytes;
+
+        /** Largest size the index may grow to, in bytes */
+        public final long maxBytes;
+
+        /** Number of names and brands left out because the index was full */
+        public final int skippedTerms;
+
+        /** Time the last full build took, in milliseconds */
+        public final long buildMillis;
+
+        Stats(int gameCount, int termCount, int nodeCount, long estimatedBytes, long maxBytes,
+              int skippedTerms, long buildMillis) {
+            this.gameCount = gameCount;
+            this.termCount = termCount;
+            this.nodeCount = nodeCount;
+            this.estimatedBytes = estimatedBytes;
+            this.maxBytes = maxBytes;
+            this.skippedTerms = skippedTerms;
+            this.buildMillis = buildMillis;
+        }
+    }
+
+    /** Runs of white space, which count as a single space in a key */
+    private static final Pattern WHITE_SPACE = Pattern.compile("\\s+");
+
+    private final ContentResolver mContentResolver;
+    private final long mMaxBytes;
+
+    /** Runs the builds and the updates one at a time, in order */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /** Whether a full build is queued and hasn't started yet */
+    private final AtomicBoolean mBuildQueued = new AtomicBoolean();
+
+    private final GameChangeObserver mObserver = new GameChangeObserver(null) {
+        @Override
+        protected void onGameChanged(long id) {
+            scheduleUpdate(id);
+        }
+
+        @Override
+        protected void onGamesChanged() {
+            scheduleBuild();
+        }
+    };
+
+    /** The contents of the index, guarded by this */
+    private PrefixTrie mTrie = new PrefixTrie();
+    private LongSparseArray<String> mNames = new LongSparseArray<String>();
+    private LongSparseArray<String> mBrands = new LongSparseArray<String>();
+    private int mSkippedTerms;
+    private long mBuildMillis;
+
+    private boolean mStarted;
+
+    /**
+     * Returns the shared instance of {@link SuggestionIndex}.
+     *
+     * @param context of the app
+     */
+    public static synchronized SuggestionIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SuggestionIndex(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SuggestionIndex(Context context) {
+        mContentResolver = context.getContentResolver();
+        mMaxBytes = Runtime.getRuntime().maxMemory() / HEAP_DIVISOR;
+    }
+
+    /**
+     * Build the index in the background and start following the changes to the games. Does
+     * nothing if the index has already been started.
+     */
+    public synchronized void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mContentResolver.registerContentObserver(GameEntry.CONTENT_URI, true, mObserver);
+        scheduleBuild();
+    }
+
+    /**
+     * Returns up to the given number of names and brands that start with the given text, in
+     * alphabetical order. Case and repeated white space are ignored.
+     */
+    public List<String> suggest(String prefix, int limit) {
+        List<String> suggestions = new ArrayList<String>(limit);
+        String key = key(prefix);
+        if (key.length() == 0) {
+            return suggestions;
+        }
+        synchronized (this) {
+            mTrie.collect(key, limit, suggestions);
+        }
+        return suggestions;
+    }
+
+    /**
+     * Returns the current size and contents of the index.
+     */
+    public synchronized Stats getStats() {
+        return new Stats(mNames.size(), mTrie.getTermCount(), mTrie.getNodeCount(),
+                estimatedBytes(mTrie, mNames.size()), mMaxBytes, mSkippedTerms, mBuildMillis);
+    }
+
+    private void scheduleBuild() {
+        if (mBuildQueued.compareAndSet(false, true)) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mBuildQueued.set(false);
+                    build();
+                }
+            });
+        }
+    }
+
+    private void scheduleUpdate(final long id) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                update(id);
+            }
+        });
+    }
+
+    /**
+     * Build a new index from a scan of every game, and replace the current one with it.
+     * Runs on the executor.
+     */
+    private void build() {
+        long start = SystemClock.elapsedRealtime();
+        PrefixTrie trie = new PrefixTrie();
+        LongSparseArray<String> names = new LongSparseArray<String>();
+        LongSparseArray<String> brands = new LongSparseArray<String>();
+        int[] skippedTerms = new int[1];
+
+        Bundle extras = new Bundle();
+        long afterId = 0;
+        boolean hasMore = true;
+        try {
+            while (hasMore) {
+                extras.putLong(GameContract.EXTRA_AFTER_ID, afterId);
+                Bundle result = mContentResolver.call(GameEntry.CONTENT_URI,
+                        GameContract.METHOD_BULK_READ, null, extras);
+                long[] ids = result.getLongArray(GameContract.EXTRA_IDS);
+                String[] chunkNames = result.getStringArray(GameContract.EXTRA_NAMES);
+                String[] chunkBrands = result.getStringArray(GameContract.EXTRA_BRANDS);
+                for (int i = 0; i < ids.length; i++) {
+                    // IDs come in ascending order, so appending keeps the arrays sorted
+                    names.append(ids[i], add(trie, names.size(), chunkNames[i], skippedTerms));
+                    brands.append(ids[i], add(trie, names.size(), chunkBrands[i], skippedTerms));
+                }
+                hasMore = result.getBoolean(GameContract.EXTRA_HAS_MORE);
+                afterId = result.getLong(GameContract.EXTRA_NEXT_AFTER_ID);
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to build the suggestion index", e);
+            return;
+        }
+
+        long buildMillis = SystemClock.elapsedRealtime() - start;
+        synchronized (this) {
+            mTrie = trie;
+            mNames = names;
+            mBrands = brands;
+            mSkippedTerms = skippedTerms[0];
+            mBuildMillis = buildMillis;
+        }
+        Log.i(LOG_TAG, "Indexed " + names.size() + " games (" + trie.getTermCount()
+                + " terms, " + skippedTerms[0] + " skipped) in " + buildMillis + "ms, about "
+                + estimatedBytes(trie, names.size()) / 1024 + "KB");
+    }
+
+    /**
+     * Re-read the game with the given ID and replace its name and brand in the index.
+     * Runs on the executor.
+     */
+    private void update(long id) {
+        String name = null;
+        String brand = null;
+        boolean exists;
+        Cursor cursor = null;
+        try {
+            cursor = mContentResolver.query(ContentUris.withAppendedId(GameEntry.CONTENT_URI, id),
+                    new String[] { GameEntry.COLUMN_GAME_NAME, GameEntry.COLUMN_GAME_BRAND },
+                    null, null, null);
+            exists = cursor != null && cursor.moveToFirst();
+            if (exists) {
+                name = cursor.getString(0);
+                brand = cursor.getString(1);
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to read game " + id, e);
+            return;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        synchronized (this) {
+            int[] skippedTerms = { mSkippedTerms };
+            remove(mTrie, mNames.get(id));
+            remove(mTrie, mBrands.get(id));
+            if (exists) {
+                mNames.put(id, add(mTrie, mNames.size(), name, skippedTerms));
+                mBrands.put(id, add(mTrie, mNames.size(), brand, skippedTerms));
+            } else {
+                mNames.remove(id);
+                mBrands.remove(id);
+            }
+            mSkippedTerms = skippedTerms[0];
+        }
+    }
+
+    /**
+     * Add a name or brand to the tree, unless it is empty, or new while the index is full.
+     * Returns the text stored in the tree, to remember for the game, or null if it wasn't added.
+     */
+    private String add(PrefixTrie trie, int gameCount, String term, int[] skippedTerms) {
+        if (term == null) {
+            return null;
+        }
+        String key = key(term);
+        if (key.length() == 0) {
+            return null;
+        }
+        boolean mayGrow = estimatedBytes(trie, gameCount) < mMaxBytes;
+        String stored = trie.add(key, term.trim(), mayGrow);
+        if (stored == null) {
+            skippedTerms[0]++;
+        }
+        return stored;
+    }
+
+    private static void remove(PrefixTrie trie, String term) {
+        if (term != null) {
+            trie.remove(key(term));
+        }
+    }
+
+    private static long estimatedBytes(PrefixTrie trie, int gameCount) {
+        return trie.getEstimatedBytes() + (long) gameCount * GAME_BYTES;
+    }
+
+    /**
+     * Returns the key of a name, brand or prefix: trimmed, in lower case, and with every run
+     * of white space replaced by a single space.
+     */
+    private static String key(String text) {
+        return WHITE_SPACE.matcher(text.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+}
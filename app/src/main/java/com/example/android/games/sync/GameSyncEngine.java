@@ -0,0 +1,762 @@
+package com.example.android.games.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.games.data.GameContract;
+import com.example.android.games.data.GameContract.ArchivedGameEntry;
+import com.example.android.games.data.GameContract.DeletedGameEntry;
+import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.data.GameDbHelper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Synchronizes the local games table with a sync server by exchanging only the changes made
+ * since the last sync.
+ *
+ * Local changes are found through {@link GameEntry#COLUMN_GAME_DIRTY} and the
+ * {@link DeletedGameEntry} tombstones, and pushed in batches. Remote changes are pulled in
+ * batches starting at the sync token the server handed out last time. Conflicts are resolved
+ * with {@link SyncRecord#supersedes}, the same rule the server uses.
+ *
+ * Like every other change, the changes of a sync go through the provider, as
+ * {@link GameContract#asSyncAdapter} operations applied one batch per transaction. A batch
+ * starts by checking that the games are still as they were read when it was built, and is
+ * built again if a game changed locally in between. Archived games are synced where they are,
+ * in the archive.
+ *
+ * {@link #sync()} does network and disk I/O, so it must not be called on the main thread.
+ */
+public class GameSyncEngine {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = GameSyncEngine.class.getSimpleName();
+
+    /** Largest number of changes sent or received in one request */
+    static final int BATCH_SIZE = 500;
+
+    /** Name of the preferences file that holds the sync state */
+    static final String PREFS_NAME = "sync";
+
+    /** Preference key of the ID of this device */
+    private static final String PREF_DEVICE_ID = "device_id";
+
+    /** Preference key of the last sync token handed out by the server */
+    private static final String PREF_TOKEN = "token";
+
+    /**
+     * Largest number of times a batch of changes is built again because the games it changes
+     * kept changing locally
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** Value of a time of a {@link LocalGame} that doesn't exist */
+    private static final long NONE = -1;
+
+    /** Selects a game by GUID and change time, see {@link #changeArgs} */
+    private static final String SELECTION_GUID_AND_TIME = GameEntry.COLUMN_GAME_GUID + "=? AND "
+            + GameEntry.COLUMN_GAME_UPDATED_AT + "=?";
+
+    /** Columns of a game that are pushed to the server, in the order they are indexed */
+    private static final String[] PUSH_PROJECTION = {
+            GameEntry.COLUMN_GAME_GUID,
+            GameEntry.COLUMN_GAME_NAME,
+            GameEntry.COLUMN_GAME_BRAND,
+            GameEntry.COLUMN_GAME_DEMOGRAPHIC,
+            GameEntry.COLUMN_GAME_PRICE,
+            GameEntry.COLUMN_GAME_IMAGE,
+            GameEntry.COLUMN_GAME_TAGS,
+            GameEntry.COLUMN_GAME_UPDATED_AT };
+
+    /**
+     * Counts of the changes exchanged by one call to {@link #sync()}.
+     */
+    public static final class Result {
+
+        /** Number of local changes accepted by the server */
+        public int pushed;
+
+        /** Number of remote changes applied locally */
+        public int pulled;
+
+        /** Number of local changes that lost a conflict and were replaced by the server's */
+        public int conflicts;
+
+        @Override
+        public String toString() {
+            return "pushed=" + pushed + " pulled=" + pulled + " conflicts=" + conflicts;
+        }
+    }
+
+    /**
+     * The local state of a game that a remote change is about to be applied to.
+     */
+    private static final class LocalGame {
+
+        /** Time of the last change to the game, or {@link #NONE} if there is no such game */
+        long updatedAt = NONE;
+
+        /** Whether the game has changes that haven't been pushed yet */
+        boolean dirty;
+
+        /** Natural key of the game, or null if there is no such game */
+        String naturalKey;
+
+        /** Time the game was deleted, or {@link #NONE} if it has no tombstone */
+        long deletedAt = NONE;
+
+        /** Whether the game is in the archive rather than in the games table */
+        boolean archived;
+    }
+
+    /**
+     * The changes of one batch. The archive is another database, so the changes to archived
+     * games are applied to it one by one first, and then the operations on the games in one
+     * transaction.
+     */
+    private static final class Batch {
+
+        /** Operations on the games and the tombstones */
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+
+        /** Remote changes to archived games */
+        final List<SyncRecord> archiveChanges = new ArrayList<SyncRecord>();
+
+        /** Change time each of the archived games must still have, in the same order */
+        final List<Long> archiveUpdatedAts = new ArrayList<Long>();
+
+        /**
+         * Games given or deprived of a natural key by the operations so far, by key. A key
+         * nobody has any more maps to null.
+         */
+        final Map<String, String> keyOwners = new HashMap<String, String>();
+    }
+
+    private final Context mContext;
+    private final URL mServerUrl;
+    private final SharedPreferences mPrefs;
+    private final String mDeviceId;
+
+    /**
+     * Constructs a new instance of {@link GameSyncEngine}.
+     *
+     * @param context   of the app
+     * @param serverUrl base URL of the sync server
+     */
+    public GameSyncEngine(Context context, URL serverUrl) {
+        mContext = context.getApplicationContext();
+        mServerUrl = serverUrl;
+        mPrefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        String deviceId = mPrefs.getString(PREF_DEVICE_ID, null);
+        if (deviceId == null) {
+            deviceId = UUID.randomUUID().toString();
+            mPrefs.edit().putString(PREF_DEVICE_ID, deviceId).commit();
+        }
+        mDeviceId = deviceId;
+    }
+
+    /**
+     * Returns the ID that identifies this device to the sync server.
+     */
+    public String getDeviceId() {
+        return mDeviceId;
+    }
+
+    /**
+     * Push all local changes to the server, then pull all remote changes from it. Does nothing
+     * while the database is still being upgraded.
+     */
+    public Result sync() throws IOException {
+        GameDbHelper dbHelper = GameDbHelper.getInstance(mContext);
+        Result result = new Result();
+
+        // Games are matched by GUID and natural key, which the upgrade may still be filling in
+        if (dbHelper.isMigrationPending(GameDbHelper.VERSION_SYNC)
+                || dbHelper.isMigrationPending(GameDbHelper.VERSION_NATURAL_KEY)) {
+            Log.i(LOG_TAG, "Sync skipped, the database is still being upgraded");
+            return result;
+        }
+
+        // Every change goes through the provider, which notifies all listeners once for
+        // everything the sync changed when the batch closes
+        ContentResolver resolver = mContext.getContentResolver();
+        Bundle batch = resolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_BEGIN_BATCH,
+                null, null);
+        try {
+            push(resolver, result);
+            pull(resolver, result);
+        } catch (JSONException e) {
+            throw new IOException("Malformed sync payload", e);
+        } finally {
+            resolver.call(GameEntry.CONTENT_URI, GameContract.METHOD_END_BATCH, null, batch);
+        }
+        Log.i(LOG_TAG, "Sync finished: " + result);
+        return result;
+    }
+
+    /**
+     * Push the dirty games and the tombstones in batches until there are none left.
+     */
+    private void push(ContentResolver resolver, Result result) throws IOException, JSONException {
+        while (true) {
+            Set<String> archivedGuids = new HashSet<String>();
+            List<SyncRecord> changes = readLocalChanges(resolver, archivedGuids);
+            if (changes.isEmpty()) {
+                return;
+            }
+
+            JSONArray array = new JSONArray();
+            for (SyncRecord change : changes) {
+                array.put(change.toJson());
+            }
+            JSONObject request = new JSONObject();
+            request.put("device", mDeviceId);
+            request.put("changes", array);
+            JSONObject response = post("push", request);
+
+            // The server already decided these conflicts, so its version is applied as is
+            JSONArray conflicts = response.getJSONArray("conflicts");
+            List<SyncRecord> winners = new ArrayList<SyncRecord>();
+            Set<String> conflictGuids = new HashSet<String>();
+            for (int i = 0; i < conflicts.length(); i++) {
+                SyncRecord winner = SyncRecord.fromJson(conflicts.getJSONObject(i));
+                winners.add(winner);
+                conflictGuids.add(winner.guid);
+            }
+
+            // Everything the server didn't send back as a conflict was accepted. Only clear the
+            // dirty flag if the game hasn't changed again while the request was running.
+            List<SyncRecord> accepted = new ArrayList<SyncRecord>();
+            for (SyncRecord change : changes) {
+                if (!conflictGuids.contains(change.guid)) {
+                    accepted.add(change);
+                }
+            }
+            for (SyncRecord change : accepted) {
+                if (archivedGuids.contains(change.guid)) {
+                    ContentValues values = new ContentValues();
+                    values.put(GameEntry.COLUMN_GAME_DIRTY, 0);
+                    resolver.update(GameContract.asSyncAdapter(ArchivedGameEntry.CONTENT_URI),
+                            values, SELECTION_GUID_AND_TIME, changeArgs(change.guid, change.updatedAt));
+                }
+            }
+            for (int attempt = 1; ; attempt++) {
+                Batch batch = new Batch();
+                for (SyncRecord change : accepted) {
+                    if (change.deleted) {
+                        batch.operations.add(ContentProviderOperation
+                                .newDelete(GameContract.asSyncAdapter(DeletedGameEntry.CONTENT_URI))
+                                .withSelection(DeletedGameEntry.COLUMN_GUID + "=? AND "
+                                                + DeletedGameEntry.COLUMN_DELETED_AT + "=?",
+                                        changeArgs(change.guid, change.updatedAt))
+                                .build());
+                    } else if (!archivedGuids.contains(change.guid)) {
+                        batch.operations.add(ContentProviderOperation
+                                .newUpdate(GameContract.asSyncAdapter(GameEntry.CONTENT_URI))
+                                .withValue(GameEntry.COLUMN_GAME_DIRTY, 0)
+                                .withSelection(SELECTION_GUID_AND_TIME,
+                                        changeArgs(change.guid, change.updatedAt))
+                                .build());
+                    }
+                }
+                addRemoteChanges(resolver, winners, true, batch);
+                if (apply(resolver, batch, attempt)) {
+                    break;
+                }
+            }
+            result.pushed += accepted.size();
+            result.conflicts += winners.size();
+        }
+    }
+
+    /**
+     * Returns up to {@link #BATCH_SIZE} local changes that haven't been pushed yet: changed
+     * games, then games changed before they were archived, then deleted games. The GUIDs of the
+     * archived ones are added to the given set.
+     */
+    private List<SyncRecord> readLocalChanges(ContentResolver resolver, Set<String> archivedGuids) {
+        List<SyncRecord> changes = new ArrayList<SyncRecord>();
+        readDirtyGames(resolver, GameEntry.CONTENT_URI, changes, null);
+        if (changes.size() < BATCH_SIZE) {
+            readDirtyGames(resolver, ArchivedGameEntry.CONTENT_URI, changes, archivedGuids);
+        }
+
+        if (changes.size() < BATCH_SIZE) {
+            Cursor cursor = resolver.query(withLimit(DeletedGameEntry.CONTENT_URI,
+                            BATCH_SIZE - changes.size()),
+                    new String[] { DeletedGameEntry.COLUMN_GUID, DeletedGameEntry.COLUMN_DELETED_AT },
+                    null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    changes.add(new SyncRecord(cursor.getString(0), null, null, 0, 0, null, 0,
+                            cursor.getLong(1), true, mDeviceId));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Add the dirty games at the given URI to the changes, until there are
+     * {@link #BATCH_SIZE}. The GUIDs of the games are also added to the given set, if any.
+     */
+    private void readDirtyGames(ContentResolver resolver, Uri uri, List<SyncRecord> changes,
+            Set<String> guids) {
+        Cursor cursor = resolver.query(withLimit(uri, BATCH_SIZE - changes.size()),
+                PUSH_PROJECTION, GameEntry.COLUMN_GAME_DIRTY + "=1", null, null);
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(new SyncRecord(cursor.getString(0), cursor.getString(1),
+                        cursor.isNull(2) ? null : cursor.getString(2), cursor.getInt(3),
+                        cursor.getInt(4), cursor.isNull(5) ? null : cursor.getString(5),
+                        cursor.getLong(6), cursor.getLong(7), false, mDeviceId));
+                if (guids != null) {
+                    guids.add(cursor.getString(0));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Pull remote changes in batches, starting at the last sync token, until the server has
+     * none left. The token is saved after every batch, so an interrupted sync resumes where
+     * it stopped.
+     */
+    private void pull(ContentResolver resolver, Result result) throws IOException, JSONException {
+        boolean hasMore = true;
+        while (hasMore) {
+            JSONObject request = new JSONObject();
+            request.put("device", mDeviceId);
+            request.put("token", mPrefs.getLong(PREF_TOKEN, 0));
+            request.put("limit", BATCH_SIZE);
+            JSONObject response = post("pull", request);
+
+            JSONArray array = response.getJSONArray("changes");
+            List<SyncRecord> changes = new ArrayList<SyncRecord>();
+            for (int i = 0; i < array.length(); i++) {
+                changes.add(SyncRecord.fromJson(array.getJSONObject(i)));
+            }
+
+            int pulled;
+            for (int attempt = 1; ; attempt++) {
+                Batch batch = new Batch();
+                pulled = addRemoteChanges(resolver, changes, false, batch);
+                if (apply(resolver, batch, attempt)) {
+                    break;
+                }
+            }
+            result.pulled += pulled;
+
+            mPrefs.edit().putLong(PREF_TOKEN, response.getLong("token")).commit();
+            hasMore = response.getBoolean("has_more");
+        }
+    }
+
+    /**
+     * Apply the batch: the changes to archived games one by one, then the operations in one
+     * transaction of the provider. Returns false if a game changed locally since the batch was
+     * built, in which case it must be built again, unless that happened {@link #MAX_ATTEMPTS}
+     * times already. Whatever was applied before is applied again the same way.
+     *
+     * @throws android.database.SQLException if the database rejects a change, which fails the
+     *         sync before the token moves past the change, so the next sync tries it again
+     */
+    private static boolean apply(ContentResolver resolver, Batch batch, int attempt)
+            throws IOException {
+        try {
+            for (int i = 0; i < batch.archiveChanges.size(); i++) {
+                SyncRecord change = batch.archiveChanges.get(i);
+                if (!applyArchivedChange(resolver, change, batch.archiveUpdatedAts.get(i))) {
+                    throw new OperationApplicationException("Archived game " + change.guid
+                            + " changed");
+                }
+            }
+            if (!batch.operations.isEmpty()) {
+                resolver.applyBatch(GameContract.CONTENT_AUTHORITY, batch.operations);
+            }
+            return true;
+        } catch (OperationApplicationException e) {
+            if (attempt >= MAX_ATTEMPTS) {
+                throw new IOException("Games kept changing during the sync", e);
+            }
+            Log.i(LOG_TAG, "Games changed during the sync, trying again: " + e.getMessage());
+            return false;
+        } catch (RemoteException e) {
+            throw new IOException("Failed to apply the sync", e);
+        }
+    }
+
+    /**
+     * Apply a remote change to an archived game where it is, if the game still has the given
+     * change time. Returns whether it had.
+     */
+    private static boolean applyArchivedChange(ContentResolver resolver, SyncRecord change,
+            long updatedAt) {
+        Uri uri = GameContract.asSyncAdapter(ArchivedGameEntry.CONTENT_URI);
+        String[] selectionArgs = changeArgs(change.guid, updatedAt);
+        if (change.deleted) {
+            return resolver.delete(uri, SELECTION_GUID_AND_TIME, selectionArgs) > 0;
+        }
+        return resolver.update(uri, newGameValues(change), SELECTION_GUID_AND_TIME,
+                selectionArgs) > 0;
+    }
+
+    /**
+     * Add to the batch what applies the changes received from the server to the local games,
+     * without marking them dirty. Unless forced, a change loses against a newer local change
+     * that hasn't been pushed yet. The operations start by checking that the games are still
+     * as they were read here. Returns the number of changes that are applied.
+     */
+    private int addRemoteChanges(ContentResolver resolver, List<SyncRecord> changes,
+            boolean force, Batch batch) {
+        Map<String, LocalGame> locals = readLocalGames(resolver, changes);
+        int applied = 0;
+        for (SyncRecord change : changes) {
+            if (addRemoteChange(resolver, change, getLocalGame(locals, change.guid), force,
+                    batch)) {
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Add to the batch what applies one change received from the server, see
+     * {@link #addRemoteChanges}, and update the local state of the game to what it will be
+     * after that, for a later change to the same game in the batch. Returns whether the change
+     * is applied.
+     */
+    private boolean addRemoteChange(ContentResolver resolver, SyncRecord change, LocalGame local,
+            boolean force, Batch batch) {
+        if (!force) {
+            // Find a pending local change to the same game, if there is one
+            SyncRecord pending = null;
+            if (local.dirty) {
+                pending = new SyncRecord(change.guid, null, null, 0, 0, null, 0,
+                        local.updatedAt, false, mDeviceId);
+            } else if (local.deletedAt != NONE) {
+                pending = new SyncRecord(change.guid, null, null, 0, 0, null, 0,
+                        local.deletedAt, true, mDeviceId);
+            }
+            if (pending != null && pending.supersedes(change)) {
+                return false;
+            }
+        }
+
+        // An archived game is changed where it is, so it stays in the archive and can still
+        // come back from there. It must not be back in the games table by then.
+        String[] guidArgs = new String[] { change.guid };
+        if (local.archived) {
+            batch.operations.add(newAssert(GameEntry.CONTENT_URI,
+                    GameEntry.COLUMN_GAME_GUID + "=?", change.guid, NONE));
+            batch.archiveChanges.add(change);
+            batch.archiveUpdatedAts.add(local.updatedAt);
+            local.archived = !change.deleted;
+            local.updatedAt = change.deleted ? NONE : change.updatedAt;
+            local.dirty = false;
+            return true;
+        }
+
+        // The game and its tombstone must still be as they were read when the batch runs
+        batch.operations.add(local.updatedAt != NONE
+                ? newAssert(GameEntry.CONTENT_URI, SELECTION_GUID_AND_TIME, change.guid,
+                        local.updatedAt)
+                : newAssert(GameEntry.CONTENT_URI, GameEntry.COLUMN_GAME_GUID + "=?",
+                        change.guid, NONE));
+        batch.operations.add(local.deletedAt != NONE
+                ? newAssert(DeletedGameEntry.CONTENT_URI, DeletedGameEntry.COLUMN_GUID + "=? AND "
+                        + DeletedGameEntry.COLUMN_DELETED_AT + "=?", change.guid, local.deletedAt)
+                : newAssert(DeletedGameEntry.CONTENT_URI, DeletedGameEntry.COLUMN_GUID + "=?",
+                        change.guid, NONE));
+
+        // The remote change wins, so any pending local change to the game is obsolete
+        if (local.deletedAt != NONE) {
+            batch.operations.add(ContentProviderOperation
+                    .newDelete(GameContract.asSyncAdapter(DeletedGameEntry.CONTENT_URI))
+                    .withSelection(DeletedGameEntry.COLUMN_GUID + "=?", guidArgs)
+                    .build());
+        }
+        local.deletedAt = NONE;
+
+        // The key the game has now is free once the change is applied, unless it keeps it
+        Map<String, String> keyOwners = batch.keyOwners;
+        if (local.naturalKey != null && (!keyOwners.containsKey(local.naturalKey)
+                || change.guid.equals(keyOwners.get(local.naturalKey)))) {
+            keyOwners.put(local.naturalKey, null);
+        }
+
+        if (change.deleted) {
+            if (local.updatedAt != NONE) {
+                batch.operations.add(ContentProviderOperation
+                        .newDelete(GameContract.asSyncAdapter(GameEntry.CONTENT_URI))
+                        .withSelection(GameEntry.COLUMN_GAME_GUID + "=?", guidArgs)
+                        .build());
+            }
+            local.updatedAt = NONE;
+            local.dirty = false;
+            local.naturalKey = null;
+            return true;
+        }
+
+        ContentValues values = newGameValues(change);
+        String naturalKey = separateNaturalKey(resolver, change, batch);
+        values.put(GameEntry.COLUMN_GAME_NATURAL_KEY, naturalKey);
+
+        if (local.updatedAt != NONE) {
+            batch.operations.add(ContentProviderOperation
+                    .newUpdate(GameContract.asSyncAdapter(GameEntry.CONTENT_URI))
+                    .withValues(values)
+                    .withSelection(GameEntry.COLUMN_GAME_GUID + "=?", guidArgs)
+                    .build());
+        } else {
+            values.put(GameEntry.COLUMN_GAME_GUID, change.guid);
+            batch.operations.add(ContentProviderOperation
+                    .newInsert(GameContract.asSyncAdapter(GameEntry.CONTENT_URI))
+                    .withValues(values)
+                    .build());
+        }
+        local.updatedAt = change.updatedAt;
+        local.dirty = false;
+        local.naturalKey = naturalKey;
+        return true;
+    }
+
+    /**
+     * Returns the values of the game of the given change, which isn't a deletion.
+     */
+    private static ContentValues newGameValues(SyncRecord change) {
+        ContentValues values = new ContentValues();
+        values.put(GameEntry.COLUMN_GAME_NAME, change.name);
+        values.put(GameEntry.COLUMN_GAME_BRAND, change.brand);
+        values.put(GameEntry.COLUMN_GAME_DEMOGRAPHIC, change.demographic);
+        values.put(GameEntry.COLUMN_GAME_PRICE, change.price);
+        values.put(GameEntry.COLUMN_GAME_IMAGE, change.image);
+        values.put(GameEntry.COLUMN_GAME_TAGS, change.tags);
+        values.put(GameEntry.COLUMN_GAME_UPDATED_AT, change.updatedAt);
+        return values;
+    }
+
+    /**
+     * Returns the natural key for the game of the given change. Another local game may already
+     * have the same name and brand, for example when the same game was entered on two devices
+     * before they synced. Both games are kept, and the one with the greater GUID gets its GUID
+     * appended to its key, so every device settles the collision the same way, whichever of the
+     * two games it had first. The natural key itself is never synced.
+     */
+    private static String separateNaturalKey(ContentResolver resolver, SyncRecord change,
+            Batch batch) {
+        String naturalKey = GameEntry.naturalKey(change.name, change.brand);
+        Map<String, String> keyOwners = batch.keyOwners;
+        String otherGuid;
+        if (keyOwners.containsKey(naturalKey)) {
+            otherGuid = keyOwners.get(naturalKey);
+        } else {
+            otherGuid = null;
+            Cursor cursor = resolver.query(GameEntry.CONTENT_URI,
+                    new String[] { GameEntry.COLUMN_GAME_GUID },
+                    GameEntry.COLUMN_GAME_NATURAL_KEY + "=?", new String[] { naturalKey }, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    otherGuid = cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        if (otherGuid == null || otherGuid.equals(change.guid)) {
+            keyOwners.put(naturalKey, change.guid);
+            return naturalKey;
+        }
+
+        Log.i(LOG_TAG, "Games " + change.guid + " and " + otherGuid
+                + " have the same name and brand");
+        if (change.guid.compareTo(otherGuid) > 0) {
+            String separateKey = naturalKey + "#" + change.guid;
+            keyOwners.put(separateKey, change.guid);
+            return separateKey;
+        }
+        String separateKey = naturalKey + "#" + otherGuid;
+        batch.operations.add(ContentProviderOperation
+                .newUpdate(GameContract.asSyncAdapter(GameEntry.CONTENT_URI))
+                .withValue(GameEntry.COLUMN_GAME_NATURAL_KEY, separateKey)
+                .withSelection(GameEntry.COLUMN_GAME_GUID + "=? AND "
+                                + GameEntry.COLUMN_GAME_NATURAL_KEY + "=?",
+                        new String[] { otherGuid, naturalKey })
+                .build());
+        keyOwners.put(separateKey, otherGuid);
+        keyOwners.put(naturalKey, change.guid);
+        return naturalKey;
+    }
+
+    /**
+     * Returns the local state of the games of the given changes, by GUID. Games that exist
+     * neither as a game, an archived game nor a tombstone are left out.
+     */
+    private static Map<String, LocalGame> readLocalGames(ContentResolver resolver,
+            List<SyncRecord> changes) {
+        Map<String, LocalGame> locals = new HashMap<String, LocalGame>();
+        if (changes.isEmpty()) {
+            return locals;
+        }
+        String[] guids = new String[changes.size()];
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < guids.length; i++) {
+            guids[i] = changes.get(i).guid;
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+        String[] projection = {
+                GameEntry.COLUMN_GAME_GUID,
+                GameEntry.COLUMN_GAME_UPDATED_AT,
+                GameEntry.COLUMN_GAME_DIRTY,
+                GameEntry.COLUMN_GAME_NATURAL_KEY };
+        String selection = GameEntry.COLUMN_GAME_GUID + " IN (" + placeholders + ")";
+
+        Cursor cursor = resolver.query(GameEntry.CONTENT_URI, projection, selection, guids, null);
+        try {
+            while (cursor.moveToNext()) {
+                LocalGame local = getLocalGame(locals, cursor.getString(0));
+                local.updatedAt = cursor.getLong(1);
+                local.dirty = cursor.getInt(2) != 0;
+                local.naturalKey = cursor.getString(3);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // A game that is in the games table isn't archived, even if an archive of an older
+        // version still has a copy of it
+        cursor = resolver.query(ArchivedGameEntry.CONTENT_URI, projection, selection, guids, null);
+        try {
+            while (cursor.moveToNext()) {
+                LocalGame local = getLocalGame(locals, cursor.getString(0));
+                if (local.updatedAt == NONE) {
+                    local.archived = true;
+                    local.updatedAt = cursor.getLong(1);
+                    local.dirty = cursor.getInt(2) != 0;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        cursor = resolver.query(DeletedGameEntry.CONTENT_URI, new String[] {
+                        DeletedGameEntry.COLUMN_GUID, DeletedGameEntry.COLUMN_DELETED_AT },
+                DeletedGameEntry.COLUMN_GUID + " IN (" + placeholders + ")", guids, null);
+        try {
+            while (cursor.moveToNext()) {
+                getLocalGame(locals, cursor.getString(0)).deletedAt = cursor.getLong(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        return locals;
+    }
+
+    private static LocalGame getLocalGame(Map<String, LocalGame> locals, String guid) {
+        LocalGame local = locals.get(guid);
+        if (local == null) {
+            local = new LocalGame();
+            locals.put(guid, local);
+        }
+        return local;
+    }
+
+    /**
+     * Returns an operation that checks how many rows at the given URI match the selection of a
+     * GUID and, unless it is {@link #NONE}, a time: one if the time is given, none otherwise.
+     */
+    private static ContentProviderOperation newAssert(Uri uri, String selection, String guid,
+            long time) {
+        String[] selectionArgs = time != NONE ? changeArgs(guid, time) : new String[] { guid };
+        return ContentProviderOperation.newAssertQuery(uri)
+                .withSelection(selection, selectionArgs)
+                .withExpectedCount(time != NONE ? 1 : 0)
+                .build();
+    }
+
+    /**
+     * Returns the arguments of {@link #SELECTION_GUID_AND_TIME}.
+     */
+    private static String[] changeArgs(String guid, long updatedAt) {
+        return new String[] { guid, String.valueOf(updatedAt) };
+    }
+
+    /**
+     * Returns the given URI with a limit on the number of rows a query returns.
+     */
+    private static Uri withLimit(Uri uri, int limit) {
+        return uri.buildUpon()
+                .appendQueryParameter(GameContract.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                .build();
+    }
+
+    /**
+     * Send a compressed JSON request to the given path of the server and return its
+     * decompressed JSON response.
+     */
+    private JSONObject post(String path, JSONObject request) throws IOException {
+        byte[] body = SyncCodec.encode(request);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(mServerUrl, path).openConnection();
+        try {
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", SyncCodec.CONTENT_TYPE);
+            connection.setRequestProperty("Content-Encoding", SyncCodec.CONTENT_ENCODING);
+            connection.setRequestProperty("Accept-Encoding", SyncCodec.CONTENT_ENCODING);
+            connection.setFixedLengthStreamingMode(body.length);
+
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Sync server returned " + code + " for " + path);
+            }
+
+            InputStream in = connection.getInputStream();
+            try {
+                return SyncCodec.decode(in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.games.sync;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes and decodes the payloads exchanged with the sync server. Every payload is a JSON
+ * object compressed with gzip, which shrinks a batch of game rows to a fraction of its size.
+ */
+final class SyncCodec {
+
+    /** Content type of every sync payload */
+    static final String CONTENT_TYPE = "application/json";
+
+    /** Content encoding of every sync payload */
+    static final String CONTENT_ENCODING = "gzip";
+
+    private SyncCodec() {}
+
+    /**
+     * Returns the compressed bytes of the given JSON object.
+     */
+    static byte[] encode(JSONObject json) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        try {
+            out.write(json.toString().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a compressed JSON object from the given stream. The stream is not closed.
+     */
+    static JSONObject decode(InputStream in) throws IOException {
+        GZIPInputStream gzip = new GZIPInputStream(in);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = gzip.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        try {
+            return new JSONObject(bytes.toString("UTF-8"));
+        } catch (JSONException e) {
+            throw new IOException("Malformed sync payload", e);
+        }
+    }
+}
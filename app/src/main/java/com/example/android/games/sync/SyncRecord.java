@@ -0,0 +1,113 @@
+package com.example.android.games.sync;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A single game change exchanged with the sync server. A deleted game is sent as a record with
+ * {@link #deleted} set and no other values.
+ */
+public final class SyncRecord {
+
+    /** Globally unique ID of the game */
+    public final String guid;
+
+    /** Name of the game (null for a deleted game) */
+    public final String name;
+
+    /** Brand of the game (may be null) */
+    public final String brand;
+
+    /** Demographic of the game */
+    public final int demographic;
+
+    /** Price of the game */
+    public final int price;
+
+    /**
+     * Content URI of the box art image of the game (may be null). It is synced as it is, so
+     * another device only shows the image if it can open the same URI.
+     */
+    public final String image;
+
+    /** Tags of the game, as a bitmask of the GameEntry TAG_ values */
+    public final long tags;
+
+    /** Time of the change, in milliseconds since the epoch */
+    public final long updatedAt;
+
+    /** Whether the change is a deletion */
+    public final boolean deleted;
+
+    /** ID of the device that made the change */
+    public final String origin;
+
+    public SyncRecord(String guid, String name, String brand, int demographic, int price,
+                      String image, long tags, long updatedAt, boolean deleted, String origin) {
+        this.guid = guid;
+        this.name = name;
+        this.brand = brand;
+        this.demographic = demographic;
+        this.price = price;
+        this.image = image;
+        this.tags = tags;
+        this.updatedAt = updatedAt;
+        this.deleted = deleted;
+        this.origin = origin;
+    }
+
+    /**
+     * Returns whether this change wins over the other change to the same game. The later change
+     * wins, and ties are broken by comparing the device IDs, so every device and the server
+     * resolve a conflict the same way no matter in which order they see the two changes.
+     */
+    public boolean supersedes(SyncRecord other) {
+        if (updatedAt != other.updatedAt) {
+            return updatedAt > other.updatedAt;
+        }
+        return origin.compareTo(other.origin) > 0;
+    }
+
+    /**
+     * Returns this record as a JSON object for the wire format.
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("guid", guid);
+        json.put("updated_at", updatedAt);
+        json.put("origin", origin);
+        if (deleted) {
+            json.put("deleted", true);
+        } else {
+            json.put("name", name);
+            if (brand != null) {
+                json.put("brand", brand);
+            }
+            json.put("demographic", demographic);
+            json.put("price", price);
+            if (image != null) {
+                json.put("image", image);
+            }
+            json.put("tags", tags);
+        }
+        return json;
+    }
+
+    /**
+     * Reads a record from its JSON wire format.
+     */
+    public static SyncRecord fromJson(JSONObject json) throws JSONException {
+        boolean deleted = json.optBoolean("deleted", false);
+        return new SyncRecord(
+                json.getString("guid"),
+                deleted ? null : json.getString("name"),
+                json.isNull("brand") ? null : json.getString("brand"),
+                json.optInt("demographic", 0),
+                json.optInt("price", 0),
+                json.isNull("image") ? null : json.getString("image"),
+                json.optLong("tags", 0),
+                json.getLong("updated_at"),
+                deleted,
+                json.getString("origin"));
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.android.games.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The shapes {@link QueryPlanMonitor} records queries under: queries that only differ in
+ * their values must have the same shape, and queries that differ otherwise must not.
+ */
+public class QueryPlanMonitorTest {
+
+    @Test
+    public void literalsAreReplaced() {
+        assertEquals("select * from games where price > ? and name = ?",
+                QueryPlanMonitor.shapeOf("SELECT * FROM games WHERE price > 25 AND name = 'Catan'"));
+        assertEquals("select * from games where price = ?",
+                QueryPlanMonitor.shapeOf("SELECT * FROM games WHERE price = 12.50"));
+    }
+
+    @Test
+    public void quotesInStringsAreEscapedByDoubling() {
+        assertEquals("select * from games where name = ? and brand = ?",
+                QueryPlanMonitor.shapeOf(
+                        "SELECT * FROM games WHERE name = 'Tsuro''s Path' AND brand = 'x'"));
+    }
+
+    @Test
+    public void digitsInNamesAreKept() {
+        assertEquals("select col1, t2.id from games2 as t2",
+                QueryPlanMonitor.shapeOf("SELECT col1, t2.id FROM games2 AS t2"));
+    }
+
+    @Test
+    public void listsOfValuesCountAsOne() {
+        String shape = "select * from games where _id in (?)";
+        assertEquals(shape, QueryPlanMonitor.shapeOf("SELECT * FROM games WHERE _id IN (1)"));
+        assertEquals(shape, QueryPlanMonitor.shapeOf("SELECT * FROM games WHERE _id IN (1, 2,3)"));
+        assertEquals(shape, QueryPlanMonitor.shapeOf("SELECT * FROM games WHERE _id IN (?, ?)"));
+    }
+
+    @Test
+    public void whiteSpaceAndCaseAreIgnored() {
+        assertEquals("select name from games order by name",
+                QueryPlanMonitor.shapeOf("  SELECT name\n  FROM games\tORDER BY   Name "));
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.android.games.loadtest;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The connections the workers share, the way SQLiteDatabase shares its connections between
+ * the threads of the app.
+ *
+ * With a write-ahead log, as the app has on Android 6.0 and later, every write and every
+ * transaction goes through the one primary connection, a thread at a time, while reads outside
+ * a transaction run side by side on a few read-only connections. With a rollback journal, as
+ * before Android 6.0, the primary connection is the only one, so every statement waits for the
+ * one before it. Either way threads wait for a connection of the pool, not for the lock of the
+ * database file, so the busy timeout of the connections is only a safety net.
+ */
+final class ConnectionPool {
+
+    /**
+     * Number of connections of a database with a write-ahead log, the primary one included,
+     * as SQLiteGlobal.getWALConnectionPoolSize returns on most devices.
+     */
+    static final int WAL_CONNECTION_POOL_SIZE = 4;
+
+    /**
+     * A connection of the pool, with the statements prepared on it so far, as SQLiteConnection
+     * caches them.
+     */
+    static final class PooledConnection {
+
+        final Connection connection;
+        private final Map<String, PreparedStatement> mStatements =
+                new HashMap<String, PreparedStatement>();
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Returns the given statement prepared on this connection.
+         */
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = mStatements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                mStatements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        void close() throws SQLException {
+            for (PreparedStatement statement : mStatements.values()) {
+                statement.close();
+            }
+            connection.close();
+        }
+    }
+
+    private final PooledConnection mPrimary;
+    private final Semaphore mPrimaryPermit = new Semaphore(1, true);
+    private final BlockingQueue<PooledConnection> mReaders;
+    private final PooledConnection[] mAllReaders;
+
+    /**
+     * Open the connections of the pool.
+     *
+     * @param path           path of the database file
+     * @param writeAheadLog  whether the database uses a write-ahead log
+     */
+    ConnectionPool(String path, boolean writeAheadLog) throws SQLException {
+        mPrimary = new PooledConnection(open(path, writeAheadLog, false));
+        int readerCount = writeAheadLog ? WAL_CONNECTION_POOL_SIZE - 1 : 0;
+        mAllReaders = new PooledConnection[readerCount];
+        mReaders = new ArrayBlockingQueue<PooledConnection>(Math.max(1, readerCount), true);
+        for (int i = 0; i < readerCount; i++) {
+            mAllReaders[i] = new PooledConnection(open(path, writeAheadLog, true));
+            mReaders.add(mAllReaders[i]);
+        }
+    }
+
+    /**
+     * Open a connection to the database file.
+     *
+     * @param readOnly whether the connection is one of the read-only connections of the pool
+     */
+    static Connection open(String path, boolean writeAheadLog, boolean readOnly)
+            throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("PRAGMA busy_timeout = 10000");
+            if (writeAheadLog) {
+                statement.execute("PRAGMA journal_mode = WAL");
+            }
+            if (readOnly) {
+                statement.execute("PRAGMA query_only = 1");
+            }
+        } finally {
+            statement.close();
+        }
+        return connection;
+    }
+
+    /**
+     * Wait for the primary connection, to write or to run a transaction.
+     */
+    PooledConnection acquirePrimary() throws InterruptedException {
+        mPrimaryPermit.acquire();
+        return mPrimary;
+    }
+
+    /**
+     * Wait for a connection to read outside a transaction: a read-only one if the pool has
+     * any, or else the primary connection.
+     */
+    PooledConnection acquireReader() throws InterruptedException {
+        if (mAllReaders.length == 0) {
+            return acquirePrimary();
+        }
+        return mReaders.take();
+    }
+
+    /**
+     * Give back a connection acquired from the pool.
+     */
+    void release(PooledConnection connection) {
+        if (connection == mPrimary) {
+            mPrimaryPermit.release();
+        } else {
+            mReaders.add(connection);
+        }
+    }
+
+    /**
+     * Close every connection of the pool, once no worker uses it anymore.
+     */
+    void close() throws SQLException {
+        mPrimary.close();
+        for (PooledConnection reader : mAllReaders) {
+            reader.close();
+        }
+    }
+}
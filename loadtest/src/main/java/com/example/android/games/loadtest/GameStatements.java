@@ -0,0 +1,83 @@
+package com.example.android.games.loadtest;
+
+import com.example.android.games.data.GameContract.GameEntry;
+import com.example.android.games.data.GameSchema;
+import com.example.android.games.data.GameText;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The statements GameProvider builds from content values for the operations the load test
+ * replays, and the query of the catalog. The schema and the statements the provider keeps as
+ * SQL are shared with the app through {@link GameSchema} instead, and the keys of a new game
+ * are computed by {@link GameText}, like GameEntry does.
+ */
+final class GameStatements {
+
+    private GameStatements() {}
+
+    /** Insert of a new game, as done by GameProvider.insertGame */
+    static final String INSERT_GAME = "INSERT OR IGNORE INTO games "
+            + "(name, brand, demographic, price, guid, updated_at, dirty, natural_key, section, "
+            + "sort_key, brand_key, section_key) VALUES (?, ?, ?, ?, ?, ?, 1, ?, ?, ?, ?, ?)";
+
+    /** Query of a single game, as done by EditorActivity */
+    static final String QUERY_GAME = "SELECT _id, name, brand, demographic, price, updated_at "
+            + "FROM games WHERE _id=?";
+
+    /** Columns of the games CatalogActivity shows */
+    private static final String CATALOG_COLUMNS = "SELECT _id, name, brand, demographic, price, "
+            + "updated_at, image FROM games";
+
+    /** Query of the whole catalog, as done by CatalogActivity without a filter */
+    static final String QUERY_CATALOG = CATALOG_COLUMNS
+            + " ORDER BY " + GameEntry.SORT_ORDER_SECTIONS;
+
+    /**
+     * Query of the catalog filtered by the start of a name or brand, as done by
+     * CatalogActivity. Both arguments are
+     * {@link GameText#prefixPattern} of the filter.
+     */
+    static final String QUERY_CATALOG_FILTERED = CATALOG_COLUMNS
+            + " WHERE " + GameEntry.SELECTION_PREFIX_FILTER
+            + " ORDER BY " + GameEntry.SORT_ORDER_SECTIONS;
+
+    /**
+     * Suffix of a catalog query that reads the rows of a later window of the cursor. The
+     * cursor refills its window by running the query again and stepping over the rows before
+     * the window, which is what OFFSET does.
+     */
+    static final String WINDOW = " LIMIT ? OFFSET ?";
+
+    /** Price change of a single game, as done by GameProvider.updateGame */
+    static final String UPDATE_PRICE = "UPDATE games SET price=?, updated_at=?, dirty=1 WHERE _id=?";
+
+    /** Tombstone written before a delete, as done by GameProvider.deleteGames */
+    static final String INSERT_TOMBSTONE = "INSERT OR REPLACE INTO deleted_games (guid, deleted_at) "
+            + "SELECT guid, ? FROM games WHERE _id=?";
+
+    /** Delete of a single game, as done by GameProvider.deleteGames */
+    static final String DELETE_GAME = "DELETE FROM games WHERE _id=?";
+
+    /** Stock returned after a sale or a restock, as done by GameProvider.readStock */
+    static final String QUERY_STOCK = "SELECT quantity FROM inventory WHERE game_id = ? AND store = ?";
+
+    /**
+     * Create the tables and indexes the way GameDbHelper does, unless they already exist.
+     */
+    static void create(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            if (statement.executeQuery("SELECT 1 FROM sqlite_master WHERE name='games'").next()) {
+                return;
+            }
+            for (String sql : GameSchema.CREATE_STATEMENTS) {
+                statement.executeUpdate(sql);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+}
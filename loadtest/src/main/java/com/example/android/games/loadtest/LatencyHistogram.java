@@ -0,0 +1,100 @@
+package com.example.android.games.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of operation latencies with log-linear buckets: every power of two of
+ * microseconds is split into 16 buckets, so percentiles are accurate to about 6% at any scale
+ * while the histogram stays a fixed, small array.
+ *
+ * A histogram is not thread safe. Each worker records into its own and they are merged for
+ * reporting.
+ */
+class LatencyHistogram {
+
+    /** Number of buckets per power of two */
+    private static final int SUB_BUCKETS = 16;
+
+    /** Powers of two covered, enough for several hours in microseconds */
+    private static final int MAGNITUDES = 32;
+
+    private final long[] mCounts = new long[MAGNITUDES * SUB_BUCKETS];
+    private long mTotalCount;
+    private long mMaxMicros;
+
+    /**
+     * Record one operation that took the given time.
+     */
+    void record(long micros) {
+        mCounts[bucketOf(micros)]++;
+        mTotalCount++;
+        mMaxMicros = Math.max(mMaxMicros, micros);
+    }
+
+    /**
+     * Add the counts of the other histogram to this one.
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mTotalCount += other.mTotalCount;
+        mMaxMicros = Math.max(mMaxMicros, other.mMaxMicros);
+    }
+
+    /**
+     * Forget every recorded operation.
+     */
+    void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mMaxMicros = 0;
+    }
+
+    long getTotalCount() {
+        return mTotalCount;
+    }
+
+    long getMaxMicros() {
+        return mMaxMicros;
+    }
+
+    /**
+     * Returns the latency below which the given fraction (0 to 1) of the operations fall,
+     * in microseconds.
+     */
+    long percentile(double fraction) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * mTotalCount);
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), mMaxMicros);
+            }
+        }
+        return mMaxMicros;
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+        // Keep the five highest bits: the leading one and the index of the sub bucket
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - 4;
+        int subBucket = (int) (micros >>> shift) - SUB_BUCKETS;
+        int bucket = (shift + 1) * SUB_BUCKETS + subBucket;
+        return Math.min(bucket, MAGNITUDES * SUB_BUCKETS - 1);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
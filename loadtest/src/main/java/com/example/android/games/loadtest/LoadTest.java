@@ -0,0 +1,681 @@
+package com.example.android.games.loadtest;
+
+import com.example.android.games.data.GameSchema;
+import com.example.android.games.data.GameText;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load test for the games database.
+ *
+ * It seeds a database file with synthetic games, then replays a configurable mix of the reads
+ * and writes the app issues from several threads at once, and periodically reports throughput,
+ * tail latency per operation and the size of the database.
+ *
+ * Usage: loadtest [--db file] [--games count] [--threads count] [--duration seconds]
+ * [--report seconds] [--mix read:60,page:15,insert:5,update:6,delete:2,sell:10,restock:2]
+ * [--seed value] [--wal]
+ *
+ * The threads share the connections of a {@link ConnectionPool} the way the threads of the app
+ * share those of SQLiteDatabase: with --wal, as on Android 6.0 and later, reads run side by side
+ * and writes take turns on the primary connection; without it, as on older versions, every
+ * statement takes its turn on the one connection. The catalog is read with the query of
+ * CatalogActivity, unfiltered or filtered by the start of a name or brand, a cursor window at a
+ * time.
+ *
+ * Sales and restocks hit a small set of popular games in a few stores, so many threads change
+ * the same stock entries at once. At the end, the stock is checked: no entry may be negative,
+ * and unless games were deleted along the way, the stock must match the units sold and
+ * restocked exactly.
+ */
+public class LoadTest {
+
+    /**
+     * The operations that can be replayed.
+     */
+    enum Operation {
+        /** Open a single game in the editor */
+        READ,
+        /** Scroll one cursor window further through the catalog, or open it anew */
+        PAGE,
+        /** Add a new game */
+        INSERT,
+        /** Change the price of a game */
+        UPDATE,
+        /** Delete a game */
+        DELETE,
+        /** Sell copies of a popular game at a till */
+        SELL,
+        /** Restock a popular game in a store */
+        RESTOCK
+    }
+
+    /** Number of games inserted per transaction while seeding */
+    private static final int SEED_BATCH_SIZE = 10000;
+
+    /** Number of brands in the synthetic catalog */
+    private static final int BRAND_COUNT = 2000;
+
+    /** Number of stores that sell the games */
+    private static final int STORE_COUNT = 8;
+
+    /** Number of popular games that are sold and restocked */
+    private static final int POPULAR_GAME_COUNT = 1000;
+
+    /** Copies of each popular game in each store at the start */
+    private static final int INITIAL_STOCK = 20;
+
+    /** Number of games in a window of the catalog cursor */
+    private static final int WINDOW_SIZE = 100;
+
+    /** One in this many scrolls of the catalog opens it anew, with another filter or none */
+    private static final int REOPEN_CATALOG_ONE_IN = 20;
+
+    private String mDatabasePath = "loadtest.db";
+    private long mGameCount = 1000000;
+    private int mThreadCount = 4;
+    private int mDurationSeconds = 60;
+    private int mReportSeconds = 5;
+    private long mSeed = 42;
+    private boolean mWriteAheadLog;
+    private final int[] mMix = { 60, 15, 5, 6, 2, 10, 2 };
+
+    /** Highest game ID handed out so far, so workers pick IDs that can exist */
+    private final AtomicLong mMaxId = new AtomicLong();
+
+    /** Copies sold, sales refused for lack of stock, and copies restocked by all workers */
+    private final AtomicLong mUnitsSold = new AtomicLong();
+    private final AtomicLong mSalesRefused = new AtomicLong();
+    private final AtomicLong mUnitsRestocked = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        LoadTest loadTest = new LoadTest();
+        loadTest.parseArguments(args);
+        loadTest.run();
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--wal".equals(arg)) {
+                mWriteAheadLog = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            if ("--db".equals(arg)) {
+                mDatabasePath = value;
+            } else if ("--games".equals(arg)) {
+                mGameCount = Long.parseLong(value);
+            } else if ("--threads".equals(arg)) {
+                mThreadCount = Integer.parseInt(value);
+            } else if ("--duration".equals(arg)) {
+                mDurationSeconds = Integer.parseInt(value);
+            } else if ("--report".equals(arg)) {
+                mReportSeconds = Integer.parseInt(value);
+            } else if ("--seed".equals(arg)) {
+                mSeed = Long.parseLong(value);
+            } else if ("--mix".equals(arg)) {
+                parseMix(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+    }
+
+    /**
+     * Parse an operation mix such as "read:70,page:15,insert:5,update:8,delete:2". Operations
+     * that aren't mentioned get a weight of 0.
+     */
+    private void parseMix(String value) {
+        for (int i = 0; i < mMix.length; i++) {
+            mMix[i] = 0;
+        }
+        for (String part : value.split(",")) {
+            String[] pair = part.split(":");
+            Operation operation = Operation.valueOf(pair[0].trim().toUpperCase(Locale.ROOT));
+            mMix[operation.ordinal()] = Integer.parseInt(pair[1].trim());
+        }
+    }
+
+    private void run() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+
+        long initialStock;
+        long initialSales;
+        Connection connection = openConnection();
+        try {
+            GameStatements.create(connection);
+            seed(connection);
+            seedStock(connection);
+            initialStock = queryLong(connection, "SELECT IFNULL(SUM(quantity), 0) FROM inventory");
+            initialSales = queryLong(connection, "SELECT IFNULL(SUM(quantity), 0) FROM sales");
+        } finally {
+            connection.close();
+        }
+
+        ConnectionPool pool = new ConnectionPool(mDatabasePath, mWriteAheadLog);
+        List<Worker> workers = new ArrayList<Worker>();
+        for (int i = 0; i < mThreadCount; i++) {
+            Worker worker = new Worker(pool, mSeed + i + 1);
+            workers.add(worker);
+            worker.start();
+        }
+
+        System.out.println("Running " + mThreadCount + " threads for " + mDurationSeconds + "s");
+        LatencyHistogram[] interval = newHistograms();
+        LatencyHistogram[] total = newHistograms();
+        long start = System.nanoTime();
+        long end = start + mDurationSeconds * 1000000000L;
+        long lastReport = start;
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(mReportSeconds * 1000L, Math.max(1, (end - System.nanoTime()) / 1000000)));
+            long now = System.nanoTime();
+            for (Worker worker : workers) {
+                worker.drainInto(interval);
+            }
+            report("t=" + (now - start) / 1000000000L + "s", interval, now - lastReport);
+            for (int i = 0; i < total.length; i++) {
+                total[i].add(interval[i]);
+                interval[i].reset();
+            }
+            lastReport = now;
+        }
+
+        for (Worker worker : workers) {
+            worker.finish();
+        }
+        for (Worker worker : workers) {
+            worker.join();
+            worker.drainInto(total);
+            if (worker.mError != null) {
+                throw worker.mError;
+            }
+        }
+        pool.close();
+        report("total", total, System.nanoTime() - start);
+
+        connection = openConnection();
+        try {
+            verifyStock(connection, initialStock, initialSales);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Give every popular game some copies in every store, unless the stock was already seeded
+     * by an earlier run.
+     */
+    private void seedStock(Connection connection) throws SQLException {
+        if (queryLong(connection, "SELECT COUNT(*) FROM inventory") > 0) {
+            return;
+        }
+        PreparedStatement insert = connection.prepareStatement("INSERT OR IGNORE INTO inventory "
+                + "(game_id, store, quantity) SELECT _id, ?, ? FROM games WHERE _id <= ?");
+        try {
+            for (int i = 0; i < STORE_COUNT; i++) {
+                insert.setString(1, store(i));
+                insert.setInt(2, INITIAL_STOCK);
+                insert.setLong(3, POPULAR_GAME_COUNT);
+                insert.executeUpdate();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Check that no stock went below zero, that every sale and restock was counted exactly
+     * once, and that the ledger and its daily reports agree with the sales. Throws an
+     * {@link IllegalStateException} if not.
+     */
+    private void verifyStock(Connection connection, long initialStock, long initialSales)
+            throws SQLException {
+        System.out.println("Sold " + mUnitsSold.get() + " copies, refused " + mSalesRefused.get()
+                + " sales for lack of stock, restocked " + mUnitsRestocked.get() + " copies");
+
+        long negative = queryLong(connection, "SELECT COUNT(*) FROM inventory WHERE quantity < 0");
+        if (negative != 0) {
+            throw new IllegalStateException(negative + " stock entries are negative");
+        }
+
+        long sales = queryLong(connection, "SELECT IFNULL(SUM(quantity), 0) FROM sales");
+        if (sales - initialSales != mUnitsSold.get()) {
+            throw new IllegalStateException("Ledger has " + (sales - initialSales)
+                    + " new copies sold, expected " + mUnitsSold.get());
+        }
+        String[] reports = { "sales_daily_by_game", "sales_daily_by_brand", "sales_daily_by_demographic" };
+        for (String report : reports) {
+            long reported = queryLong(connection, "SELECT IFNULL(SUM(quantity), 0) FROM " + report);
+            if (reported != sales) {
+                throw new IllegalStateException(report + " has " + reported + " copies, ledger has " + sales);
+            }
+        }
+
+        if (mMix[Operation.DELETE.ordinal()] != 0) {
+            System.out.println("Stock totals not checked, games were deleted with their stock");
+            return;
+        }
+        long stock = queryLong(connection, "SELECT IFNULL(SUM(quantity), 0) FROM inventory");
+        long expected = initialStock + mUnitsRestocked.get() - mUnitsSold.get();
+        if (stock != expected) {
+            throw new IllegalStateException("Stock is " + stock + ", expected " + expected);
+        }
+        System.out.println("Stock is consistent: " + stock + " copies");
+    }
+
+    private static String store(int index) {
+        return "store-" + index;
+    }
+
+    /**
+     * Insert synthetic games until the database holds the requested number of games. An
+     * existing database file is reused, so several runs can share one large seed.
+     */
+    private void seed(Connection connection) throws SQLException {
+        long existing = queryLong(connection, "SELECT COUNT(*) FROM games");
+        mMaxId.set(queryLong(connection, "SELECT IFNULL(MAX(_id), 0) FROM games"));
+        if (existing >= mGameCount) {
+            System.out.println("Reusing " + existing + " games in " + mDatabasePath);
+            return;
+        }
+
+        System.out.println("Seeding " + (mGameCount - existing) + " games into " + mDatabasePath);
+        SyntheticGameGenerator generator = new SyntheticGameGenerator(mSeed, BRAND_COUNT);
+        PreparedStatement insert = connection.prepareStatement(GameStatements.INSERT_GAME);
+        long start = System.nanoTime();
+        long count = existing;
+        long duplicates = 0;
+        connection.setAutoCommit(false);
+        try {
+            while (count < mGameCount) {
+                for (int i = 0; i < SEED_BATCH_SIZE && count < mGameCount; i++) {
+                    if (insertGame(insert, generator.next())) {
+                        count++;
+                    } else {
+                        duplicates++;
+                    }
+                }
+                connection.commit();
+            }
+        } finally {
+            connection.setAutoCommit(true);
+            insert.close();
+        }
+        mMaxId.set(queryLong(connection, "SELECT IFNULL(MAX(_id), 0) FROM games"));
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(Locale.ROOT,
+                "Seeded in %.1fs (%.0f games/s, %d generated duplicates skipped), db=%s",
+                seconds, (count - existing) / seconds, duplicates, formatSize(databaseSize())));
+    }
+
+    /**
+     * Insert the game with the given prepared {@link GameStatements#INSERT_GAME} statement.
+     * Returns false if a game with the same natural key already exists.
+     */
+    private static boolean insertGame(PreparedStatement insert, SyntheticGameGenerator.Game game)
+            throws SQLException {
+        insert.setString(1, game.name);
+        insert.setString(2, game.brand);
+        insert.setInt(3, game.demographic);
+        insert.setInt(4, game.price);
+        insert.setString(5, UUID.randomUUID().toString());
+        insert.setLong(6, System.currentTimeMillis());
+        insert.setString(7, GameText.naturalKey(game.name, game.brand));
+        // A new collator for every game, like the provider
+        Collator collator = Collator.getInstance();
+        String section = GameText.section(collator, game.name);
+        insert.setString(8, section);
+        insert.setBytes(9, GameText.sortKey(collator, game.name));
+        insert.setString(10, GameText.brandKey(game.brand));
+        insert.setBytes(11, GameText.sectionKey(collator, section));
+        return insert.executeUpdate() == 1;
+    }
+
+    private Connection openConnection() throws SQLException {
+        return ConnectionPool.open(mDatabasePath, mWriteAheadLog, false);
+    }
+
+    private static long queryLong(Connection connection, String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery(sql);
+            return result.next() ? result.getLong(1) : 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Returns the size of the database file and its journal, in bytes.
+     */
+    private long databaseSize() {
+        return new File(mDatabasePath).length() + new File(mDatabasePath + "-wal").length()
+                + new File(mDatabasePath + "-journal").length();
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    private void report(String label, LatencyHistogram[] histograms, long elapsedNanos) {
+        long operations = 0;
+        StringBuilder line = new StringBuilder();
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = histograms[operation.ordinal()];
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            operations += histogram.getTotalCount();
+            line.append(String.format(Locale.ROOT, " | %s n=%d p50=%dus p99=%dus p99.9=%dus max=%dus",
+                    operation.name().toLowerCase(Locale.ROOT), histogram.getTotalCount(),
+                    histogram.percentile(0.5), histogram.percentile(0.99),
+                    histogram.percentile(0.999), histogram.getMaxMicros()));
+        }
+        System.out.println(String.format(Locale.ROOT, "%s ops/s=%.0f db=%s%s", label,
+                operations / (elapsedNanos / 1e9), formatSize(databaseSize()), line));
+    }
+
+    private static String formatSize(long bytes) {
+        return String.format(Locale.ROOT, "%.1fMB", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Replays the operation mix on the connections of the pool until told to finish.
+     */
+    private class Worker extends Thread {
+
+        private final ConnectionPool mPool;
+        private final Random mRandom;
+        private final SyntheticGameGenerator mGenerator;
+        private final LatencyHistogram[] mHistograms = newHistograms();
+        private final int mMixTotal;
+        private volatile boolean mFinished;
+        private Exception mError;
+
+        /** Filter of the catalog being scrolled, or null if it isn't filtered */
+        private String mCatalogFilter;
+
+        /** Position of the next window of the catalog, or 0 to open it anew */
+        private int mCatalogPosition;
+
+        /** Number of games in the catalog being scrolled */
+        private int mCatalogCount;
+
+        Worker(ConnectionPool pool, long seed) {
+            mPool = pool;
+            mRandom = new Random(seed);
+            mGenerator = new SyntheticGameGenerator(seed, BRAND_COUNT);
+            int mixTotal = 0;
+            for (int weight : mMix) {
+                mixTotal += weight;
+            }
+            mMixTotal = mixTotal;
+        }
+
+        void finish() {
+            mFinished = true;
+        }
+
+        /**
+         * Add the latencies recorded since the last call to the given histograms.
+         */
+        synchronized void drainInto(LatencyHistogram[] histograms) {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i].add(mHistograms[i]);
+                mHistograms[i].reset();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!mFinished && mMixTotal > 0) {
+                    Operation operation = pickOperation();
+                    long start = System.nanoTime();
+                    boolean write = operation != Operation.READ && operation != Operation.PAGE;
+                    ConnectionPool.PooledConnection connection = write
+                            ? mPool.acquirePrimary() : mPool.acquireReader();
+                    try {
+                        replay(operation, connection);
+                    } finally {
+                        mPool.release(connection);
+                    }
+                    long micros = (System.nanoTime() - start) / 1000;
+                    synchronized (this) {
+                        mHistograms[operation.ordinal()].record(micros);
+                    }
+                }
+            } catch (Exception e) {
+                mError = e;
+                System.err.println("Worker failed: " + e);
+            }
+        }
+
+        private void replay(Operation operation, ConnectionPool.PooledConnection connection)
+                throws SQLException {
+            switch (operation) {
+                case READ:
+                    PreparedStatement read = connection.prepare(GameStatements.QUERY_GAME);
+                    read.setLong(1, randomId());
+                    drain(read.executeQuery(), Integer.MAX_VALUE);
+                    break;
+                case PAGE:
+                    scrollCatalog(connection);
+                    break;
+                case INSERT:
+                    insertGame(connection.prepare(GameStatements.INSERT_GAME), mGenerator.next());
+                    mMaxId.incrementAndGet();
+                    break;
+                case UPDATE:
+                    PreparedStatement update = connection.prepare(GameStatements.UPDATE_PRICE);
+                    update.setInt(1, mGenerator.nextPrice());
+                    update.setLong(2, System.currentTimeMillis());
+                    update.setLong(3, randomId());
+                    update.executeUpdate();
+                    break;
+                case DELETE:
+                    deleteGame(connection, randomId());
+                    break;
+                case SELL:
+                    int sold = 1 + mRandom.nextInt(2);
+                    if (changeStock(connection, null, connection.prepare(GameSchema.SELL),
+                            connection.prepare(GameSchema.RECORD_SALE), sold)) {
+                        mUnitsSold.addAndGet(sold);
+                    } else {
+                        mSalesRefused.incrementAndGet();
+                    }
+                    break;
+                case RESTOCK:
+                    int restocked = 5 + mRandom.nextInt(10);
+                    if (changeStock(connection, connection.prepare(GameSchema.CREATE_STOCK),
+                            connection.prepare(GameSchema.RESTOCK), null, restocked)) {
+                        mUnitsRestocked.addAndGet(restocked);
+                    }
+                    break;
+            }
+        }
+
+        /**
+         * Read the next window of the catalog, the way the cursor of CatalogActivity does as
+         * the list scrolls. Opening the catalog reads the first window and then steps through
+         * the rest of the games, as the cursor counts them. From time to time, and at the end,
+         * the catalog is opened anew, half the time filtered by the start of the name or brand
+         * of a game, as if typed in the search box.
+         */
+        private void scrollCatalog(ConnectionPool.PooledConnection connection)
+                throws SQLException {
+            if (mCatalogPosition > 0 && (mCatalogPosition >= mCatalogCount
+                    || mRandom.nextInt(REOPEN_CATALOG_ONE_IN) == 0)) {
+                mCatalogPosition = 0;
+            }
+            if (mCatalogPosition == 0) {
+                mCatalogFilter = mRandom.nextBoolean() ? null : randomFilter();
+            }
+
+            String sql = mCatalogFilter == null
+                    ? GameStatements.QUERY_CATALOG : GameStatements.QUERY_CATALOG_FILTERED;
+            if (mCatalogPosition > 0) {
+                sql += GameStatements.WINDOW;
+            }
+            PreparedStatement query = connection.prepare(sql);
+            int index = 1;
+            if (mCatalogFilter != null) {
+                String pattern = GameText.prefixPattern(mCatalogFilter);
+                query.setString(index++, pattern);
+                query.setString(index++, pattern);
+            }
+            if (mCatalogPosition == 0) {
+                mCatalogCount = drain(query.executeQuery(), WINDOW_SIZE);
+            } else {
+                query.setInt(index++, WINDOW_SIZE);
+                query.setInt(index, mCatalogPosition);
+                drain(query.executeQuery(), WINDOW_SIZE);
+            }
+            mCatalogPosition += WINDOW_SIZE;
+        }
+
+        /**
+         * Returns the first one to three characters of the name or brand of a game.
+         */
+        private String randomFilter() {
+            SyntheticGameGenerator.Game game = mGenerator.next();
+            String text = mRandom.nextBoolean() ? game.name : game.brand;
+            return text.substring(0, Math.min(text.length(), 1 + mRandom.nextInt(3)));
+        }
+
+        private Operation pickOperation() {
+            int roll = mRandom.nextInt(mMixTotal);
+            for (Operation operation : Operation.values()) {
+                roll -= mMix[operation.ordinal()];
+                if (roll < 0) {
+                    return operation;
+                }
+            }
+            throw new IllegalStateException();
+        }
+
+        private long randomId() {
+            return 1 + (long) (mRandom.nextDouble() * mMaxId.get());
+        }
+
+        /**
+         * Returns the ID of a popular game, skewed so that a few of them sell far more often
+         * than the rest.
+         */
+        private long randomPopularId() {
+            double roll = mRandom.nextDouble();
+            return 1 + (long) (roll * roll * roll * POPULAR_GAME_COUNT);
+        }
+
+        /**
+         * Sell or restock copies of a popular game in a random store, in an immediate
+         * transaction like GameProvider.changeStock, and return whether the stock changed.
+         *
+         * @param create statement that creates the stock entry first, or null to sell
+         * @param record statement that records a sale in the ledger, or null to restock
+         */
+        private boolean changeStock(ConnectionPool.PooledConnection connection,
+                                    PreparedStatement create, PreparedStatement change,
+                                    PreparedStatement record, int quantity) throws SQLException {
+            long id = randomPopularId();
+            String store = store(mRandom.nextInt(STORE_COUNT));
+            PreparedStatement stock = connection.prepare(GameStatements.QUERY_STOCK);
+            Statement control = connection.connection.createStatement();
+            try {
+                control.execute("BEGIN IMMEDIATE");
+                try {
+                    if (create != null) {
+                        create.setLong(1, id);
+                        create.setString(2, store);
+                        create.executeUpdate();
+                    }
+                    change.setInt(1, quantity);
+                    change.setLong(2, id);
+                    change.setString(3, store);
+                    boolean changed = change.executeUpdate() == 1;
+                    if (changed && record != null) {
+                        record.setInt(1, quantity);
+                        record.setLong(2, id);
+                        record.setString(3, store);
+                        record.setLong(4, System.currentTimeMillis());
+                        record.executeUpdate();
+                    }
+                    stock.setLong(1, id);
+                    stock.setString(2, store);
+                    drain(stock.executeQuery(), Integer.MAX_VALUE);
+                    control.execute("COMMIT");
+                    return changed;
+                } catch (SQLException e) {
+                    control.execute("ROLLBACK");
+                    throw e;
+                }
+            } finally {
+                control.close();
+            }
+        }
+
+        /**
+         * Read the given number of rows of the result, like a cursor filling its window, then
+         * step through the rest of the rows without reading them, like a cursor counting its
+         * rows. Returns the number of rows of the result.
+         */
+        private int drain(ResultSet result, int rowsToRead) throws SQLException {
+            int count = 0;
+            try {
+                int columnCount = result.getMetaData().getColumnCount();
+                while (result.next()) {
+                    if (count++ < rowsToRead) {
+                        for (int i = 1; i <= columnCount; i++) {
+                            result.getObject(i);
+                        }
+                    }
+                }
+            } finally {
+                result.close();
+            }
+            return count;
+        }
+
+        private void deleteGame(ConnectionPool.PooledConnection connection, long id)
+                throws SQLException {
+            Connection database = connection.connection;
+            database.setAutoCommit(false);
+            try {
+                PreparedStatement tombstone = connection.prepare(GameStatements.INSERT_TOMBSTONE);
+                tombstone.setLong(1, System.currentTimeMillis());
+                tombstone.setLong(2, id);
+                tombstone.executeUpdate();
+                PreparedStatement delete = connection.prepare(GameStatements.DELETE_GAME);
+                delete.setLong(1, id);
+                delete.executeUpdate();
+                database.commit();
+            } catch (SQLException e) {
+                database.rollback();
+                throw e;
+            } finally {
+                database.setAutoCommit(true);
+            }
+        }
+    }
+}
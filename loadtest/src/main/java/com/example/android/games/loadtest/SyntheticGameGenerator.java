@@ -0,0 +1,153 @@
+package com.example.android.games.loadtest;
+
+import java.util.Random;
+
+/**
+ * Generates games with realistic distributions of names, brands, demographics and prices.
+ *
+ * Brands follow a Zipf distribution, so a handful of big publishers own most of the catalog and
+ * there is a long tail of small ones. Names are built from word lists, with sequels and
+ * editions. Prices are log-normal around a typical board game price, and demographics are
+ * skewed towards family games.
+ */
+class SyntheticGameGenerator {
+
+    /** The biggest brands; the long tail gets generated names */
+    private static final String[] TOP_BRANDS = {
+            "Hasbro", "Mattel", "Ravensburger", "Asmodee", "Days of Wonder", "Z-Man Games",
+            "Fantasy Flight Games", "Kosmos", "Rio Grande Games", "Stonemaier Games",
+            "Czech Games Edition", "Repos Production", "Gamewright", "Haba", "Blue Orange",
+            "Cephalofair", "Iello", "Plaid Hat Games", "Queen Games", "Thames & Kosmos" };
+
+    private static final String[] BRAND_PREFIXES = {
+            "Red", "Blue", "Golden", "Iron", "Silver", "Lucky", "Happy", "Wild", "Little", "Grand" };
+
+    private static final String[] BRAND_SUFFIXES = {
+            "Games", "Play", "Studios", "Toys", "Workshop", "Publishing", "Fun Co.", "Boardgames" };
+
+    private static final String[] ADJECTIVES = {
+            "Lost", "Ancient", "Secret", "Tiny", "Mighty", "Haunted", "Galactic", "Clever",
+            "Sneaky", "Royal", "Crimson", "Frozen", "Epic", "Wacky", "Hidden", "Forgotten",
+            "Brave", "Golden", "Cosmic", "Rusty" };
+
+    private static final String[] NOUNS = {
+            "Castles", "Dragons", "Islands", "Empires", "Pirates", "Gardens", "Trains", "Robots",
+            "Wizards", "Kingdoms", "Monsters", "Heroes", "Cities", "Treasures", "Rivers",
+            "Planets", "Ninjas", "Farms", "Bandits", "Potions" };
+
+    private static final String[] FORMATS = {
+            "%2$s", "The %1$s %2$s", "%1$s %2$s", "%2$s of the North", "Quest for the %1$s %2$s",
+            "%2$s & %3$s", "Rise of the %2$s", "%1$s %2$s: The Card Game" };
+
+    private static final String[] EDITIONS = {
+            "", "", "", "", "", "", " Deluxe Edition", " 2nd Edition", " Travel Edition",
+            " Anniversary Edition", ": Expansion", " Junior" };
+
+    /** Zipf exponent of the brand popularity */
+    private static final double BRAND_SKEW = 1.1;
+
+    private final Random mRandom;
+    private final String[] mBrands;
+    private final double[] mBrandCumulative;
+
+    /**
+     * A generated game.
+     */
+    static final class Game {
+        final String name;
+        final String brand;
+        final int demographic;
+        final int price;
+
+        Game(String name, String brand, int demographic, int price) {
+            this.name = name;
+            this.brand = brand;
+            this.demographic = demographic;
+            this.price = price;
+        }
+    }
+
+    /**
+     * Constructs a new instance of {@link SyntheticGameGenerator}.
+     *
+     * @param seed       seed of the random generator, so runs can be repeated
+     * @param brandCount number of distinct brands
+     */
+    SyntheticGameGenerator(long seed, int brandCount) {
+        mRandom = new Random(seed);
+        mBrands = new String[brandCount];
+        for (int i = 0; i < brandCount; i++) {
+            if (i < TOP_BRANDS.length) {
+                mBrands[i] = TOP_BRANDS[i];
+            } else {
+                mBrands[i] = BRAND_PREFIXES[i % BRAND_PREFIXES.length] + " "
+                        + NOUNS[(i / BRAND_PREFIXES.length) % NOUNS.length] + " "
+                        + BRAND_SUFFIXES[(i / (BRAND_PREFIXES.length * NOUNS.length)) % BRAND_SUFFIXES.length]
+                        + (i >= BRAND_PREFIXES.length * NOUNS.length * BRAND_SUFFIXES.length ? " " + i : "");
+            }
+        }
+
+        // Precompute the cumulative Zipf distribution, so picking a brand is a binary search
+        mBrandCumulative = new double[brandCount];
+        double total = 0;
+        for (int i = 0; i < brandCount; i++) {
+            total += 1.0 / Math.pow(i + 1, BRAND_SKEW);
+            mBrandCumulative[i] = total;
+        }
+        for (int i = 0; i < brandCount; i++) {
+            mBrandCumulative[i] /= total;
+        }
+    }
+
+    /**
+     * Returns the next game. About 3% of games have no brand, like games entered by hand.
+     */
+    Game next() {
+        String brand = mRandom.nextInt(100) < 3 ? null : mBrands[pickBrand()];
+        return new Game(nextName(), brand, nextDemographic(), nextPrice());
+    }
+
+    /**
+     * Returns a realistic price, log-normal around 30 and between 1 and 500.
+     */
+    int nextPrice() {
+        double price = Math.exp(Math.log(30) + 0.6 * mRandom.nextGaussian());
+        return (int) Math.max(1, Math.min(500, Math.round(price)));
+    }
+
+    private String nextName() {
+        String format = FORMATS[mRandom.nextInt(FORMATS.length)];
+        String name = String.format(format,
+                ADJECTIVES[mRandom.nextInt(ADJECTIVES.length)],
+                NOUNS[mRandom.nextInt(NOUNS.length)],
+                NOUNS[mRandom.nextInt(NOUNS.length)]);
+
+        // Sequels make the name space big enough for millions of distinct games
+        int sequel = (int) Math.abs(mRandom.nextGaussian() * 400);
+        if (sequel > 1) {
+            name += " " + sequel;
+        }
+        return name + EDITIONS[mRandom.nextInt(EDITIONS.length)];
+    }
+
+    private int nextDemographic() {
+        // Family 50%, children 30%, adult 20%
+        int roll = mRandom.nextInt(10);
+        return roll < 5 ? 0 : (roll < 8 ? 1 : 2);
+    }
+
+    private int pickBrand() {
+        double roll = mRandom.nextDouble();
+        int low = 0;
+        int high = mBrandCumulative.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mBrandCumulative[middle] < roll) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}